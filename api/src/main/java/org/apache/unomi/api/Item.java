@@ -20,6 +20,7 @@ package org.apache.unomi.api;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.xml.bind.annotation.XmlTransient;
 import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
@@ -65,6 +66,7 @@ public abstract class Item implements Serializable {
     protected String scope;
     protected Long version;
     protected Map<String, Object> systemMetadata = new HashMap<>();
+    private transient Map<String, Object> persistedSource;
 
     public Item() {
         this.itemType = getItemType(this.getClass());
@@ -150,4 +152,19 @@ public abstract class Item implements Serializable {
     public void setSystemMetadata(String key, Object value) {
         systemMetadata.put(key, value);
     }
+
+    /**
+     * Retrieves the top-level fields of this Item as they were last read from or written to the persistence layer. Persistence implementations compare them to the
+     * current state of the Item to find the property paths that changed and only write those. This state is never serialized.
+     *
+     * @return the last persisted top-level fields of this Item or {@code null} if they are unknown, in which case the whole Item has to be written
+     */
+    @XmlTransient
+    public Map<String, Object> getPersistedSource() {
+        return persistedSource;
+    }
+
+    public void setPersistedSource(Map<String, Object> persistedSource) {
+        this.persistedSource = persistedSource;
+    }
 }
@@ -24,6 +24,23 @@ public class SourceItem extends Item {
 
     private Boolean thirdParty;
 
+    public SourceItem() {
+    }
+
+    /**
+     * Instantiates a copy of the specified source, with its own system metadata.
+     *
+     * @param source the source to copy
+     */
+    public SourceItem(SourceItem source) {
+        super(source.getItemId());
+        this.scope = source.getScope();
+        this.version = source.getVersion();
+        this.systemMetadata.putAll(source.systemMetadata);
+        this.sourceId = source.getSourceId();
+        this.thirdParty = source.getThirdParty();
+    }
+
     public String getSourceId() {
         return sourceId;
     }
@@ -22,6 +22,7 @@ import org.apache.unomi.api.ClusterNode;
 import java.io.Serializable;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A service to access information about the context server's cluster.
@@ -50,6 +51,22 @@ public interface ClusterService {
      */
     void purge(final String scope);
 
+    /**
+     * Submits the removal of all data associated with the provided scope as a background task, without waiting for its completion.
+     *
+     * @param scope the scope for which we want to remove data
+     * @return the identifier of the submitted task, that may be used with {@link #getTaskStatus(String)}, or {@code null} if the task couldn't be submitted
+     */
+    String purgeAsync(final String scope);
+
+    /**
+     * Retrieves the status of a background task such as the ones submitted by {@link #purgeAsync(String)}.
+     *
+     * @param taskId the identifier of the task
+     * @return a Map describing the task status, or {@code null} if the task couldn't be found
+     */
+    Map<String, Object> getTaskStatus(String taskId);
+
     /**
      * This function will send an event to the nodes of the cluster
      * The function takes a Serializable to avoid dependency on any clustering framework
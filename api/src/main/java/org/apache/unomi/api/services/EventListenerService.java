@@ -19,11 +19,31 @@ package org.apache.unomi.api.services;
 
 import org.apache.unomi.api.Event;
 
+import java.util.Set;
+
 /**
  * A service that gets notified (via {@link #onEvent(Event)}) whenever an event it can handle as decided by {@link #canHandle(Event)} occurs in the context server.
+ * A listener only interested in some event types can declare them, either with the {@link #EVENT_TYPES_PROPERTY} service property or
+ * with {@link #getEventTypes()}, so that it is only consulted for events of these types.
  */
 public interface EventListenerService {
 
+    /**
+     * Name of the service property declaring the event types handled by a listener, as a String of comma separated types, a String
+     * array or a collection of Strings. It takes precedence over {@link #getEventTypes()}.
+     */
+    String EVENT_TYPES_PROPERTY = "unomi.eventTypes";
+
+    /**
+     * Retrieves the types of the events this listener may handle. {@link #canHandle(Event)} and {@link #onEvent(Event)} are only called
+     * for events of these types. A listener whose types change calls {@link EventService#refreshEventTypes(EventListenerService)}.
+     *
+     * @return the handled event types, or {@code null} if this listener may handle events of any type
+     */
+    default Set<String> getEventTypes() {
+        return null;
+    }
+
     /**
      * Whether or not this listener can handle the specified event.
      *
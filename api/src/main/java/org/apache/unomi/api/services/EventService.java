@@ -26,6 +26,7 @@ import org.apache.unomi.api.actions.ActionPostExecutor;
 import org.apache.unomi.api.conditions.Condition;
 import org.apache.unomi.api.query.Query;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 
@@ -61,6 +62,59 @@ public interface EventService {
      */
     int send(Event event);
 
+    /**
+     * Propagates the specified events in the context server, like {@link #send(Event)} but processing them as a batch. The events are
+     * grouped by profile and session and the groups are processed in order: the persistent events of a group are persisted with a single
+     * bulk request, then the events of the group are processed in order, the following events of a group seeing the profile as updated by
+     * the previous ones. The processing of a group stops at its first event whose handling fails, and the following groups are neither
+     * persisted nor processed. As with {@link #send(Event)}, profiles and sessions are not saved: once the batch is processed, each
+     * event references the last profile and session instances of its group, which the caller saves once if needed.
+     *
+     * @param events the Events to be propagated
+     * @return the result of the events handling as combination of EventService flags, to be checked using bitwise AND (&amp;) operator
+     */
+    int sendBatch(List<Event> events);
+
+    /**
+     * Propagates the specified events in the context server as a batch, like {@link #sendBatch(List)}, collecting the events that were
+     * not processed, because their handling or the handling of a previous event failed, so that only those are sent again.
+     *
+     * @param events            the Events to be propagated
+     * @param unprocessedEvents the collection the events that were not processed are added to, in the order of the batch
+     * @return the result of the events handling as combination of EventService flags, to be checked using bitwise AND (&amp;) operator
+     */
+    int sendBatch(List<Event> events, Collection<Event> unprocessedEvents);
+
+    /**
+     * Forgets events that were sent with {@link #send(Event)} or {@link #sendBatch(List)}, so that they are not dropped as duplicates
+     * when they are submitted again. The events whose handling fails are already forgotten: this is for a caller that couldn't complete
+     * their processing once they were sent, for example because the profile and session changes they made couldn't be persisted.
+     *
+     * @param events the Events to forget
+     */
+    void forgetEvents(Collection<Event> events);
+
+    /**
+     * Reads again the event types a listener handles, as returned by {@link EventListenerService#getEventTypes()}, for a listener whose
+     * handled types change over time. Does nothing for a listener that isn't registered or declares its types with the
+     * {@link EventListenerService#EVENT_TYPES_PROPERTY} service property.
+     *
+     * @param eventListenerService the listener whose event types changed
+     */
+    void refreshEventTypes(EventListenerService eventListenerService);
+
+    /**
+     * Propagates an event generated by the context server while handling another event, such as the {@code ruleFired} and
+     * {@code profileUpdated} events, notifying the {@link EventListenerService} instances that can handle it. Unlike
+     * {@link #send(Event)}, the event is never persisted and it is neither checked against the registered sources nor against
+     * the events already received, so that generating it costs little when no listener handles its type. Such an event may
+     * share the attributes of the event it is generated from, as an unmodifiable view, instead of copying them.
+     *
+     * @param event the non persistent Event to be propagated
+     * @return the result of the event handling as combination of EventService flags, to be checked using bitwise AND (&amp;) operator
+     */
+    int sendInternal(Event event);
+
     /**
      * Check if the sender is allowed to sent the speecified event. Restricted event must be explicitely allowed for a sender.
      *
@@ -158,6 +158,29 @@ public interface ProfileService {
      */
     Session saveSession(Session session);
 
+    /**
+     * Opens a write-behind scope on the current thread. Until the matching {@link #flushWriteBehind()} call, profiles and
+     * sessions passed to {@link #save(Profile)} and {@link #saveSession(Session)} are only kept in memory (the last
+     * saved instance of each item wins) and are persisted once when the scope is flushed. Loading a profile or session
+     * that is pending in the scope returns the pending instance. Scopes may be nested, only the outermost flush
+     * persists the pending items. If profile locking is enabled, the profiles loaded with {@link #load(String)} in the
+     * scope are also locked until the scope is flushed, so that the requests of a same profile are processed one after
+     * the other on this node. A load that can't lock its profile within the configured timeout, for example because two
+     * requests each wait for a profile locked by the other, fails with an {@link IllegalStateException}. If both
+     * write-behind and profile locking are disabled this method does nothing.
+     */
+    void startWriteBehind();
+
+    /**
+     * Closes the write-behind scope opened by {@link #startWriteBehind()} on the current thread. When the outermost
+     * scope is closed, every pending profile and session is persisted once. This method must always be called, typically
+     * in a {@code finally} block, after {@link #startWriteBehind()}.
+     *
+     * @throws IllegalStateException if some pending items couldn't be persisted, the saves made in the scope having
+     *                               been reported as successful to their callers
+     */
+    void flushWriteBehind();
+
     /**
      * Retrieves sessions associated with the profile identified by the specified identifier.
      *
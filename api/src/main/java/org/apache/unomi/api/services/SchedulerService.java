@@ -18,19 +18,93 @@
 package org.apache.unomi.api.services;
 
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A service to centralize scheduling of tasks instead of using Timers or executors in each service
  *
  * https://stackoverflow.com/questions/409932/java-timer-vs-executorservice
+ *
+ * The tasks run in named pools of threads, sized independently, so that long running jobs don't delay the short periodic
+ * refreshes: the {@link #REFRESH_POOL} runs the frequent reloads of definitions, rules, segments and statistics, the
+ * {@link #BATCH_POOL} runs the long jobs such as purges, segment recalculations or imports.
+ *
+ * In a cluster, the jobs working on shared data can be run once per cluster, with {@link #clusterSingletonTask}, or
+ * have their work partitioned across the nodes, with {@link #isLocalShard(String)}.
  */
 public interface SchedulerService {
 
+    /**
+     * Name of the pool running short periodic tasks, such as the refresh of in-memory definitions.
+     */
+    String REFRESH_POOL = "refresh";
+
+    /**
+     * Name of the pool running long tasks, such as purges, recalculations or imports.
+     */
+    String BATCH_POOL = "batch";
+
     /**
      * Use this method to get a {@link ScheduledExecutorService}
      * and execute your task with it instead of using {@link java.util.Timer}
      *
-     * @return {@link ScheduledExecutorService}
+     * @return the {@link ScheduledExecutorService} of the {@link #REFRESH_POOL}
      */
     ScheduledExecutorService getScheduleExecutorService();
+
+    /**
+     * Retrieves the {@link ScheduledExecutorService} of a pool. Pools other than the {@link #REFRESH_POOL} and the
+     * {@link #BATCH_POOL} are created with a single thread the first time they are retrieved.
+     *
+     * @param poolName the name of the pool
+     * @return the {@link ScheduledExecutorService} of the pool
+     */
+    ScheduledExecutorService getScheduleExecutorService(String poolName);
+
+    /**
+     * Names a task, so that the metrics of the pool running it, its run time and its late starts, are reported under
+     * this name.
+     *
+     * @param taskName the name of the task
+     * @param task     the task
+     * @return a task running the specified one, to schedule instead of it
+     */
+    Runnable namedTask(String taskName, Runnable task);
+
+    /**
+     * Wraps a task so that it only runs on the node of the cluster holding its lease. The first node running the task
+     * acquires the lease for the specified time, and renews it while it runs the task and when the task completes, the
+     * other nodes skipping the task while the lease is held. When the holder stops or dies, the lease expires and the
+     * next node running the task takes it over. The lease time of a periodic task must thus be longer than its period.
+     * If the lease can't be renewed while the task runs, the task must stop at its next checkpoint, see
+     * {@link #isLeaseHeld()}.
+     *
+     * The task is named as with {@link #namedTask(String, Runnable)}, the name also identifying the lease.
+     *
+     * @param taskName  the name of the task
+     * @param leaseTime the time after which the lease expires if the holder doesn't renew it
+     * @param timeUnit  the unit of the lease time
+     * @param task      the task
+     * @return a task running the specified one on a single node of the cluster, to schedule on all nodes instead of it
+     */
+    Runnable clusterSingletonTask(String taskName, long leaseTime, TimeUnit timeUnit, Runnable task);
+
+    /**
+     * Tells whether the task running on the current thread still holds its lease, when it was wrapped with
+     * {@link #clusterSingletonTask(String, long, TimeUnit, Runnable)}. A long task checks it at its checkpoints, such as
+     * between batches of work, and stops when the lease was lost, as another node may then be running it.
+     *
+     * @return false if the current thread runs a cluster singleton task whose lease was lost, true otherwise
+     */
+    boolean isLeaseHeld();
+
+    /**
+     * Tells whether an item of a task partitioned across the cluster is to be processed by this node. The items are
+     * assigned to the nodes by the hash of their key, so that each item is processed by a single node as long as the
+     * nodes of the cluster don't change, the items of a node leaving the cluster being assigned to the remaining nodes.
+     *
+     * @param key the key of the item, such as its identifier
+     * @return true if the item is to be processed by this node
+     */
+    boolean isLocalShard(String key);
 }
@@ -40,6 +40,8 @@ import java.util.zip.ZipInputStream;
 public class GeonamesServiceImpl implements GeonamesService {
     public static final String GEOCODING_MAX_DISTANCE = "100km";
     private static final Logger logger = LoggerFactory.getLogger(GeonamesServiceImpl.class.getName());
+    // the nodes of a cluster starting together share the index, a single one imports the database
+    private static final long IMPORT_LEASE_TIME = 60000L;
     private DefinitionsService definitionsService;
     private PersistenceService persistenceService;
     private SchedulerService schedulerService;
@@ -98,12 +100,12 @@ public class GeonamesServiceImpl implements GeonamesService {
         }
         final File f = new File(pathToGeonamesDatabase);
         if (f.exists()) {
-            schedulerService.getScheduleExecutorService().schedule(new TimerTask() {
+            schedulerService.getScheduleExecutorService(SchedulerService.BATCH_POOL).schedule(schedulerService.clusterSingletonTask("geonamesImport", IMPORT_LEASE_TIME, TimeUnit.MILLISECONDS, new TimerTask() {
                 @Override
                 public void run() {
                     importGeoNameDatabase(f);
                 }
-            }, refreshDbInterval, TimeUnit.MILLISECONDS);
+            }), refreshDbInterval, TimeUnit.MILLISECONDS);
         }
     }
 
@@ -111,12 +113,12 @@ public class GeonamesServiceImpl implements GeonamesService {
         Map<String,Map<String,Object>> typeMappings = persistenceService.getPropertiesMapping(GeonameEntry.ITEM_TYPE);
         if (typeMappings == null || typeMappings.size() == 0) {
             logger.warn("Type mappings for type {} are not yet installed, delaying import until they are ready!", GeonameEntry.ITEM_TYPE);
-            schedulerService.getScheduleExecutorService().schedule(new TimerTask() {
+            schedulerService.getScheduleExecutorService(SchedulerService.BATCH_POOL).schedule(schedulerService.clusterSingletonTask("geonamesImport", IMPORT_LEASE_TIME, TimeUnit.MILLISECONDS, new TimerTask() {
                 @Override
                 public void run() {
                     importGeoNameDatabase(f);
                 }
-            }, refreshDbInterval, TimeUnit.MILLISECONDS);
+            }), refreshDbInterval, TimeUnit.MILLISECONDS);
             return;
         } else {
             // let's check that the mappings are correct
@@ -136,6 +138,11 @@ public class GeonamesServiceImpl implements GeonamesService {
             long lastCharCount = 0;
             long importStartTime = System.currentTimeMillis();
             while ((line = reader.readLine()) != null) {
+                if (!schedulerService.isLeaseHeld()) {
+                    logger.warn("Import lease lost, stopping the import of file {} after {} characters", f, charCount);
+                    reader.close();
+                    return;
+                }
                 String[] values = line.split("\t");
 
                 if (FEATURES_CLASSES.contains(values[6])) {
@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.metrics;
+
+/**
+ * The distribution of the durations recorded by a timer over a period of time, either since the metric was created or
+ * over an interval. The durations are in nanoseconds, their precision depending on the number of significant digits
+ * the metrics service is configured with.
+ */
+public class LatencySnapshot {
+
+    private final long startTime;
+    private final long endTime;
+    private final long count;
+    private final double mean;
+    private final long p50;
+    private final long p90;
+    private final long p99;
+    private final long p999;
+    private final long max;
+
+    public LatencySnapshot(long startTime, long endTime, long count, double mean, long p50, long p90, long p99, long p999, long max) {
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.count = count;
+        this.mean = mean;
+        this.p50 = p50;
+        this.p90 = p90;
+        this.p99 = p99;
+        this.p999 = p999;
+        this.max = max;
+    }
+
+    /**
+     * @return the time in milliseconds since epoch at which the period started
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return the time in milliseconds since epoch at which the period ended
+     */
+    public long getEndTime() {
+        return endTime;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public long getP50() {
+        return p50;
+    }
+
+    public long getP90() {
+        return p90;
+    }
+
+    public long getP99() {
+        return p99;
+    }
+
+    public long getP999() {
+        return p999;
+    }
+
+    public long getMax() {
+        return max;
+    }
+}
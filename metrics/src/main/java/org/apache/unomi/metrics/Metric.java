@@ -24,10 +24,29 @@ public interface Metric {
 
     long getTotalCount();
     long incTotalCount();
+    long addTotalCount(long count);
+    void setTotalCount(long count);
 
     long getTotalTime();
     long addTotalTime(long time);
 
+    /**
+     * Records the duration of a timed execution, adding it to the total time and to the latency distributions.
+     * @param durationNanos the duration in nanoseconds
+     */
+    void recordTime(long durationNanos);
+
+    /**
+     * @return the distribution of the durations recorded since the metric was created, null if none was recorded
+     */
+    LatencySnapshot getLatency();
+
+    /**
+     * @return the distribution of the durations recorded during the last completed interval, null if no interval
+     * completed since the first duration was recorded
+     */
+    LatencySnapshot getIntervalLatency();
+
     Map<String,CallerCount> getCallerCounts();
 
 }
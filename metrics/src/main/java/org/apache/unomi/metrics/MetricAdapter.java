@@ -33,12 +33,12 @@ public abstract class MetricAdapter<T> {
     }
 
     public T runWithTimer(Object... args) throws Exception {
-        long startTime = System.currentTimeMillis();
+        long startTime = System.nanoTime();
         try {
             return execute(args);
         } finally {
             if (metricsService != null && metricsService.isActivated()) {
-                metricsService.updateTimer(timerName, startTime);
+                metricsService.updateTimerNanos(timerName, startTime);
             }
         }
     }
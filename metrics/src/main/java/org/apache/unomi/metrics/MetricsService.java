@@ -45,5 +45,27 @@ public interface MetricsService {
 
     void updateTimer(String timerName, long startTime);
 
+    /**
+     * Records the duration of a timed execution measured with {@link System#nanoTime()}, for the sections of code
+     * running in less than a millisecond.
+     * @param timerName the name of the timer to update
+     * @param startNanoTime the value of {@link System#nanoTime()} when the execution started
+     */
+    void updateTimerNanos(String timerName, long startNanoTime);
+
+    /**
+     * Adds the specified increment to the total count of a counter metric, without accumulating any time.
+     * @param counterName the name of the counter to update
+     * @param increment the value to add to the counter
+     */
+    void updateCounter(String counterName, long increment);
+
+    /**
+     * Sets the total count of a gauge metric to the current value of the measured quantity, such as a queue depth.
+     * @param gaugeName the name of the gauge to update
+     * @param value the current value
+     */
+    void updateGauge(String gaugeName, long value);
+
 
 }
@@ -21,6 +21,7 @@ import org.apache.karaf.shell.commands.Option;
 import org.apache.karaf.shell.support.table.Row;
 import org.apache.karaf.shell.support.table.ShellTable;
 import org.apache.unomi.common.DataTable;
+import org.apache.unomi.metrics.LatencySnapshot;
 import org.apache.unomi.metrics.Metric;
 
 import java.util.ArrayList;
@@ -33,6 +34,9 @@ public class ListCommand extends MetricsCommandSupport {
     @Option(name = "--csv", description = "Output table in CSV format", required = false, multiValued = false)
     boolean csv;
 
+    @Option(name = "--interval", description = "Display the latencies of the last interval instead of the latencies since the metrics were created", required = false, multiValued = false)
+    boolean interval;
+
     @Override
     protected Object doExecute() throws Exception {
 
@@ -44,13 +48,26 @@ public class ListCommand extends MetricsCommandSupport {
                 "Name",
                 "Callers",
                 "Count",
-                "Time [ms]"
+                "Time [ms]",
+                "p50 [us]",
+                "p90 [us]",
+                "p99 [us]",
+                "p99.9 [us]",
+                "Max [us]"
         };
 
         DataTable dataTable = new DataTable();
         for (Map.Entry<String,Metric> metricEntry : metrics.entrySet()) {
             Metric metric = metricEntry.getValue();
-            dataTable.addRow(metric.getName(), metric.getCallerCounts().size(), metric.getTotalCount(), metric.getTotalTime());
+            LatencySnapshot latency = interval ? metric.getIntervalLatency() : metric.getLatency();
+            if (latency != null) {
+                dataTable.addRow(metric.getName(), metric.getCallerCounts().size(), metric.getTotalCount(), metric.getTotalTime(),
+                        toMicros(latency.getP50()), toMicros(latency.getP90()), toMicros(latency.getP99()), toMicros(latency.getP999()),
+                        toMicros(latency.getMax()));
+            } else {
+                dataTable.addRow(metric.getName(), metric.getCallerCounts().size(), metric.getTotalCount(), metric.getTotalTime(),
+                        "", "", "", "", "");
+            }
         }
         dataTable.sort(new DataTable.SortCriteria(3, DataTable.SortOrder.DESCENDING),
                 new DataTable.SortCriteria(2, DataTable.SortOrder.DESCENDING),
@@ -69,14 +86,17 @@ public class ListCommand extends MetricsCommandSupport {
 
         for (DataTable.Row dataTableRow :dataTable.getRows()) {
             List<Object> rowData = new ArrayList<Object>();
-            rowData.add(dataTableRow.getData(0));
-            rowData.add(dataTableRow.getData(1));
-            rowData.add(dataTableRow.getData(2));
-            rowData.add(dataTableRow.getData(3));
+            for (int i = 0; i < headers.length; i++) {
+                rowData.add(dataTableRow.getData(i));
+            }
             Row row = shellTable.addRow();
             row.addContent(rowData);
         }
         shellTable.print(System.out);
         return null;
     }
+
+    private static long toMicros(long nanos) {
+        return nanos / 1000L;
+    }
 }
@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.metrics.internal;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.PackedHistogram;
+import org.HdrHistogram.Recorder;
+import org.apache.unomi.metrics.LatencySnapshot;
+
+/**
+ * Records the durations of a timer into HdrHistograms. The timed threads record into a {@link Recorder}, without
+ * locking, and the recorded values are moved, when the distributions are read or when an interval completes, into the
+ * histogram of the whole lifetime of the metric and into the histogram of the current interval. The histograms are
+ * packed, so that their memory only grows with the number of distinct recorded values.
+ */
+class LatencyRecorder {
+
+    private final Recorder recorder;
+    private final Histogram totalHistogram;
+    private final Histogram currentIntervalHistogram;
+    private Histogram recycledHistogram;
+    private volatile LatencySnapshot lastInterval;
+
+    LatencyRecorder(int significantDigits) {
+        this.recorder = new Recorder(significantDigits, true);
+        this.totalHistogram = new PackedHistogram(significantDigits);
+        this.currentIntervalHistogram = new PackedHistogram(significantDigits);
+        long now = System.currentTimeMillis();
+        totalHistogram.setStartTimeStamp(now);
+        currentIntervalHistogram.setStartTimeStamp(now);
+    }
+
+    void record(long durationNanos) {
+        recorder.recordValue(Math.max(0L, durationNanos));
+    }
+
+    synchronized LatencySnapshot getTotal() {
+        flush();
+        totalHistogram.setEndTimeStamp(System.currentTimeMillis());
+        return snapshot(totalHistogram);
+    }
+
+    LatencySnapshot getLastInterval() {
+        return lastInterval;
+    }
+
+    /**
+     * Completes the current interval, its distribution becoming the one returned by {@link #getLastInterval()}.
+     */
+    synchronized void rollInterval() {
+        flush();
+        long now = System.currentTimeMillis();
+        currentIntervalHistogram.setEndTimeStamp(now);
+        lastInterval = snapshot(currentIntervalHistogram);
+        currentIntervalHistogram.reset();
+        currentIntervalHistogram.setStartTimeStamp(now);
+    }
+
+    private void flush() {
+        recycledHistogram = recorder.getIntervalHistogram(recycledHistogram);
+        totalHistogram.add(recycledHistogram);
+        currentIntervalHistogram.add(recycledHistogram);
+    }
+
+    private static LatencySnapshot snapshot(Histogram histogram) {
+        return new LatencySnapshot(histogram.getStartTimeStamp(), histogram.getEndTimeStamp(), histogram.getTotalCount(),
+                histogram.getMean(), histogram.getValueAtPercentile(50.0), histogram.getValueAtPercentile(90.0),
+                histogram.getValueAtPercentile(99.0), histogram.getValueAtPercentile(99.9), histogram.getMaxValue());
+    }
+}
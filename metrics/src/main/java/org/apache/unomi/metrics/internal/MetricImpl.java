@@ -17,6 +17,7 @@
 package org.apache.unomi.metrics.internal;
 
 import org.apache.unomi.metrics.CallerCount;
+import org.apache.unomi.metrics.LatencySnapshot;
 import org.apache.unomi.metrics.Metric;
 
 import java.util.Map;
@@ -24,13 +25,22 @@ import java.util.concurrent.ConcurrentHashMap;
 
 public class MetricImpl implements Metric {
 
+    private static final long NANOS_PER_MILLI = 1000000L;
+
     private String name;
+    private int significantDigits;
     private long totalCount = 0L;
-    private long totalTime = 0L;
+    private long totalTimeNanos = 0L;
+    private volatile LatencyRecorder latencyRecorder;
     private Map<String,CallerCount> callerCounts = new ConcurrentHashMap<String, CallerCount>();
 
     public MetricImpl(String name) {
+        this(name, MetricsServiceImpl.DEFAULT_SIGNIFICANT_DIGITS);
+    }
+
+    public MetricImpl(String name, int significantDigits) {
         this.name = name;
+        this.significantDigits = significantDigits;
     }
 
     @Override
@@ -48,14 +58,60 @@ public class MetricImpl implements Metric {
         return totalCount++;
     }
 
+    @Override
+    public long addTotalCount(long count) {
+        return totalCount += count;
+    }
+
+    @Override
+    public void setTotalCount(long count) {
+        totalCount = count;
+    }
+
     @Override
     public long getTotalTime() {
-        return totalTime;
+        return totalTimeNanos / NANOS_PER_MILLI;
     }
 
     @Override
     public long addTotalTime(long time) {
-        return totalTime += time;
+        return (totalTimeNanos += time * NANOS_PER_MILLI) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public void recordTime(long durationNanos) {
+        totalTimeNanos += durationNanos;
+        LatencyRecorder recorder = latencyRecorder;
+        if (recorder == null) {
+            // only the timers hold histograms, the counters and gauges don't
+            synchronized (this) {
+                recorder = latencyRecorder;
+                if (recorder == null) {
+                    recorder = new LatencyRecorder(significantDigits);
+                    latencyRecorder = recorder;
+                }
+            }
+        }
+        recorder.record(durationNanos);
+    }
+
+    @Override
+    public LatencySnapshot getLatency() {
+        LatencyRecorder recorder = latencyRecorder;
+        return recorder != null ? recorder.getTotal() : null;
+    }
+
+    @Override
+    public LatencySnapshot getIntervalLatency() {
+        LatencyRecorder recorder = latencyRecorder;
+        return recorder != null ? recorder.getLastInterval() : null;
+    }
+
+    void rollInterval() {
+        LatencyRecorder recorder = latencyRecorder;
+        if (recorder != null) {
+            recorder.rollInterval();
+        }
     }
 
     @Override
@@ -24,12 +24,62 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class MetricsServiceImpl implements MetricsService {
 
+    static final int DEFAULT_SIGNIFICANT_DIGITS = 2;
+    private static final long NANOS_PER_MILLI = 1000000L;
+
     boolean activated = false;
     Map<String,Metric> metrics = new ConcurrentHashMap<String,Metric>();
     Map<String,Boolean> callersStatus = new ConcurrentHashMap<>();
+    int significantDigits = DEFAULT_SIGNIFICANT_DIGITS;
+    long snapshotInterval = 60000L;
+    private ScheduledExecutorService snapshotExecutor;
+
+    /**
+     * @param significantDigits the number of significant decimal digits to which the recorded durations are kept, from
+     *                          0 to 5, each digit multiplying the memory used by the histograms
+     */
+    public void setSignificantDigits(int significantDigits) {
+        this.significantDigits = significantDigits;
+    }
+
+    /**
+     * @param snapshotInterval the length in milliseconds of the intervals over which the interval latencies are
+     *                         measured, 0 to disable them
+     */
+    public void setSnapshotInterval(long snapshotInterval) {
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    public void init() {
+        if (snapshotInterval > 0) {
+            snapshotExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "unomi-metrics-snapshots");
+                thread.setDaemon(true);
+                return thread;
+            });
+            snapshotExecutor.scheduleAtFixedRate(this::rollIntervals, snapshotInterval, snapshotInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void destroy() {
+        if (snapshotExecutor != null) {
+            snapshotExecutor.shutdownNow();
+        }
+    }
+
+    void rollIntervals() {
+        for (Metric metric : metrics.values()) {
+            if (metric instanceof MetricImpl) {
+                ((MetricImpl) metric).rollInterval();
+            }
+        }
+    }
 
     public void setActivated(boolean activated) {
         this.activated = activated;
@@ -57,37 +107,76 @@ public class MetricsServiceImpl implements MetricsService {
         if (!activated) {
             return;
         }
-        long totalTime = System.currentTimeMillis() - startTime;
+        recordTimer(timerName, (System.currentTimeMillis() - startTime) * NANOS_PER_MILLI);
+    }
+
+    @Override
+    public void updateTimerNanos(String timerName, long startNanoTime) {
+        if (!activated) {
+            return;
+        }
+        recordTimer(timerName, System.nanoTime() - startNanoTime);
+    }
+
+    private void recordTimer(String timerName, long durationNanos) {
         Metric metric = metrics.get(timerName);
         if (metric == null) {
-            metric = new MetricImpl(timerName);
+            metric = new MetricImpl(timerName, significantDigits);
             metrics.put(timerName, metric);
         }
         metric.incTotalCount();
-        metric.addTotalTime(totalTime);
+        metric.recordTime(durationNanos);
         if (isCallerActivated(timerName)) {
             StackTraceElement[] stackTraceElements = new Throwable().getStackTrace();
             List<String> stackTraces = new ArrayList<String>();
-            if (stackTraceElements != null && stackTraceElements.length > 2) {
-                // we start at index 2 to remove the internal
-                for (int i = 2; i < stackTraceElements.length; i++) {
+            if (stackTraceElements != null && stackTraceElements.length > 3) {
+                // we start at index 3 to remove the internal
+                for (int i = 3; i < stackTraceElements.length; i++) {
                     stackTraces.add(String.valueOf(stackTraceElements[i]));
                 }
                 String stackTraceHash = Integer.toString(stackTraces.hashCode());
+                // caller counts are kept in milliseconds
+                long durationMillis = durationNanos / NANOS_PER_MILLI;
                 CallerCount callerCount = metric.getCallerCounts().get(stackTraceHash);
                 if (callerCount == null) {
                     callerCount = new CallerCountImpl(stackTraceHash, stackTraces);
                     callerCount.incCount();
-                    callerCount.addTime(totalTime);
+                    callerCount.addTime(durationMillis);
                     metric.getCallerCounts().put(stackTraceHash, callerCount);
                 } else {
                     callerCount.incCount();
-                    callerCount.addTime(totalTime);
+                    callerCount.addTime(durationMillis);
                 }
             }
         }
     }
 
+    @Override
+    public void updateCounter(String counterName, long increment) {
+        if (!activated) {
+            return;
+        }
+        Metric metric = metrics.get(counterName);
+        if (metric == null) {
+            metric = new MetricImpl(counterName, significantDigits);
+            metrics.put(counterName, metric);
+        }
+        metric.addTotalCount(increment);
+    }
+
+    @Override
+    public void updateGauge(String gaugeName, long value) {
+        if (!activated) {
+            return;
+        }
+        Metric metric = metrics.get(gaugeName);
+        if (metric == null) {
+            metric = new MetricImpl(gaugeName, significantDigits);
+            metrics.put(gaugeName, metric);
+        }
+        metric.setTotalCount(value);
+    }
+
     @Override
     public Map<String, Boolean> getCallersStatus() {
         return callersStatus;
@@ -16,6 +16,8 @@
  */
 package org.apache.unomi.metrics.internal;
 
+import org.apache.unomi.metrics.LatencySnapshot;
+import org.apache.unomi.metrics.Metric;
 import org.apache.unomi.metrics.MetricsService;
 import org.junit.Test;
 
@@ -31,6 +33,8 @@ import java.util.concurrent.Future;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
 public class MetricsServiceTest {
 
@@ -115,6 +119,37 @@ public class MetricsServiceTest {
         System.out.println("Free memory=" + humanReadableByteCount(Runtime.getRuntime().freeMemory(), false));
     }
 
+    @Test
+    public void testLatencyPercentiles() {
+        MetricsServiceImpl metricsService = new MetricsServiceImpl();
+        metricsService.setActivated(true);
+        metricsService.updateCounter("counter", 1);
+        Metric metric = new MetricImpl("timer", 3);
+        for (long i = 1; i <= 10000; i++) {
+            metric.incTotalCount();
+            metric.recordTime(i * 1000L);
+        }
+
+        LatencySnapshot latency = metric.getLatency();
+        assertEquals(10000, latency.getCount());
+        assertEquals(5000000L, latency.getP50(), 5000L);
+        assertEquals(9000000L, latency.getP90(), 9000L);
+        assertEquals(9900000L, latency.getP99(), 9900L);
+        assertEquals(9990000L, latency.getP999(), 9990L);
+        assertEquals(10000000L, latency.getMax(), 10000L);
+        assertEquals(50005L, metric.getTotalTime());
+        assertNull(metric.getIntervalLatency());
+        assertNull(metricsService.getMetrics().get("counter").getLatency());
+
+        ((MetricImpl) metric).rollInterval();
+        metric.recordTime(1000L);
+        assertEquals(10000, metric.getIntervalLatency().getCount());
+        ((MetricImpl) metric).rollInterval();
+        assertNotNull(metric.getIntervalLatency());
+        assertEquals(1, metric.getIntervalLatency().getCount());
+        assertEquals(10001, metric.getLatency().getCount());
+    }
+
     @Test
     public void testStackTraceGenerationSpeed() {
         long startWithException = System.currentTimeMillis();
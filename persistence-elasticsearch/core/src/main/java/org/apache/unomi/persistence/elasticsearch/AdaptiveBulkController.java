@@ -0,0 +1,310 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.persistence.elasticsearch;
+
+import org.apache.unomi.metrics.MetricsService;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Controls the requests sent through the {@link BulkProcessor}: it tunes the number of actions per bulk and the number
+ * of concurrent bulks from the observed bulk latency and the rejections returned by ElasticSearch, blocks the callers
+ * for a bounded time when too many bytes are waiting to be indexed, and reports the state of the bulk indexing to the
+ * metrics service.
+ *
+ * The bulk processor must be built with the maximum number of actions and concurrent requests, using this controller
+ * as its listener and the consumer returned by {@link #wrap(BiConsumer)}, and requests must be added with
+ * {@link #add(BulkProcessor, DocWriteRequest)}.
+ */
+public class AdaptiveBulkController implements BulkProcessor.Listener {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveBulkController.class.getName());
+
+    // same per request overhead as the one used by BulkRequest to estimate its size
+    private static final int REQUEST_OVERHEAD = 50;
+
+    private final MetricsService metricsService;
+    private final String metricsPrefix = AdaptiveBulkController.class.getName();
+    private final boolean adaptive;
+    private final int minBulkActions;
+    private final int maxBulkActions;
+    private final int maxConcurrentRequests;
+    private final long targetLatency;
+    private final long maxPendingBytes;
+    private final long maxBackpressureWait;
+
+    private final Object lock = new Object();
+    private final Map<Long, Long> bulkStartTimes = new ConcurrentHashMap<>();
+    private int bulkActions;
+    private int concurrentRequests;
+    private int runningRequests = 0;
+    private int bufferedActions = 0;
+    private long queuedActions = 0;
+    private long pendingBytes = 0;
+
+    /**
+     * @param metricsService        the metrics service, may be null
+     * @param adaptive              whether the bulk actions and concurrent requests are tuned, if false the maximum values are always used
+     * @param minBulkActions        the lowest number of actions per bulk
+     * @param maxBulkActions        the highest number of actions per bulk, also used as the initial value
+     * @param maxConcurrentRequests the highest number of concurrent bulks, also used as the initial value
+     * @param targetLatency         the bulk latency in milliseconds under which the bulk size is increased
+     * @param maxPendingBytes       the amount of bytes queued or being indexed above which callers are blocked
+     * @param maxBackpressureWait   the longest time in milliseconds a caller is blocked before its request is queued anyway
+     */
+    public AdaptiveBulkController(MetricsService metricsService, boolean adaptive, int minBulkActions, int maxBulkActions,
+                                  int maxConcurrentRequests, long targetLatency, long maxPendingBytes, long maxBackpressureWait) {
+        this.metricsService = metricsService;
+        this.adaptive = adaptive;
+        this.maxBulkActions = Math.max(1, maxBulkActions);
+        this.minBulkActions = Math.max(1, Math.min(minBulkActions, this.maxBulkActions));
+        this.maxConcurrentRequests = Math.max(1, maxConcurrentRequests);
+        this.targetLatency = targetLatency;
+        this.maxPendingBytes = maxPendingBytes;
+        this.maxBackpressureWait = maxBackpressureWait;
+        this.bulkActions = this.maxBulkActions;
+        this.concurrentRequests = this.maxConcurrentRequests;
+    }
+
+    /**
+     * Adds a request to the bulk processor, blocking the caller while too many bytes are waiting to be indexed, and
+     * flushes the bulk processor once the current number of actions per bulk is reached.
+     */
+    public void add(BulkProcessor bulkProcessor, DocWriteRequest<?> request) {
+        long size = estimateSize(request);
+        if (maxPendingBytes > 0 && !reserve(size)) {
+            // the pending requests may still be buffered in the bulk processor, send them before waiting
+            bulkProcessor.flush();
+            waitAndReserve(size);
+        }
+        bulkProcessor.add(request);
+        boolean flush;
+        synchronized (lock) {
+            queuedActions++;
+            bufferedActions++;
+            flush = adaptive && bufferedActions >= bulkActions;
+        }
+        if (flush) {
+            bulkProcessor.flush();
+        }
+    }
+
+    /**
+     * Wraps the consumer sending the bulks so that no more than the current number of concurrent requests are running.
+     */
+    public BiConsumer<BulkRequest, ActionListener<BulkResponse>> wrap(BiConsumer<BulkRequest, ActionListener<BulkResponse>> consumer) {
+        return (request, listener) -> {
+            acquireRequest();
+            consumer.accept(request, new ActionListener<BulkResponse>() {
+                @Override
+                public void onResponse(BulkResponse response) {
+                    releaseRequest();
+                    listener.onResponse(response);
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    releaseRequest();
+                    listener.onFailure(e);
+                }
+            });
+        };
+    }
+
+    @Override
+    public void beforeBulk(long executionId, BulkRequest request) {
+        logger.debug("Before Bulk");
+        bulkStartTimes.put(executionId, System.currentTimeMillis());
+        synchronized (lock) {
+            bufferedActions = Math.max(0, bufferedActions - request.numberOfActions());
+        }
+    }
+
+    @Override
+    public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+        logger.debug("After Bulk");
+        int failedItems = 0;
+        int rejectedItems = 0;
+        if (response.hasFailures()) {
+            for (BulkItemResponse itemResponse : response.getItems()) {
+                if (itemResponse.isFailed()) {
+                    failedItems++;
+                    if (itemResponse.getFailure().getStatus() == RestStatus.TOO_MANY_REQUESTS) {
+                        rejectedItems++;
+                    }
+                }
+            }
+            logger.warn("Bulk of {} actions completed with {} failed items, {} rejected", request.numberOfActions(), failedItems, rejectedItems);
+            if (logger.isDebugEnabled()) {
+                logger.debug(response.buildFailureMessage());
+            }
+        }
+        completeBulk(executionId, request, failedItems, rejectedItems);
+    }
+
+    @Override
+    public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+        logger.error("After Bulk (failure)", failure);
+        int rejectedItems = ExceptionsHelper.status(failure) == RestStatus.TOO_MANY_REQUESTS ? request.numberOfActions() : 0;
+        completeBulk(executionId, request, request.numberOfActions(), rejectedItems);
+    }
+
+    private void completeBulk(long executionId, BulkRequest request, int failedItems, int rejectedItems) {
+        Long startTime = bulkStartTimes.remove(executionId);
+        long latency = startTime != null ? System.currentTimeMillis() - startTime : 0;
+        long currentQueuedActions;
+        long currentPendingBytes;
+        synchronized (lock) {
+            queuedActions = Math.max(0, queuedActions - request.numberOfActions());
+            pendingBytes = Math.max(0, pendingBytes - request.estimatedSizeInBytes());
+            if (adaptive) {
+                adapt(request.numberOfActions(), latency, rejectedItems);
+            }
+            currentQueuedActions = queuedActions;
+            currentPendingBytes = pendingBytes;
+            lock.notifyAll();
+        }
+        if (metricsService != null && metricsService.isActivated()) {
+            if (startTime != null) {
+                metricsService.updateTimer(metricsPrefix + ".bulk", startTime);
+            }
+            metricsService.updateCounter(metricsPrefix + ".indexedItems", request.numberOfActions() - failedItems);
+            metricsService.updateCounter(metricsPrefix + ".failedItems", failedItems);
+            metricsService.updateCounter(metricsPrefix + ".rejectedItems", rejectedItems);
+            metricsService.updateGauge(metricsPrefix + ".queueDepth", currentQueuedActions);
+            metricsService.updateGauge(metricsPrefix + ".inFlightBytes", currentPendingBytes);
+            metricsService.updateGauge(metricsPrefix + ".bulkActions", bulkActions);
+            metricsService.updateGauge(metricsPrefix + ".concurrentRequests", concurrentRequests);
+        }
+    }
+
+    /**
+     * Halves the bulk size and removes a concurrent request when ElasticSearch rejects requests, shrinks the bulk size
+     * when bulks take too long and grows it, as well as the concurrency when bulks are full, while they are fast.
+     */
+    private void adapt(int numberOfActions, long latency, int rejectedItems) {
+        if (rejectedItems > 0) {
+            bulkActions = Math.max(minBulkActions, bulkActions / 2);
+            concurrentRequests = Math.max(1, concurrentRequests - 1);
+            logger.info("Bulk requests rejected by ElasticSearch, reducing bulk actions to {} and concurrent requests to {}", bulkActions, concurrentRequests);
+        } else if (latency > 2 * targetLatency) {
+            bulkActions = Math.max(minBulkActions, bulkActions * 3 / 4);
+        } else if (latency < targetLatency) {
+            if (numberOfActions >= bulkActions && latency < targetLatency / 2) {
+                concurrentRequests = Math.min(maxConcurrentRequests, concurrentRequests + 1);
+            }
+            bulkActions = Math.min(maxBulkActions, bulkActions + Math.max(1, bulkActions / 10));
+        }
+    }
+
+    private boolean reserve(long size) {
+        synchronized (lock) {
+            // a single request larger than the limit is accepted when nothing else is pending
+            if (pendingBytes == 0 || pendingBytes + size <= maxPendingBytes) {
+                pendingBytes += size;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private void waitAndReserve(long size) {
+        long startTime = System.currentTimeMillis();
+        long deadline = startTime + maxBackpressureWait;
+        boolean timedOut = false;
+        synchronized (lock) {
+            try {
+                while (pendingBytes > 0 && pendingBytes + size > maxPendingBytes) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        timedOut = true;
+                        break;
+                    }
+                    lock.wait(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            pendingBytes += size;
+        }
+        if (timedOut) {
+            logger.warn("Waited more than {}ms for bulk indexing to catch up, queueing request anyway", maxBackpressureWait);
+        }
+        if (metricsService != null && metricsService.isActivated()) {
+            metricsService.updateTimer(metricsPrefix + ".backpressureWait", startTime);
+            if (timedOut) {
+                metricsService.updateCounter(metricsPrefix + ".backpressureTimeouts", 1);
+            }
+        }
+    }
+
+    private void acquireRequest() {
+        synchronized (lock) {
+            try {
+                while (runningRequests >= concurrentRequests) {
+                    lock.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            runningRequests++;
+        }
+    }
+
+    private void releaseRequest() {
+        synchronized (lock) {
+            runningRequests--;
+            lock.notifyAll();
+        }
+    }
+
+    private static long estimateSize(DocWriteRequest<?> request) {
+        long size = REQUEST_OVERHEAD;
+        if (request instanceof IndexRequest) {
+            IndexRequest indexRequest = (IndexRequest) request;
+            if (indexRequest.source() != null) {
+                size += indexRequest.source().length();
+            }
+        } else if (request instanceof UpdateRequest) {
+            UpdateRequest updateRequest = (UpdateRequest) request;
+            if (updateRequest.doc() != null) {
+                size += updateRequest.doc().source().length();
+            }
+            if (updateRequest.upsertRequest() != null) {
+                size += updateRequest.upsertRequest().source().length();
+            }
+            if (updateRequest.script() != null) {
+                size += updateRequest.script().getIdOrCode().length() * 2;
+            }
+        }
+        return size;
+    }
+}
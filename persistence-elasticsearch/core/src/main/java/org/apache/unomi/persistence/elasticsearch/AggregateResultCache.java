@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.persistence.elasticsearch;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.apache.unomi.persistence.spi.CustomObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of aggregation results, keyed by the canonical JSON form of the query parameters. Callers state for
+ * each lookup how old a result they accept. Entries can be invalidated for a whole item type: each item type has a
+ * generation that is increased on invalidation, and results computed under a previous generation are ignored.
+ */
+public class AggregateResultCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(AggregateResultCache.class.getName());
+
+    private final ObjectMapper keyMapper;
+    private final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+    private final AtomicLong globalGeneration = new AtomicLong();
+    private final LinkedHashMap<String, Entry> entries;
+    private volatile int maxEntries;
+
+    private static class Entry {
+        final String itemType;
+        final long generation;
+        final long timestamp;
+        final Map<String, ?> result;
+
+        Entry(String itemType, long generation, long timestamp, Map<String, ?> result) {
+            this.itemType = itemType;
+            this.generation = generation;
+            this.timestamp = timestamp;
+            this.result = result;
+        }
+    }
+
+    public AggregateResultCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.keyMapper = new CustomObjectMapper();
+        this.keyMapper.configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > AggregateResultCache.this.maxEntries;
+            }
+        };
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    /**
+     * Builds the key of a query from its parameters, or returns null if they can't be written as JSON, in which case
+     * the result should not be cached.
+     */
+    public String buildKey(Object... parameters) {
+        try {
+            return keyMapper.writeValueAsString(parameters);
+        } catch (JsonProcessingException e) {
+            logger.debug("Unable to build aggregate cache key, result won't be cached", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the current generation of the item type, to be passed to {@link #put(String, String, long, Map)} once
+     * the result has been computed
+     */
+    public long getGeneration(String itemType) {
+        // both counters only grow, so their sum changes whenever one of them does
+        AtomicLong generation = generations.get(itemType);
+        return globalGeneration.get() + (generation != null ? generation.get() : 0);
+    }
+
+    /**
+     * @return a copy of the cached result if one was computed less than maxStaleness milliseconds ago and the item
+     * type wasn't invalidated since, null otherwise
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Map<String, T> get(String key, long maxStaleness) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry == null || entry.generation != getGeneration(entry.itemType)
+                || System.currentTimeMillis() - entry.timestamp > maxStaleness) {
+            return null;
+        }
+        return new LinkedHashMap<>((Map<String, T>) entry.result);
+    }
+
+    public void put(String key, String itemType, long generation, Map<String, ?> result) {
+        if (generation != getGeneration(itemType)) {
+            return;
+        }
+        Entry entry = new Entry(itemType, generation, System.currentTimeMillis(), new LinkedHashMap<>(result));
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+    }
+
+    public void invalidate(String itemType) {
+        generations.computeIfAbsent(itemType, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    public void invalidateAll() {
+        globalGeneration.incrementAndGet();
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+}
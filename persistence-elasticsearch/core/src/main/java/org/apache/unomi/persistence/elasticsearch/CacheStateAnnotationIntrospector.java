@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.persistence.elasticsearch;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.introspect.Annotated;
+import com.fasterxml.jackson.databind.introspect.AnnotatedMember;
+import com.fasterxml.jackson.databind.introspect.AnnotatedMethod;
+import com.fasterxml.jackson.databind.type.TypeFactory;
+import com.fasterxml.jackson.module.jaxb.JaxbAnnotationIntrospector;
+import org.apache.unomi.api.PropertyType;
+import org.apache.unomi.api.ValueType;
+import org.apache.unomi.api.actions.Action;
+import org.apache.unomi.api.conditions.Condition;
+
+import java.beans.Introspector;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * JAXB annotation introspector for the mapper of the cache serializers, which keeps the properties resolved from the
+ * definitions of the plugins, such as the type of a condition, although they are {@code @XmlTransient}: Java
+ * serialization kept them, and the cached objects are used without resolving them again. These properties are only
+ * written when they are set.
+ */
+class CacheStateAnnotationIntrospector extends JaxbAnnotationIntrospector {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Map<Class<?>, String> CACHED_TRANSIENT_PROPERTIES;
+
+    static {
+        Map<Class<?>, String> cachedTransientProperties = new HashMap<>();
+        cachedTransientProperties.put(Condition.class, "conditionType");
+        cachedTransientProperties.put(Action.class, "actionType");
+        cachedTransientProperties.put(PropertyType.class, "valueType");
+        cachedTransientProperties.put(ValueType.class, "pluginId");
+        CACHED_TRANSIENT_PROPERTIES = Collections.unmodifiableMap(cachedTransientProperties);
+    }
+
+    CacheStateAnnotationIntrospector(TypeFactory typeFactory) {
+        super(typeFactory);
+    }
+
+    @Override
+    public boolean hasIgnoreMarker(AnnotatedMember m) {
+        return !isCachedTransientProperty(m) && super.hasIgnoreMarker(m);
+    }
+
+    @Override
+    public JsonInclude.Value findPropertyInclusion(Annotated a) {
+        if (a instanceof AnnotatedMember && isCachedTransientProperty((AnnotatedMember) a)) {
+            return JsonInclude.Value.construct(JsonInclude.Include.NON_NULL, JsonInclude.Include.NON_NULL);
+        }
+        return super.findPropertyInclusion(a);
+    }
+
+    private static boolean isCachedTransientProperty(AnnotatedMember member) {
+        String propertyName = CACHED_TRANSIENT_PROPERTIES.get(member.getDeclaringClass());
+        if (propertyName == null) {
+            return false;
+        }
+        String name = member.getName();
+        if (member instanceof AnnotatedMethod) {
+            if (name.startsWith("get") || name.startsWith("set")) {
+                name = Introspector.decapitalize(name.substring(3));
+            } else if (name.startsWith("is")) {
+                name = Introspector.decapitalize(name.substring(2));
+            }
+        }
+        return propertyName.equals(name);
+    }
+}
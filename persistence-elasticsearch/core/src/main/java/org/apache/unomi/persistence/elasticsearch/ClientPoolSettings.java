@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.persistence.elasticsearch;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * The connection settings of one of the ElasticSearch clients: the interactive reads, the writes and bulk requests, or
+ * the long running analytical queries (scrolls, aggregations, metrics). Each client has its own connection pool, so
+ * that a saturated pool doesn't delay the requests of the others.
+ */
+public class ClientPoolSettings {
+
+    private final String name;
+    private int maxConnections;
+    private int maxConnectionsPerRoute;
+    private Integer socketTimeout;
+    private String preference;
+
+    public ClientPoolSettings(String name, int maxConnections, int maxConnectionsPerRoute) {
+        this.name = name;
+        this.maxConnections = maxConnections;
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
+    /**
+     * @return the socket timeout in milliseconds, null to use the global client socket timeout
+     */
+    public Integer getSocketTimeout() {
+        return socketTimeout;
+    }
+
+    public void setSocketTimeout(Integer socketTimeout) {
+        this.socketTimeout = socketTimeout;
+    }
+
+    /**
+     * @return the search preference used to route the searches of this client to shard copies, for example
+     * _prefer_nodes:node1 or a custom string, null to let ElasticSearch spread them over all the copies
+     */
+    public String getPreference() {
+        return preference;
+    }
+
+    public void setPreference(String preference) {
+        this.preference = StringUtils.isBlank(preference) ? null : preference.trim();
+    }
+
+    @Override
+    public String toString() {
+        return name + "{maxConnections=" + maxConnections + ", maxConnectionsPerRoute=" + maxConnectionsPerRoute +
+                ", socketTimeout=" + socketTimeout + ", preference=" + preference + "}";
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.persistence.elasticsearch;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.AnnotationIntrospector;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.introspect.JacksonAnnotationIntrospector;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.hazelcast.nio.IOUtil;
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.HazelcastSerializationException;
+import com.hazelcast.nio.serialization.StreamSerializer;
+import org.apache.unomi.persistence.spi.CustomObjectMapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hazelcast serializer that writes objects of a known set of classes as a compact binary encoding of their JSON
+ * representation: each field name is written once per object and then referenced by its index, and numbers and
+ * booleans are written in binary form. Objects of any other class, including subclasses that are not explicitly
+ * registered, are written using standard Java serialization so that they keep round-tripping as before.
+ *
+ * @param <T> the base type handled by this serializer
+ */
+public abstract class CompactStreamSerializer<T> implements StreamSerializer<T> {
+
+    private static final byte JAVA_FORMAT = 0;
+    private static final byte COMPACT_FORMAT = 1;
+
+    private static final byte END = 0;
+    private static final byte START_OBJECT = 1;
+    private static final byte END_OBJECT = 2;
+    private static final byte START_ARRAY = 3;
+    private static final byte END_ARRAY = 4;
+    private static final byte NEW_FIELD_NAME = 5;
+    private static final byte FIELD_NAME = 6;
+    private static final byte STRING = 7;
+    private static final byte INT = 8;
+    private static final byte LONG = 9;
+    private static final byte DOUBLE = 10;
+    private static final byte BIG_INTEGER = 11;
+    private static final byte BIG_DECIMAL = 12;
+    private static final byte TRUE = 13;
+    private static final byte FALSE = 14;
+    private static final byte NULL = 15;
+    private static final byte EMBEDDED_OBJECT = 16;
+
+    private final List<Class<? extends T>> compactClasses;
+    private final Map<Class<?>, Integer> compactClassIds = new HashMap<>();
+
+    /**
+     * @param compactClasses the classes written using the compact format. The position of a class in this list is
+     *                       written in the serialized form, so new classes must only ever be appended.
+     */
+    protected CompactStreamSerializer(List<Class<? extends T>> compactClasses) {
+        this.compactClasses = compactClasses;
+        for (int i = 0; i < compactClasses.size(); i++) {
+            compactClassIds.put(compactClasses.get(i), i);
+        }
+    }
+
+    protected ObjectMapper getObjectMapper() {
+        return Holder.OBJECT_MAPPER;
+    }
+
+    /**
+     * Writes the state of the object that isn't part of its JSON representation. Does nothing by default.
+     */
+    protected void writeExtraState(ObjectDataOutput out, T object) throws IOException {
+    }
+
+    /**
+     * Reads back the state written by {@link #writeExtraState(ObjectDataOutput, Object)}. Does nothing by default.
+     */
+    protected void readExtraState(ObjectDataInput in, T object) throws IOException {
+    }
+
+    @Override
+    public void write(ObjectDataOutput out, T object) throws IOException {
+        Integer classId = compactClassIds.get(object.getClass());
+        if (classId == null) {
+            out.writeByte(JAVA_FORMAT);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(bytes)) {
+                objectOutputStream.writeObject(object);
+            }
+            out.writeByteArray(bytes.toByteArray());
+            return;
+        }
+        out.writeByte(COMPACT_FORMAT);
+        writeVarInt(out, classId);
+        TokenBuffer tokens = new TokenBuffer(getObjectMapper(), false);
+        getObjectMapper().writeValue(tokens, object);
+        try (JsonParser parser = tokens.asParser()) {
+            writeTokens(parser, out);
+        }
+        writeExtraState(out, object);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T read(ObjectDataInput in) throws IOException {
+        byte format = in.readByte();
+        if (format == JAVA_FORMAT) {
+            byte[] bytes = in.readByteArray();
+            try (ObjectInputStream objectInputStream = IOUtil.newObjectInputStream(in.getClassLoader(), null, new ByteArrayInputStream(bytes))) {
+                return (T) objectInputStream.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new HazelcastSerializationException(e);
+            }
+        }
+        if (format != COMPACT_FORMAT) {
+            throw new HazelcastSerializationException("Unknown serialization format " + format);
+        }
+        int classId = readVarInt(in);
+        if (classId >= compactClasses.size()) {
+            throw new HazelcastSerializationException("Unknown compact class identifier " + classId);
+        }
+        TokenBuffer tokens = readTokens(in);
+        T object;
+        try (JsonParser parser = tokens.asParser()) {
+            object = getObjectMapper().readValue(parser, compactClasses.get(classId));
+        }
+        readExtraState(in, object);
+        return object;
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    private void writeTokens(JsonParser parser, ObjectDataOutput out) throws IOException {
+        Map<String, Integer> fieldNames = new HashMap<>();
+        JsonToken token;
+        while ((token = parser.nextToken()) != null) {
+            switch (token) {
+                case START_OBJECT:
+                    out.writeByte(START_OBJECT);
+                    break;
+                case END_OBJECT:
+                    out.writeByte(END_OBJECT);
+                    break;
+                case START_ARRAY:
+                    out.writeByte(START_ARRAY);
+                    break;
+                case END_ARRAY:
+                    out.writeByte(END_ARRAY);
+                    break;
+                case FIELD_NAME:
+                    String fieldName = parser.getCurrentName();
+                    Integer fieldNameIndex = fieldNames.get(fieldName);
+                    if (fieldNameIndex == null) {
+                        fieldNames.put(fieldName, fieldNames.size());
+                        out.writeByte(NEW_FIELD_NAME);
+                        out.writeUTF(fieldName);
+                    } else {
+                        out.writeByte(FIELD_NAME);
+                        writeVarInt(out, fieldNameIndex);
+                    }
+                    break;
+                case VALUE_STRING:
+                    out.writeByte(STRING);
+                    out.writeUTF(parser.getText());
+                    break;
+                case VALUE_NUMBER_INT:
+                    switch (parser.getNumberType()) {
+                        case INT:
+                            int intValue = parser.getIntValue();
+                            out.writeByte(INT);
+                            // zig-zag encoding keeps small negative values short
+                            writeVarInt(out, (intValue << 1) ^ (intValue >> 31));
+                            break;
+                        case LONG:
+                            out.writeByte(LONG);
+                            out.writeLong(parser.getLongValue());
+                            break;
+                        default:
+                            out.writeByte(BIG_INTEGER);
+                            out.writeUTF(parser.getBigIntegerValue().toString());
+                    }
+                    break;
+                case VALUE_NUMBER_FLOAT:
+                    if (parser.getNumberType() == JsonParser.NumberType.BIG_DECIMAL) {
+                        out.writeByte(BIG_DECIMAL);
+                        out.writeUTF(parser.getDecimalValue().toString());
+                    } else {
+                        out.writeByte(DOUBLE);
+                        out.writeDouble(parser.getDoubleValue());
+                    }
+                    break;
+                case VALUE_TRUE:
+                    out.writeByte(TRUE);
+                    break;
+                case VALUE_FALSE:
+                    out.writeByte(FALSE);
+                    break;
+                case VALUE_NULL:
+                    out.writeByte(NULL);
+                    break;
+                case VALUE_EMBEDDED_OBJECT:
+                    out.writeByte(EMBEDDED_OBJECT);
+                    out.writeObject(parser.getEmbeddedObject());
+                    break;
+                default:
+                    throw new HazelcastSerializationException("Unexpected token " + token);
+            }
+        }
+        out.writeByte(END);
+    }
+
+    private TokenBuffer readTokens(ObjectDataInput in) throws IOException {
+        TokenBuffer tokens = new TokenBuffer(getObjectMapper(), false);
+        List<String> fieldNames = new ArrayList<>();
+        byte tag;
+        while ((tag = in.readByte()) != END) {
+            switch (tag) {
+                case START_OBJECT:
+                    tokens.writeStartObject();
+                    break;
+                case END_OBJECT:
+                    tokens.writeEndObject();
+                    break;
+                case START_ARRAY:
+                    tokens.writeStartArray();
+                    break;
+                case END_ARRAY:
+                    tokens.writeEndArray();
+                    break;
+                case NEW_FIELD_NAME:
+                    String fieldName = in.readUTF();
+                    fieldNames.add(fieldName);
+                    tokens.writeFieldName(fieldName);
+                    break;
+                case FIELD_NAME:
+                    tokens.writeFieldName(fieldNames.get(readVarInt(in)));
+                    break;
+                case STRING:
+                    tokens.writeString(in.readUTF());
+                    break;
+                case INT:
+                    int zigZag = readVarInt(in);
+                    tokens.writeNumber((zigZag >>> 1) ^ -(zigZag & 1));
+                    break;
+                case LONG:
+                    tokens.writeNumber(in.readLong());
+                    break;
+                case DOUBLE:
+                    tokens.writeNumber(in.readDouble());
+                    break;
+                case BIG_INTEGER:
+                    tokens.writeNumber(new BigInteger(in.readUTF()));
+                    break;
+                case BIG_DECIMAL:
+                    tokens.writeNumber(new BigDecimal(in.readUTF()));
+                    break;
+                case TRUE:
+                    tokens.writeBoolean(true);
+                    break;
+                case FALSE:
+                    tokens.writeBoolean(false);
+                    break;
+                case NULL:
+                    tokens.writeNull();
+                    break;
+                case EMBEDDED_OBJECT:
+                    tokens.writeEmbeddedObject(in.readObject());
+                    break;
+                default:
+                    throw new HazelcastSerializationException("Unexpected tag " + tag);
+            }
+        }
+        return tokens;
+    }
+
+    private static void writeVarInt(ObjectDataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(ObjectDataInput in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static class Holder {
+        static final ObjectMapper OBJECT_MAPPER = createObjectMapper();
+
+        /**
+         * Creates a mapper configured like the {@link CustomObjectMapper}, but that also writes the properties resolved
+         * from the plugin definitions, which are not part of the JSON representation of the objects.
+         */
+        private static ObjectMapper createObjectMapper() {
+            ObjectMapper objectMapper = new CustomObjectMapper();
+            objectMapper.setAnnotationIntrospector(AnnotationIntrospector.pair(
+                    new CacheStateAnnotationIntrospector(objectMapper.getTypeFactory()), new JacksonAnnotationIntrospector()));
+            return objectMapper;
+        }
+    }
+}
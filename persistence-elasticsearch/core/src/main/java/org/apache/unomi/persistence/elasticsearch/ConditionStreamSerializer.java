@@ -0,0 +1,38 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.persistence.elasticsearch;
+
+import org.apache.unomi.api.conditions.Condition;
+
+import java.util.Collections;
+
+/**
+ * Compact Hazelcast serializer for conditions, which aren't items but are shared by most of the cached definitions.
+ */
+public class ConditionStreamSerializer extends CompactStreamSerializer<Condition> {
+
+    public static final int TYPE_ID = 1002;
+
+    public ConditionStreamSerializer() {
+        super(Collections.singletonList(Condition.class));
+    }
+
+    @Override
+    public int getTypeId() {
+        return TYPE_ID;
+    }
+}
@@ -19,7 +19,11 @@ package org.apache.unomi.persistence.elasticsearch;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hazelcast.core.Hazelcast;
 import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.internal.serialization.impl.AbstractSerializationService;
+import com.hazelcast.spi.impl.SerializationServiceSupport;
+import com.hazelcast.spi.serialization.SerializationService;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.HttpHost;
 import org.apache.http.auth.AuthScope;
@@ -27,6 +31,7 @@ import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.CredentialsProvider;
 import org.apache.http.conn.ssl.NoopHostnameVerifier;
 import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.util.EntityUtils;
 import org.apache.lucene.search.TotalHits;
 import org.apache.unomi.api.Item;
 import org.apache.unomi.api.PartialList;
@@ -41,8 +46,6 @@ import org.apache.unomi.metrics.MetricsService;
 import org.apache.unomi.persistence.elasticsearch.conditions.ConditionContextHelper;
 import org.apache.unomi.persistence.elasticsearch.conditions.ConditionESQueryBuilder;
 import org.apache.unomi.persistence.elasticsearch.conditions.ConditionESQueryBuilderDispatcher;
-import org.apache.unomi.persistence.elasticsearch.conditions.ConditionEvaluator;
-import org.apache.unomi.persistence.elasticsearch.conditions.ConditionEvaluatorDispatcher;
 import org.apache.unomi.persistence.spi.PersistenceService;
 import org.apache.unomi.persistence.spi.aggregate.BaseAggregate;
 import org.apache.unomi.persistence.spi.aggregate.DateAggregate;
@@ -50,8 +53,11 @@ import org.apache.unomi.persistence.spi.aggregate.DateRangeAggregate;
 import org.apache.unomi.persistence.spi.aggregate.IpRangeAggregate;
 import org.apache.unomi.persistence.spi.aggregate.NumericRangeAggregate;
 import org.apache.unomi.persistence.spi.aggregate.TermsAggregate;
+import org.apache.unomi.persistence.spi.conditions.ConditionEvaluator;
+import org.apache.unomi.persistence.spi.conditions.ConditionEvaluatorDispatcher;
 import org.elasticsearch.ElasticsearchStatusException;
 import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.DocWriteResponse;
 import org.elasticsearch.action.admin.cluster.health.ClusterHealthRequest;
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
 import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
@@ -70,12 +76,16 @@ import org.elasticsearch.action.search.ClearScrollRequest;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.action.support.IndicesOptions;
 import org.elasticsearch.action.support.WriteRequest;
 import org.elasticsearch.action.support.master.AcknowledgedResponse;
 import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.client.Node;
 import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Request;
 import org.elasticsearch.client.Requests;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
 import org.elasticsearch.client.HttpAsyncResponseConsumerFactory;
 import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RestClientBuilder;
@@ -94,6 +104,7 @@ import org.elasticsearch.client.indices.IndexTemplatesExistRequest;
 import org.elasticsearch.client.indices.PutIndexTemplateRequest;
 import org.elasticsearch.client.indices.PutMappingRequest;
 import org.elasticsearch.cluster.metadata.MappingMetaData;
+import org.elasticsearch.common.Strings;
 import org.elasticsearch.common.unit.ByteSizeUnit;
 import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.unit.DistanceUnit;
@@ -103,6 +114,7 @@ import org.elasticsearch.index.IndexNotFoundException;
 import org.elasticsearch.index.query.*;
 import org.elasticsearch.index.reindex.BulkByScrollResponse;
 import org.elasticsearch.index.reindex.UpdateByQueryRequest;
+import org.elasticsearch.index.seqno.SequenceNumbers;
 import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.script.Script;
 import org.elasticsearch.script.ScriptException;
@@ -129,6 +141,7 @@ import org.elasticsearch.search.aggregations.bucket.terms.Terms;
 import org.elasticsearch.search.aggregations.bucket.terms.TermsAggregationBuilder;
 import org.elasticsearch.search.aggregations.metrics.NumericMetricsAggregation;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
 import org.elasticsearch.search.sort.GeoDistanceSortBuilder;
 import org.elasticsearch.search.sort.SortBuilders;
 import org.elasticsearch.search.sort.SortOrder;
@@ -148,12 +161,11 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.lang.reflect.Field;
 import java.net.URL;
+import java.net.URLEncoder;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.cert.X509Certificate;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -165,8 +177,12 @@ import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -183,8 +199,25 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
     public static final String BULK_PROCESSOR_BULK_ACTIONS = "bulkProcessor.bulkActions";
     public static final String BULK_PROCESSOR_BULK_SIZE = "bulkProcessor.bulkSize";
     public static final String MONTHLY_INDEX_ITEMS_MONTHLY_INDEXED = "monthlyIndex.itemsMonthlyIndexedOverride";
+    public static final String MONTHLY_INDEX_GRANULARITY = "monthlyIndex.granularity";
     public static final String BULK_PROCESSOR_FLUSH_INTERVAL = "bulkProcessor.flushInterval";
     public static final String BULK_PROCESSOR_BACKOFF_POLICY = "bulkProcessor.backoffPolicy";
+    public static final String BULK_PROCESSOR_ADAPTIVE = "bulkProcessor.adaptive";
+    public static final String BULK_PROCESSOR_MIN_BULK_ACTIONS = "bulkProcessor.minBulkActions";
+    public static final String BULK_PROCESSOR_TARGET_LATENCY = "bulkProcessor.targetLatency";
+    public static final String BULK_PROCESSOR_MAX_PENDING_SIZE = "bulkProcessor.maxPendingSize";
+    public static final String BULK_PROCESSOR_MAX_BACKPRESSURE_WAIT = "bulkProcessor.maxBackpressureWait";
+    public static final String DELETE_BY_QUERY_SLICES = "deleteByQuery.slices";
+    public static final String DELETE_BY_QUERY_REQUESTS_PER_SECOND = "deleteByQuery.requestsPerSecond";
+
+    // Replaces the changed top-level fields, the changed entries of object fields and removes the deleted ones, leaving
+    // the rest of the stored document untouched
+    private static final String PARTIAL_UPDATE_SCRIPT = "for (def entry : params.fields.entrySet()) { ctx._source[entry.getKey()] = entry.getValue(); } " +
+            "for (def field : params.removedFields) { ctx._source.remove(field); } " +
+            "for (def entry : params.subFields.entrySet()) { def target = ctx._source[entry.getKey()]; " +
+            "if (target == null) { target = new HashMap(); ctx._source[entry.getKey()] = target; } target.putAll(entry.getValue()); } " +
+            "for (def entry : params.removedSubFields.entrySet()) { def target = ctx._source[entry.getKey()]; " +
+            "if (target != null) { for (def subField : entry.getValue()) { target.remove(subField); } } }";
     public static final String INDEX_DATE_PREFIX = "date-";
     public static final String SEQ_NO = "seq_no";
     public static final String PRIMARY_TERM = "primary_term";
@@ -192,7 +225,14 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
     private static final Logger logger = LoggerFactory.getLogger(ElasticSearchPersistenceServiceImpl.class.getName());
     private static boolean throwExceptions = false;
     private RestHighLevelClient client;
+    private RestHighLevelClient writeClient;
+    private RestHighLevelClient analyticsClient;
+    private boolean separateClientPools = true;
+    private ClientPoolSettings readClientSettings = new ClientPoolSettings("read", 30, 10);
+    private ClientPoolSettings writeClientSettings = new ClientPoolSettings("write", 20, 10);
+    private ClientPoolSettings analyticsClientSettings = new ClientPoolSettings("analytics", 10, 5);
     private BulkProcessor bulkProcessor;
+    private AdaptiveBulkController bulkController;
     private String elasticSearchAddresses;
     private List<String> elasticSearchAddressList = new ArrayList<>();
     private String clusterName;
@@ -217,11 +257,33 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
     private Integer defaultQueryLimit = 10;
 
     private String itemsMonthlyIndexedOverride = "event,session";
+    private String dateIndexGranularity = "monthly";
+    private Map<String, IndexPartitioning> partitioningByType = new HashMap<>();
+    private IndexPartitioning defaultPartitioning = IndexPartitioning.MONTHLY;
     private String bulkProcessorConcurrentRequests = "1";
     private String bulkProcessorBulkActions = "1000";
     private String bulkProcessorBulkSize = "5MB";
     private String bulkProcessorFlushInterval = "5s";
     private String bulkProcessorBackoffPolicy = "exponential";
+    private String bulkProcessorAdaptive = "true";
+    private String bulkProcessorMinBulkActions = "100";
+    private String bulkProcessorTargetLatency = "1s";
+    private String bulkProcessorMaxPendingSize = "50MB";
+    private String bulkProcessorMaxBackpressureWait = "10s";
+
+    private String deleteByQuerySlices = "auto";
+    private String deleteByQueryRequestsPerSecond = "-1";
+    // the caches are invalidated once the asynchronous deletions complete, the watcher polling their status
+    private static final long DELETE_TASK_POLL_INTERVAL = 5000L;
+    private static final long DELETE_TASK_MAX_POLL_INTERVAL = 60000L;
+    // a synchronous deletion waits for its task, checking its status more often
+    private static final long DELETE_TASK_WAIT_INTERVAL = 500L;
+    private static final int DELETE_TASK_MAX_STATUS_ERRORS = 5;
+    private final ScheduledExecutorService deleteTasksWatcher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "unomi-delete-tasks-watcher");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     private String minimalElasticSearchVersion = "7.0.0";
     private String maximalElasticSearchVersion = "8.0.0";
@@ -238,6 +300,11 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
     private HazelcastInstance hazelcastInstance;
     private Set<String> itemClassesToCacheSet = new HashSet<>();
     private String itemClassesToCache;
+    private Set<String> partialUpdateItemTypesSet = new HashSet<>();
+    private int partialUpdateConflictRetries = 3;
+    private boolean compactCacheSerialization = true;
+    private AggregateResultCache aggregateResultCache = new AggregateResultCache(1000);
+    private boolean aggregateQueryCacheInvalidateOnWrite = false;
     private boolean useBatchingForSave = false;
     private boolean useBatchingForUpdate = true;
     private boolean alwaysOverwrite = true;
@@ -246,7 +313,10 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
     private Integer clientSocketTimeout = null;
     private Map<String, WriteRequest.RefreshPolicy> itemTypeToRefreshPolicy = new HashMap<>();
 
-    private Map<String, Map<String, Map<String, Object>>> knownMappings = new HashMap<>();
+    private MappingsCache mappingsCache = new MappingsCache(60000);
+    private boolean timeRangeIndexPruning = true;
+    private Map<String, Set<String>> knownMonthlyIndices = new ConcurrentHashMap<>();
+    private Map<String, Long> knownMonthlyIndicesLoadTimes = new ConcurrentHashMap<>();
 
     public void setBundleContext(BundleContext bundleContext) {
         this.bundleContext = bundleContext;
@@ -327,6 +397,10 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
         this.itemsMonthlyIndexedOverride = itemsMonthlyIndexedOverride;
     }
 
+    public void setDateIndexGranularity(String dateIndexGranularity) {
+        this.dateIndexGranularity = dateIndexGranularity;
+    }
+
     public void setRoutingByType(Map<String, String> routingByType) {
         this.routingByType = routingByType;
     }
@@ -359,6 +433,34 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
         this.bulkProcessorBackoffPolicy = bulkProcessorBackoffPolicy;
     }
 
+    public void setBulkProcessorAdaptive(String bulkProcessorAdaptive) {
+        this.bulkProcessorAdaptive = bulkProcessorAdaptive;
+    }
+
+    public void setBulkProcessorMinBulkActions(String bulkProcessorMinBulkActions) {
+        this.bulkProcessorMinBulkActions = bulkProcessorMinBulkActions;
+    }
+
+    public void setBulkProcessorTargetLatency(String bulkProcessorTargetLatency) {
+        this.bulkProcessorTargetLatency = bulkProcessorTargetLatency;
+    }
+
+    public void setBulkProcessorMaxPendingSize(String bulkProcessorMaxPendingSize) {
+        this.bulkProcessorMaxPendingSize = bulkProcessorMaxPendingSize;
+    }
+
+    public void setBulkProcessorMaxBackpressureWait(String bulkProcessorMaxBackpressureWait) {
+        this.bulkProcessorMaxBackpressureWait = bulkProcessorMaxBackpressureWait;
+    }
+
+    public void setDeleteByQuerySlices(String deleteByQuerySlices) {
+        this.deleteByQuerySlices = deleteByQuerySlices;
+    }
+
+    public void setDeleteByQueryRequestsPerSecond(String deleteByQueryRequestsPerSecond) {
+        this.deleteByQueryRequestsPerSecond = deleteByQueryRequestsPerSecond;
+    }
+
     public void setMinimalElasticSearchVersion(String minimalElasticSearchVersion) {
         this.minimalElasticSearchVersion = minimalElasticSearchVersion;
     }
@@ -377,6 +479,60 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
         }
     }
 
+    public void setSeparateClientPools(boolean separateClientPools) {
+        this.separateClientPools = separateClientPools;
+    }
+
+    public void setReadClientMaxConnections(int readClientMaxConnections) {
+        this.readClientSettings.setMaxConnections(readClientMaxConnections);
+    }
+
+    public void setReadClientMaxConnectionsPerRoute(int readClientMaxConnectionsPerRoute) {
+        this.readClientSettings.setMaxConnectionsPerRoute(readClientMaxConnectionsPerRoute);
+    }
+
+    public void setReadClientSocketTimeout(String readClientSocketTimeout) {
+        if (StringUtils.isNumeric(readClientSocketTimeout)) {
+            this.readClientSettings.setSocketTimeout(Integer.parseInt(readClientSocketTimeout));
+        }
+    }
+
+    public void setReadClientPreference(String readClientPreference) {
+        this.readClientSettings.setPreference(readClientPreference);
+    }
+
+    public void setWriteClientMaxConnections(int writeClientMaxConnections) {
+        this.writeClientSettings.setMaxConnections(writeClientMaxConnections);
+    }
+
+    public void setWriteClientMaxConnectionsPerRoute(int writeClientMaxConnectionsPerRoute) {
+        this.writeClientSettings.setMaxConnectionsPerRoute(writeClientMaxConnectionsPerRoute);
+    }
+
+    public void setWriteClientSocketTimeout(String writeClientSocketTimeout) {
+        if (StringUtils.isNumeric(writeClientSocketTimeout)) {
+            this.writeClientSettings.setSocketTimeout(Integer.parseInt(writeClientSocketTimeout));
+        }
+    }
+
+    public void setAnalyticsClientMaxConnections(int analyticsClientMaxConnections) {
+        this.analyticsClientSettings.setMaxConnections(analyticsClientMaxConnections);
+    }
+
+    public void setAnalyticsClientMaxConnectionsPerRoute(int analyticsClientMaxConnectionsPerRoute) {
+        this.analyticsClientSettings.setMaxConnectionsPerRoute(analyticsClientMaxConnectionsPerRoute);
+    }
+
+    public void setAnalyticsClientSocketTimeout(String analyticsClientSocketTimeout) {
+        if (StringUtils.isNumeric(analyticsClientSocketTimeout)) {
+            this.analyticsClientSettings.setSocketTimeout(Integer.parseInt(analyticsClientSocketTimeout));
+        }
+    }
+
+    public void setAnalyticsClientPreference(String analyticsClientPreference) {
+        this.analyticsClientSettings.setPreference(analyticsClientPreference);
+    }
+
     public void setMetricsService(MetricsService metricsService) {
         this.metricsService = metricsService;
     }
@@ -385,6 +541,39 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
         this.hazelcastInstance = hazelcastInstance;
     }
 
+    public void setPartialUpdateItemTypes(String partialUpdateItemTypes) {
+        partialUpdateItemTypesSet.clear();
+        if (StringUtils.isNotBlank(partialUpdateItemTypes)) {
+            for (String partialUpdateItemType : partialUpdateItemTypes.split(",")) {
+                partialUpdateItemTypesSet.add(partialUpdateItemType.trim());
+            }
+        }
+    }
+
+    public void setPartialUpdateConflictRetries(int partialUpdateConflictRetries) {
+        this.partialUpdateConflictRetries = partialUpdateConflictRetries;
+    }
+
+    public void setAggregateQueryCacheMaxEntries(int aggregateQueryCacheMaxEntries) {
+        this.aggregateResultCache.setMaxEntries(aggregateQueryCacheMaxEntries);
+    }
+
+    public void setAggregateQueryCacheInvalidateOnWrite(boolean aggregateQueryCacheInvalidateOnWrite) {
+        this.aggregateQueryCacheInvalidateOnWrite = aggregateQueryCacheInvalidateOnWrite;
+    }
+
+    public void setMappingsCacheRefreshInterval(long mappingsCacheRefreshInterval) {
+        this.mappingsCache.setRefreshInterval(mappingsCacheRefreshInterval);
+    }
+
+    public void setTimeRangeIndexPruning(boolean timeRangeIndexPruning) {
+        this.timeRangeIndexPruning = timeRangeIndexPruning;
+    }
+
+    public void setCompactCacheSerialization(boolean compactCacheSerialization) {
+        this.compactCacheSerialization = compactCacheSerialization;
+    }
+
     public void setItemClassesToCache(String itemClassesToCache) {
         this.itemClassesToCache = itemClassesToCache;
         if (StringUtils.isNotBlank(itemClassesToCache)) {
@@ -446,7 +635,15 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                 bulkProcessorBulkSize = System.getProperty(BULK_PROCESSOR_BULK_SIZE, bulkProcessorBulkSize);
                 bulkProcessorFlushInterval = System.getProperty(BULK_PROCESSOR_FLUSH_INTERVAL, bulkProcessorFlushInterval);
                 bulkProcessorBackoffPolicy = System.getProperty(BULK_PROCESSOR_BACKOFF_POLICY, bulkProcessorBackoffPolicy);
+                bulkProcessorAdaptive = System.getProperty(BULK_PROCESSOR_ADAPTIVE, bulkProcessorAdaptive);
+                bulkProcessorMinBulkActions = System.getProperty(BULK_PROCESSOR_MIN_BULK_ACTIONS, bulkProcessorMinBulkActions);
+                bulkProcessorTargetLatency = System.getProperty(BULK_PROCESSOR_TARGET_LATENCY, bulkProcessorTargetLatency);
+                bulkProcessorMaxPendingSize = System.getProperty(BULK_PROCESSOR_MAX_PENDING_SIZE, bulkProcessorMaxPendingSize);
+                bulkProcessorMaxBackpressureWait = System.getProperty(BULK_PROCESSOR_MAX_BACKPRESSURE_WAIT, bulkProcessorMaxBackpressureWait);
+                deleteByQuerySlices = System.getProperty(DELETE_BY_QUERY_SLICES, deleteByQuerySlices);
+                deleteByQueryRequestsPerSecond = System.getProperty(DELETE_BY_QUERY_REQUESTS_PER_SECOND, deleteByQueryRequestsPerSecond);
                 itemsMonthlyIndexed = itemsMonthlyIndexedOverride.equals("none") ? Collections.emptyList() : Arrays.asList(System.getProperty(MONTHLY_INDEX_ITEMS_MONTHLY_INDEXED, itemsMonthlyIndexedOverride).split(",").clone());
+                parseDateIndexGranularity(System.getProperty(MONTHLY_INDEX_GRANULARITY, dateIndexGranularity));
                 // this property is used for integration tests, to make sure we don't conflict with an already running ElasticSearch instance.
                 if (System.getProperty("org.apache.unomi.itests.elasticsearch.http.port") != null) {
                     elasticSearchAddressList.clear();
@@ -459,7 +656,7 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                     logger.info("Overriding cluster name from system property=" + clusterName);
                 }
 
-                buildClient();
+                buildClients();
 
                 MainResponse response = client.info(RequestOptions.DEFAULT);
                 org.elasticsearch.client.core.MainResponse.Version version = response.getVersion();
@@ -497,12 +694,59 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
             }
         }.executeInClassLoader();
 
+        if (compactCacheSerialization) {
+            registerCacheSerializers();
+        }
+
         bundleContext.addBundleListener(this);
 
         logger.info(this.getClass().getName() + " service started successfully.");
     }
 
-    private void buildClient() {
+    /**
+     * Parses either a single granularity applied to all the date indexed item types, or a comma separated list of
+     * itemType:granularity pairs, for example event:daily,session:monthly. Unlisted item types are monthly indexed.
+     */
+    private void parseDateIndexGranularity(String granularity) {
+        partitioningByType.clear();
+        defaultPartitioning = IndexPartitioning.MONTHLY;
+        if (StringUtils.isBlank(granularity)) {
+            return;
+        }
+        for (String granularityPart : granularity.split(",")) {
+            String[] typeAndGranularity = granularityPart.split(":");
+            try {
+                if (typeAndGranularity.length == 1) {
+                    defaultPartitioning = IndexPartitioning.fromString(typeAndGranularity[0]);
+                } else {
+                    partitioningByType.put(typeAndGranularity[0].trim(), IndexPartitioning.fromString(typeAndGranularity[1]));
+                }
+            } catch (IllegalArgumentException e) {
+                logger.warn("Unknown date index granularity {}, expected one of {}", granularityPart, Arrays.toString(IndexPartitioning.values()));
+            }
+        }
+        logger.info("Date indexed items partitioned {} by default, with overrides {}", defaultPartitioning, partitioningByType);
+    }
+
+    /**
+     * Builds the client of the interactive reads and, when the pools are separated, the clients of the writes and of
+     * the analytical queries, each with its own connection pool. Otherwise a single client serves all the requests.
+     */
+    private void buildClients() {
+        logger.info("Connecting to ElasticSearch persistence backend using cluster name " + clusterName + " and index prefix " + indexPrefix + "...");
+        if (separateClientPools) {
+            client = buildClient(readClientSettings);
+            writeClient = buildClient(writeClientSettings);
+            analyticsClient = buildClient(analyticsClientSettings);
+            logger.info("Using separate client pools {}, {} and {}", readClientSettings, writeClientSettings, analyticsClientSettings);
+        } else {
+            client = buildClient(null);
+            writeClient = client;
+            analyticsClient = client;
+        }
+    }
+
+    private RestHighLevelClient buildClient(ClientPoolSettings settings) {
         List<Node> nodeList = new ArrayList<>();
         for (String elasticSearchAddress : elasticSearchAddressList) {
             String[] elasticSearchAddressParts = elasticSearchAddress.split(":");
@@ -515,14 +759,20 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
 
         RestClientBuilder clientBuilder = RestClient.builder(nodeList.toArray(new Node[nodeList.size()]));
 
-        if (clientSocketTimeout != null) {
+        Integer socketTimeout = settings != null && settings.getSocketTimeout() != null ? settings.getSocketTimeout() : clientSocketTimeout;
+        if (socketTimeout != null) {
             clientBuilder.setRequestConfigCallback(requestConfigBuilder -> {
-                requestConfigBuilder.setSocketTimeout(clientSocketTimeout);
+                requestConfigBuilder.setSocketTimeout(socketTimeout);
                 return requestConfigBuilder;
             });
         }
 
         clientBuilder.setHttpClientConfigCallback(httpClientBuilder -> {
+            if (settings != null) {
+                httpClientBuilder.setMaxConnTotal(settings.getMaxConnections())
+                        .setMaxConnPerRoute(settings.getMaxConnectionsPerRoute());
+            }
+
             if (sslTrustAllCertificates) {
                 try {
                     final SSLContext sslContext = SSLContext.getInstance("SSL");
@@ -556,50 +806,37 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
             return httpClientBuilder;
         });
 
-        logger.info("Connecting to ElasticSearch persistence backend using cluster name " + clusterName + " and index prefix " + indexPrefix + "...");
-        client = new RestHighLevelClient(clientBuilder);
+        return new RestHighLevelClient(clientBuilder);
     }
 
     public BulkProcessor getBulkProcessor() {
         if (bulkProcessor != null) {
             return bulkProcessor;
         }
-        BulkProcessor.Listener bulkProcessorListener = new BulkProcessor.Listener() {
-            @Override
-            public void beforeBulk(long executionId,
-                                   BulkRequest request) {
-                logger.debug("Before Bulk");
-            }
-
-            @Override
-            public void afterBulk(long executionId,
-                                  BulkRequest request,
-                                  BulkResponse response) {
-                logger.debug("After Bulk");
-            }
-
-            @Override
-            public void afterBulk(long executionId,
-                                  BulkRequest request,
-                                  Throwable failure) {
-                logger.error("After Bulk (failure)", failure);
-            }
-        };
-        BulkProcessor.Builder bulkProcessorBuilder = BulkProcessor.builder(
-                (request, bulkListener) ->
-                        client.bulkAsync(request, RequestOptions.DEFAULT, bulkListener),
-                bulkProcessorListener);
-
+        int concurrentRequests = 1;
         if (bulkProcessorConcurrentRequests != null) {
-            int concurrentRequests = Integer.parseInt(bulkProcessorConcurrentRequests);
-            if (concurrentRequests > 1) {
-                bulkProcessorBuilder.setConcurrentRequests(concurrentRequests);
-            }
+            concurrentRequests = Integer.parseInt(bulkProcessorConcurrentRequests);
         }
-        if (bulkProcessorBulkActions != null) {
-            int bulkActions = Integer.parseInt(bulkProcessorBulkActions);
-            bulkProcessorBuilder.setBulkActions(bulkActions);
+        int bulkActions = bulkProcessorBulkActions != null ? Integer.parseInt(bulkProcessorBulkActions) : 1000;
+        bulkController = new AdaptiveBulkController(metricsService,
+                bulkProcessorAdaptive == null || Boolean.parseBoolean(bulkProcessorAdaptive),
+                bulkProcessorMinBulkActions != null ? Integer.parseInt(bulkProcessorMinBulkActions) : 100,
+                bulkActions,
+                concurrentRequests,
+                TimeValue.parseTimeValue(bulkProcessorTargetLatency, new TimeValue(1, TimeUnit.SECONDS), BULK_PROCESSOR_TARGET_LATENCY).millis(),
+                ByteSizeValue.parseBytesSizeValue(bulkProcessorMaxPendingSize, new ByteSizeValue(50, ByteSizeUnit.MB), BULK_PROCESSOR_MAX_PENDING_SIZE).getBytes(),
+                TimeValue.parseTimeValue(bulkProcessorMaxBackpressureWait, new TimeValue(10, TimeUnit.SECONDS), BULK_PROCESSOR_MAX_BACKPRESSURE_WAIT).millis());
+
+        // the bulk processor is built with the highest values, the controller adjusts the actual ones
+        BulkProcessor.Builder bulkProcessorBuilder = BulkProcessor.builder(
+                bulkController.wrap((request, bulkListener) ->
+                        writeClient.bulkAsync(request, RequestOptions.DEFAULT, bulkListener)),
+                bulkController);
+
+        if (concurrentRequests > 1) {
+            bulkProcessorBuilder.setConcurrentRequests(concurrentRequests);
         }
+        bulkProcessorBuilder.setBulkActions(bulkActions);
         if (bulkProcessorBulkSize != null) {
             bulkProcessorBuilder.setBulkSize(ByteSizeValue.parseBytesSizeValue(bulkProcessorBulkSize, new ByteSizeValue(5, ByteSizeUnit.MB), BULK_PROCESSOR_BULK_SIZE));
         }
@@ -654,6 +891,12 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                         logger.error("Error waiting for bulk operations to flush !", e);
                     }
                 }
+                if (analyticsClient != null && analyticsClient != client) {
+                    analyticsClient.close();
+                }
+                if (writeClient != null && writeClient != client) {
+                    writeClient.close();
+                }
                 if (client != null) {
                     client.close();
                 }
@@ -661,6 +904,7 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
             }
         }.catchingExecuteInClassLoader(true);
 
+        deleteTasksWatcher.shutdownNow();
         bundleContext.removeBundleListener(this);
     }
 
@@ -815,12 +1059,16 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                             }
                         }.execute();
                     } else {
-                        GetRequest getRequest = new GetRequest(getIndex(itemType, dateHint), itemId);
+                        GetRequest getRequest = new GetRequest(getIndex(itemType, dateHint), itemId)
+                                .preference(readClientSettings.getPreference());
                         GetResponse response = client.get(getRequest, RequestOptions.DEFAULT);
                         if (response.isExists()) {
                             String sourceAsString = response.getSourceAsString();
                             final T value = ESCustomObjectMapper.getObjectMapper().readValue(sourceAsString, clazz);
                             setMetadata(value, response.getId(), response.getVersion(), response.getSeqNo(), response.getPrimaryTerm());
+                            if (partialUpdateItemTypesSet.contains(itemType)) {
+                                value.setPersistedSource(ESCustomObjectMapper.getObjectMapper().readValue(sourceAsString, Map.class));
+                            }
                             putInCache(itemId, value);
                             return value;
                         } else {
@@ -879,6 +1127,17 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                     String itemId = item.getItemId();
                     putInCache(itemId, item);
                     String index = getIndex(itemType, itemsMonthlyIndexed.contains(itemType) ? ((TimestampedItem) item).getTimeStamp() : null);
+                    addKnownMonthlyIndex(itemType, index);
+
+                    Map<String, Object> sourceAsMap = null;
+                    if (partialUpdateItemTypesSet.contains(itemType) && (bulkProcessor == null || !useBatching)) {
+                        sourceAsMap = ESCustomObjectMapper.getObjectMapper().readValue(source, Map.class);
+                        // only the changed paths are sent when we know what was persisted, creations stay full writes
+                        if (item.getPersistedSource() != null && partialUpdate(item, index, sourceAsMap, alwaysOverwrite)) {
+                            return true;
+                        }
+                    }
+
                     IndexRequest indexRequest = new IndexRequest(index);
                     indexRequest.id(itemId);
                     indexRequest.source(source, XContentType.JSON);
@@ -903,10 +1162,11 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                     try {
                         if (bulkProcessor == null || !useBatching) {
                             indexRequest.setRefreshPolicy(getRefreshPolicy(item.getItemType()));
-                            IndexResponse response = client.index(indexRequest, RequestOptions.DEFAULT);
+                            IndexResponse response = writeClient.index(indexRequest, RequestOptions.DEFAULT);
                             setMetadata(item, response.getId(), response.getVersion(), response.getSeqNo(), response.getPrimaryTerm());
+                            item.setPersistedSource(sourceAsMap);
                         } else {
-                            bulkProcessor.add(indexRequest);
+                            bulkController.add(bulkProcessor, indexRequest);
                         }
                     } catch (IndexNotFoundException e) {
                         logger.error("Could not find index {}, could not register item type {} with id {} ",
@@ -919,6 +1179,7 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                 }
             }
         }.catchingExecuteInClassLoader(true);
+        invalidateAggregateResults(item.getItemType());
         if (result == null) {
             return false;
         } else {
@@ -926,6 +1187,174 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
         }
     }
 
+    @Override
+    public List<String> save(final List<? extends Item> items) {
+        if (items.size() == 0)
+            return new ArrayList<>();
+
+        List<String> result = new InClassLoaderExecute<List<String>>(metricsService, this.getClass().getName() + ".saveItems", this.bundleContext, this.fatalIllegalStateErrors) {
+            protected List<String> execute(Object... args) throws Exception {
+                long batchRequestStartTime = System.currentTimeMillis();
+
+                BulkRequest bulkRequest = new BulkRequest();
+                WriteRequest.RefreshPolicy refreshPolicy = WriteRequest.RefreshPolicy.NONE;
+                Set<String> itemTypes = new HashSet<>();
+                for (Item item : items) {
+                    String itemType = item.getItemType();
+                    putInCache(item.getItemId(), item);
+                    String index = getIndex(itemType, itemsMonthlyIndexed.contains(itemType) ? ((TimestampedItem) item).getTimeStamp() : null);
+                    addKnownMonthlyIndex(itemType, index);
+
+                    IndexRequest indexRequest = new IndexRequest(index);
+                    indexRequest.id(item.getItemId());
+                    indexRequest.source(ESCustomObjectMapper.getObjectMapper().writeValueAsString(item), XContentType.JSON);
+                    if (routingByType.containsKey(itemType)) {
+                        indexRequest.routing(routingByType.get(itemType));
+                    }
+                    bulkRequest.add(indexRequest);
+                    // the whole request is refreshed if one of its item types requires it
+                    if (itemTypes.add(itemType) && refreshPolicy == WriteRequest.RefreshPolicy.NONE) {
+                        refreshPolicy = getRefreshPolicy(itemType);
+                    }
+                }
+                bulkRequest.setRefreshPolicy(refreshPolicy);
+
+                BulkResponse bulkResponse = writeClient.bulk(bulkRequest, RequestOptions.DEFAULT);
+                logger.debug("{} items saved with bulk request in {}ms", bulkRequest.numberOfActions(), System.currentTimeMillis() - batchRequestStartTime);
+
+                List<String> failedItemsIds = new ArrayList<>();
+                BulkItemResponse[] bulkItemResponses = bulkResponse.getItems();
+                for (int i = 0; i < bulkItemResponses.length; i++) {
+                    BulkItemResponse bulkItemResponse = bulkItemResponses[i];
+                    if (bulkItemResponse.isFailed()) {
+                        logger.warn("Failed to save item {} : {}", bulkItemResponse.getId(), bulkItemResponse.getFailureMessage());
+                        failedItemsIds.add(bulkItemResponse.getId());
+                    } else {
+                        DocWriteResponse response = bulkItemResponse.getResponse();
+                        setMetadata(items.get(i), response.getId(), response.getVersion(), response.getSeqNo(), response.getPrimaryTerm());
+                    }
+                }
+                for (String itemType : itemTypes) {
+                    invalidateAggregateResults(itemType);
+                }
+                return failedItemsIds;
+            }
+        }.catchingExecuteInClassLoader(true);
+
+        return result;
+    }
+
+    /**
+     * Writes only the paths of the item that changed since it was last read or written, as tracked by its persisted source.
+     *
+     * @return false if the stored document doesn't exist anymore and the item has to be fully indexed instead
+     */
+    private boolean partialUpdate(Item item, String index, Map<String, Object> source, boolean alwaysOverwrite) throws IOException {
+        Script script = getPartialUpdateScript(item.getPersistedSource(), source);
+        if (script != null) {
+            UpdateRequest updateRequest = new UpdateRequest(index, item.getItemId());
+            updateRequest.script(script);
+            if (!alwaysOverwrite) {
+                Long seqNo = (Long) item.getSystemMetadata(SEQ_NO);
+                Long primaryTerm = (Long) item.getSystemMetadata(PRIMARY_TERM);
+                if (seqNo != null && primaryTerm != null) {
+                    updateRequest.setIfSeqNo(seqNo);
+                    updateRequest.setIfPrimaryTerm(primaryTerm);
+                }
+            }
+            if (updateRequest.ifSeqNo() == SequenceNumbers.UNASSIGNED_SEQ_NO) {
+                // without a known version ElasticSearch still detects the concurrent writes, only the changed paths are
+                // sent so they can be applied again on top of the other write
+                updateRequest.retryOnConflict(partialUpdateConflictRetries);
+            }
+            if (routingByType.containsKey(item.getItemType())) {
+                updateRequest.routing(routingByType.get(item.getItemType()));
+            }
+            updateRequest.setRefreshPolicy(getRefreshPolicy(item.getItemType()));
+            int conflicts = 0;
+            while (true) {
+                try {
+                    UpdateResponse response = writeClient.update(updateRequest, RequestOptions.DEFAULT);
+                    setMetadata(item, response.getId(), response.getVersion(), response.getSeqNo(), response.getPrimaryTerm());
+                    break;
+                } catch (ElasticsearchStatusException e) {
+                    if (e.status().equals(RestStatus.NOT_FOUND)) {
+                        return false;
+                    }
+                    if (!e.status().equals(RestStatus.CONFLICT) || updateRequest.ifSeqNo() == SequenceNumbers.UNASSIGNED_SEQ_NO
+                            || conflicts >= partialUpdateConflictRetries) {
+                        throw e;
+                    }
+                    // another node wrote the item since it was read: the changed paths are applied again on top of the
+                    // latest version, as long as it doesn't change again in between
+                    conflicts++;
+                    if (metricsService != null && metricsService.isActivated()) {
+                        metricsService.updateCounter(this.getClass().getName() + ".partialUpdateConflicts", 1);
+                    }
+                    GetRequest getRequest = new GetRequest(index, item.getItemId());
+                    getRequest.fetchSourceContext(FetchSourceContext.DO_NOT_FETCH_SOURCE);
+                    getRequest.routing(updateRequest.routing());
+                    GetResponse current = writeClient.get(getRequest, RequestOptions.DEFAULT);
+                    if (!current.isExists()) {
+                        return false;
+                    }
+                    updateRequest.setIfSeqNo(current.getSeqNo());
+                    updateRequest.setIfPrimaryTerm(current.getPrimaryTerm());
+                }
+            }
+        }
+        item.setPersistedSource(source);
+        return true;
+    }
+
+    private Script getPartialUpdateScript(Map<String, Object> previousSource, Map<String, Object> source) {
+        Map<String, Object> fields = new HashMap<>();
+        List<String> removedFields = new ArrayList<>();
+        Map<String, Map<String, Object>> subFields = new HashMap<>();
+        Map<String, List<String>> removedSubFields = new HashMap<>();
+        for (Map.Entry<String, Object> entry : source.entrySet()) {
+            String field = entry.getKey();
+            Object value = entry.getValue();
+            Object previousValue = previousSource.get(field);
+            if (previousSource.containsKey(field) && Objects.equals(previousValue, value)) {
+                continue;
+            }
+            if (previousValue instanceof Map && value instanceof Map) {
+                Map<String, Object> previousSubValues = (Map<String, Object>) previousValue;
+                Map<String, Object> subValues = (Map<String, Object>) value;
+                Map<String, Object> changedSubValues = new HashMap<>();
+                for (Map.Entry<String, Object> subEntry : subValues.entrySet()) {
+                    if (!previousSubValues.containsKey(subEntry.getKey()) || !Objects.equals(previousSubValues.get(subEntry.getKey()), subEntry.getValue())) {
+                        changedSubValues.put(subEntry.getKey(), subEntry.getValue());
+                    }
+                }
+                if (!changedSubValues.isEmpty()) {
+                    subFields.put(field, changedSubValues);
+                }
+                List<String> removedSubValues = previousSubValues.keySet().stream().filter(subField -> !subValues.containsKey(subField)).collect(Collectors.toList());
+                if (!removedSubValues.isEmpty()) {
+                    removedSubFields.put(field, removedSubValues);
+                }
+            } else {
+                fields.put(field, value);
+            }
+        }
+        for (String field : previousSource.keySet()) {
+            if (!source.containsKey(field)) {
+                removedFields.add(field);
+            }
+        }
+        if (fields.isEmpty() && removedFields.isEmpty() && subFields.isEmpty() && removedSubFields.isEmpty()) {
+            return null;
+        }
+        Map<String, Object> params = new HashMap<>();
+        params.put("fields", fields);
+        params.put("removedFields", removedFields);
+        params.put("subFields", subFields);
+        params.put("removedSubFields", removedSubFields);
+        return new Script(ScriptType.INLINE, "painless", PARTIAL_UPDATE_SCRIPT, params);
+    }
+
     @Override
     public boolean update(final Item item, final Date dateHint, final Class clazz, final String propertyName, final Object propertyValue) {
         return update(item, dateHint, clazz, Collections.singletonMap(propertyName, propertyValue));
@@ -944,10 +1373,10 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                     UpdateRequest updateRequest = createUpdateRequest(clazz, dateHint, item, source, alwaysOverwrite);
 
                     if (bulkProcessor == null || !useBatchingForUpdate) {
-                        UpdateResponse response = client.update(updateRequest, RequestOptions.DEFAULT);
+                        UpdateResponse response = writeClient.update(updateRequest, RequestOptions.DEFAULT);
                         setMetadata(item, response.getId(), response.getVersion(), response.getSeqNo(), response.getPrimaryTerm());
                     } else {
-                        bulkProcessor.add(updateRequest);
+                        bulkController.add(bulkProcessor, updateRequest);
                     }
                     return true;
                 } catch (IndexNotFoundException e) {
@@ -955,6 +1384,7 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                 }
             }
         }.catchingExecuteInClassLoader(true);
+        invalidateAggregateResults(Item.getItemType(clazz));
         if (result == null) {
             return false;
         } else {
@@ -994,7 +1424,7 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                     bulkRequest.add(updateRequest);
                 });
 
-                BulkResponse bulkResponse = client.bulk(bulkRequest, RequestOptions.DEFAULT);
+                BulkResponse bulkResponse = writeClient.bulk(bulkRequest, RequestOptions.DEFAULT);
                 logger.debug("{} profiles updated with bulk segment in {}ms", bulkRequest.numberOfActions(), System.currentTimeMillis() - batchRequestStartTime);
 
                 List<String> failedItemsIds = new ArrayList<>();
@@ -1035,7 +1465,7 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                         updateByQueryRequest.setScript(actualScript);
                         updateByQueryRequest.setQuery(conditionESQueryBuilderDispatcher.buildFilter(conditions[i]));
 
-                        BulkByScrollResponse response = client.updateByQuery(updateByQueryRequest, RequestOptions.DEFAULT);
+                        BulkByScrollResponse response = writeClient.updateByQuery(updateByQueryRequest, RequestOptions.DEFAULT);
 
                         if (response.getBulkFailures().size() > 0) {
                             for (BulkItemResponse.Failure failure : response.getBulkFailures()) {
@@ -1063,6 +1493,7 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                 }
             }
         }.catchingExecuteInClassLoader(true);
+        invalidateAggregateResults(Item.getItemType(clazz));
         if (result == null) {
             return false;
         } else {
@@ -1092,10 +1523,10 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                     }
                     updateRequest.script(actualScript);
                     if (bulkProcessor == null) {
-                        UpdateResponse response = client.update(updateRequest, RequestOptions.DEFAULT);
+                        UpdateResponse response = writeClient.update(updateRequest, RequestOptions.DEFAULT);
                         setMetadata(item, response.getId(), response.getVersion(), response.getSeqNo(), response.getPrimaryTerm());
                     } else {
-                        bulkProcessor.add(updateRequest);
+                        bulkController.add(bulkProcessor, updateRequest);
                     }
 
                     return true;
@@ -1104,6 +1535,7 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                 }
             }
         }.catchingExecuteInClassLoader(true);
+        invalidateAggregateResults(Item.getItemType(clazz));
         if (result == null) {
             return false;
         } else {
@@ -1119,13 +1551,14 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                     String itemType = Item.getItemType(clazz);
 
                     DeleteRequest deleteRequest = new DeleteRequest(getIndexNameForQuery(itemType), itemId);
-                    client.delete(deleteRequest, RequestOptions.DEFAULT);
+                    writeClient.delete(deleteRequest, RequestOptions.DEFAULT);
                     return true;
                 } catch (Exception e) {
                     throw new Exception("Cannot remove", e);
                 }
             }
         }.catchingExecuteInClassLoader(true);
+        invalidateAggregateResults(Item.getItemType(clazz));
         if (result == null) {
             return false;
         } else {
@@ -1142,15 +1575,16 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                     BulkRequest deleteByScopeBulkRequest = new BulkRequest();
 
                     final TimeValue keepAlive = TimeValue.timeValueHours(1);
-                    SearchRequest searchRequest = new SearchRequest(getAllIndexForQuery())
-                            .indices(getIndexNameForQuery(itemType))
-                            .scroll(keepAlive);
+                    QueryBuilder queryBuilder = conditionESQueryBuilderDispatcher.getQueryBuilder(query);
+                    SearchRequest searchRequest = createSearchRequest(itemType, queryBuilder)
+                            .scroll(keepAlive)
+                            .preference(analyticsClientSettings.getPreference());
                     SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder()
-                            .query(conditionESQueryBuilderDispatcher.getQueryBuilder(query))
+                            .query(queryBuilder)
                             .size(100);
                     searchRequest.source(searchSourceBuilder);
 
-                    SearchResponse response = client.search(searchRequest, RequestOptions.DEFAULT);
+                    SearchResponse response = analyticsClient.search(searchRequest, RequestOptions.DEFAULT);
 
                     // Scroll until no more hits are returned
                     while (true) {
@@ -1163,7 +1597,7 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
 
                         SearchScrollRequest searchScrollRequest = new SearchScrollRequest(response.getScrollId());
                         searchScrollRequest.scroll(keepAlive);
-                        response = client.scroll(searchScrollRequest, RequestOptions.DEFAULT);
+                        response = analyticsClient.scroll(searchScrollRequest, RequestOptions.DEFAULT);
 
                         // If we have no more hits, exit
                         if (response.getHits().getHits().length == 0) {
@@ -1173,11 +1607,11 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
 
                     ClearScrollRequest clearScrollRequest = new ClearScrollRequest();
                     clearScrollRequest.addScrollId(response.getScrollId());
-                    client.clearScroll(clearScrollRequest, RequestOptions.DEFAULT);
+                    analyticsClient.clearScroll(clearScrollRequest, RequestOptions.DEFAULT);
 
                     // we're done with the scrolling, delete now
                     if (deleteByScopeBulkRequest.numberOfActions() > 0) {
-                        final BulkResponse deleteResponse = client.bulk(deleteByScopeBulkRequest, RequestOptions.DEFAULT);
+                        final BulkResponse deleteResponse = writeClient.bulk(deleteByScopeBulkRequest, RequestOptions.DEFAULT);
                         if (deleteResponse.hasFailures()) {
                             // do something
                             logger.warn("Couldn't remove by query " + query + ":\n{}", deleteResponse.buildFailureMessage());
@@ -1190,6 +1624,7 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                 }
             }
         }.catchingExecuteInClassLoader(true);
+        invalidateAggregateResults(Item.getItemType(clazz));
         if (result == null) {
             return false;
         } else {
@@ -1197,6 +1632,140 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
         }
     }
 
+    @Override
+    public <T extends Item> String removeByQueryAsync(final Condition query, final Class<T> clazz) {
+        return new InClassLoaderExecute<String>(metricsService, this.getClass().getName() + ".removeByQueryAsync", this.bundleContext, this.fatalIllegalStateErrors) {
+            protected String execute(Object... args) throws Exception {
+                try {
+                    String itemType = Item.getItemType(clazz);
+                    QueryBuilder queryBuilder = conditionESQueryBuilderDispatcher.getQueryBuilder(query);
+                    String[] indices = getIndexNamesForQuery(itemType, queryBuilder);
+                    String taskId = indices != null ? submitDeleteByQueryTask(String.join(",", indices), queryBuilder, true) :
+                            submitDeleteByQueryTask(getIndexNameForQuery(itemType), queryBuilder, false);
+                    // the removed items are not known here, so all the cached items of this class are invalidated, once they are removed
+                    onDeleteTaskCompletion(taskId, () -> {
+                        clearCache(clazz);
+                        invalidateAggregateResults(itemType);
+                    });
+                    return taskId;
+                } catch (Exception e) {
+                    throw new Exception("Cannot submit remove by query task", e);
+                }
+            }
+        }.catchingExecuteInClassLoader(true);
+    }
+
+    private String submitDeleteByQueryTask(String indices, QueryBuilder query, boolean ignoreUnavailable) throws IOException {
+        // the 7.x high level client cannot submit a delete by query without waiting for it, so we use the low level client
+        Request request = new Request("POST", "/" + indices + "/_delete_by_query");
+        if (ignoreUnavailable) {
+            request.addParameter("ignore_unavailable", "true");
+        }
+        request.addParameter("wait_for_completion", "false");
+        request.addParameter("conflicts", "proceed");
+        request.addParameter("slices", deleteByQuerySlices);
+        request.addParameter("requests_per_second", deleteByQueryRequestsPerSecond);
+        request.setJsonEntity("{\"query\":" + Strings.toString(query) + "}");
+        Response response = writeClient.getLowLevelClient().performRequest(request);
+        Map<String, Object> taskSubmission = ESCustomObjectMapper.getObjectMapper().readValue(EntityUtils.toString(response.getEntity()), Map.class);
+        String taskId = (String) taskSubmission.get("task");
+        logger.info("Submitted delete by query task {} on indices {}", taskId, indices);
+        return taskId;
+    }
+
+    private void onDeleteTaskCompletion(String taskId, Runnable callback) {
+        onDeleteTaskCompletion(taskId, callback, DELETE_TASK_POLL_INTERVAL);
+    }
+
+    private void onDeleteTaskCompletion(String taskId, Runnable callback, long delay) {
+        if (taskId == null) {
+            return;
+        }
+        deleteTasksWatcher.schedule(() -> {
+            Map<String, Object> taskStatus;
+            try {
+                taskStatus = getTaskStatusRequest(taskId).executeInClassLoader();
+            } catch (Exception e) {
+                // the task may still be running, its status is checked again later
+                long nextDelay = Math.min(2 * delay, DELETE_TASK_MAX_POLL_INTERVAL);
+                logger.warn("Couldn't retrieve the status of delete by query task {}, checking again in {} ms: {}", taskId, nextDelay, e.getMessage());
+                onDeleteTaskCompletion(taskId, callback, nextDelay);
+                return;
+            }
+            if (!isDeleteTaskCompleted(taskId, taskStatus)) {
+                onDeleteTaskCompletion(taskId, callback, DELETE_TASK_POLL_INTERVAL);
+                return;
+            }
+            callback.run();
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Waits for a delete by query task to complete, checking its status periodically.
+     *
+     * @return true if the task completed, false if its status couldn't be retrieved
+     */
+    private boolean waitForDeleteTask(String taskId) throws InterruptedException {
+        if (taskId == null) {
+            return false;
+        }
+        int statusErrors = 0;
+        while (true) {
+            try {
+                if (isDeleteTaskCompleted(taskId, getTaskStatusRequest(taskId).executeInClassLoader())) {
+                    return true;
+                }
+                statusErrors = 0;
+            } catch (Exception e) {
+                if (++statusErrors >= DELETE_TASK_MAX_STATUS_ERRORS) {
+                    logger.error("Couldn't retrieve the status of delete by query task {}, no longer waiting for it", taskId, e);
+                    return false;
+                }
+                logger.warn("Couldn't retrieve the status of delete by query task {}, checking again: {}", taskId, e.getMessage());
+            }
+            Thread.sleep(Math.min(DELETE_TASK_WAIT_INTERVAL << statusErrors, DELETE_TASK_MAX_POLL_INTERVAL));
+        }
+    }
+
+    private boolean isDeleteTaskCompleted(String taskId, Map<String, Object> taskStatus) {
+        if (taskStatus == null) {
+            // the task is unknown, it completed without its result being stored
+            logger.info("Delete by query task {} completed", taskId);
+            return true;
+        }
+        if (!Boolean.TRUE.equals(taskStatus.get("completed"))) {
+            return false;
+        }
+        if (taskStatus.get("error") != null) {
+            logger.warn("Delete by query task {} failed: {}", taskId, taskStatus.get("error"));
+        } else {
+            logger.info("Delete by query task {} completed", taskId);
+        }
+        return true;
+    }
+
+    @Override
+    public Map<String, Object> getTaskStatus(final String taskId) {
+        return getTaskStatusRequest(taskId).catchingExecuteInClassLoader(true);
+    }
+
+    private InClassLoaderExecute<Map<String, Object>> getTaskStatusRequest(final String taskId) {
+        return new InClassLoaderExecute<Map<String, Object>>(metricsService, this.getClass().getName() + ".getTaskStatus", this.bundleContext, this.fatalIllegalStateErrors) {
+            @SuppressWarnings("unchecked")
+            protected Map<String, Object> execute(Object... args) throws Exception {
+                try {
+                    Response response = writeClient.getLowLevelClient().performRequest(new Request("GET", "/_tasks/" + URLEncoder.encode(taskId, "UTF-8")));
+                    return ESCustomObjectMapper.getObjectMapper().readValue(EntityUtils.toString(response.getEntity()), Map.class);
+                } catch (ResponseException e) {
+                    if (e.getResponse().getStatusLine().getStatusCode() == RestStatus.NOT_FOUND.getStatus()) {
+                        return null;
+                    }
+                    throw new Exception("Cannot retrieve status of task " + taskId, e);
+                }
+            }
+        };
+    }
+
 
     public boolean indexTemplateExists(final String templateName) {
         Boolean result = new InClassLoaderExecute<Boolean>(metricsService, this.getClass().getName() + ".indexTemplateExists", this.bundleContext, this.fatalIllegalStateErrors) {
@@ -1279,6 +1848,7 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                 boolean indexExists = client.indices().exists(getIndexRequest, RequestOptions.DEFAULT);
                 if (!indexExists) {
                     internalCreateIndex(index, mappings.get(itemType));
+                    mappingsCache.invalidate(itemType);
                 }
                 return !indexExists;
             }
@@ -1301,6 +1871,7 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                 if (indexExists) {
                     DeleteIndexRequest deleteIndexRequest = new DeleteIndexRequest(index);
                     client.indices().delete(deleteIndexRequest, RequestOptions.DEFAULT);
+                    mappingsCache.invalidate(itemType);
                 }
                 return indexExists;
             }
@@ -1352,6 +1923,7 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
             } else {
                 putMapping(source, getIndex(type));
             }
+            mappingsCache.invalidate(type);
         } catch (IOException ioe) {
             logger.error("Error while creating mapping for type " + type + " and source " + source, ioe);
         }
@@ -1372,6 +1944,7 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
             final String mappingsSource = ESCustomObjectMapper.getObjectMapper().writeValueAsString(mappingsWrapper);
 
             putMapping(mappingsSource, getIndex(itemType));
+            mappingsCache.invalidate(itemType);
         } catch (IOException ioe) {
             logger.error("Error while creating mapping for type " + itemType + " and property " + property.getValueTypeId(), ioe);
         }
@@ -1441,6 +2014,28 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
 
     @Override
     public Map<String, Map<String, Object>> getPropertiesMapping(final String itemType) {
+        Map<String, Map<String, Object>> mappings = getCachedPropertiesMapping(itemType, false);
+        return mappings != null ? MappingsCache.copy(mappings) : null;
+    }
+
+    /**
+     * @param reload whether to load the mappings from the cluster even if they are cached
+     * @return the mappings of the item type, that must not be modified as they may be shared with the mappings cache
+     */
+    private Map<String, Map<String, Object>> getCachedPropertiesMapping(final String itemType, boolean reload) {
+        Map<String, Map<String, Object>> mappings = reload ? null : mappingsCache.get(itemType);
+        if (mappings != null) {
+            if (metricsService != null && metricsService.isActivated()) {
+                metricsService.updateCounter(this.getClass().getName() + ".getPropertiesMapping.cacheHit", 1);
+            }
+            return mappings;
+        }
+        mappings = loadPropertiesMapping(itemType);
+        mappingsCache.put(itemType, mappings);
+        return mappings;
+    }
+
+    private Map<String, Map<String, Object>> loadPropertiesMapping(final String itemType) {
         return new InClassLoaderExecute<Map<String, Map<String, Object>>>(metricsService, this.getClass().getName() + ".getPropertiesMapping", this.bundleContext, this.fatalIllegalStateErrors) {
             @SuppressWarnings("unchecked")
             protected Map<String, Map<String, Object>> execute(Object... args) throws Exception {
@@ -1501,12 +2096,10 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
     }
 
     public Map<String, Object> getPropertyMapping(String property, String itemType) {
-        Map<String, Map<String, Object>> mappings = knownMappings.get(itemType);
-        Map<String, Object> result = getPropertyMapping(property, mappings);
+        Map<String, Object> result = getPropertyMapping(property, getCachedPropertiesMapping(itemType, false));
         if (result == null) {
-            mappings = getPropertiesMapping(itemType);
-            knownMappings.put(itemType, mappings);
-            result = getPropertyMapping(property, mappings);
+            // the property may have been added by dynamic mapping since the mappings were cached
+            result = getPropertyMapping(property, getCachedPropertiesMapping(itemType, true));
         }
         return result;
     }
@@ -1551,7 +2144,7 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                     indexRequest.id(queryName);
                     indexRequest.source(query, XContentType.JSON);
                     indexRequest.setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE);
-                    client.index(indexRequest, RequestOptions.DEFAULT);
+                    writeClient.index(indexRequest, RequestOptions.DEFAULT);
                     return true;
                 } catch (Exception e) {
                     throw new Exception("Cannot save query", e);
@@ -1583,7 +2176,7 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                     String index = getIndex(".percolator", null);
                     DeleteRequest deleteRequest = new DeleteRequest(index);
                     deleteRequest.setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE);
-                    client.delete(deleteRequest, RequestOptions.DEFAULT);
+                    writeClient.delete(deleteRequest, RequestOptions.DEFAULT);
                     return true;
                 } catch (Exception e) {
                     throw new Exception("Cannot delete query", e);
@@ -1720,10 +2313,14 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
             @Override
             protected Long execute(Object... args) throws IOException {
 
-                CountRequest countRequest = new CountRequest(getIndexNameForQuery(itemType));
+                String[] indices = getIndexNamesForQuery(itemType, filter);
+                CountRequest countRequest = indices != null
+                        ? new CountRequest(indices).indicesOptions(IndicesOptions.lenientExpandOpen())
+                        : new CountRequest(getIndexNameForQuery(itemType));
                 SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
                 searchSourceBuilder.query(filter);
                 countRequest.source(searchSourceBuilder);
+                countRequest.preference(readClientSettings.getPreference());
                 CountResponse response = client.count(countRequest, RequestOptions.DEFAULT);
                 return response.getCount();
             }
@@ -1742,7 +2339,7 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                 try {
                     String itemType = Item.getItemType(clazz);
                     TimeValue keepAlive = TimeValue.timeValueHours(1);
-                    SearchRequest searchRequest = new SearchRequest(getIndexNameForQuery(itemType));
+                    SearchRequest searchRequest = createSearchRequest(itemType, query);
                     SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder()
                             .fetchSource(true)
                             .seqNoAndPrimaryTerm(true)
@@ -1793,7 +2390,11 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                     }
                     searchSourceBuilder.version(true);
                     searchRequest.source(searchSourceBuilder);
-                    SearchResponse response = client.search(searchRequest, RequestOptions.DEFAULT);
+                    // scrolls go through the analytics client, so that exports don't hold the interactive connections
+                    ClientPoolSettings searchClientSettings = searchRequest.scroll() != null ? analyticsClientSettings : readClientSettings;
+                    RestHighLevelClient searchClient = searchRequest.scroll() != null ? analyticsClient : client;
+                    searchRequest.preference(searchClientSettings.getPreference());
+                    SearchResponse response = searchClient.search(searchRequest, RequestOptions.DEFAULT);
 
                     if (size == -1) {
                         // Scroll until no more hits are returned
@@ -1809,7 +2410,7 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
 
                             SearchScrollRequest searchScrollRequest = new SearchScrollRequest(response.getScrollId());
                             searchScrollRequest.scroll(keepAlive);
-                            response = client.scroll(searchScrollRequest, RequestOptions.DEFAULT);
+                            response = searchClient.scroll(searchScrollRequest, RequestOptions.DEFAULT);
 
                             // If we have no more hits, exit
                             if (response.getHits().getHits().length == 0) {
@@ -1818,7 +2419,7 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                         }
                         ClearScrollRequest clearScrollRequest = new ClearScrollRequest();
                         clearScrollRequest.addScrollId(response.getScrollId());
-                        client.clearScroll(clearScrollRequest, RequestOptions.DEFAULT);
+                        searchClient.clearScroll(clearScrollRequest, RequestOptions.DEFAULT);
                     } else {
                         SearchHits searchHits = response.getHits();
                         scrollIdentifier = response.getScrollId();
@@ -1828,7 +2429,7 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                             // we have no results, we must clear the scroll request immediately.
                             ClearScrollRequest clearScrollRequest = new ClearScrollRequest();
                             clearScrollRequest.addScrollId(response.getScrollId());
-                            client.clearScroll(clearScrollRequest, RequestOptions.DEFAULT);
+                            searchClient.clearScroll(clearScrollRequest, RequestOptions.DEFAULT);
                         }
                         for (SearchHit searchHit : searchHits) {
                             String sourceAsString = searchHit.getSourceAsString();
@@ -1868,12 +2469,12 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
 
                     SearchScrollRequest searchScrollRequest = new SearchScrollRequest(scrollIdentifier);
                     searchScrollRequest.scroll(keepAlive);
-                    SearchResponse response = client.scroll(searchScrollRequest, RequestOptions.DEFAULT);
+                    SearchResponse response = analyticsClient.scroll(searchScrollRequest, RequestOptions.DEFAULT);
 
                     if (response.getHits().getHits().length == 0) {
                         ClearScrollRequest clearScrollRequest = new ClearScrollRequest();
                         clearScrollRequest.addScrollId(response.getScrollId());
-                        client.clearScroll(clearScrollRequest, RequestOptions.DEFAULT);
+                        analyticsClient.clearScroll(clearScrollRequest, RequestOptions.DEFAULT);
                     } else {
                         for (SearchHit searchHit : response.getHits().getHits()) {
                             // add hit to results
@@ -1915,6 +2516,37 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
         return aggregateQuery(filter, aggregate, itemType, true, size);
     }
 
+    @Override
+    public Map<String, Long> aggregateQuery(Condition filter, BaseAggregate aggregate, String itemType, long maxStaleness, TimeUnit unit) {
+        return cachedAggregateQuery(filter, aggregate, itemType, false, unit.toMillis(maxStaleness));
+    }
+
+    @Override
+    public Map<String, Long> aggregateWithOptimizedQuery(Condition filter, BaseAggregate aggregate, String itemType, long maxStaleness, TimeUnit unit) {
+        return cachedAggregateQuery(filter, aggregate, itemType, true, unit.toMillis(maxStaleness));
+    }
+
+    private Map<String, Long> cachedAggregateQuery(Condition filter, BaseAggregate aggregate, String itemType, boolean optimizedQuery, long maxStaleness) {
+        String key = null;
+        if (maxStaleness > 0 && aggregateResultCache.isEnabled()) {
+            key = aggregateResultCache.buildKey("aggregateQuery", itemType, optimizedQuery, filter,
+                    aggregate != null ? aggregate.getClass().getName() : null, aggregate);
+        }
+        if (key == null) {
+            return aggregateQuery(filter, aggregate, itemType, optimizedQuery, aggregateQueryBucketSize);
+        }
+        Map<String, Long> result = aggregateResultCache.get(key, maxStaleness);
+        updateAggregateCacheMetrics(result != null);
+        if (result == null) {
+            long generation = aggregateResultCache.getGeneration(itemType);
+            result = aggregateQuery(filter, aggregate, itemType, optimizedQuery, aggregateQueryBucketSize);
+            if (result != null) {
+                aggregateResultCache.put(key, itemType, generation, result);
+            }
+        }
+        return result;
+    }
+
     private Map<String, Long> aggregateQuery(final Condition filter, final BaseAggregate aggregate, final String itemType,
             final boolean optimizedQuery, int queryBucketSize) {
         return new InClassLoaderExecute<Map<String, Long>>(metricsService, this.getClass().getName() + ".aggregateQuery", this.bundleContext, this.fatalIllegalStateErrors) {
@@ -1923,7 +2555,10 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
             protected Map<String, Long> execute(Object... args) throws IOException {
                 Map<String, Long> results = new LinkedHashMap<String, Long>();
 
-                SearchRequest searchRequest = new SearchRequest(getIndexNameForQuery(itemType));
+                QueryBuilder filterQuery = filter != null ? conditionESQueryBuilderDispatcher.buildFilter(filter) : null;
+                // the global aggregation used by non optimized queries counts all the documents of the searched indices
+                SearchRequest searchRequest = optimizedQuery && filterQuery != null
+                        ? createSearchRequest(itemType, filterQuery) : new SearchRequest(getIndexNameForQuery(itemType));
                 SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
                 searchSourceBuilder.size(0);
                 searchSourceBuilder.query(QueryBuilders.matchAllQuery());
@@ -2006,12 +2641,12 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                         searchSourceBuilder.aggregation(aggregationBuilder);
                     }
 
-                    if (filter != null) {
-                        searchSourceBuilder.query(conditionESQueryBuilderDispatcher.buildFilter(filter));
+                    if (filterQuery != null) {
+                        searchSourceBuilder.query(filterQuery);
                     }
                 } else {
-                    if (filter != null) {
-                        AggregationBuilder filterAggregation = AggregationBuilders.filter("filter", conditionESQueryBuilderDispatcher.buildFilter(filter));
+                    if (filterQuery != null) {
+                        AggregationBuilder filterAggregation = AggregationBuilders.filter("filter", filterQuery);
                         for (AggregationBuilder aggregationBuilder : lastAggregation) {
                             filterAggregation.subAggregation(aggregationBuilder);
                         }
@@ -2036,7 +2671,8 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                                     .HeapBufferedResponseConsumerFactory(aggQueryMaxResponseSizeHttp));
                 }
 
-                SearchResponse response = client.search(searchRequest, builder.build());
+                searchRequest.preference(analyticsClientSettings.getPreference());
+                SearchResponse response = analyticsClient.search(searchRequest, builder.build());
                 Aggregations aggregations = response.getAggregations();
 
 
@@ -2143,20 +2779,17 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                 GetIndexResponse getIndexResponse = client.indices().get(getIndexRequest, RequestOptions.DEFAULT);
                 String[] indices = getIndexResponse.getIndices();
 
-                SimpleDateFormat d = new SimpleDateFormat("yyyy-MM");
-
+                // whole partitions are dropped, a partition still holding items at the date is kept
                 List<String> toDelete = new ArrayList<String>();
                 for (String currentIndexName : indices) {
                     int indexDatePrefixPos = currentIndexName.indexOf(INDEX_DATE_PREFIX);
                     if (indexDatePrefixPos > -1) {
-                        try {
-                            Date indexDate = d.parse(currentIndexName.substring(indexDatePrefixPos + INDEX_DATE_PREFIX.length()));
-
-                            if (indexDate.before(date)) {
-                                toDelete.add(currentIndexName);
-                            }
-                        } catch (ParseException e) {
-                            throw new Exception("Cannot parse index name " + currentIndexName, e);
+                        QueryTimeRange indexRange = IndexPartitioning.getAnyRange(currentIndexName.substring(indexDatePrefixPos + INDEX_DATE_PREFIX.length()));
+                        if (indexRange == null) {
+                            throw new Exception("Cannot parse index name " + currentIndexName);
+                        }
+                        if (indexRange.getTo() < date.getTime()) {
+                            toDelete.add(currentIndexName);
                         }
                     }
                 }
@@ -2167,60 +2800,68 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                 return null;
             }
         }.catchingExecuteInClassLoader(true);
+        aggregateResultCache.invalidateAll();
+        mappingsCache.invalidateAll();
+        knownMonthlyIndicesLoadTimes.clear();
     }
 
     @Override
     public void purge(final String scope) {
         new InClassLoaderExecute<Void>(metricsService, this.getClass().getName() + ".purgeWithScope", this.bundleContext, this.fatalIllegalStateErrors) {
             @Override
-            protected Void execute(Object... args) throws IOException {
-                QueryBuilder query = termQuery("scope", scope);
-
-                BulkRequest deleteByScopeBulkRequest = new BulkRequest();
-
-                final TimeValue keepAlive = TimeValue.timeValueHours(1);
-                SearchRequest searchRequest = new SearchRequest(getAllIndexForQuery()).scroll(keepAlive);
-                SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder()
-                        .query(query)
-                        .size(100);
-                searchRequest.source(searchSourceBuilder);
-                SearchResponse response = client.search(searchRequest, RequestOptions.DEFAULT);
-
-                // Scroll until no more hits are returned
-                while (true) {
-
-                    for (SearchHit hit : response.getHits().getHits()) {
-                        // add hit to bulk delete
-                        DeleteRequest deleteRequest = new DeleteRequest(hit.getIndex(), hit.getId());
-                        deleteByScopeBulkRequest.add(deleteRequest);
-                    }
-
-                    SearchScrollRequest searchScrollRequest = new SearchScrollRequest(response.getScrollId());
-                    searchScrollRequest.scroll(keepAlive);
-                    response = client.scroll(searchScrollRequest, RequestOptions.DEFAULT);
-
-                    // If we have no more hits, exit
-                    if (response.getHits().getHits().length == 0) {
-                        ClearScrollRequest clearScrollRequest = new ClearScrollRequest();
-                        clearScrollRequest.addScrollId(response.getScrollId());
-                        client.clearScroll(clearScrollRequest, RequestOptions.DEFAULT);
-                        break;
-                    }
+            protected Void execute(Object... args) throws Exception {
+                // the deletion runs as a task so that it isn't bound to the request timeout, this method waits for it
+                String taskId = submitDeleteByQueryTask(getAllIndexForQuery(), termQuery("scope", scope), false);
+                boolean completed = false;
+                try {
+                    completed = waitForDeleteTask(taskId);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    logger.warn("Interrupted while waiting for the purge of scope {}, delete by query task {} keeps running", scope, taskId);
                 }
-
-                // we're done with the scrolling, delete now
-                if (deleteByScopeBulkRequest.numberOfActions() > 0) {
-                    final BulkResponse deleteResponse = client.bulk(deleteByScopeBulkRequest, RequestOptions.DEFAULT);
-                    if (deleteResponse.hasFailures()) {
-                        // do something
-                        logger.warn("Couldn't delete from scope " + scope + ":\n{}", deleteResponse.buildFailureMessage());
-                    }
+                if (completed) {
+                    aggregateResultCache.invalidateAll();
+                } else {
+                    onDeleteTaskCompletion(taskId, () -> aggregateResultCache.invalidateAll());
                 }
                 return null;
             }
         }.catchingExecuteInClassLoader(true);
     }
 
+    @Override
+    public String purgeAsync(final String scope) {
+        return new InClassLoaderExecute<String>(metricsService, this.getClass().getName() + ".purgeWithScopeAsync", this.bundleContext, this.fatalIllegalStateErrors) {
+            @Override
+            protected String execute(Object... args) throws IOException {
+                String taskId = submitDeleteByQueryTask(getAllIndexForQuery(), termQuery("scope", scope), false);
+                onDeleteTaskCompletion(taskId, () -> aggregateResultCache.invalidateAll());
+                return taskId;
+            }
+        }.catchingExecuteInClassLoader(true);
+    }
+
+    @Override
+    public Map<String, Double> getSingleValuesMetrics(Condition condition, String[] metrics, String field, String itemType, long maxStaleness, TimeUnit unit) {
+        String key = null;
+        if (maxStaleness > 0 && aggregateResultCache.isEnabled()) {
+            key = aggregateResultCache.buildKey("singleValuesMetrics", itemType, condition, metrics, field);
+        }
+        if (key == null) {
+            return getSingleValuesMetrics(condition, metrics, field, itemType);
+        }
+        Map<String, Double> result = aggregateResultCache.get(key, unit.toMillis(maxStaleness));
+        updateAggregateCacheMetrics(result != null);
+        if (result == null) {
+            long generation = aggregateResultCache.getGeneration(itemType);
+            result = getSingleValuesMetrics(condition, metrics, field, itemType);
+            if (result != null) {
+                aggregateResultCache.put(key, itemType, generation, result);
+            }
+        }
+        return result;
+    }
+
     @Override
     public Map<String, Double> getSingleValuesMetrics(final Condition condition, final String[] metrics, final String field, final String itemType) {
         return new InClassLoaderExecute<Map<String, Double>>(metricsService, this.getClass().getName() + ".getSingleValuesMetrics", this.bundleContext, this.fatalIllegalStateErrors) {
@@ -2229,11 +2870,12 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
             protected Map<String, Double> execute(Object... args) throws IOException {
                 Map<String, Double> results = new LinkedHashMap<String, Double>();
 
-                SearchRequest searchRequest = new SearchRequest(getIndexNameForQuery(itemType));
+                QueryBuilder filterQuery = conditionESQueryBuilderDispatcher.buildFilter(condition);
+                SearchRequest searchRequest = createSearchRequest(itemType, filterQuery);
                 SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder()
                         .size(0)
                         .query(QueryBuilders.matchAllQuery());
-                AggregationBuilder filterAggregation = AggregationBuilders.filter("metrics", conditionESQueryBuilderDispatcher.buildFilter(condition));
+                AggregationBuilder filterAggregation = AggregationBuilders.filter("metrics", filterQuery);
 
                 if (metrics != null) {
                     for (String metric : metrics) {
@@ -2261,7 +2903,8 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
                 }
                 searchSourceBuilder.aggregation(filterAggregation);
                 searchRequest.source(searchSourceBuilder);
-                SearchResponse response = client.search(searchRequest, RequestOptions.DEFAULT);
+                searchRequest.preference(analyticsClientSettings.getPreference());
+                SearchResponse response = analyticsClient.search(searchRequest, RequestOptions.DEFAULT);
 
                 Aggregations aggregations = response.getAggregations();
                 if (aggregations != null) {
@@ -2356,6 +2999,43 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
         }
     }
 
+    /**
+     * Registers the compact serializers for the cached items on the running Hazelcast instance. This is done here
+     * rather than in the Hazelcast configuration as the instance is created before this bundle is available to its
+     * class loader.
+     */
+    private void registerCacheSerializers() {
+        HazelcastInstance instance = Hazelcast.getHazelcastInstanceByName(hazelcastInstance.getName());
+        if (!(instance instanceof SerializationServiceSupport)) {
+            logger.warn("Unable to access the Hazelcast serialization service, cached items will use Java serialization");
+            return;
+        }
+        SerializationService serializationService = ((SerializationServiceSupport) instance).getSerializationService();
+        if (!(serializationService instanceof AbstractSerializationService)) {
+            logger.warn("Unsupported Hazelcast serialization service {}, cached items will use Java serialization", serializationService.getClass().getName());
+            return;
+        }
+        try {
+            ((AbstractSerializationService) serializationService).register(Item.class, new ItemStreamSerializer());
+            ((AbstractSerializationService) serializationService).register(Condition.class, new ConditionStreamSerializer());
+        } catch (IllegalStateException e) {
+            // the serializers were already registered by a previous start of this bundle
+            logger.info("Compact cache serializers already registered: {}", e.getMessage());
+        }
+    }
+
+    private void invalidateAggregateResults(String itemType) {
+        if (aggregateQueryCacheInvalidateOnWrite) {
+            aggregateResultCache.invalidate(itemType);
+        }
+    }
+
+    private void updateAggregateCacheMetrics(boolean hit) {
+        if (metricsService != null && metricsService.isActivated()) {
+            metricsService.updateCounter(this.getClass().getName() + (hit ? ".aggregateCacheHits" : ".aggregateCacheMisses"), 1);
+        }
+    }
+
     private <T extends Item> boolean isCacheActiveForClass(String className) {
         if (itemClassesToCacheSet.contains("*")) {
             return true;
@@ -2393,6 +3073,14 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
         return itemCache.remove(itemId);
     }
 
+    private void clearCache(Class clazz) {
+        String className = clazz.getName();
+        if (!isCacheActiveForClass(className)) {
+            return;
+        }
+        hazelcastInstance.getMap(className).clear();
+    }
+
     private String getAllIndexForQuery() {
         return indexPrefix + "*";
     }
@@ -2405,8 +3093,86 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
         return indexPrefix + "-" + itemType.toLowerCase() + "-" + INDEX_DATE_PREFIX + "*";
     }
 
+    private SearchRequest createSearchRequest(String itemType, QueryBuilder query) throws IOException {
+        String[] indices = getIndexNamesForQuery(itemType, query);
+        if (indices == null) {
+            return new SearchRequest(getIndexNameForQuery(itemType));
+        }
+        // the index of the current month may not have been created yet
+        return new SearchRequest(indices).indicesOptions(IndicesOptions.lenientExpandOpen());
+    }
+
+    /**
+     * @return the monthly indices that may hold items of the given type matching the query, according to the range of
+     * time stamps required by the query, or null if all the indices of the item type must be searched
+     */
+    private String[] getIndexNamesForQuery(String itemType, QueryBuilder query) throws IOException {
+        if (!timeRangeIndexPruning || query == null || !itemsMonthlyIndexed.contains(itemType)) {
+            return null;
+        }
+        QueryTimeRange range = QueryTimeRange.of(query, "timeStamp");
+        if (range.isUnbounded()) {
+            return null;
+        }
+        // items are stored in the index of the partition of their time stamp in the time zone of the node that saved them
+        long margin = TimeUnit.DAYS.toMillis(1);
+        range = new QueryTimeRange(range.getFrom() == Long.MIN_VALUE ? Long.MIN_VALUE : range.getFrom() - margin,
+                range.getTo() == Long.MAX_VALUE ? Long.MAX_VALUE : range.getTo() + margin);
+
+        Set<String> indices = new TreeSet<>();
+        for (String index : getKnownMonthlyIndices(itemType)) {
+            if (dateIndexOverlaps(index, range)) {
+                indices.add(index);
+            }
+        }
+        // other nodes may have started writing to the index of the new month since the indices were listed
+        long now = System.currentTimeMillis();
+        for (long date : new long[]{now - margin, now, now + margin}) {
+            String index = getIndex(itemType, new Date(date));
+            if (dateIndexOverlaps(index, range)) {
+                indices.add(index);
+            }
+        }
+        if (indices.isEmpty()) {
+            return null;
+        }
+        if (metricsService != null && metricsService.isActivated()) {
+            metricsService.updateCounter(this.getClass().getName() + ".prunedIndexQueries", 1);
+        }
+        return indices.toArray(new String[0]);
+    }
+
+    private boolean dateIndexOverlaps(String index, QueryTimeRange range) {
+        int datePos = index.lastIndexOf(INDEX_DATE_PREFIX);
+        if (datePos < 0) {
+            return true;
+        }
+        QueryTimeRange indexRange = IndexPartitioning.getAnyRange(index.substring(datePos + INDEX_DATE_PREFIX.length()));
+        return indexRange == null || range.overlaps(indexRange.getFrom(), indexRange.getTo());
+    }
+
+    private Set<String> getKnownMonthlyIndices(String itemType) throws IOException {
+        Long loadTime = knownMonthlyIndicesLoadTimes.get(itemType);
+        Set<String> indices = knownMonthlyIndices.get(itemType);
+        if (indices == null || loadTime == null || System.currentTimeMillis() - loadTime > mappingsCache.getRefreshInterval()) {
+            GetIndexRequest getIndexRequest = new GetIndexRequest(getMonthlyIndexForQuery(itemType));
+            indices = ConcurrentHashMap.newKeySet();
+            indices.addAll(Arrays.asList(client.indices().get(getIndexRequest, RequestOptions.DEFAULT).getIndices()));
+            knownMonthlyIndices.put(itemType, indices);
+            knownMonthlyIndicesLoadTimes.put(itemType, System.currentTimeMillis());
+        }
+        return indices;
+    }
+
+    private void addKnownMonthlyIndex(String itemType, String index) {
+        Set<String> indices = knownMonthlyIndices.get(itemType);
+        if (indices != null && itemsMonthlyIndexed.contains(itemType)) {
+            indices.add(index);
+        }
+    }
+
     private String getIndex(String itemType, Date dateHint) {
-        String indexItemTypePart = itemsMonthlyIndexed.contains(itemType) && dateHint != null ? itemType + "-" + getMonthlyIndexPart(dateHint) : itemType;
+        String indexItemTypePart = itemsMonthlyIndexed.contains(itemType) && dateHint != null ? itemType + "-" + getDateIndexPart(itemType, dateHint) : itemType;
         return getIndex(indexItemTypePart);
     }
 
@@ -2414,9 +3180,8 @@ public class ElasticSearchPersistenceServiceImpl implements PersistenceService,
         return (indexPrefix + "-" + indexItemTypePart).toLowerCase();
     }
 
-    private String getMonthlyIndexPart(Date date) {
-        String d = new SimpleDateFormat("yyyy-MM").format(date);
-        return INDEX_DATE_PREFIX + d;
+    private String getDateIndexPart(String itemType, Date date) {
+        return INDEX_DATE_PREFIX + partitioningByType.getOrDefault(itemType, defaultPartitioning).getPartName(date);
     }
 
     private WriteRequest.RefreshPolicy getRefreshPolicy(String itemType) {
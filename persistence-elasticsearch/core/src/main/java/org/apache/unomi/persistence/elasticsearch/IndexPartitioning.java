@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.persistence.elasticsearch;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.time.temporal.ChronoField;
+import java.time.temporal.IsoFields;
+import java.time.temporal.TemporalAdjusters;
+import java.util.Date;
+
+/**
+ * The time partitioning of the indices of date indexed items (events, sessions). Each item is stored in the index of
+ * the partition of its time stamp, in the time zone of the node, so that it can always be found again from its time
+ * stamp. Partitions are named after their first day and the names of the different granularities never overlap, so
+ * indices created with a previous granularity are still recognized after the granularity of an item type changed.
+ */
+public enum IndexPartitioning {
+
+    DAILY("uuuu-MM-dd") {
+        @Override
+        protected LocalDate getStart(LocalDate date) {
+            return date;
+        }
+
+        @Override
+        protected LocalDate getNextStart(LocalDate start) {
+            return start.plusDays(1);
+        }
+    },
+
+    WEEKLY(new DateTimeFormatterBuilder()
+            .appendValue(IsoFields.WEEK_BASED_YEAR, 4)
+            .appendLiteral("-w")
+            .appendValue(IsoFields.WEEK_OF_WEEK_BASED_YEAR, 2)
+            .parseDefaulting(ChronoField.DAY_OF_WEEK, DayOfWeek.MONDAY.getValue())
+            .toFormatter()) {
+        @Override
+        protected LocalDate getStart(LocalDate date) {
+            return date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+        }
+
+        @Override
+        protected LocalDate getNextStart(LocalDate start) {
+            return start.plusWeeks(1);
+        }
+    },
+
+    MONTHLY(new DateTimeFormatterBuilder()
+            .appendPattern("uuuu-MM")
+            .parseDefaulting(ChronoField.DAY_OF_MONTH, 1)
+            .toFormatter()) {
+        @Override
+        protected LocalDate getStart(LocalDate date) {
+            return date.withDayOfMonth(1);
+        }
+
+        @Override
+        protected LocalDate getNextStart(LocalDate start) {
+            return start.plusMonths(1);
+        }
+    };
+
+    private final DateTimeFormatter formatter;
+
+    IndexPartitioning(String pattern) {
+        this(DateTimeFormatter.ofPattern(pattern));
+    }
+
+    IndexPartitioning(DateTimeFormatter formatter) {
+        this.formatter = formatter.withResolverStyle(ResolverStyle.STRICT);
+    }
+
+    protected abstract LocalDate getStart(LocalDate date);
+
+    protected abstract LocalDate getNextStart(LocalDate start);
+
+    /**
+     * @return the name part, without the date prefix, of the partition holding the given date
+     */
+    public String getPartName(Date date) {
+        return formatter.format(date.toInstant().atZone(ZoneId.systemDefault()).toLocalDate());
+    }
+
+    /**
+     * @return the time range, in milliseconds since the epoch and inclusive bounds, covered by the partition with the
+     * given name part, or null if the name is not one of this granularity
+     */
+    public QueryTimeRange getRange(String partName) {
+        LocalDate start;
+        try {
+            start = getStart(LocalDate.from(formatter.parse(partName)));
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+        ZoneId zone = ZoneId.systemDefault();
+        return new QueryTimeRange(start.atStartOfDay(zone).toInstant().toEpochMilli(),
+                getNextStart(start).atStartOfDay(zone).toInstant().toEpochMilli() - 1);
+    }
+
+    /**
+     * @return the time range covered by the partition with the given name part, whatever its granularity, or null if
+     * the name is not a partition name
+     */
+    public static QueryTimeRange getAnyRange(String partName) {
+        for (IndexPartitioning partitioning : values()) {
+            QueryTimeRange range = partitioning.getRange(partName);
+            if (range != null) {
+                return range;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param value a granularity name, case insensitive
+     * @return the matching partitioning
+     * @throws IllegalArgumentException if the value is not a known granularity
+     */
+    public static IndexPartitioning fromString(String value) {
+        return valueOf(value.trim().toUpperCase());
+    }
+}
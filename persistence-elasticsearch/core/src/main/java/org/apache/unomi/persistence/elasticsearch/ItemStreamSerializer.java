@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.persistence.elasticsearch;
+
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import org.apache.unomi.api.CustomItem;
+import org.apache.unomi.api.Item;
+import org.apache.unomi.api.Patch;
+import org.apache.unomi.api.Persona;
+import org.apache.unomi.api.Profile;
+import org.apache.unomi.api.PropertyType;
+import org.apache.unomi.api.Session;
+import org.apache.unomi.api.SourceItem;
+import org.apache.unomi.api.Topic;
+import org.apache.unomi.api.actions.ActionType;
+import org.apache.unomi.api.campaigns.Campaign;
+import org.apache.unomi.api.campaigns.events.CampaignEvent;
+import org.apache.unomi.api.conditions.ConditionType;
+import org.apache.unomi.api.goals.Goal;
+import org.apache.unomi.api.lists.UserList;
+import org.apache.unomi.api.rules.Rule;
+import org.apache.unomi.api.rules.RuleStatistics;
+import org.apache.unomi.api.segments.Scoring;
+import org.apache.unomi.api.segments.Segment;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Compact Hazelcast serializer for the items stored in the persistence cache. The ElasticSearch sequence number and
+ * primary term, which are not part of the JSON representation, are written after the item so that optimistic
+ * concurrency control still works on cached items.
+ * Events are not written in the compact form as their JSON representation doesn't hold the profile and session.
+ */
+public class ItemStreamSerializer extends CompactStreamSerializer<Item> {
+
+    public static final int TYPE_ID = 1001;
+
+    public ItemStreamSerializer() {
+        // append only: the position of each class is part of the serialized form
+        super(Arrays.asList(Rule.class, Segment.class, Scoring.class, PropertyType.class, ConditionType.class,
+                ActionType.class, Goal.class, Campaign.class, CampaignEvent.class, Topic.class, SourceItem.class,
+                Patch.class, UserList.class, RuleStatistics.class, Profile.class, Persona.class, Session.class,
+                CustomItem.class));
+    }
+
+    @Override
+    public int getTypeId() {
+        return TYPE_ID;
+    }
+
+    @Override
+    protected void writeExtraState(ObjectDataOutput out, Item item) throws IOException {
+        writeNullableLong(out, item.getSystemMetadata(ElasticSearchPersistenceServiceImpl.SEQ_NO));
+        writeNullableLong(out, item.getSystemMetadata(ElasticSearchPersistenceServiceImpl.PRIMARY_TERM));
+    }
+
+    @Override
+    protected void readExtraState(ObjectDataInput in, Item item) throws IOException {
+        Long seqNo = readNullableLong(in);
+        if (seqNo != null) {
+            item.setSystemMetadata(ElasticSearchPersistenceServiceImpl.SEQ_NO, seqNo);
+        }
+        Long primaryTerm = readNullableLong(in);
+        if (primaryTerm != null) {
+            item.setSystemMetadata(ElasticSearchPersistenceServiceImpl.PRIMARY_TERM, primaryTerm);
+        }
+    }
+
+    private static void writeNullableLong(ObjectDataOutput out, Object value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(((Number) value).longValue());
+        }
+    }
+
+    private static Long readNullableLong(ObjectDataInput in) throws IOException {
+        return in.readBoolean() ? in.readLong() : null;
+    }
+}
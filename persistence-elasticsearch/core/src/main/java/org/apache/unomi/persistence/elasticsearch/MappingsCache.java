@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.persistence.elasticsearch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the merged properties mappings of each item type in memory so that reading them doesn't require a request to
+ * the cluster. An entry is dropped when the mappings of its item type are changed through the persistence service, and
+ * is reloaded once it is older than the refresh interval so that fields added by dynamic mapping or by newly created
+ * monthly indices are eventually seen.
+ */
+public class MappingsCache {
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile long refreshInterval;
+
+    private static class Entry {
+        final long timestamp;
+        final Map<String, Map<String, Object>> mappings;
+
+        Entry(long timestamp, Map<String, Map<String, Object>> mappings) {
+            this.timestamp = timestamp;
+            this.mappings = mappings;
+        }
+    }
+
+    public MappingsCache(long refreshInterval) {
+        this.refreshInterval = refreshInterval;
+    }
+
+    /**
+     * @param refreshInterval the age in milliseconds after which cached mappings are reloaded, 0 to disable the cache
+     */
+    public void setRefreshInterval(long refreshInterval) {
+        this.refreshInterval = refreshInterval;
+    }
+
+    public long getRefreshInterval() {
+        return refreshInterval;
+    }
+
+    /**
+     * @return the cached mappings of the item type, null if they aren't cached or are too old. The returned maps are
+     * shared and must not be modified.
+     */
+    public Map<String, Map<String, Object>> get(String itemType) {
+        Entry entry = entries.get(itemType);
+        if (entry == null || System.currentTimeMillis() - entry.timestamp > refreshInterval) {
+            return null;
+        }
+        return entry.mappings;
+    }
+
+    public void put(String itemType, Map<String, Map<String, Object>> mappings) {
+        if (refreshInterval > 0 && mappings != null) {
+            entries.put(itemType, new Entry(System.currentTimeMillis(), mappings));
+        }
+    }
+
+    public void invalidate(String itemType) {
+        entries.remove(itemType);
+    }
+
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    /**
+     * @return a deep copy of the mappings, that callers are free to modify
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T copy(T mappings) {
+        if (mappings instanceof Map) {
+            Map<Object, Object> copy = new HashMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) mappings).entrySet()) {
+                copy.put(entry.getKey(), copy(entry.getValue()));
+            }
+            return (T) copy;
+        } else if (mappings instanceof List) {
+            List<Object> copy = new ArrayList<>();
+            for (Object value : (List<?>) mappings) {
+                copy.add(copy(value));
+            }
+            return (T) copy;
+        }
+        return mappings;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.persistence.elasticsearch;
+
+import org.elasticsearch.common.time.DateFormatter;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.ConstantScoreQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.RangeQueryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The range of values of a date field that documents can have to match a query, derived from the range queries on
+ * that field the query requires. Used to only send a query to the monthly indices that can hold matching documents.
+ */
+public class QueryTimeRange {
+
+    private static final Logger logger = LoggerFactory.getLogger(QueryTimeRange.class.getName());
+
+    private static final DateFormatter DEFAULT_FORMATTER = DateFormatter.forPattern("strict_date_optional_time||epoch_millis");
+
+    public static final QueryTimeRange UNBOUNDED = new QueryTimeRange(Long.MIN_VALUE, Long.MAX_VALUE);
+
+    private final long from;
+    private final long to;
+
+    public QueryTimeRange(long from, long to) {
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * @return the lower bound in milliseconds since the epoch, Long.MIN_VALUE if there is none
+     */
+    public long getFrom() {
+        return from;
+    }
+
+    /**
+     * @return the upper bound in milliseconds since the epoch, Long.MAX_VALUE if there is none
+     */
+    public long getTo() {
+        return to;
+    }
+
+    public boolean isUnbounded() {
+        return from == Long.MIN_VALUE && to == Long.MAX_VALUE;
+    }
+
+    public boolean overlaps(long start, long end) {
+        return from <= end && start <= to;
+    }
+
+    public QueryTimeRange intersect(QueryTimeRange other) {
+        return new QueryTimeRange(Math.max(from, other.from), Math.min(to, other.to));
+    }
+
+    public QueryTimeRange union(QueryTimeRange other) {
+        return new QueryTimeRange(Math.min(from, other.from), Math.max(to, other.to));
+    }
+
+    /**
+     * @return the range of values of the field for which documents may match the query, unbounded if it can't be
+     * derived from the query
+     */
+    public static QueryTimeRange of(QueryBuilder query, String field) {
+        if (query instanceof RangeQueryBuilder) {
+            RangeQueryBuilder rangeQuery = (RangeQueryBuilder) query;
+            if (!field.equals(rangeQuery.fieldName())) {
+                return UNBOUNDED;
+            }
+            try {
+                DateFormatter formatter = rangeQuery.format() != null ? DateFormatter.forPattern(rangeQuery.format()) : DEFAULT_FORMATTER;
+                ZoneId zone = rangeQuery.timeZone() != null ? ZoneId.of(rangeQuery.timeZone()) : ZoneOffset.UTC;
+                long now = System.currentTimeMillis();
+                return new QueryTimeRange(
+                        rangeQuery.from() != null ? parse(rangeQuery.from(), formatter, zone, now, false) : Long.MIN_VALUE,
+                        rangeQuery.to() != null ? parse(rangeQuery.to(), formatter, zone, now, true) : Long.MAX_VALUE);
+            } catch (RuntimeException e) {
+                logger.debug("Unable to parse the bounds of range query {}", rangeQuery, e);
+                return UNBOUNDED;
+            }
+        } else if (query instanceof ConstantScoreQueryBuilder) {
+            return of(((ConstantScoreQueryBuilder) query).innerQuery(), field);
+        } else if (query instanceof BoolQueryBuilder) {
+            BoolQueryBuilder boolQuery = (BoolQueryBuilder) query;
+            List<QueryBuilder> requiredClauses = new ArrayList<>(boolQuery.must());
+            requiredClauses.addAll(boolQuery.filter());
+            if (requiredClauses.isEmpty()) {
+                // at least one of the should clauses must match when there are no required clauses
+                if (boolQuery.should().isEmpty() || (boolQuery.minimumShouldMatch() != null && !"1".equals(boolQuery.minimumShouldMatch()))) {
+                    return UNBOUNDED;
+                }
+                QueryTimeRange range = null;
+                for (QueryBuilder clause : boolQuery.should()) {
+                    QueryTimeRange clauseRange = of(clause, field);
+                    range = range == null ? clauseRange : range.union(clauseRange);
+                }
+                return range;
+            }
+            QueryTimeRange range = UNBOUNDED;
+            for (QueryBuilder clause : requiredClauses) {
+                range = range.intersect(of(clause, field));
+            }
+            return range;
+        }
+        return UNBOUNDED;
+    }
+
+    private static long parse(Object value, DateFormatter formatter, ZoneId zone, long now, boolean roundUp) {
+        if (value instanceof Date) {
+            return ((Date) value).getTime();
+        } else if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return formatter.toDateMathParser().parse(value.toString(), () -> now, roundUp, zone).toEpochMilli();
+    }
+}
@@ -19,19 +19,15 @@ package org.apache.unomi.persistence.elasticsearch.conditions;
 
 import com.google.common.base.Function;
 import com.google.common.collect.Lists;
-import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.core.util.IOUtils;
 import org.apache.lucene.analysis.charfilter.MappingCharFilterFactory;
 import org.apache.lucene.analysis.util.ClasspathResourceLoader;
-import org.apache.unomi.api.conditions.Condition;
-import org.apache.unomi.scripting.ScriptExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -51,76 +47,6 @@ public class ConditionContextHelper {
         }
     }
 
-    public static Condition getContextualCondition(Condition condition, Map<String, Object> context, ScriptExecutor scriptExecutor) {
-        if (!hasContextualParameter(condition.getParameterValues())) {
-            return condition;
-        }
-        @SuppressWarnings("unchecked")
-        Map<String, Object> values = (Map<String, Object>) parseParameter(context, condition.getParameterValues(), scriptExecutor);
-        if (values == null) {
-            return null;
-        }
-        Condition n = new Condition(condition.getConditionType());
-        n.setParameterValues(values);
-        return n;
-    }
-
-    @SuppressWarnings("unchecked")
-    private static Object parseParameter(Map<String, Object> context, Object value, ScriptExecutor scriptExecutor) {
-        if (value instanceof String) {
-            if (((String) value).startsWith("parameter::") || ((String) value).startsWith("script::")) {
-                String s = (String) value;
-                if (s.startsWith("parameter::")) {
-                    return context.get(StringUtils.substringAfter(s, "parameter::"));
-                } else if (s.startsWith("script::")) {
-                    String script = StringUtils.substringAfter(s, "script::");
-                    return scriptExecutor.execute(script, context);
-                }
-            }
-        } else if (value instanceof Map) {
-            Map<String, Object> values = new HashMap<String, Object>();
-            for (Map.Entry<String, Object> entry : ((Map<String, Object>) value).entrySet()) {
-                Object parameter = parseParameter(context, entry.getValue(), scriptExecutor);
-                if (parameter == null) {
-                    return null;
-                }
-                values.put(entry.getKey(), parameter);
-            }
-            return values;
-        } else if (value instanceof List) {
-            List<Object> values = new ArrayList<Object>();
-            for (Object o : ((List<?>) value)) {
-                Object parameter = parseParameter(context, o, scriptExecutor);
-                if (parameter != null) {
-                    values.add(parameter);
-                }
-            }
-            return values;
-        }
-        return value;
-    }
-
-    private static boolean hasContextualParameter(Object value) {
-        if (value instanceof String) {
-            if (((String) value).startsWith("parameter::") || ((String) value).startsWith("script::")) {
-                return true;
-            }
-        } else if (value instanceof Map) {
-            for (Object o : ((Map<?, ?>) value).values()) {
-                if (hasContextualParameter(o)) {
-                    return true;
-                }
-            }
-        } else if (value instanceof List) {
-            for (Object o : ((List<?>) value)) {
-                if (hasContextualParameter(o)) {
-                    return true;
-                }
-            }
-        }
-        return false;
-    }
-
     public static String[] foldToASCII(String[] s) {
         if (s != null) {
             for (int i = 0; i < s.length; i++) {
@@ -29,4 +29,13 @@ public interface ConditionESQueryBuilder {
     default long count(Condition condition, Map<String, Object> context, ConditionESQueryBuilderDispatcher dispatcher) {
         throw new UnsupportedOperationException();
     }
+
+    /**
+     * Tells whether the query built for this condition only depends on the condition, so that it can be reused every
+     * time the same condition is translated. Builders whose query depends on the data, for instance because it is built
+     * from the result of another query, must return false.
+     */
+    default boolean isCacheable(Condition condition) {
+        return true;
+    }
 }
@@ -18,14 +18,21 @@
 package org.apache.unomi.persistence.elasticsearch.conditions;
 
 import org.apache.unomi.api.conditions.Condition;
+import org.apache.unomi.api.conditions.ConditionType;
+import org.apache.unomi.metrics.MetricsService;
+import org.apache.unomi.persistence.spi.conditions.ConditionContextHelper;
 import org.apache.unomi.scripting.ScriptExecutor;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class ConditionESQueryBuilderDispatcher {
@@ -33,6 +40,17 @@ public class ConditionESQueryBuilderDispatcher {
 
     private Map<String, ConditionESQueryBuilder> queryBuilders = new ConcurrentHashMap<>();
     private ScriptExecutor scriptExecutor;
+    private MetricsService metricsService;
+
+    private volatile int queryCacheMaxEntries = 1000;
+    private final Map<String, QueryBuilder> queryCache = new LinkedHashMap<String, QueryBuilder>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, QueryBuilder> eldest) {
+            return size() > queryCacheMaxEntries;
+        }
+    };
+    // set while a top level condition is translated, cleared if a query builder returns a query that can't be reused
+    private final ThreadLocal<Boolean> cacheableTranslation = new ThreadLocal<>();
 
     public ConditionESQueryBuilderDispatcher() {
     }
@@ -41,12 +59,32 @@ public class ConditionESQueryBuilderDispatcher {
         this.scriptExecutor = scriptExecutor;
     }
 
+    public void setMetricsService(MetricsService metricsService) {
+        this.metricsService = metricsService;
+    }
+
+    /**
+     * @param queryCacheMaxEntries the maximum number of translated conditions to keep, 0 to disable the cache
+     */
+    public void setQueryCacheMaxEntries(int queryCacheMaxEntries) {
+        this.queryCacheMaxEntries = queryCacheMaxEntries;
+        clearQueryCache();
+    }
+
     public void addQueryBuilder(String name, ConditionESQueryBuilder evaluator) {
         queryBuilders.put(name, evaluator);
+        clearQueryCache();
     }
 
     public void removeQueryBuilder(String name) {
         queryBuilders.remove(name);
+        clearQueryCache();
+    }
+
+    public void clearQueryCache() {
+        synchronized (queryCache) {
+            queryCache.clear();
+        }
     }
 
 
@@ -58,8 +96,42 @@ public class ConditionESQueryBuilderDispatcher {
         return QueryBuilders.boolQuery().must(QueryBuilders.matchAllQuery()).filter(buildFilter(condition));
     }
 
+    /**
+     * Translates a condition into a query. The queries of conditions translated previously are reused: the returned
+     * query may be shared and must not be modified.
+     */
     public QueryBuilder buildFilter(Condition condition) {
-        return buildFilter(condition, new HashMap<String, Object>());
+        String key = queryCacheMaxEntries > 0 ? getQueryCacheKey(condition) : null;
+        if (key == null) {
+            return buildFilter(condition, new HashMap<String, Object>());
+        }
+        QueryBuilder queryBuilder;
+        synchronized (queryCache) {
+            queryBuilder = queryCache.get(key);
+        }
+        if (queryBuilder != null) {
+            updateQueryCacheCounter("hit");
+            return queryBuilder;
+        }
+        updateQueryCacheCounter("miss");
+
+        Boolean previousCacheableTranslation = cacheableTranslation.get();
+        cacheableTranslation.set(Boolean.TRUE);
+        try {
+            queryBuilder = buildFilter(condition, new HashMap<String, Object>());
+            if (cacheableTranslation.get()) {
+                synchronized (queryCache) {
+                    queryCache.put(key, queryBuilder);
+                }
+            }
+        } finally {
+            if (previousCacheableTranslation != null) {
+                cacheableTranslation.set(previousCacheableTranslation);
+            } else {
+                cacheableTranslation.remove();
+            }
+        }
+        return queryBuilder;
     }
 
     public QueryBuilder buildFilter(Condition condition, Map<String, Object> context) {
@@ -81,6 +153,9 @@ public class ConditionESQueryBuilderDispatcher {
             ConditionESQueryBuilder queryBuilder = queryBuilders.get(queryBuilderKey);
             Condition contextualCondition = ConditionContextHelper.getContextualCondition(condition, context, scriptExecutor);
             if (contextualCondition != null) {
+                if (cacheableTranslation.get() != null && !queryBuilder.isCacheable(contextualCondition)) {
+                    cacheableTranslation.set(Boolean.FALSE);
+                }
                 return queryBuilder.buildQuery(contextualCondition, context, this);
             }
         }
@@ -128,4 +203,71 @@ public class ConditionESQueryBuilderDispatcher {
         }
         throw new UnsupportedOperationException();
     }
+
+    private void updateQueryCacheCounter(String name) {
+        if (metricsService != null && metricsService.isActivated()) {
+            metricsService.updateCounter(this.getClass().getName() + ".queryCache." + name, 1);
+        }
+    }
+
+    /**
+     * Builds a key identifying the query a condition translates to: its parameters and, for each condition type
+     * involved, its query builder and parent condition, so that a change of either yields a new key. Returns null if
+     * the condition can't be identified this way, for instance if it contains scripts that may return a different
+     * value on each evaluation.
+     */
+    private String getQueryCacheKey(Condition condition) {
+        StringBuilder key = new StringBuilder();
+        return appendQueryCacheKey(key, condition) ? key.toString() : null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean appendQueryCacheKey(StringBuilder key, Object value) {
+        if (value == null) {
+            key.append('n');
+        } else if (value instanceof Condition) {
+            Condition condition = (Condition) value;
+            ConditionType conditionType = condition.getConditionType();
+            if (conditionType == null) {
+                return false;
+            }
+            key.append("c(");
+            appendQueryCacheKey(key, condition.getConditionTypeId());
+            appendQueryCacheKey(key, conditionType.getQueryBuilder());
+            if (!appendQueryCacheKey(key, conditionType.getParentCondition())
+                    || !appendQueryCacheKey(key, condition.getParameterValues())) {
+                return false;
+            }
+            key.append(')');
+        } else if (value instanceof Map) {
+            key.append("m(");
+            for (Map.Entry<Object, Object> entry : new TreeMap<>((Map<Object, Object>) value).entrySet()) {
+                if (!appendQueryCacheKey(key, entry.getKey()) || !appendQueryCacheKey(key, entry.getValue())) {
+                    return false;
+                }
+            }
+            key.append(')');
+        } else if (value instanceof Collection) {
+            key.append("l(");
+            for (Object o : (Collection<?>) value) {
+                if (!appendQueryCacheKey(key, o)) {
+                    return false;
+                }
+            }
+            key.append(')');
+        } else if (value instanceof String) {
+            String s = (String) value;
+            if (s.startsWith("script::")) {
+                return false;
+            }
+            key.append('s').append(s.length()).append(':').append(s);
+        } else if (value instanceof Number || value instanceof Boolean) {
+            key.append(value.getClass().getSimpleName()).append(':').append(value).append(';');
+        } else if (value instanceof Date) {
+            key.append("d:").append(((Date) value).getTime()).append(';');
+        } else {
+            return false;
+        }
+        return true;
+    }
 }
@@ -0,0 +1,228 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.persistence.elasticsearch;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hazelcast.config.SerializationConfig;
+import com.hazelcast.config.SerializerConfig;
+import com.hazelcast.internal.serialization.InternalSerializationService;
+import com.hazelcast.internal.serialization.impl.DefaultSerializationServiceBuilder;
+import com.hazelcast.nio.serialization.Data;
+import org.apache.unomi.api.Item;
+import org.apache.unomi.api.Metadata;
+import org.apache.unomi.api.PropertyType;
+import org.apache.unomi.api.actions.Action;
+import org.apache.unomi.api.conditions.Condition;
+import org.apache.unomi.api.conditions.ConditionType;
+import org.apache.unomi.api.rules.Rule;
+import org.apache.unomi.api.segments.Segment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the serialization throughput of cached items written with the compact serializers and with the default
+ * Java serialization used by Hazelcast, after checking that the compact form reads back the same state. Run it with
+ * the main method, from the test classpath of this module.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompactStreamSerializerBenchmark {
+
+    @Param({"rule", "segment", "propertyType"})
+    private String itemKind;
+
+    private InternalSerializationService javaSerializationService;
+    private InternalSerializationService compactSerializationService;
+    private Item item;
+    private Data javaData;
+    private Data compactData;
+
+    @Setup
+    public void setup() throws IOException {
+        javaSerializationService = new DefaultSerializationServiceBuilder().build();
+        compactSerializationService = createCompactSerializationService();
+        item = createItem(itemKind);
+        javaData = javaSerializationService.toData(item);
+        compactData = compactSerializationService.toData(item);
+        checkRoundTrip(item, compactSerializationService.toObject(compactData));
+    }
+
+    @Benchmark
+    public Data writeJava() {
+        return javaSerializationService.toData(item);
+    }
+
+    @Benchmark
+    public Data writeCompact() {
+        return compactSerializationService.toData(item);
+    }
+
+    @Benchmark
+    public Object readJava() {
+        return javaSerializationService.toObject(javaData);
+    }
+
+    @Benchmark
+    public Object readCompact() {
+        return compactSerializationService.toObject(compactData);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(CompactStreamSerializerBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    /**
+     * Creates a serialization service using the serializers the persistence service registers on the Hazelcast instance.
+     */
+    private static InternalSerializationService createCompactSerializationService() {
+        SerializationConfig serializationConfig = new SerializationConfig();
+        serializationConfig.addSerializerConfig(new SerializerConfig().setTypeClass(Item.class).setImplementation(new ItemStreamSerializer()));
+        serializationConfig.addSerializerConfig(new SerializerConfig().setTypeClass(Condition.class).setImplementation(new ConditionStreamSerializer()));
+        return new DefaultSerializationServiceBuilder().setConfig(serializationConfig).build();
+    }
+
+    /**
+     * Checks that an item read back from the compact form has the same state as the original item, including the
+     * resolved condition and action types that aren't part of its JSON document.
+     */
+    private static void checkRoundTrip(Item expected, Object actual) throws IOException {
+        ObjectMapper mapper = new ItemStreamSerializer().getObjectMapper();
+        String expectedJson = mapper.writeValueAsString(expected);
+        String actualJson = mapper.writeValueAsString(actual);
+        if (!expectedJson.equals(actualJson)) {
+            throw new IllegalStateException("Compact serialization round trip mismatch:\n" + expectedJson + "\n" + actualJson);
+        }
+    }
+
+    private static Item createItem(String itemKind) {
+        switch (itemKind) {
+            case "rule":
+                return createRule();
+            case "segment":
+                return createSegment();
+            default:
+                return createPropertyType();
+        }
+    }
+
+    private static Rule createRule() {
+        Rule rule = new Rule(createMetadata("formMappingRule"));
+        rule.setCondition(createBooleanCondition());
+        List<Action> actions = new ArrayList<>();
+        for (String propertyName : Arrays.asList("firstName", "lastName", "email", "company")) {
+            Action action = new Action();
+            action.setActionTypeId("setPropertyAction");
+            action.setParameter("setPropertyName", "properties(" + propertyName + ")");
+            action.setParameter("setPropertyValue", "eventProperty::properties(" + propertyName + ")");
+            action.setParameter("storeInSession", false);
+            actions.add(action);
+        }
+        rule.setActions(actions);
+        rule.setLinkedItems(Arrays.asList("contactForm", "newsletterForm"));
+        rule.setPriority(10);
+        rule.setVersion(3L);
+        rule.setSystemMetadata(ElasticSearchPersistenceServiceImpl.SEQ_NO, 42L);
+        rule.setSystemMetadata(ElasticSearchPersistenceServiceImpl.PRIMARY_TERM, 1L);
+        return rule;
+    }
+
+    private static Segment createSegment() {
+        Segment segment = new Segment(createMetadata("frequentVisitors"));
+        segment.setCondition(createBooleanCondition());
+        segment.setVersion(1L);
+        return segment;
+    }
+
+    private static PropertyType createPropertyType() {
+        PropertyType propertyType = new PropertyType(createMetadata("nbOfVisits"));
+        propertyType.setTarget("profiles");
+        propertyType.setValueTypeId("integer");
+        propertyType.setDefaultValue("0");
+        propertyType.setRank(101.0);
+        propertyType.setMergeStrategy("addMergeStrategy");
+        propertyType.setMultivalued(false);
+        propertyType.setAutomaticMappingsFrom(new HashSet<>(Arrays.asList("visitCount", "visits")));
+        return propertyType;
+    }
+
+    private static Metadata createMetadata(String id) {
+        Metadata metadata = new Metadata("systemscope", id, id + " name", "Description of " + id);
+        metadata.setTags(new HashSet<>(Arrays.asList("marketing", "profile")));
+        metadata.setSystemTags(new HashSet<>(Arrays.asList("profileTags", "event")));
+        return metadata;
+    }
+
+    private static ConditionType createConditionType(String id) {
+        ConditionType conditionType = new ConditionType(createMetadata(id));
+        conditionType.setConditionEvaluator(id + "Evaluator");
+        conditionType.setQueryBuilder(id + "ESQueryBuilder");
+        return conditionType;
+    }
+
+    private static Condition createBooleanCondition() {
+        List<Condition> subConditions = new ArrayList<>();
+        Condition eventTypeCondition = new Condition();
+        eventTypeCondition.setConditionTypeId("eventTypeCondition");
+        eventTypeCondition.setParameter("eventTypeId", "form");
+        subConditions.add(eventTypeCondition);
+        Condition propertyCondition = new Condition();
+        propertyCondition.setConditionTypeId("profilePropertyCondition");
+        propertyCondition.setParameter("propertyName", "properties.nbOfVisits");
+        propertyCondition.setParameter("comparisonOperator", "greaterThanOrEqualTo");
+        propertyCondition.setParameter("propertyValueInteger", 5);
+        subConditions.add(propertyCondition);
+        Condition pastEventCondition = new Condition();
+        pastEventCondition.setConditionTypeId("pastEventCondition");
+        pastEventCondition.setParameter("numberOfDays", 30);
+        pastEventCondition.setParameter("minimumEventCount", 2);
+        Condition eventCondition = new Condition();
+        eventCondition.setConditionTypeId("eventPropertyCondition");
+        eventCondition.setParameter("propertyName", "target.properties.pageInfo.pagePath");
+        eventCondition.setParameter("comparisonOperator", "equals");
+        eventCondition.setParameter("propertyValue", "/contact");
+        pastEventCondition.setParameter("eventCondition", eventCondition);
+        subConditions.add(pastEventCondition);
+        Condition booleanCondition = new Condition();
+        booleanCondition.setConditionType(createConditionType("booleanCondition"));
+        booleanCondition.setParameter("operator", "and");
+        booleanCondition.setParameter("subConditions", subConditions);
+        return booleanCondition;
+    }
+}
@@ -0,0 +1,1187 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.persistence.inmemory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.unomi.api.Item;
+import org.apache.unomi.api.PartialList;
+import org.apache.unomi.api.PropertyType;
+import org.apache.unomi.api.TimestampedItem;
+import org.apache.unomi.api.conditions.Condition;
+import org.apache.unomi.api.query.DateRange;
+import org.apache.unomi.api.query.IpRange;
+import org.apache.unomi.api.query.NumericRange;
+import org.apache.unomi.persistence.spi.CustomObjectMapper;
+import org.apache.unomi.persistence.spi.PersistenceService;
+import org.apache.unomi.persistence.spi.aggregate.BaseAggregate;
+import org.apache.unomi.persistence.spi.aggregate.DateAggregate;
+import org.apache.unomi.persistence.spi.aggregate.DateRangeAggregate;
+import org.apache.unomi.persistence.spi.aggregate.IpRangeAggregate;
+import org.apache.unomi.persistence.spi.aggregate.NumericRangeAggregate;
+import org.apache.unomi.persistence.spi.aggregate.TermsAggregate;
+import org.apache.unomi.persistence.spi.conditions.ConditionEvaluator;
+import org.apache.unomi.persistence.spi.conditions.ConditionEvaluatorDispatcher;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.SynchronousBundleListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.net.InetAddress;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.IsoFields;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * A {@link PersistenceService} keeping all the items in memory, to run integration tests and benchmarks without any
+ * ElasticSearch cluster, and measure the cost of the Unomi code alone.
+ * <p>
+ * Items are stored as their JSON source, like ElasticSearch does, so that the loaded items are always copies and
+ * partial updates merge into the stored source. Conditions are evaluated with the condition evaluators of the plugins.
+ * Event and session items remember the month of their time stamp, so that loads with a date hint and purges by date
+ * behave like the monthly indices. Painless scripts are not supported, the updates using them are ignored.
+ */
+public class InMemoryPersistenceServiceImpl implements PersistenceService, SynchronousBundleListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(InMemoryPersistenceServiceImpl.class.getName());
+
+    private static final DateTimeFormatter MONTHLY_INDEX_FORMATTER = DateTimeFormatter.ofPattern("uuuu-MM");
+    private static final DateTimeFormatter DATE_KEY_FORMATTER = DateTimeFormatter.ofPattern("uuuu-MM-dd'T'HH:mm:ss.SSS'Z'");
+    private static final int MAX_COMPLETED_TASKS = 1000;
+
+    private final Map<String, Map<String, StoredItem>> itemsByType = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, Map<String, Object>>> mappings = new ConcurrentHashMap<>();
+    private final Map<String, Condition> savedQueries = new ConcurrentHashMap<>();
+    private final Map<String, Scroll> scrolls = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, Object>> completedTasks = Collections.synchronizedMap(new LinkedHashMap<String, Map<String, Object>>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Map<String, Object>> eldest) {
+            return size() > MAX_COMPLETED_TASKS;
+        }
+    });
+
+    private BundleContext bundleContext;
+    private ConditionEvaluatorDispatcher conditionEvaluatorDispatcher;
+
+    private List<String> itemsMonthlyIndexed = Arrays.asList("event", "session");
+    private Integer defaultQueryLimit = 10;
+    private int aggregateQueryBucketSize = 5000;
+    private boolean alwaysOverwrite = true;
+
+    public void setBundleContext(BundleContext bundleContext) {
+        this.bundleContext = bundleContext;
+    }
+
+    public void setConditionEvaluatorDispatcher(ConditionEvaluatorDispatcher conditionEvaluatorDispatcher) {
+        this.conditionEvaluatorDispatcher = conditionEvaluatorDispatcher;
+    }
+
+    public void setItemsMonthlyIndexedOverride(String itemsMonthlyIndexedOverride) {
+        this.itemsMonthlyIndexed = "none".equals(itemsMonthlyIndexedOverride) ? Collections.emptyList() : Arrays.asList(itemsMonthlyIndexedOverride.split(","));
+    }
+
+    public void setDefaultQueryLimit(Integer defaultQueryLimit) {
+        this.defaultQueryLimit = defaultQueryLimit;
+    }
+
+    public void setAggregateQueryBucketSize(int aggregateQueryBucketSize) {
+        this.aggregateQueryBucketSize = aggregateQueryBucketSize;
+    }
+
+    public void setAlwaysOverwrite(boolean alwaysOverwrite) {
+        this.alwaysOverwrite = alwaysOverwrite;
+    }
+
+    public void start() {
+        if (bundleContext != null) {
+            // load the mappings of the bundles that were started before this one
+            for (Bundle existingBundle : bundleContext.getBundles()) {
+                if (existingBundle.getBundleContext() != null) {
+                    loadPredefinedMappings(existingBundle.getBundleContext());
+                }
+            }
+            bundleContext.addBundleListener(this);
+        }
+        logger.info(this.getClass().getName() + " service started successfully.");
+    }
+
+    public void stop() {
+        if (bundleContext != null) {
+            bundleContext.removeBundleListener(this);
+        }
+        logger.info(this.getClass().getName() + " service shutdown.");
+    }
+
+    @Override
+    public void bundleChanged(BundleEvent event) {
+        if (event.getType() == BundleEvent.STARTING) {
+            loadPredefinedMappings(event.getBundle().getBundleContext());
+        }
+    }
+
+    public void bindConditionEvaluator(ServiceReference<ConditionEvaluator> conditionEvaluatorServiceReference) {
+        ConditionEvaluator conditionEvaluator = bundleContext.getService(conditionEvaluatorServiceReference);
+        conditionEvaluatorDispatcher.addEvaluator(conditionEvaluatorServiceReference.getProperty("conditionEvaluatorId").toString(), conditionEvaluator);
+    }
+
+    public void unbindConditionEvaluator(ServiceReference<ConditionEvaluator> conditionEvaluatorServiceReference) {
+        if (conditionEvaluatorServiceReference == null) {
+            return;
+        }
+        conditionEvaluatorDispatcher.removeEvaluator(conditionEvaluatorServiceReference.getProperty("conditionEvaluatorId").toString());
+    }
+
+    private void loadPredefinedMappings(BundleContext bundleContext) {
+        if (bundleContext == null) {
+            return;
+        }
+        Enumeration<URL> predefinedMappings = bundleContext.getBundle().findEntries("META-INF/cxs/mappings", "*.json", true);
+        if (predefinedMappings == null) {
+            return;
+        }
+        while (predefinedMappings.hasMoreElements()) {
+            URL predefinedMappingURL = predefinedMappings.nextElement();
+            final String path = predefinedMappingURL.getPath();
+            String name = path.substring(path.lastIndexOf('/') + 1, path.lastIndexOf('.'));
+            try (InputStream inputStream = predefinedMappingURL.openStream()) {
+                mergeMapping(name, getObjectMapper().readValue(inputStream, Map.class));
+            } catch (IOException e) {
+                logger.error("Error while loading mapping definition " + predefinedMappingURL, e);
+            }
+        }
+    }
+
+    @Override
+    public <T extends Item> List<T> getAllItems(Class<T> clazz) {
+        return getAllItems(clazz, 0, -1, null).getList();
+    }
+
+    @Override
+    public <T extends Item> PartialList<T> getAllItems(Class<T> clazz, int offset, int size, String sortBy) {
+        return getAllItems(clazz, offset, size, sortBy, null);
+    }
+
+    @Override
+    public <T extends Item> PartialList<T> getAllItems(Class<T> clazz, int offset, int size, String sortBy, String scrollTimeValidity) {
+        return query((Condition) null, sortBy, clazz, offset, size, scrollTimeValidity);
+    }
+
+    @Override
+    public void setSettings(Map<String, Object> settings) throws NoSuchFieldException, IllegalAccessException {
+        for (Map.Entry<String, Object> setting : settings.entrySet()) {
+            setSetting(setting.getKey(), setting.getValue());
+        }
+    }
+
+    @Override
+    public void setSetting(String fieldName, Object value) throws NoSuchFieldException, IllegalAccessException {
+        Field field = this.getClass().getDeclaredField(fieldName);
+        field.set(this, value);
+    }
+
+    @Override
+    public Object getSetting(String fieldName) throws NoSuchFieldException, IllegalAccessException {
+        Field field = this.getClass().getDeclaredField(fieldName);
+        return field.get(this);
+    }
+
+    @Override
+    public boolean isConsistent(Item item) {
+        // saved items are visible to the next queries right away
+        return true;
+    }
+
+    @Override
+    public boolean save(Item item) {
+        return save(item, false, alwaysOverwrite);
+    }
+
+    @Override
+    public boolean save(Item item, boolean useBatching) {
+        return save(item, useBatching, alwaysOverwrite);
+    }
+
+    @Override
+    public boolean save(Item item, Boolean useBatching, Boolean alwaysOverwriteOption) {
+        final boolean alwaysOverwrite = alwaysOverwriteOption == null ? this.alwaysOverwrite : alwaysOverwriteOption;
+        final String itemType = item.getItemType();
+        final Map<String, Object> source = toSource(item);
+        final String monthlyIndex = itemsMonthlyIndexed.contains(itemType) && item instanceof TimestampedItem
+                ? getMonthlyIndex(((TimestampedItem) item).getTimeStamp()) : null;
+        final boolean[] conflict = new boolean[1];
+        StoredItem stored = getItems(itemType).compute(item.getItemId(), (itemId, previous) -> {
+            if (previous != null && !alwaysOverwrite && item.getVersion() != null && item.getVersion() != previous.version) {
+                conflict[0] = true;
+                return previous;
+            }
+            return new StoredItem(source, fromSource(source, itemId, item.getClass()), previous != null ? previous.version + 1 : 1, monthlyIndex);
+        });
+        if (conflict[0]) {
+            logger.warn("Version conflict while saving item {} of type {}", item.getItemId(), itemType);
+            return false;
+        }
+        item.setVersion(stored.version);
+        return true;
+    }
+
+    @Override
+    public List<String> save(List<? extends Item> items) {
+        List<String> failedItemIds = new ArrayList<>();
+        for (Item item : items) {
+            if (!save(item, false, true)) {
+                failedItemIds.add(item.getItemId());
+            }
+        }
+        return failedItemIds;
+    }
+
+    @Override
+    public boolean update(Item item, Date dateHint, Class<?> clazz, Map<?, ?> source) {
+        return update(item, dateHint, clazz, source, alwaysOverwrite);
+    }
+
+    @Override
+    public boolean update(Item item, Date dateHint, Class<?> clazz, String propertyName, Object propertyValue) {
+        return update(item, dateHint, clazz, Collections.singletonMap(propertyName, propertyValue), alwaysOverwrite);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean update(Item item, Date dateHint, Class<?> clazz, Map<?, ?> source, boolean alwaysOverwrite) {
+        final Map<String, Object> changes = getObjectMapper().convertValue(source, Map.class);
+        final boolean[] updated = new boolean[1];
+        getItems(Item.getItemType(clazz)).computeIfPresent(item.getItemId(), (itemId, previous) -> {
+            if (!alwaysOverwrite && item.getVersion() != null && item.getVersion() != previous.version) {
+                return previous;
+            }
+            Map<String, Object> merged = deepCopy(previous.source);
+            deepMerge(merged, changes);
+            updated[0] = true;
+            return new StoredItem(merged, fromSource(merged, itemId, previous.item.getClass()), previous.version + 1, previous.monthlyIndex);
+        });
+        return updated[0];
+    }
+
+    @Override
+    public List<String> update(Map<Item, Map> items, Date dateHint, Class clazz) {
+        List<String> failedItemIds = new ArrayList<>();
+        for (Map.Entry<Item, Map> item : items.entrySet()) {
+            if (!update(item.getKey(), dateHint, clazz, item.getValue())) {
+                failedItemIds.add(item.getKey().getItemId());
+            }
+        }
+        return failedItemIds;
+    }
+
+    @Override
+    public boolean updateWithScript(Item item, Date dateHint, Class<?> clazz, String script, Map<String, Object> scriptParams) {
+        logger.warn("Scripted updates are not supported by the in-memory persistence, ignoring update of item {}", item.getItemId());
+        return false;
+    }
+
+    @Override
+    public boolean updateWithQueryAndScript(Date dateHint, Class<?> clazz, String[] scripts, Map<String, Object>[] scriptParams, Condition[] conditions) {
+        logger.warn("Scripted updates are not supported by the in-memory persistence, ignoring update of type {}", Item.getItemType(clazz));
+        return false;
+    }
+
+    @Override
+    public <T extends Item> T load(String itemId, Class<T> clazz) {
+        return load(itemId, null, clazz);
+    }
+
+    @Override
+    public <T extends Item> T load(String itemId, Date dateHint, Class<T> clazz) {
+        String itemType = Item.getItemType(clazz);
+        StoredItem stored = getItems(itemType).get(itemId);
+        if (stored == null) {
+            return null;
+        }
+        // like the monthly indices, a date hint only finds the items of its month
+        if (dateHint != null && stored.monthlyIndex != null && !stored.monthlyIndex.equals(getMonthlyIndex(dateHint))) {
+            return null;
+        }
+        return toItem(itemId, stored, clazz);
+    }
+
+    @Override
+    public <T extends Item> boolean remove(String itemId, Class<T> clazz) {
+        getItems(Item.getItemType(clazz)).remove(itemId);
+        return true;
+    }
+
+    @Override
+    public <T extends Item> boolean removeByQuery(Condition query, Class<T> clazz) {
+        removeMatching(Item.getItemType(clazz), stored -> matches(query, stored.item));
+        return true;
+    }
+
+    @Override
+    public <T extends Item> String removeByQueryAsync(Condition query, Class<T> clazz) {
+        return completedTask(removeMatching(Item.getItemType(clazz), stored -> matches(query, stored.item)));
+    }
+
+    @Override
+    public boolean saveQuery(String queryName, Condition query) {
+        savedQueries.put(queryName, query);
+        return true;
+    }
+
+    @Override
+    public boolean removeQuery(String queryName) {
+        savedQueries.remove(queryName);
+        return true;
+    }
+
+    @Override
+    public Map<String, Map<String, Object>> getPropertiesMapping(String itemType) {
+        Map<String, Map<String, Object>> itemMappings = mappings.get(itemType);
+        return itemMappings != null ? deepCopy(itemMappings) : null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> getPropertyMapping(String property, String itemType) {
+        Map<String, Map<String, Object>> itemMappings = mappings.get(itemType);
+        Map<String, Object> propertyMapping = null;
+        for (String name : StringUtils.split(property, '.')) {
+            if (itemMappings == null) {
+                return null;
+            }
+            propertyMapping = itemMappings.get(name);
+            itemMappings = propertyMapping != null ? (Map<String, Map<String, Object>>) propertyMapping.get("properties") : null;
+        }
+        return propertyMapping;
+    }
+
+    @Override
+    public void setPropertyMapping(PropertyType property, String itemType) {
+        Map<String, Object> propertiesMapping = new HashMap<>();
+        propertiesMapping.put("properties", createPropertyMapping(property));
+        Map<String, Object> mapping = new HashMap<>();
+        mapping.put("properties", Collections.singletonMap("properties", propertiesMapping));
+        mergeMapping(itemType, mapping);
+    }
+
+    @Override
+    public void createMapping(String type, String source) {
+        try {
+            mergeMapping(type, getObjectMapper().readValue(source, Map.class));
+        } catch (IOException e) {
+            logger.error("Error while creating mapping for type " + type + " and source " + source, e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void mergeMapping(String itemType, Map<String, Object> mapping) {
+        Object properties = mapping.get("properties");
+        if (properties instanceof Map) {
+            Map<String, Object> changes = (Map<String, Object>) properties;
+            mappings.compute(itemType, (type, previous) -> {
+                Map<String, Object> merged = previous != null ? deepCopy((Map) previous) : new HashMap<>();
+                deepMerge(merged, changes);
+                return (Map) merged;
+            });
+        }
+    }
+
+    private Map<String, Object> createPropertyMapping(PropertyType property) {
+        Map<String, Object> definition = new HashMap<>();
+        String type = getMappingType(property.getValueTypeId());
+        if (type != null) {
+            definition.put("type", type);
+        }
+        if ("set".equals(property.getValueTypeId()) && property.getChildPropertyTypes() != null) {
+            Map<String, Object> childProperties = new HashMap<>();
+            for (PropertyType childType : property.getChildPropertyTypes()) {
+                childProperties.putAll(createPropertyMapping(childType));
+            }
+            definition.put("properties", childProperties);
+        }
+        return Collections.singletonMap(property.getItemId(), definition);
+    }
+
+    private String getMappingType(String valueTypeId) {
+        switch (valueTypeId) {
+            case "set":
+            case "json":
+                return "object";
+            case "geopoint":
+                return "geo_point";
+            case "string":
+            case "id":
+                return "text";
+            case "boolean":
+            case "integer":
+            case "long":
+            case "float":
+            case "date":
+                return valueTypeId;
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public boolean testMatch(Condition query, Item item) {
+        return conditionEvaluatorDispatcher.eval(query, item);
+    }
+
+    @Override
+    public boolean isValidCondition(Condition condition, Item item) {
+        try {
+            conditionEvaluatorDispatcher.eval(condition, item);
+        } catch (Exception e) {
+            logger.error("Failed to validate condition, condition={}", condition, e);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public <T extends Item> List<T> query(String fieldName, String fieldValue, String sortBy, Class<T> clazz) {
+        return query(fieldName, fieldValue, sortBy, clazz, 0, -1).getList();
+    }
+
+    @Override
+    public <T extends Item> List<T> query(String fieldName, String[] fieldValues, String sortBy, Class<T> clazz) {
+        Set<String> values = new HashSet<>(Arrays.asList(fieldValues));
+        return query(stored -> anyValue(stored.source, fieldName, value -> values.contains(value.toString())),
+                sortBy, clazz, 0, -1, null).getList();
+    }
+
+    @Override
+    public <T extends Item> PartialList<T> query(String fieldName, String fieldValue, String sortBy, Class<T> clazz, int offset, int size) {
+        return query(stored -> anyValue(stored.source, fieldName, value -> value.toString().equals(fieldValue)),
+                sortBy, clazz, offset, size, null);
+    }
+
+    @Override
+    public <T extends Item> PartialList<T> queryFullText(String fieldName, String fieldValue, String fulltext, String sortBy, Class<T> clazz, int offset, int size) {
+        return query(stored -> anyValue(stored.source, fieldName, value -> value.toString().equals(fieldValue)) && containsText(stored.source, fulltext),
+                sortBy, clazz, offset, size, null);
+    }
+
+    @Override
+    public <T extends Item> PartialList<T> queryFullText(String fulltext, String sortBy, Class<T> clazz, int offset, int size) {
+        return query(stored -> containsText(stored.source, fulltext), sortBy, clazz, offset, size, null);
+    }
+
+    @Override
+    public <T extends Item> List<T> query(Condition query, String sortBy, Class<T> clazz) {
+        return query(query, sortBy, clazz, 0, -1).getList();
+    }
+
+    @Override
+    public <T extends Item> PartialList<T> query(Condition query, String sortBy, Class<T> clazz, int offset, int size) {
+        return query(query, sortBy, clazz, offset, size, null);
+    }
+
+    @Override
+    public <T extends Item> PartialList<T> query(Condition query, String sortBy, Class<T> clazz, int offset, int size, String scrollTimeValidity) {
+        return query(stored -> matches(query, stored.item), sortBy, clazz, offset, size, scrollTimeValidity);
+    }
+
+    @Override
+    public <T extends Item> PartialList<T> queryFullText(String fulltext, Condition query, String sortBy, Class<T> clazz, int offset, int size) {
+        return query(stored -> containsText(stored.source, fulltext) && matches(query, stored.item), sortBy, clazz, offset, size, null);
+    }
+
+    @Override
+    public <T extends Item> PartialList<T> rangeQuery(String s, String from, String to, String sortBy, Class<T> clazz, int offset, int size) {
+        return query(stored -> anyValue(stored.source, s, value -> compare(value, from) >= 0 && compare(value, to) <= 0),
+                sortBy, clazz, offset, size, null);
+    }
+
+    private <T extends Item> PartialList<T> query(Predicate<StoredItem> filter, String sortBy, Class<T> clazz, int offset, int size, String scrollTimeValidity) {
+        List<Map.Entry<String, StoredItem>> hits = find(Item.getItemType(clazz), filter);
+        sort(hits, sortBy);
+        int from = Math.min(Math.max(offset, 0), hits.size());
+        if (scrollTimeValidity != null) {
+            int pageSize = size < 0 ? defaultQueryLimit : size;
+            List<Map.Entry<String, StoredItem>> page = hits.subList(from, Math.min(from + pageSize, hits.size()));
+            String scrollIdentifier = UUID.randomUUID().toString();
+            removeExpiredScrolls();
+            scrolls.put(scrollIdentifier, new Scroll(new ArrayList<>(hits.subList(from + page.size(), hits.size())), pageSize, getExpiration(scrollTimeValidity)));
+            PartialList<T> result = new PartialList<>(toItems(page, clazz), offset, page.size(), hits.size(), PartialList.Relation.EQUAL);
+            result.setScrollIdentifier(scrollIdentifier);
+            result.setScrollTimeValidity(scrollTimeValidity);
+            return result;
+        }
+        int to = size == -1 ? hits.size() : Math.min(from + (size < 0 ? defaultQueryLimit : size), hits.size());
+        List<Map.Entry<String, StoredItem>> page = hits.subList(from, to);
+        return new PartialList<>(toItems(page, clazz), offset, page.size(), hits.size(), PartialList.Relation.EQUAL);
+    }
+
+    @Override
+    public <T extends Item> PartialList<T> continueScrollQuery(Class<T> clazz, String scrollIdentifier, String scrollTimeValidity) {
+        Scroll scroll = scrolls.get(scrollIdentifier);
+        if (scroll == null || scroll.expiration < System.currentTimeMillis()) {
+            logger.error("Unknown or expired scroll {} for itemType={}", scrollIdentifier, clazz.getName());
+            scrolls.remove(scrollIdentifier);
+            return null;
+        }
+        List<Map.Entry<String, StoredItem>> page;
+        synchronized (scroll) {
+            page = new ArrayList<>(scroll.remaining.subList(0, Math.min(scroll.pageSize, scroll.remaining.size())));
+            scroll.remaining.subList(0, page.size()).clear();
+            scroll.expiration = getExpiration(scrollTimeValidity);
+        }
+        if (page.isEmpty()) {
+            scrolls.remove(scrollIdentifier);
+        }
+        PartialList<T> result = new PartialList<>(toItems(page, clazz), 0, page.size(), page.size(), PartialList.Relation.EQUAL);
+        result.setScrollIdentifier(scrollIdentifier);
+        result.setScrollTimeValidity(scrollTimeValidity);
+        return result;
+    }
+
+    @Override
+    public long queryCount(Condition query, String itemType) {
+        return find(itemType, stored -> matches(query, stored.item)).size();
+    }
+
+    @Override
+    public long getAllItemsCount(String itemType) {
+        Map<String, StoredItem> items = itemsByType.get(itemType);
+        return items != null ? items.size() : 0;
+    }
+
+    @Override
+    public Map<String, Long> aggregateQuery(Condition filter, BaseAggregate aggregate, String itemType) {
+        return aggregateQuery(filter, aggregate, itemType, false, aggregateQueryBucketSize);
+    }
+
+    @Override
+    public Map<String, Long> aggregateWithOptimizedQuery(Condition filter, BaseAggregate aggregate, String itemType) {
+        return aggregateQuery(filter, aggregate, itemType, true, aggregateQueryBucketSize);
+    }
+
+    @Override
+    public Map<String, Long> aggregateWithOptimizedQuery(Condition filter, BaseAggregate aggregate, String itemType, int size) {
+        return aggregateQuery(filter, aggregate, itemType, true, size);
+    }
+
+    @Override
+    public Map<String, Long> aggregateQuery(Condition filter, BaseAggregate aggregate, String itemType, long maxStaleness, TimeUnit unit) {
+        // computing the aggregations in memory is cheap enough to never serve stale results
+        return aggregateQuery(filter, aggregate, itemType, false, aggregateQueryBucketSize);
+    }
+
+    @Override
+    public Map<String, Long> aggregateWithOptimizedQuery(Condition filter, BaseAggregate aggregate, String itemType, long maxStaleness, TimeUnit unit) {
+        return aggregateQuery(filter, aggregate, itemType, true, aggregateQueryBucketSize);
+    }
+
+    private Map<String, Long> aggregateQuery(Condition filter, BaseAggregate aggregate, String itemType, boolean optimizedQuery, int queryBucketSize) {
+        Map<String, Long> results = new LinkedHashMap<>();
+        List<Map.Entry<String, StoredItem>> hits = find(itemType, stored -> filter == null || matches(filter, stored.item));
+        if (!optimizedQuery) {
+            results.put("_all", getAllItemsCount(itemType));
+        }
+        if (optimizedQuery || filter != null) {
+            results.put("_filtered", (long) hits.size());
+        }
+        if (aggregate == null) {
+            return results;
+        }
+
+        Map<String, Long> buckets;
+        long missing = 0;
+        List<List<Object>> values = new ArrayList<>(hits.size());
+        for (Map.Entry<String, StoredItem> hit : hits) {
+            List<Object> hitValues = getValues(hit.getValue().source, aggregate.getField());
+            if (hitValues.isEmpty()) {
+                missing++;
+            } else {
+                values.add(hitValues);
+            }
+        }
+        if (aggregate instanceof DateAggregate) {
+            buckets = getDateBuckets((DateAggregate) aggregate, values);
+        } else if (aggregate instanceof NumericRangeAggregate) {
+            buckets = new LinkedHashMap<>();
+            for (NumericRange range : ((NumericRangeAggregate) aggregate).getRanges()) {
+                if (range != null) {
+                    buckets.put(getRangeKey(range.getKey(), range.getFrom(), range.getTo()), count(values, value -> toDouble(value) != null
+                            && (range.getFrom() == null || toDouble(value) >= range.getFrom())
+                            && (range.getTo() == null || toDouble(value) < range.getTo())));
+                }
+            }
+        } else if (aggregate instanceof DateRangeAggregate) {
+            buckets = new LinkedHashMap<>();
+            for (DateRange range : ((DateRangeAggregate) aggregate).getDateRanges()) {
+                if (range != null) {
+                    Long from = toEpochMillis(range.getFrom());
+                    Long to = toEpochMillis(range.getTo());
+                    buckets.put(getRangeKey(range.getKey(), range.getFrom(), range.getTo()), count(values, value -> toEpochMillis(value) != null
+                            && (from == null || toEpochMillis(value) >= from)
+                            && (to == null || toEpochMillis(value) < to)));
+                }
+            }
+        } else if (aggregate instanceof IpRangeAggregate) {
+            buckets = new LinkedHashMap<>();
+            for (IpRange range : ((IpRangeAggregate) aggregate).getRanges()) {
+                if (range != null) {
+                    Long from = toIpNumber(range.getFrom());
+                    Long to = toIpNumber(range.getTo());
+                    buckets.put(getRangeKey(range.getKey(), range.getFrom(), range.getTo()), count(values, value -> toIpNumber(value) != null
+                            && (from == null || toIpNumber(value) >= from)
+                            && (to == null || toIpNumber(value) < to)));
+                }
+            }
+        } else {
+            Map<String, Long> terms = new HashMap<>();
+            for (List<Object> hitValues : values) {
+                for (Object term : new HashSet<>(hitValues)) {
+                    terms.merge(term.toString(), 1L, Long::sum);
+                }
+            }
+            if (aggregate instanceof TermsAggregate && ((TermsAggregate) aggregate).getPartition() > -1 && ((TermsAggregate) aggregate).getNumPartitions() > -1) {
+                TermsAggregate termsAggregate = (TermsAggregate) aggregate;
+                terms.keySet().removeIf(term -> Math.floorMod(term.hashCode(), termsAggregate.getNumPartitions()) != termsAggregate.getPartition());
+            }
+            buckets = new LinkedHashMap<>();
+            terms.entrySet().stream()
+                    .sorted(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                    .limit(queryBucketSize)
+                    .forEach(term -> buckets.put(term.getKey(), term.getValue()));
+        }
+        results.putAll(buckets);
+        if (missing > 0) {
+            results.put("_missing", missing);
+        }
+        return results;
+    }
+
+    private Map<String, Long> getDateBuckets(DateAggregate aggregate, List<List<Object>> values) {
+        TreeMap<ZonedDateTime, Long> buckets = new TreeMap<>();
+        for (List<Object> hitValues : values) {
+            Set<ZonedDateTime> hitBuckets = new HashSet<>();
+            for (Object value : hitValues) {
+                Long date = toEpochMillis(value);
+                if (date != null) {
+                    hitBuckets.add(getDateBucket(Instant.ofEpochMilli(date).atZone(ZoneOffset.UTC), aggregate.getInterval()));
+                }
+            }
+            hitBuckets.forEach(bucket -> buckets.merge(bucket, 1L, Long::sum));
+        }
+        Map<String, Long> results = new LinkedHashMap<>();
+        if (buckets.isEmpty()) {
+            return results;
+        }
+        // like a date histogram, the empty buckets between the first and the last ones are returned too
+        DateTimeFormatter formatter = aggregate.getFormat() != null ? DateTimeFormatter.ofPattern(aggregate.getFormat()) : DATE_KEY_FORMATTER;
+        for (ZonedDateTime bucket = buckets.firstKey(); !bucket.isAfter(buckets.lastKey()); bucket = getNextDateBucket(bucket, aggregate.getInterval())) {
+            results.put(formatter.format(bucket), buckets.getOrDefault(bucket, 0L));
+        }
+        return results;
+    }
+
+    private ZonedDateTime getDateBucket(ZonedDateTime date, String interval) {
+        switch (interval.substring(interval.length() - 1)) {
+            case "s":
+                return date.truncatedTo(ChronoUnit.SECONDS);
+            case "m":
+                return date.truncatedTo(ChronoUnit.MINUTES);
+            case "h":
+                return date.truncatedTo(ChronoUnit.HOURS);
+            case "d":
+                return date.truncatedTo(ChronoUnit.DAYS);
+            case "w":
+                return date.truncatedTo(ChronoUnit.DAYS).with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+            case "q":
+                return date.truncatedTo(ChronoUnit.DAYS).with(IsoFields.DAY_OF_QUARTER, 1);
+            case "y":
+                return date.truncatedTo(ChronoUnit.DAYS).withDayOfYear(1);
+            default:
+                return date.truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1);
+        }
+    }
+
+    private ZonedDateTime getNextDateBucket(ZonedDateTime bucket, String interval) {
+        switch (interval.substring(interval.length() - 1)) {
+            case "s":
+                return bucket.plusSeconds(1);
+            case "m":
+                return bucket.plusMinutes(1);
+            case "h":
+                return bucket.plusHours(1);
+            case "d":
+                return bucket.plusDays(1);
+            case "w":
+                return bucket.plusWeeks(1);
+            case "q":
+                return bucket.plusMonths(3);
+            case "y":
+                return bucket.plusYears(1);
+            default:
+                return bucket.plusMonths(1);
+        }
+    }
+
+    private String getRangeKey(String key, Object from, Object to) {
+        return key != null ? key : (from != null ? from.toString() : "*") + "-" + (to != null ? to.toString() : "*");
+    }
+
+    private long count(List<List<Object>> values, Predicate<Object> filter) {
+        return values.stream().filter(hitValues -> hitValues.stream().anyMatch(filter)).count();
+    }
+
+    @Override
+    public Map<String, Double> getSingleValuesMetrics(Condition condition, String[] metrics, String field, String type) {
+        Map<String, Double> results = new LinkedHashMap<>();
+        List<Object> values = new ArrayList<>();
+        for (Map.Entry<String, StoredItem> hit : find(type, stored -> condition == null || matches(condition, stored.item))) {
+            values.addAll(getValues(hit.getValue().source, field));
+        }
+        double sum = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        int numbers = 0;
+        for (Object value : values) {
+            Double number = toDouble(value);
+            if (number != null) {
+                sum += number;
+                min = Math.min(min, number);
+                max = Math.max(max, number);
+                numbers++;
+            }
+        }
+        for (String metric : metrics) {
+            switch (metric) {
+                case "sum":
+                    results.put("_sum", sum);
+                    break;
+                case "avg":
+                    results.put("_avg", numbers > 0 ? sum / numbers : Double.NaN);
+                    break;
+                case "min":
+                    results.put("_min", min);
+                    break;
+                case "max":
+                    results.put("_max", max);
+                    break;
+                case "card":
+                    results.put("_card", (double) values.stream().map(Object::toString).distinct().count());
+                    break;
+                case "count":
+                    results.put("_count", (double) values.size());
+                    break;
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public Map<String, Double> getSingleValuesMetrics(Condition condition, String[] metrics, String field, String type, long maxStaleness, TimeUnit unit) {
+        return getSingleValuesMetrics(condition, metrics, field, type);
+    }
+
+    @Override
+    public void refresh() {
+        // nothing to do, writes are visible right away
+    }
+
+    @Override
+    public <T extends Item> void refreshIndex(Class<T> clazz, Date dateHint) {
+        // nothing to do, writes are visible right away
+    }
+
+    @Override
+    public void purge(Date date) {
+        // like the monthly indices, only whole months ending before the date are dropped
+        for (String itemType : itemsMonthlyIndexed) {
+            removeMatching(itemType, stored -> stored.monthlyIndex != null && YearMonth.parse(stored.monthlyIndex, MONTHLY_INDEX_FORMATTER)
+                    .plusMonths(1).atDay(1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli() <= date.getTime());
+        }
+    }
+
+    @Override
+    public void purge(String scope) {
+        purgeScope(scope);
+    }
+
+    @Override
+    public String purgeAsync(String scope) {
+        return completedTask(purgeScope(scope));
+    }
+
+    private long purgeScope(String scope) {
+        long deleted = 0;
+        for (String itemType : itemsByType.keySet()) {
+            deleted += removeMatching(itemType, stored -> scope.equals(stored.item.getScope()));
+        }
+        return deleted;
+    }
+
+    @Override
+    public Map<String, Object> getTaskStatus(String taskId) {
+        return completedTasks.get(taskId);
+    }
+
+    @Override
+    public boolean createIndex(String itemType) {
+        return itemsByType.putIfAbsent(itemType, new ConcurrentHashMap<>()) == null;
+    }
+
+    @Override
+    public boolean removeIndex(String itemType) {
+        mappings.remove(itemType);
+        return itemsByType.remove(itemType) != null;
+    }
+
+    private Map<String, StoredItem> getItems(String itemType) {
+        return itemsByType.computeIfAbsent(itemType, type -> new ConcurrentHashMap<>());
+    }
+
+    private List<Map.Entry<String, StoredItem>> find(String itemType, Predicate<StoredItem> filter) {
+        List<Map.Entry<String, StoredItem>> hits = new ArrayList<>();
+        Map<String, StoredItem> items = itemsByType.get(itemType);
+        if (items != null) {
+            for (Map.Entry<String, StoredItem> entry : items.entrySet()) {
+                if (filter.test(entry.getValue())) {
+                    hits.add(entry);
+                }
+            }
+        }
+        return hits;
+    }
+
+    private long removeMatching(String itemType, Predicate<StoredItem> filter) {
+        long deleted = 0;
+        Map<String, StoredItem> items = itemsByType.get(itemType);
+        if (items != null) {
+            for (Map.Entry<String, StoredItem> entry : find(itemType, filter)) {
+                if (items.remove(entry.getKey(), entry.getValue())) {
+                    deleted++;
+                }
+            }
+        }
+        return deleted;
+    }
+
+    private boolean matches(Condition condition, Item item) {
+        if (condition == null) {
+            return true;
+        }
+        try {
+            return conditionEvaluatorDispatcher.eval(condition, item);
+        } catch (UnsupportedOperationException e) {
+            logger.warn("Cannot evaluate condition {} in memory: {}", condition.getConditionTypeId(), e.getMessage());
+            return false;
+        }
+    }
+
+    private String completedTask(long deleted) {
+        String taskId = "inmemory:" + UUID.randomUUID();
+        Map<String, Object> status = new HashMap<>();
+        status.put("completed", true);
+        status.put("response", Collections.singletonMap("deleted", deleted));
+        completedTasks.put(taskId, status);
+        return taskId;
+    }
+
+    private void sort(List<Map.Entry<String, StoredItem>> hits, String sortBy) {
+        if (sortBy == null) {
+            return;
+        }
+        Comparator<Map.Entry<String, StoredItem>> comparator = null;
+        for (String sortByElement : sortBy.split(",")) {
+            if (sortByElement.startsWith("geo:")) {
+                // distance sorting is not supported in memory
+                continue;
+            }
+            boolean descending = sortByElement.endsWith(":desc");
+            String name = sortByElement.endsWith(":desc") || sortByElement.endsWith(":asc") ? StringUtils.substringBeforeLast(sortByElement, ":") : sortByElement;
+            Comparator<Map.Entry<String, StoredItem>> elementComparator = (first, second) -> {
+                List<Object> firstValues = getValues(first.getValue().source, name);
+                List<Object> secondValues = getValues(second.getValue().source, name);
+                // items without value come last whatever the order
+                if (firstValues.isEmpty() || secondValues.isEmpty()) {
+                    return Boolean.compare(firstValues.isEmpty(), secondValues.isEmpty());
+                }
+                int result = compare(firstValues.get(0), secondValues.get(0));
+                return descending ? -result : result;
+            };
+            comparator = comparator == null ? elementComparator : comparator.thenComparing(elementComparator);
+        }
+        if (comparator != null) {
+            hits.sort(comparator);
+        }
+    }
+
+    private int compare(Object value, Object other) {
+        Double number = toDouble(value);
+        Double otherNumber = toDouble(other);
+        if (number != null && otherNumber != null) {
+            return Double.compare(number, otherNumber);
+        }
+        return value.toString().compareTo(other.toString());
+    }
+
+    private Double toDouble(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof String) {
+            try {
+                return Double.valueOf((String) value);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private Long toEpochMillis(Object value) {
+        if (value instanceof Date) {
+            return ((Date) value).getTime();
+        }
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof String) {
+            try {
+                return ZonedDateTime.parse((String) value, DateTimeFormatter.ISO_DATE_TIME).toInstant().toEpochMilli();
+            } catch (DateTimeParseException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private Long toIpNumber(Object value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            long number = 0;
+            for (byte part : InetAddress.getByName(value.toString()).getAddress()) {
+                number = (number << 8) | (part & 0xFF);
+            }
+            return number;
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
+    private boolean anyValue(Map<String, Object> source, String path, Predicate<Object> predicate) {
+        for (Object value : getValues(source, path)) {
+            if (predicate.test(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the values found at the given dotted path of the source, flattening the lists along the path. The
+     * .keyword suffix of the ElasticSearch sub fields is ignored.
+     */
+    private List<Object> getValues(Map<String, Object> source, String path) {
+        List<Object> values = new ArrayList<>();
+        String fieldPath = StringUtils.removeEnd(path, ".keyword");
+        collectValues(source, StringUtils.split(fieldPath, '.'), 0, values);
+        return values;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void collectValues(Object value, String[] path, int depth, List<Object> values) {
+        if (value == null) {
+            return;
+        }
+        if (value instanceof Collection) {
+            for (Object element : (Collection<Object>) value) {
+                collectValues(element, path, depth, values);
+            }
+        } else if (depth == path.length) {
+            values.add(value);
+        } else if (value instanceof Map) {
+            collectValues(((Map<String, Object>) value).get(path[depth]), path, depth + 1, values);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean containsText(Object value, String text) {
+        if (value instanceof Map) {
+            return ((Map<String, Object>) value).values().stream().anyMatch(element -> containsText(element, text));
+        }
+        if (value instanceof Collection) {
+            return ((Collection<Object>) value).stream().anyMatch(element -> containsText(element, text));
+        }
+        return value instanceof String && StringUtils.containsIgnoreCase((String) value, text);
+    }
+
+    private String getMonthlyIndex(Date date) {
+        return MONTHLY_INDEX_FORMATTER.format(date.toInstant().atZone(ZoneId.systemDefault()));
+    }
+
+    private long getExpiration(String scrollTimeValidity) {
+        long validity = TimeUnit.MINUTES.toMillis(10);
+        if (scrollTimeValidity != null) {
+            String unit = scrollTimeValidity.replaceAll("[0-9]", "");
+            String amount = scrollTimeValidity.substring(0, scrollTimeValidity.length() - unit.length());
+            if (StringUtils.isNumeric(amount) && !amount.isEmpty()) {
+                switch (unit) {
+                    case "ms":
+                        validity = Long.parseLong(amount);
+                        break;
+                    case "s":
+                        validity = TimeUnit.SECONDS.toMillis(Long.parseLong(amount));
+                        break;
+                    case "m":
+                        validity = TimeUnit.MINUTES.toMillis(Long.parseLong(amount));
+                        break;
+                    case "h":
+                        validity = TimeUnit.HOURS.toMillis(Long.parseLong(amount));
+                        break;
+                    case "d":
+                        validity = TimeUnit.DAYS.toMillis(Long.parseLong(amount));
+                        break;
+                }
+            }
+        }
+        return System.currentTimeMillis() + validity;
+    }
+
+    private void removeExpiredScrolls() {
+        long now = System.currentTimeMillis();
+        scrolls.values().removeIf(scroll -> scroll.expiration < now);
+    }
+
+    private ObjectMapper getObjectMapper() {
+        return CustomObjectMapper.getObjectMapper();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> toSource(Item item) {
+        Map<String, Object> source = getObjectMapper().convertValue(item, Map.class);
+        // like in ElasticSearch, the version is metadata and not part of the source
+        source.remove("version");
+        return source;
+    }
+
+    private <T extends Item> T fromSource(Map<String, Object> source, String itemId, Class<T> clazz) {
+        T item = getObjectMapper().convertValue(source, clazz);
+        item.setItemId(itemId);
+        return item;
+    }
+
+    private <T extends Item> T toItem(String itemId, StoredItem stored, Class<T> clazz) {
+        T item = fromSource(stored.source, itemId, clazz);
+        item.setVersion(stored.version);
+        return item;
+    }
+
+    private <T extends Item> List<T> toItems(List<Map.Entry<String, StoredItem>> hits, Class<T> clazz) {
+        List<T> items = new ArrayList<>(hits.size());
+        for (Map.Entry<String, StoredItem> hit : hits) {
+            items.add(toItem(hit.getKey(), hit.getValue(), clazz));
+        }
+        return items;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <M extends Map> M deepCopy(M map) {
+        Map<Object, Object> copy = new HashMap<>();
+        for (Map.Entry<Object, Object> entry : ((Map<Object, Object>) map).entrySet()) {
+            copy.put(entry.getKey(), entry.getValue() instanceof Map ? deepCopy((Map) entry.getValue()) : entry.getValue());
+        }
+        return (M) copy;
+    }
+
+    /**
+     * Merges the changes into the target like ElasticSearch merges a partial document: objects are merged field by
+     * field, any other value is replaced.
+     */
+    @SuppressWarnings("unchecked")
+    private static void deepMerge(Map<String, Object> target, Map<String, Object> changes) {
+        for (Map.Entry<String, Object> change : changes.entrySet()) {
+            Object current = target.get(change.getKey());
+            if (current instanceof Map && change.getValue() instanceof Map) {
+                deepMerge((Map<String, Object>) current, (Map<String, Object>) change.getValue());
+            } else {
+                target.put(change.getKey(), change.getValue() instanceof Map ? deepCopy((Map) change.getValue()) : change.getValue());
+            }
+        }
+    }
+
+    /**
+     * An item as stored: its source, which is never modified once stored, and a deserialized copy of the source only
+     * used to evaluate the conditions, never returned to the callers.
+     */
+    private static class StoredItem {
+        private final Map<String, Object> source;
+        private final Item item;
+        private final long version;
+        private final String monthlyIndex;
+
+        private StoredItem(Map<String, Object> source, Item item, long version, String monthlyIndex) {
+            this.source = source;
+            this.item = item;
+            this.version = version;
+            this.monthlyIndex = monthlyIndex;
+        }
+    }
+
+    private static class Scroll {
+        private final List<Map.Entry<String, StoredItem>> remaining;
+        private final int pageSize;
+        private volatile long expiration;
+
+        private Scroll(List<Map.Entry<String, StoredItem>> remaining, int pageSize, long expiration) {
+            this.remaining = remaining;
+            this.pageSize = pageSize;
+            this.expiration = expiration;
+        }
+    }
+}
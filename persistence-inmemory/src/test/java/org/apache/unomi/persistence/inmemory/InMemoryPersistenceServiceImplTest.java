@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.persistence.inmemory;
+
+import org.apache.unomi.api.Event;
+import org.apache.unomi.api.PartialList;
+import org.apache.unomi.api.Profile;
+import org.apache.unomi.api.conditions.Condition;
+import org.apache.unomi.api.conditions.ConditionType;
+import org.apache.unomi.persistence.spi.aggregate.TermsAggregate;
+import org.apache.unomi.persistence.spi.conditions.ConditionEvaluatorDispatcher;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class InMemoryPersistenceServiceImplTest {
+
+    private InMemoryPersistenceServiceImpl persistenceService;
+
+    @Before
+    public void setUp() {
+        ConditionEvaluatorDispatcher dispatcher = new ConditionEvaluatorDispatcher();
+        dispatcher.addEvaluator("segmentEvaluator", (condition, item, context, conditionEvaluatorDispatcher) ->
+                ((Profile) item).getSegments().contains((String) condition.getParameter("segment")));
+        persistenceService = new InMemoryPersistenceServiceImpl();
+        persistenceService.setConditionEvaluatorDispatcher(dispatcher);
+        persistenceService.start();
+    }
+
+    @Test
+    public void testSaveAndLoadReturnCopies() {
+        Profile profile = createProfile("p1", "Alice", 30);
+        assertTrue(persistenceService.save(profile));
+        assertEquals(Long.valueOf(1), profile.getVersion());
+
+        Profile loaded = persistenceService.load("p1", Profile.class);
+        assertEquals("Alice", loaded.getProperty("firstName"));
+        loaded.setProperty("firstName", "Bob");
+        assertEquals("Alice", persistenceService.load("p1", Profile.class).getProperty("firstName"));
+
+        assertTrue(persistenceService.save(loaded));
+        assertEquals(Long.valueOf(2), persistenceService.load("p1", Profile.class).getVersion());
+    }
+
+    @Test
+    public void testVersionConflict() {
+        Profile profile = createProfile("p1", "Alice", 30);
+        persistenceService.save(profile);
+        Profile stale = persistenceService.load("p1", Profile.class);
+        persistenceService.save(persistenceService.load("p1", Profile.class));
+
+        assertFalse(persistenceService.save(stale, false, false));
+        assertTrue(persistenceService.save(stale, false, true));
+    }
+
+    @Test
+    public void testPartialUpdateMergesProperties() {
+        persistenceService.save(createProfile("p1", "Alice", 30));
+
+        assertTrue(persistenceService.update(new Profile("p1"), null, Profile.class, "properties", Collections.singletonMap("age", 31)));
+        Profile loaded = persistenceService.load("p1", Profile.class);
+        assertEquals("Alice", loaded.getProperty("firstName"));
+        assertEquals(31, loaded.getProperty("age"));
+        assertFalse(persistenceService.update(new Profile("unknown"), null, Profile.class, "properties", Collections.emptyMap()));
+    }
+
+    @Test
+    public void testConditionQuerySortAndPaging() {
+        for (int i = 0; i < 5; i++) {
+            Profile profile = createProfile("p" + i, "name" + i, 20 + i);
+            if (i % 2 == 0) {
+                profile.getSegments().add("even");
+            }
+            persistenceService.save(profile);
+        }
+        Condition condition = createSegmentCondition("even");
+
+        assertEquals(3, persistenceService.queryCount(condition, Profile.ITEM_TYPE));
+        PartialList<Profile> page = persistenceService.query(condition, "properties.age:desc", Profile.class, 0, 2);
+        assertEquals(3, page.getTotalSize());
+        assertEquals(2, page.size());
+        assertEquals("p4", page.get(0).getItemId());
+        assertEquals("p2", page.get(1).getItemId());
+
+        persistenceService.removeByQuery(condition, Profile.class);
+        assertEquals(2, persistenceService.getAllItemsCount(Profile.ITEM_TYPE));
+    }
+
+    @Test
+    public void testScrollQuery() {
+        for (int i = 0; i < 5; i++) {
+            persistenceService.save(createProfile("p" + i, "name" + i, 20 + i));
+        }
+        PartialList<Profile> page = persistenceService.getAllItems(Profile.class, 0, 2, "properties.age", "1m");
+        assertEquals(5, page.getTotalSize());
+        int count = page.size();
+        while (page.size() > 0) {
+            page = persistenceService.continueScrollQuery(Profile.class, page.getScrollIdentifier(), "1m");
+            count += page.size();
+        }
+        assertEquals(5, count);
+    }
+
+    @Test
+    public void testTermsAggregate() {
+        persistenceService.save(createProfile("p1", "Alice", 30));
+        persistenceService.save(createProfile("p2", "Alice", 31));
+        persistenceService.save(createProfile("p3", "Bob", 32));
+        persistenceService.save(new Profile("p4"));
+
+        Map<String, Long> result = persistenceService.aggregateQuery(null, new TermsAggregate("properties.firstName"), Profile.ITEM_TYPE);
+        assertEquals(Long.valueOf(4), result.get("_all"));
+        assertEquals(Long.valueOf(2), result.get("Alice"));
+        assertEquals(Long.valueOf(1), result.get("Bob"));
+        assertEquals(Long.valueOf(1), result.get("_missing"));
+    }
+
+    @Test
+    public void testEventsArePartitionedByMonth() {
+        ZonedDateTime now = ZonedDateTime.now(ZoneId.systemDefault());
+        Date lastYear = Date.from(now.minusYears(1).toInstant());
+        Event oldEvent = new Event("e1", "view", null, new Profile("p1"), "scope", null, null, lastYear);
+        Event newEvent = new Event("e2", "view", null, new Profile("p1"), "scope", null, null, Date.from(now.toInstant()));
+        persistenceService.save(oldEvent);
+        persistenceService.save(newEvent);
+
+        assertNotNull(persistenceService.load("e1", lastYear, Event.class));
+        assertNull(persistenceService.load("e1", new Date(), Event.class));
+
+        persistenceService.purge(Date.from(now.minusMonths(1).toInstant()));
+        assertNull(persistenceService.load("e1", Event.class));
+        assertNotNull(persistenceService.load("e2", Event.class));
+    }
+
+    private Profile createProfile(String profileId, String firstName, int age) {
+        Profile profile = new Profile(profileId);
+        profile.setProperty("firstName", firstName);
+        profile.setProperty("age", age);
+        return profile;
+    }
+
+    private Condition createSegmentCondition(String segment) {
+        ConditionType conditionType = new ConditionType();
+        conditionType.setItemId("profileSegmentCondition");
+        conditionType.setConditionEvaluator("segmentEvaluator");
+        Condition condition = new Condition(conditionType);
+        condition.setParameter("segment", segment);
+        return condition;
+    }
+}
@@ -18,10 +18,12 @@
 package org.apache.unomi.persistence.spi;
 
 import com.fasterxml.jackson.core.JsonParser;
-import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.JsonParserSequence;
 import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 import org.apache.unomi.api.CustomItem;
 import org.apache.unomi.api.Item;
 
@@ -29,6 +31,10 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * Deserializes items to the class registered for their item type in a single pass: the fields preceding the
+ * {@code itemType} one are buffered and replayed in front of the rest of the stream once the class is known.
+ */
 public class ItemDeserializer extends StdDeserializer<Item> {
 
     private static final long serialVersionUID = -7040054009670771266L;
@@ -44,17 +50,38 @@ public class ItemDeserializer extends StdDeserializer<Item> {
 
     @Override
     public Item deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException {
-        ObjectCodec codec = jp.getCodec();
-        ObjectNode treeNode = codec.readTree(jp);
-        String type = treeNode.get("itemType").textValue();
-        Class<? extends Item> objectClass = classes.get(type);
-        if (objectClass == null) {
-            objectClass = CustomItem.class;
-        } else {
-            treeNode.remove("itemType");
+        JsonToken token = jp.getCurrentToken();
+        if (token == JsonToken.START_OBJECT) {
+            token = jp.nextToken();
+        }
+        TokenBuffer tokenBuffer = new TokenBuffer(jp, ctxt);
+        tokenBuffer.writeStartObject();
+        String itemId = null;
+        for (; token == JsonToken.FIELD_NAME; token = jp.nextToken()) {
+            String name = jp.getCurrentName();
+            jp.nextToken();
+            if ("itemType".equals(name)) {
+                String type = jp.getText();
+                Class<? extends Item> objectClass = classes.get(type);
+                if (objectClass == null) {
+                    objectClass = CustomItem.class;
+                    tokenBuffer.writeFieldName(name);
+                    tokenBuffer.copyCurrentStructure(jp);
+                }
+                JsonParser itemParser = JsonParserSequence.createFlattened(false, tokenBuffer.asParser(jp), jp);
+                itemParser.nextToken();
+                Item item = ctxt.readValue(itemParser, objectClass);
+                if (itemId != null) {
+                    item.setItemId(itemId);
+                }
+                return item;
+            }
+            if ("itemId".equals(name) && jp.getCurrentToken().isScalarValue()) {
+                itemId = jp.getText();
+            }
+            tokenBuffer.writeFieldName(name);
+            tokenBuffer.copyCurrentStructure(jp);
         }
-        Item item = codec.treeToValue(treeNode, objectClass);
-        item.setItemId(treeNode.get("itemId").asText());
-        return item;
+        throw JsonMappingException.from(jp, "Missing itemType field, cannot resolve the item class");
     }
 }
@@ -26,6 +26,7 @@ import org.apache.unomi.persistence.spi.aggregate.BaseAggregate;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 /**
@@ -149,6 +150,14 @@ public interface PersistenceService {
      */
     boolean save(Item item, Boolean useBatching, Boolean alwaysOverwrite);
 
+    /**
+     * Persists the specified items in the context server with a single bulk request, overwriting any existing item with the same identifier.
+     *
+     * @param items the items to persist
+     * @return List of the ids of the items that could not be persisted, if all succesful then returns an empty list. if the whole operation failed then will return null
+     */
+    List<String> save(List<? extends Item> items);
+
     /**
      * Updates the item of the specified class and identified by the specified identifier with new property values provided as name - value pairs in the specified Map.
      *
@@ -263,6 +272,18 @@ public interface PersistenceService {
      */
     <T extends Item> boolean removeByQuery(Condition query, Class<T> clazz);
 
+    /**
+     * Submits the deletion of the items with the specified Item subclass matching the specified {@link Condition} as a background task on the persistence
+     * backend, and returns without waiting for its completion. This should be preferred to {@link #removeByQuery(Condition, Class)} when a large number
+     * of items might be removed.
+     *
+     * @param <T>   the type of the Item subclass we want to delete
+     * @param query a {@link Condition} identifying which elements we want to delete
+     * @param clazz the {@link Item} subclass of the items we want to delete
+     * @return the identifier of the submitted task, that may be passed to {@link #getTaskStatus(String)}, or {@code null} if the task couldn't be submitted
+     */
+    <T extends Item> String removeByQueryAsync(Condition query, Class<T> clazz);
+
     /**
      * Persists the specified query under the specified name.
      *
@@ -558,6 +579,35 @@ public interface PersistenceService {
      */
     Map<String, Long> aggregateWithOptimizedQuery(Condition filter, BaseAggregate aggregate, String itemType, int size);
 
+    /**
+     * Same as {@link #aggregateQuery(Condition, BaseAggregate, String)}, including the global count of documents matching the
+     * {@code ITEM_TYPE}, but may return a cached result computed with the same parameters if it isn't older than the specified staleness
+     * tolerance. Callers that don't need the global count should use
+     * {@link #aggregateWithOptimizedQuery(Condition, BaseAggregate, String, long, TimeUnit)} instead.
+     *
+     * @param filter       the condition the items must match or {@code null} if no filtering is needed
+     * @param aggregate    an aggregate specifying how matching items must be bundled
+     * @param itemType     the String representation of the item type we want to retrieve the count of, as defined by its class' {@code ITEM_TYPE} field
+     * @param maxStaleness the maximum age of an acceptable cached result, zero to always run the query
+     * @param unit         the time unit of {@code maxStaleness}
+     * @return a Map associating aggregation dimension name as key and cardinality for that dimension as value
+     */
+    Map<String, Long> aggregateQuery(Condition filter, BaseAggregate aggregate, String itemType, long maxStaleness, TimeUnit unit);
+
+    /**
+     * Same as {@link #aggregateWithOptimizedQuery(Condition, BaseAggregate, String)}, but may return a cached result computed with the same
+     * parameters if it isn't older than the specified staleness tolerance. Meant for reporting queries that are repeated often and can live
+     * with slightly outdated figures.
+     *
+     * @param filter       the condition the items must match or {@code null} if no filtering is needed
+     * @param aggregate    an aggregate specifying how matching items must be bundled
+     * @param itemType     the String representation of the item type we want to retrieve the count of, as defined by its class' {@code ITEM_TYPE} field
+     * @param maxStaleness the maximum age of an acceptable cached result, zero to always run the query
+     * @param unit         the time unit of {@code maxStaleness}
+     * @return a Map associating aggregation dimension name as key and cardinality for that dimension as value
+     */
+    Map<String, Long> aggregateWithOptimizedQuery(Condition filter, BaseAggregate aggregate, String itemType, long maxStaleness, TimeUnit unit);
+
     /**
      * Updates the persistence's engine indices if needed.
      */
@@ -610,6 +660,20 @@ public interface PersistenceService {
      */
     Map<String, Double> getSingleValuesMetrics(Condition condition, String[] metrics, String field, String type);
 
+    /**
+     * Same as {@link #getSingleValuesMetrics(Condition, String[], String, String)}, but may return a cached result computed with the same
+     * parameters if it isn't older than the specified staleness tolerance.
+     *
+     * @param condition    the condition the items must satisfy
+     * @param metrics      a String array which metrics should be computed
+     * @param field        the name of the field for which the metrics should be computed
+     * @param type         the String representation of the item type we want to retrieve the count of, as defined by its class' {@code ITEM_TYPE} field
+     * @param maxStaleness the maximum age of an acceptable cached result, zero to always run the query
+     * @param unit         the time unit of {@code maxStaleness}
+     * @return a Map associating computed metric name as key to its associated value
+     */
+    Map<String, Double> getSingleValuesMetrics(Condition condition, String[] metrics, String field, String type, long maxStaleness, TimeUnit unit);
+
     /**
      * Creates an index with for the specified item type in the persistence engine.
      *
@@ -631,10 +695,28 @@ public interface PersistenceService {
     boolean removeIndex(final String itemType);
 
     /**
-     * Removes all data associated with the provided scope.
+     * Removes all data associated with the provided scope, returning once the data is removed. See {@link #purgeAsync(String)} to
+     * submit the removal without waiting for it.
      *
      * @param scope the scope for which we want to remove data
      */
     void purge(final String scope);
 
+    /**
+     * Submits the removal of all data associated with the provided scope as a background task on the persistence backend, and returns without waiting
+     * for its completion.
+     *
+     * @param scope the scope for which we want to remove data
+     * @return the identifier of the submitted task, that may be passed to {@link #getTaskStatus(String)}, or {@code null} if the task couldn't be submitted
+     */
+    String purgeAsync(final String scope);
+
+    /**
+     * Retrieves the status of a background task previously submitted to the persistence backend.
+     *
+     * @param taskId the identifier of the task, as returned by {@link #removeByQueryAsync(Condition, Class)} or {@link #purgeAsync(String)}
+     * @return a Map describing the task status (including a {@code completed} flag), or {@code null} if the task couldn't be found
+     */
+    Map<String, Object> getTaskStatus(String taskId);
+
 }
@@ -14,20 +14,19 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-
 package org.apache.unomi.persistence.spi;
 
 import com.fasterxml.jackson.core.JsonParser;
-import com.fasterxml.jackson.core.JsonTokenId;
-import com.fasterxml.jackson.core.ObjectCodec;
-import com.fasterxml.jackson.core.TreeNode;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.JsonParserSequence;
 import com.fasterxml.jackson.databind.DeserializationContext;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.deser.std.UntypedObjectDeserializer;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
 import java.io.IOException;
+import java.io.Serializable;
 import java.util.*;
+import java.util.regex.Pattern;
 
 /**
  * This Jackson deserializer makes it possible to register field matching
@@ -45,6 +44,11 @@ import java.util.*;
  * In this example any JSON object that has a "type" property that matches the
  * ".*Condition" regular expression will be parsed and mapped to a Condition class
  *
+ * Objects are parsed in a single pass: the raw tokens of the fields are buffered
+ * until one of them matches a registered expression, at which point they are
+ * replayed in front of the rest of the stream to deserialize the mapped class.
+ * If no field matches, the buffered fields are read into a map.
+ *
  * Note that there exists a way to map properties as type identifiers in Jackson,
  * but this feature is very limited and requires hardcoding possible values.
  * This deserializer is much more flexible and powerful.
@@ -53,62 +57,97 @@ public class PropertyTypedObjectDeserializer extends UntypedObjectDeserializer {
 
     private static final long serialVersionUID = -2561171359946902967L;
 
-    private Map<String, Class<? extends Object>> registry =
-            new LinkedHashMap<String, Class<? extends Object>>();
+    private static final Pattern LITERAL_VALUE = Pattern.compile("[\\w\\-]*");
+
+    private static class ValueMatcher implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String literal;
+        private final Pattern pattern;
+        private final Class<? extends Object> mappedClass;
+
+        ValueMatcher(String valueToMatch, Class<? extends Object> mappedClass) {
+            // plain values don't need a regular expression to be matched
+            this.literal = LITERAL_VALUE.matcher(valueToMatch).matches() ? valueToMatch : null;
+            this.pattern = literal == null ? Pattern.compile(valueToMatch) : null;
+            this.mappedClass = mappedClass;
+        }
+
+        boolean matches(String value) {
+            return literal != null ? literal.equals(value) : pattern.matcher(value).matches();
+        }
+    }
 
-    private Map<String,Set<String>> fieldValuesToMatch = new LinkedHashMap<String,Set<String>>();
+    private Map<String, List<ValueMatcher>> fieldValuesToMatch = new HashMap<String, List<ValueMatcher>>();
 
     public void registerMapping(String matchExpression,
                                 Class<? extends Object> mappedClass) {
-        registry.put(matchExpression, mappedClass);
-        String[] fieldParts = matchExpression.split("=");
-        Set<String> valuesToMatch = fieldValuesToMatch.get(fieldParts[0]);
+        String[] fieldParts = matchExpression.split("=", 2);
+        List<ValueMatcher> valuesToMatch = fieldValuesToMatch.get(fieldParts[0]);
         if (valuesToMatch == null) {
-            valuesToMatch = new LinkedHashSet<String>();
+            valuesToMatch = new ArrayList<ValueMatcher>();
+            fieldValuesToMatch.put(fieldParts[0], valuesToMatch);
         }
-        valuesToMatch.add(fieldParts[1]);
-        fieldValuesToMatch.put(fieldParts[0], valuesToMatch);
+        valuesToMatch.add(new ValueMatcher(fieldParts[1], mappedClass));
     }
 
     @Override
     public Object deserialize(
             JsonParser jp, DeserializationContext ctxt)
             throws IOException {
-        if (jp.getCurrentTokenId() != JsonTokenId.ID_START_OBJECT) {
+        JsonToken token = jp.getCurrentToken();
+        if (token == JsonToken.START_OBJECT) {
+            token = jp.nextToken();
+        } else if (token != JsonToken.FIELD_NAME) {
             return super.deserialize(jp, ctxt);
         }
-        ObjectCodec codec = jp.getCodec();
-        TreeNode treeNode = codec.readTree(jp);
-        Class<? extends Object> objectClass = null;
-        if (treeNode instanceof ObjectNode) {
-            ObjectNode root = (ObjectNode) treeNode;
-            Iterator<Map.Entry<String, JsonNode>> elementsIterator =
-                    root.fields();
-            while (elementsIterator.hasNext()) {
-                Map.Entry<String, JsonNode> element = elementsIterator.next();
-                String name = element.getKey();
-                if (fieldValuesToMatch.containsKey(name)) {
-                    Set<String> valuesToMatch = fieldValuesToMatch.get(name);
-                    for (String valueToMatch : valuesToMatch) {
-                        if (element.getValue().asText().matches(valueToMatch)) {
-                            objectClass = registry.get(name + "=" + valueToMatch);
-                            break;
-                        }
-                    }
-                    if (objectClass != null) {
-                        break;
+        TokenBuffer previousFields = new TokenBuffer(jp, ctxt);
+        previousFields.writeStartObject();
+        for (; token == JsonToken.FIELD_NAME; token = jp.nextToken()) {
+            String name = jp.getCurrentName();
+            JsonToken valueToken = jp.nextToken();
+            List<ValueMatcher> valuesToMatch = fieldValuesToMatch.get(name);
+            if (valuesToMatch != null) {
+                String value = valueToken.isScalarValue() ? jp.getText() : "";
+                for (ValueMatcher valueToMatch : valuesToMatch) {
+                    if (valueToMatch.matches(value)) {
+                        return deserializeAs(valueToMatch.mappedClass, previousFields, jp, ctxt);
                     }
                 }
             }
-            if (objectClass == null) {
-                objectClass = HashMap.class;
-            }
-        } else {
-
+            previousFields.writeFieldName(name);
+            previousFields.copyCurrentStructure(jp);
         }
-        if (objectClass == null) {
-            return super.deserialize(codec.treeAsTokens(treeNode), ctxt);
+        previousFields.writeEndObject();
+        return deserializeAsMap(previousFields, jp, ctxt);
+    }
+
+    /**
+     * Deserializes the current object as the specified class, the parser being positioned on the value of the
+     * matching field and the raw tokens of the previous fields of the object having been buffered.
+     */
+    private Object deserializeAs(Class<? extends Object> objectClass, TokenBuffer tokenBuffer, JsonParser jp,
+                                 DeserializationContext ctxt) throws IOException {
+        tokenBuffer.writeFieldName(jp.getCurrentName());
+        tokenBuffer.copyCurrentStructure(jp);
+        JsonParser objectParser = JsonParserSequence.createFlattened(false, tokenBuffer.asParser(jp), jp);
+        objectParser.nextToken();
+        return ctxt.readValue(objectParser, objectClass);
+    }
+
+    /**
+     * Reads the buffered fields of an object matching no registered expression into a map, their values being
+     * deserialized as untyped objects, so that the nested objects may still be mapped.
+     */
+    private Map<String, Object> deserializeAsMap(TokenBuffer tokenBuffer, JsonParser jp, DeserializationContext ctxt) throws IOException {
+        Map<String, Object> values = new LinkedHashMap<String, Object>();
+        JsonParser fieldsParser = tokenBuffer.asParser(jp);
+        fieldsParser.nextToken();
+        for (JsonToken token = fieldsParser.nextToken(); token == JsonToken.FIELD_NAME; token = fieldsParser.nextToken()) {
+            String name = fieldsParser.getCurrentName();
+            fieldsParser.nextToken();
+            values.put(name, deserialize(fieldsParser, ctxt));
         }
-        return codec.treeToValue(treeNode, objectClass);
+        return values;
     }
 }
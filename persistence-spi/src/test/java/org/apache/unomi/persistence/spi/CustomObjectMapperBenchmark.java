@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.persistence.spi;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonTokenId;
+import com.fasterxml.jackson.core.ObjectCodec;
+import com.fasterxml.jackson.core.TreeNode;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.deser.std.UntypedObjectDeserializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.unomi.api.CustomItem;
+import org.apache.unomi.api.Event;
+import org.apache.unomi.api.Item;
+import org.apache.unomi.api.Profile;
+import org.apache.unomi.api.Session;
+import org.apache.unomi.api.conditions.Condition;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the throughput of the single pass deserializers of the {@link CustomObjectMapper} with the previous tree
+ * based implementation on realistic profile and event documents. Run it with the main method, from the test
+ * classpath of this module.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CustomObjectMapperBenchmark {
+
+    private ObjectMapper streamingMapper;
+    private ObjectMapper treeMapper;
+    private String profileSource;
+    private String eventSource;
+
+    @Setup
+    public void setup() throws IOException {
+        streamingMapper = new CustomObjectMapper();
+        treeMapper = createTreeMapper();
+        profileSource = readResource("/benchmark-profile.json");
+        eventSource = readResource("/benchmark-event.json");
+    }
+
+    private String readResource(String path) throws IOException {
+        try (InputStream inputStream = getClass().getResourceAsStream(path)) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+            return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Benchmark
+    public Profile profileStreaming() throws IOException {
+        return streamingMapper.readValue(profileSource, Profile.class);
+    }
+
+    @Benchmark
+    public Profile profileTree() throws IOException {
+        return treeMapper.readValue(profileSource, Profile.class);
+    }
+
+    @Benchmark
+    public Event eventStreaming() throws IOException {
+        return streamingMapper.readValue(eventSource, Event.class);
+    }
+
+    @Benchmark
+    public Event eventTree() throws IOException {
+        return treeMapper.readValue(eventSource, Event.class);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(CustomObjectMapperBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    /**
+     * Builds a mapper configured like the {@link CustomObjectMapper} but using the previous deserializers, that read
+     * each object into a tree before converting it again.
+     */
+    static ObjectMapper createTreeMapper() {
+        ObjectMapper mapper = new CustomObjectMapper();
+        SimpleModule deserializerModule = new SimpleModule("TreeDeserializerModule");
+        TreePropertyTypedObjectDeserializer propertyTypedObjectDeserializer = new TreePropertyTypedObjectDeserializer();
+        propertyTypedObjectDeserializer.registerMapping("type=.*Condition", Condition.class);
+        propertyTypedObjectDeserializer.registerMapping("itemType=" + Profile.ITEM_TYPE, Profile.class);
+        propertyTypedObjectDeserializer.registerMapping("itemType=" + Session.ITEM_TYPE, Session.class);
+        propertyTypedObjectDeserializer.registerMapping("itemType=" + Event.ITEM_TYPE, Event.class);
+        propertyTypedObjectDeserializer.registerMapping("itemType=.*", CustomItem.class);
+        deserializerModule.addDeserializer(Object.class, propertyTypedObjectDeserializer);
+        TreeItemDeserializer itemDeserializer = new TreeItemDeserializer();
+        itemDeserializer.classes.put(Profile.ITEM_TYPE, Profile.class);
+        itemDeserializer.classes.put(Session.ITEM_TYPE, Session.class);
+        itemDeserializer.classes.put(Event.ITEM_TYPE, Event.class);
+        deserializerModule.addDeserializer(Item.class, itemDeserializer);
+        mapper.registerModule(deserializerModule);
+        return mapper;
+    }
+
+    private static class TreePropertyTypedObjectDeserializer extends UntypedObjectDeserializer {
+        private static final long serialVersionUID = 1L;
+
+        private Map<String, Class<?>> registry = new LinkedHashMap<>();
+        private Map<String, Set<String>> fieldValuesToMatch = new LinkedHashMap<>();
+
+        void registerMapping(String matchExpression, Class<?> mappedClass) {
+            registry.put(matchExpression, mappedClass);
+            String[] fieldParts = matchExpression.split("=");
+            fieldValuesToMatch.computeIfAbsent(fieldParts[0], field -> new LinkedHashSet<>()).add(fieldParts[1]);
+        }
+
+        @Override
+        public Object deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException {
+            if (jp.getCurrentTokenId() != JsonTokenId.ID_START_OBJECT) {
+                return super.deserialize(jp, ctxt);
+            }
+            ObjectCodec codec = jp.getCodec();
+            TreeNode treeNode = codec.readTree(jp);
+            Class<?> objectClass = null;
+            Iterator<Map.Entry<String, JsonNode>> elementsIterator = ((ObjectNode) treeNode).fields();
+            while (elementsIterator.hasNext() && objectClass == null) {
+                Map.Entry<String, JsonNode> element = elementsIterator.next();
+                Set<String> valuesToMatch = fieldValuesToMatch.get(element.getKey());
+                if (valuesToMatch != null) {
+                    for (String valueToMatch : valuesToMatch) {
+                        if (element.getValue().asText().matches(valueToMatch)) {
+                            objectClass = registry.get(element.getKey() + "=" + valueToMatch);
+                            break;
+                        }
+                    }
+                }
+            }
+            if (objectClass == null) {
+                objectClass = HashMap.class;
+            }
+            return codec.treeToValue(treeNode, objectClass);
+        }
+    }
+
+    private static class TreeItemDeserializer extends StdDeserializer<Item> {
+        private static final long serialVersionUID = 1L;
+
+        private Map<String, Class<? extends Item>> classes = new HashMap<>();
+
+        TreeItemDeserializer() {
+            super(Item.class);
+        }
+
+        @Override
+        public Item deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException {
+            ObjectCodec codec = jp.getCodec();
+            ObjectNode treeNode = codec.readTree(jp);
+            Class<? extends Item> objectClass = classes.get(treeNode.get("itemType").textValue());
+            if (objectClass == null) {
+                objectClass = CustomItem.class;
+            } else {
+                treeNode.remove("itemType");
+            }
+            Item item = codec.treeToValue(treeNode, objectClass);
+            item.setItemId(treeNode.get("itemId").asText());
+            return item;
+        }
+    }
+}
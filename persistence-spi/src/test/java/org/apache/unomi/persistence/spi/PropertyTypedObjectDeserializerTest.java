@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.persistence.spi;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.unomi.api.Event;
+import org.apache.unomi.api.Profile;
+import org.apache.unomi.api.conditions.Condition;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the single pass deserializers of the {@link CustomObjectMapper} build the same objects as the previous
+ * tree based implementation.
+ */
+public class PropertyTypedObjectDeserializerTest {
+
+    private static final String CONDITION_SOURCE = "{\"parameterValues\":{\"operator\":\"and\",\"subConditions\":[" +
+            "{\"parameterValues\":{\"propertyName\":\"properties.age\",\"comparisonOperator\":\"greaterThan\",\"propertyValueInteger\":30}," +
+            "\"type\":\"profilePropertyCondition\"}," +
+            "{\"parameterValues\":{\"eventTypeId\":\"view\"},\"type\":\"eventTypeCondition\"}]}," +
+            "\"type\":\"booleanCondition\"}";
+
+    private static final String UNMAPPED_SOURCE = "{\"name\":\"segment\",\"tags\":[\"a\",\"b\"],\"nested\":{\"count\":3,\"ratio\":0.5}," +
+            "\"condition\":" + CONDITION_SOURCE + ",\"empty\":{},\"missing\":null}";
+
+    private ObjectMapper streamingMapper;
+    private ObjectMapper treeMapper;
+
+    @Before
+    public void setUp() {
+        streamingMapper = new CustomObjectMapper();
+        treeMapper = CustomObjectMapperBenchmark.createTreeMapper();
+    }
+
+    @Test
+    public void testProfile() throws IOException {
+        String source = readResource("/benchmark-profile.json");
+        assertSameOutput(streamingMapper.readValue(source, Profile.class), treeMapper.readValue(source, Profile.class));
+    }
+
+    @Test
+    public void testEvent() throws IOException {
+        String source = readResource("/benchmark-event.json");
+        assertSameOutput(streamingMapper.readValue(source, Event.class), treeMapper.readValue(source, Event.class));
+    }
+
+    @Test
+    public void testConditionWithFieldsBeforeType() throws IOException {
+        Object condition = streamingMapper.readValue(CONDITION_SOURCE, Object.class);
+        assertTrue("Condition should be mapped from the type property", condition instanceof Condition);
+        assertSameOutput(condition, treeMapper.readValue(CONDITION_SOURCE, Object.class));
+    }
+
+    @Test
+    public void testUnmappedObject() throws IOException {
+        Object values = streamingMapper.readValue(UNMAPPED_SOURCE, Object.class);
+        assertTrue("Object matching no mapping should be read as a map", values instanceof Map);
+        assertTrue("Nested condition should be mapped", ((Map<?, ?>) values).get("condition") instanceof Condition);
+        assertSameOutput(values, treeMapper.readValue(UNMAPPED_SOURCE, Object.class));
+    }
+
+    private void assertSameOutput(Object streamingValue, Object treeValue) throws IOException {
+        assertEquals(treeValue.getClass(), streamingValue.getClass());
+        assertEquals(streamingMapper.readTree(streamingMapper.writeValueAsString(treeValue)),
+                streamingMapper.readTree(streamingMapper.writeValueAsString(streamingValue)));
+    }
+
+    private String readResource(String path) throws IOException {
+        try (InputStream inputStream = getClass().getResourceAsStream(path)) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+            }
+            return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -95,7 +95,7 @@ public class UpdatePropertiesAction implements ActionExecutor {
                 profileService.save(target);
                 Event profileUpdated = new Event("profileUpdated", null, target, null, null, target, new Date());
                 profileUpdated.setPersistent(false);
-                int changes = eventService.send(profileUpdated);
+                int changes = eventService.sendInternal(profileUpdated);
                 if ((changes & EventService.PROFILE_UPDATED) == EventService.PROFILE_UPDATED) {
                     profileService.save(target);
                 }
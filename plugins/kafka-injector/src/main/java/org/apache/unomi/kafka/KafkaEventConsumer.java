@@ -0,0 +1,253 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.kafka;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.unomi.api.Event;
+import org.apache.unomi.api.services.EventService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Consumes the events of a Kafka topic on its own thread. The records returned by each poll are deserialized and sent
+ * as one batch, which the event service processes grouped by profile and session in the order of the records, and
+ * their offsets are committed once the batch is processed, so that a record is only considered consumed once its event
+ * is persisted.
+ *
+ * When the processing of a batch fails, the events that were not processed are sent again, up to a maximum number of
+ * attempts, the events keeping their identifier so that they are not persisted twice. Records that can't be
+ * deserialized, and the records of the events still failing after the last attempt, are sent to the dead letter topic,
+ * if one is configured, with headers describing where they come from and the error.
+ */
+public class KafkaEventConsumer implements Runnable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(KafkaEventConsumer.class);
+
+    static final String ORIGINAL_TOPIC_HEADER = "unomi.original.topic";
+    static final String ORIGINAL_PARTITION_HEADER = "unomi.original.partition";
+    static final String ORIGINAL_OFFSET_HEADER = "unomi.original.offset";
+    static final String ERROR_HEADER = "unomi.error";
+
+    private final Consumer<String, String> consumer;
+    private final Producer<String, String> deadLetterProducer;
+    private final String deadLetterTopic;
+    private final EventSender eventSender;
+    private final ObjectMapper objectMapper;
+    private final Duration pollTimeout;
+    private final int maxAttempts;
+    private final long retryBackoff;
+    private volatile boolean consuming = true;
+
+    /**
+     * @param consumer           the consumer, already subscribed to the topic, only used by this consumer's thread
+     * @param deadLetterProducer the producer of the dead letter records, null to only log the records that couldn't be processed
+     * @param deadLetterTopic    the topic of the dead letter records
+     * @param eventSender        sends a batch of events, typically {@link EventService#sendBatch(List, Collection)}
+     * @param objectMapper       the mapper deserializing the events
+     * @param pollTimeout        the maximum time to wait for records
+     * @param maxAttempts        the number of times an event is sent before its record is dead lettered
+     * @param retryBackoff       the delay in milliseconds before sending the failed events again, multiplied by the attempt number
+     */
+    public KafkaEventConsumer(Consumer<String, String> consumer, Producer<String, String> deadLetterProducer, String deadLetterTopic,
+            EventSender eventSender, ObjectMapper objectMapper, Duration pollTimeout, int maxAttempts,
+            long retryBackoff) {
+        this.consumer = consumer;
+        this.deadLetterProducer = deadLetterProducer;
+        this.deadLetterTopic = deadLetterTopic;
+        this.eventSender = eventSender;
+        this.objectMapper = objectMapper;
+        this.pollTimeout = pollTimeout;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.retryBackoff = retryBackoff;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (consuming) {
+                try {
+                    consume();
+                } catch (WakeupException e) {
+                    // stopping
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception e) {
+                    LOGGER.warn(e.getMessage(), e);
+                    try {
+                        Thread.sleep(retryBackoff);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        } finally {
+            consumer.close();
+        }
+    }
+
+    /**
+     * Stops consuming. The records being processed are committed before the consumer is closed, unless their processing
+     * is failing, in which case they will be consumed again.
+     */
+    public void stop() {
+        consuming = false;
+        consumer.wakeup();
+    }
+
+    void consume() throws InterruptedException {
+        ConsumerRecords<String, String> records = consumer.poll(pollTimeout);
+        if (records.isEmpty()) {
+            return;
+        }
+        boolean processed = false;
+        try {
+            processed = process(records);
+        } finally {
+            if (!processed) {
+                // the records will be polled again, by this consumer or by the one the partitions are assigned to
+                for (TopicPartition partition : records.partitions()) {
+                    consumer.seek(partition, records.records(partition).get(0).offset());
+                }
+            }
+        }
+    }
+
+    private boolean process(ConsumerRecords<String, String> records) throws InterruptedException {
+        List<Event> events = new ArrayList<>(records.count());
+        List<ConsumerRecord<String, String>> eventRecords = new ArrayList<>(records.count());
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        for (ConsumerRecord<String, String> record : records) {
+            offsets.put(new TopicPartition(record.topic(), record.partition()), new OffsetAndMetadata(record.offset() + 1));
+            Event event;
+            try {
+                event = objectMapper.readValue(record.value(), Event.class);
+            } catch (Exception e) {
+                deadLetter(record, "Couldn't deserialize event: " + e.getMessage());
+                continue;
+            }
+            if (event == null) {
+                deadLetter(record, "Empty record");
+                continue;
+            }
+            if (event.getItemId() == null) {
+                // sending the batch again must not persist the event twice
+                event.setItemId(UUID.randomUUID().toString());
+            }
+            events.add(event);
+            eventRecords.add(record);
+        }
+
+        if (!events.isEmpty() && !send(events, eventRecords)) {
+            return false;
+        }
+        consumer.commitSync(offsets);
+        return true;
+    }
+
+    private boolean send(List<Event> events, List<ConsumerRecord<String, String>> eventRecords) throws InterruptedException {
+        Map<Event, ConsumerRecord<String, String>> recordsByEvent = new IdentityHashMap<>();
+        for (int i = 0; i < events.size(); i++) {
+            recordsByEvent.put(events.get(i), eventRecords.get(i));
+        }
+        List<Event> pendingEvents = events;
+        for (int attempt = 1; ; attempt++) {
+            List<Event> unprocessedEvents = new ArrayList<>();
+            int changes;
+            try {
+                changes = eventSender.send(pendingEvents, unprocessedEvents);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Error sending {} events", pendingEvents.size(), e);
+                changes = EventService.ERROR;
+                unprocessedEvents.clear();
+            }
+            if ((changes & EventService.ERROR) != EventService.ERROR) {
+                return true;
+            }
+            if (!unprocessedEvents.isEmpty()) {
+                // the events that were processed are not sent again
+                pendingEvents = unprocessedEvents;
+            }
+            if (!consuming) {
+                return false;
+            }
+            if (attempt >= maxAttempts) {
+                LOGGER.error("Couldn't process {} events after {} attempts", pendingEvents.size(), attempt);
+                for (Event event : pendingEvents) {
+                    deadLetter(recordsByEvent.get(event), "Couldn't process event after " + attempt + " attempts");
+                }
+                return true;
+            }
+            Thread.sleep(attempt * retryBackoff);
+        }
+    }
+
+    /**
+     * Sends a batch of events to be processed.
+     */
+    public interface EventSender {
+
+        /**
+         * @param events            the events to send
+         * @param unprocessedEvents the collection the events that were not processed are added to
+         * @return the result of the events handling as combination of EventService flags
+         */
+        int send(List<Event> events, Collection<Event> unprocessedEvents);
+    }
+
+    private void deadLetter(ConsumerRecord<String, String> record, String error) {
+        if (deadLetterProducer == null) {
+            LOGGER.error("{}, skipping record {} of partition {}-{}", error, record.offset(), record.topic(), record.partition());
+            return;
+        }
+        LOGGER.warn("{}, sending record {} of partition {}-{} to {}", error, record.offset(), record.topic(), record.partition(),
+                deadLetterTopic);
+        ProducerRecord<String, String> deadLetterRecord = new ProducerRecord<>(deadLetterTopic, record.key(), record.value());
+        deadLetterRecord.headers().add(ORIGINAL_TOPIC_HEADER, record.topic().getBytes(StandardCharsets.UTF_8));
+        deadLetterRecord.headers().add(ORIGINAL_PARTITION_HEADER, String.valueOf(record.partition()).getBytes(StandardCharsets.UTF_8));
+        deadLetterRecord.headers().add(ORIGINAL_OFFSET_HEADER, String.valueOf(record.offset()).getBytes(StandardCharsets.UTF_8));
+        deadLetterRecord.headers().add(ERROR_HEADER, error.getBytes(StandardCharsets.UTF_8));
+        try {
+            // the record must be stored before the offset of the original one is committed
+            deadLetterProducer.send(deadLetterRecord).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while dead lettering record " + record.offset(), e);
+        } catch (Exception e) {
+            throw new IllegalStateException("Couldn't send record " + record.offset() + " to " + deadLetterTopic, e);
+        }
+    }
+}
@@ -16,165 +16,138 @@
  */
 package org.apache.unomi.kafka;
 
-import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import org.apache.kafka.clients.consumer.ConsumerRecord;
-import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
-import org.apache.unomi.api.Event;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
 import org.apache.unomi.api.services.EventService;
+import org.apache.unomi.persistence.spi.CustomObjectMapper;
 import org.osgi.service.component.ComponentContext;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Reference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Dictionary;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 import java.util.Properties;
-import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Injects the events of a Kafka topic in the context server. Each of the configured consumer threads has its own
+ * consumer in the consumer group, so that the partitions of the topic are spread over them: the records of a
+ * partition are processed in order, records keyed by profile identifier are therefore processed in order for each
+ * profile. Offsets are committed once the events are persisted, see {@link KafkaEventConsumer}.
+ */
 @Component(
         name = "org.apache.unomi.kafka",
         immediate = true
 )
-public class KafkaInjector implements Runnable {
+public class KafkaInjector {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(KafkaInjector.class);
 
+    private static final String[] CLIENT_SETTINGS = {"security.protocol", "ssl.truststore.location", "ssl.truststore.password",
+            "ssl.keystore.location", "ssl.keystore.password", "ssl.key.password", "ssl.provider", "ssl.cipher.suites",
+            "ssl.enabled.protocols", "ssl.truststore.type", "ssl.keystore.type"};
+
     private Dictionary<String, Object> properties;
-    private KafkaConsumer<String, String> consumer;
     private String topic;
     private String messageType;
-    private boolean consuming = false;
-    private ObjectMapper objectMapper;
+    private Producer<String, String> deadLetterProducer;
+    private final List<KafkaEventConsumer> consumers = new ArrayList<>();
+    private final List<Thread> consumerThreads = new ArrayList<>();
 
     @Reference
     private EventService eventService;
 
     @Activate
     public void activate(ComponentContext componentContext) {
-        objectMapper = new ObjectMapper();
-
         properties = componentContext.getProperties();
 
         topic = getValue(properties, "topic", "unomi");
         messageType = getValue(properties, "message.type", "text");
-
-        Properties config = new Properties();
-
-        String bootstrapServers = getValue(properties, "bootstrap.servers", "localhost:9092");
-        config.put("bootstrap.servers", bootstrapServers);
-
-        String groupId = getValue(properties, "group.id", "unomi");
-        config.put("group.id", groupId);
-
-        String enableAutoCommit = getValue(properties, "enable.auto.commit", "true");
-        config.put("enable.auto.commit", enableAutoCommit);
-
-        String autoCommitIntervalMs = getValue(properties, "auto.commit.interval.ms", "1000");
-        config.put("auto.commit.interval.ms", autoCommitIntervalMs);
-
-        String sessionTimeoutMs = getValue(properties,"session.timeout.ms", "30000");
-        config.put("session.timeout.ms", sessionTimeoutMs);
-
-        String keyDeserializer = getValue(properties, "key.deserializer", "org.apache.kafka.common.serialization.StringDeserializer");
-        config.put("key.deserializer", keyDeserializer);
-
-        String valueDeserializer = getValue(properties, "value.deserializer", "org.apache.kafka.common.serialization.ValueDeserializer");
-        config.put("value.deserializer", valueDeserializer);
-
-        String securityProtocol = getValue(properties, "security.protocol", null);
-        if (securityProtocol != null) {
-            config.put("security.protocol", securityProtocol);
+        if (!messageType.equalsIgnoreCase("text")) {
+            LOGGER.error("Unsupported message type {}, the Kafka injector is not started", messageType);
+            return;
         }
 
-        String sslTruststoreLocation = getValue(properties, "ssl.truststore.location", null);
-        if (sslTruststoreLocation != null)
-            config.put("ssl.truststore.location", sslTruststoreLocation);
-
-        String sslTruststorePassword = getValue(properties, "ssl.truststore.password", null);
-        if (sslTruststorePassword != null)
-            config.put("ssl.truststore.password", sslTruststorePassword);
-
-        String sslKeystoreLocation = getValue(properties, "ssl.keystore.location", null);
-        if (sslKeystoreLocation != null)
-            config.put("ssl.keystore.location", sslKeystoreLocation);
-
-        String sslKeystorePassword = getValue(properties, "ssl.keystore.password", null);
-        if (sslKeystorePassword != null)
-            config.put("ssl.keystore.password", sslKeystorePassword);
-
-        String sslKeyPassword = getValue(properties, "ssl.key.password", null);
-        if (sslKeyPassword != null)
-            config.put("ssl.key.password", sslKeyPassword);
-
-        String sslProvider = getValue(properties, "ssl.provider", null);
-        if (sslProvider != null)
-            config.put("ssl.provider", sslProvider);
-
-        String sslCipherSuites = getValue(properties, "ssl.cipher.suites", null);
-        if (sslCipherSuites != null)
-            config.put("ssl.cipher.suites", sslCipherSuites);
-
-        String sslEnabledProtocols = getValue(properties, "ssl.enabled.protocols", null);
-        if (sslEnabledProtocols != null)
-            config.put("ssl.enabled.protocols", sslEnabledProtocols);
-
-        String sslTruststoreType = getValue(properties, "ssl.truststore.type", null);
-        if (sslTruststoreType != null)
-            config.put("ssl.truststore.type", sslTruststoreType);
+        Properties clientConfig = new Properties();
+        clientConfig.put("bootstrap.servers", getValue(properties, "bootstrap.servers", "localhost:9092"));
+        for (String setting : CLIENT_SETTINGS) {
+            String value = getValue(properties, setting, null);
+            if (value != null) {
+                clientConfig.put(setting, value);
+            }
+        }
 
-        String sslKeystoreType = getValue(properties, "ssl.keystore.type", null);
-        if (sslKeystoreType != null)
-            config.put("ssl.keystore.type", sslKeystoreType);
+        Properties config = new Properties();
+        config.putAll(clientConfig);
+        config.put("group.id", getValue(properties, "group.id", "unomi"));
+        // offsets are committed once the events are persisted
+        config.put("enable.auto.commit", "false");
+        config.put("session.timeout.ms", getValue(properties, "session.timeout.ms", "30000"));
+        config.put("max.poll.records", getValue(properties, "max.poll.records", "500"));
+        config.put("key.deserializer", getValue(properties, "key.deserializer", "org.apache.kafka.common.serialization.StringDeserializer"));
+        config.put("value.deserializer", getValue(properties, "value.deserializer", "org.apache.kafka.common.serialization.StringDeserializer"));
+
+        int consumerThreadCount = Integer.parseInt(getValue(properties, "consumer.threads", "1"));
+        Duration pollTimeout = Duration.ofMillis(Long.parseLong(getValue(properties, "poll.timeout.ms", "10000")));
+        int maxAttempts = Integer.parseInt(getValue(properties, "max.attempts", "3"));
+        long retryBackoff = Long.parseLong(getValue(properties, "retry.backoff.ms", "1000"));
+        String deadLetterTopic = getValue(properties, "dead.letter.topic", null);
 
         ClassLoader originClassLoader = Thread.currentThread().getContextClassLoader();
         try {
             Thread.currentThread().setContextClassLoader(null);
-            consumer = new KafkaConsumer<String, String>(config);
-            consumer.subscribe(Arrays.asList(topic));
+            if (deadLetterTopic != null && !deadLetterTopic.trim().isEmpty()) {
+                Properties producerConfig = new Properties();
+                producerConfig.putAll(clientConfig);
+                producerConfig.put("acks", "all");
+                producerConfig.put("key.serializer", "org.apache.kafka.common.serialization.StringSerializer");
+                producerConfig.put("value.serializer", "org.apache.kafka.common.serialization.StringSerializer");
+                deadLetterProducer = new KafkaProducer<>(producerConfig);
+            }
+            for (int i = 0; i < consumerThreadCount; i++) {
+                KafkaConsumer<String, String> consumer = new KafkaConsumer<>(config);
+                consumer.subscribe(Arrays.asList(topic));
+                consumers.add(new KafkaEventConsumer(consumer, deadLetterProducer, deadLetterTopic, eventService::sendBatch,
+                        CustomObjectMapper.getObjectMapper(), pollTimeout, maxAttempts, retryBackoff));
+            }
         } finally {
             Thread.currentThread().setContextClassLoader(originClassLoader);
         }
-        consuming = true;
-        Executors.newSingleThreadExecutor().execute(this);
-    }
-
-    @Override
-    public void run() {
-        while (consuming) {
-            try {
-                consume();
-            } catch (Exception e) {
-                LOGGER.warn(e.getMessage(), e);
-            }
+        for (int i = 0; i < consumers.size(); i++) {
+            Thread thread = new Thread(consumers.get(i), "unomi-kafka-injector-" + i);
+            thread.setDaemon(true);
+            consumerThreads.add(thread);
+            thread.start();
         }
+        LOGGER.info("Kafka injector started with {} consumers of topic {}", consumers.size(), topic);
     }
 
-    private void consume() throws UnsupportedEncodingException, IOException, JsonMappingException {
-        ConsumerRecords<String, String> records = consumer.poll(10000);
-        if (records.isEmpty()) {
-            return;
+    @Deactivate
+    public void deactivate() {
+        for (KafkaEventConsumer consumer : consumers) {
+            consumer.stop();
         }
-
-        Event event = null;
-
-        for (ConsumerRecord<String, String> record : records) {
-            String value = record.value();
-            if (messageType.equalsIgnoreCase("text")) {
-                event = objectMapper.readValue(value, Event.class);
+        for (Thread thread : consumerThreads) {
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(30));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
             }
         }
-
-        if (event != null) {
-            eventService.send(event);
+        consumers.clear();
+        consumerThreads.clear();
+        if (deadLetterProducer != null) {
+            deadLetterProducer.close();
+            deadLetterProducer = null;
         }
     }
 
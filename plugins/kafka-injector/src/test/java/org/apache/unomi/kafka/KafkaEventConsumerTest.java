@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.kafka;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.unomi.api.Event;
+import org.apache.unomi.api.services.EventService;
+import org.apache.unomi.persistence.spi.CustomObjectMapper;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class KafkaEventConsumerTest {
+
+    private static final String TOPIC = "unomi";
+    private static final String DEAD_LETTER_TOPIC = "unomi-dead-letter";
+    private static final TopicPartition PARTITION = new TopicPartition(TOPIC, 0);
+
+    private MockConsumer<String, String> consumer;
+    private MockProducer<String, String> deadLetterProducer;
+    private List<List<Event>> sentBatches;
+
+    @Before
+    public void setUp() {
+        consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+        consumer.assign(Collections.singletonList(PARTITION));
+        consumer.updateBeginningOffsets(Collections.singletonMap(PARTITION, 0L));
+        deadLetterProducer = new MockProducer<>(true, new StringSerializer(), new StringSerializer());
+        sentBatches = new ArrayList<>();
+    }
+
+    @Test
+    public void testAllRecordsAreSentAndCommitted() throws Exception {
+        addRecord(0, "p1", event("view", "p1"));
+        addRecord(1, "p2", event("click", "p2"));
+        addRecord(2, "p1", event("login", "p1"));
+
+        createConsumer((events, unprocessedEvents) -> EventService.NO_CHANGE, 1).consume();
+
+        assertEquals(1, sentBatches.size());
+        List<Event> batch = sentBatches.get(0);
+        assertEquals(3, batch.size());
+        assertEquals("view", batch.get(0).getEventType());
+        assertEquals("click", batch.get(1).getEventType());
+        assertEquals("login", batch.get(2).getEventType());
+        for (Event event : batch) {
+            assertNotNull(event.getItemId());
+        }
+        assertEquals(3L, consumer.committed(PARTITION).offset());
+        assertTrue(deadLetterProducer.history().isEmpty());
+    }
+
+    @Test
+    public void testUndeserializableRecordIsDeadLettered() throws Exception {
+        addRecord(0, "p1", event("view", "p1"));
+        addRecord(1, "p1", "not an event");
+
+        createConsumer((events, unprocessedEvents) -> EventService.NO_CHANGE, 1).consume();
+
+        assertEquals(1, sentBatches.get(0).size());
+        assertEquals(2L, consumer.committed(PARTITION).offset());
+        assertEquals(1, deadLetterProducer.history().size());
+        ProducerRecord<String, String> deadLetter = deadLetterProducer.history().get(0);
+        assertEquals(DEAD_LETTER_TOPIC, deadLetter.topic());
+        assertEquals("not an event", deadLetter.value());
+        assertEquals("1", new String(deadLetter.headers().lastHeader(KafkaEventConsumer.ORIGINAL_OFFSET_HEADER).value(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testFailingBatchIsRetriedThenDeadLettered() throws Exception {
+        addRecord(0, "p1", event("view", "p1"));
+        addRecord(1, "p2", event("view", "p2"));
+
+        createConsumer((events, unprocessedEvents) -> EventService.ERROR, 3).consume();
+
+        assertEquals(3, sentBatches.size());
+        // the events keep their identifier between attempts
+        assertEquals(sentBatches.get(0).get(0).getItemId(), sentBatches.get(2).get(0).getItemId());
+        assertEquals(2, deadLetterProducer.history().size());
+        assertEquals(2L, consumer.committed(PARTITION).offset());
+    }
+
+    @Test
+    public void testOnlyUnprocessedEventsAreRetried() throws Exception {
+        addRecord(0, "p1", event("view", "p1"));
+        addRecord(1, "p2", event("view", "p2"));
+        addRecord(2, "p3", event("view", "p3"));
+
+        createConsumer((events, unprocessedEvents) -> {
+            for (Event event : events) {
+                if (!"p1".equals(event.getProfileId())) {
+                    unprocessedEvents.add(event);
+                }
+            }
+            return unprocessedEvents.isEmpty() ? EventService.NO_CHANGE : EventService.ERROR;
+        }, 2).consume();
+
+        assertEquals(2, sentBatches.size());
+        assertEquals(3, sentBatches.get(0).size());
+        assertEquals(2, sentBatches.get(1).size());
+        assertEquals("p2", sentBatches.get(1).get(0).getProfileId());
+        assertEquals("p3", sentBatches.get(1).get(1).getProfileId());
+        assertEquals(2, deadLetterProducer.history().size());
+        assertEquals("p2", deadLetterProducer.history().get(0).key());
+        assertEquals("p3", deadLetterProducer.history().get(1).key());
+        assertEquals(3L, consumer.committed(PARTITION).offset());
+    }
+
+    private KafkaEventConsumer createConsumer(KafkaEventConsumer.EventSender sender, int maxAttempts) {
+        return new KafkaEventConsumer(consumer, deadLetterProducer, DEAD_LETTER_TOPIC, (events, unprocessedEvents) -> {
+            sentBatches.add(new ArrayList<>(events));
+            return sender.send(events, unprocessedEvents);
+        }, CustomObjectMapper.getObjectMapper(), Duration.ofMillis(10), maxAttempts, 0L);
+    }
+
+    private void addRecord(long offset, String key, String value) {
+        consumer.addRecord(new ConsumerRecord<>(TOPIC, 0, offset, key, value));
+    }
+
+    private static String event(String eventType, String profileId) {
+        return "{\"itemType\":\"event\",\"eventType\":\"" + eventType + "\",\"scope\":\"test\",\"profileId\":\"" + profileId + "\"}";
+    }
+}
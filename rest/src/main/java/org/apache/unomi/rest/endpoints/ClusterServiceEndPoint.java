@@ -34,6 +34,7 @@ import javax.ws.rs.core.MediaType;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A JAX-RS endpoint to access information about the context server's cluster.
@@ -108,4 +109,28 @@ public class ClusterServiceEndPoint {
     public void deleteScopedData(@PathParam("scope") String scope) {
         clusterService.purge(scope);
     }
+
+    /**
+     * Submits the removal of all data associated with the provided scope as a background task and returns immediately.
+     *
+     * @param scope the scope for which we want to remove data
+     * @return the identifier of the submitted task, that may be tracked using {@link #getTaskStatus(String)}
+     */
+    @DELETE
+    @Path("{scope}/async")
+    public String deleteScopedDataAsync(@PathParam("scope") String scope) {
+        return clusterService.purgeAsync(scope);
+    }
+
+    /**
+     * Retrieves the status of a background task, such as the ones submitted to remove scoped data.
+     *
+     * @param taskId the identifier of the task
+     * @return a Map describing the task status
+     */
+    @GET
+    @Path("/tasks/{taskId}")
+    public Map<String, Object> getTaskStatus(@PathParam("taskId") String taskId) {
+        return clusterService.getTaskStatus(taskId);
+    }
 }
@@ -157,6 +157,24 @@ public class ContextJsonEndpoint {
             @QueryParam("sessionId") @Pattern(regexp = ValidationPattern.TEXT_VALID_CHARACTERS_PATTERN) String sessionId,
             @QueryParam("timestamp") Long timestampAsLong, @QueryParam("invalidateProfile") boolean invalidateProfile,
             @QueryParam("invalidateSession") boolean invalidateSession) {
+        // Profile and session saves done while handling the request are coalesced and persisted once it completes
+        List<Event> sentEvents = new ArrayList<>();
+        profileService.startWriteBehind();
+        try {
+            return doContextJSON(contextRequest, personaId, sessionId, timestampAsLong, invalidateProfile, invalidateSession, sentEvents);
+        } finally {
+            try {
+                profileService.flushWriteBehind();
+            } catch (RuntimeException e) {
+                // the profile and session changes made by the events are lost, they must not be dropped as duplicates when sent again
+                eventService.forgetEvents(sentEvents);
+                throw e;
+            }
+        }
+    }
+
+    private ContextResponse doContextJSON(ContextRequest contextRequest, String personaId, String sessionId, Long timestampAsLong,
+            boolean invalidateProfile, boolean invalidateSession, List<Event> sentEvents) {
         Date timestamp = new Date();
         if (timestampAsLong != null) {
             timestamp = new Date(timestampAsLong);
@@ -315,6 +333,7 @@ public class ContextJsonEndpoint {
 
         if (contextRequest != null) {
             Changes changesObject = handleRequest(contextRequest, session, profile, contextResponse, request, response, timestamp);
+            sentEvents.addAll(changesObject.getSentEvents());
             changes |= changesObject.getChangeType();
             profile = changesObject.getProfile();
         }
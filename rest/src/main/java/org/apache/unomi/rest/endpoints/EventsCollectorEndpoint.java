@@ -28,10 +28,17 @@ import org.apache.unomi.api.services.ConfigSharingService;
 import org.apache.unomi.api.services.EventService;
 import org.apache.unomi.api.services.PrivacyService;
 import org.apache.unomi.api.services.ProfileService;
+import org.apache.unomi.metrics.MetricsService;
+import org.apache.unomi.rest.ingestion.AsyncEventsIngestion;
+import org.apache.unomi.rest.ingestion.IngestedEvents;
+import org.apache.unomi.rest.ingestion.IngestedRequests;
+import org.apache.unomi.rest.ingestion.WriteAheadLog;
 import org.apache.unomi.rest.models.EventCollectorResponse;
 import org.apache.unomi.rest.service.RestServiceUtils;
 import org.apache.unomi.utils.Changes;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Reference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -52,8 +59,14 @@ import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.UUID;
+import java.util.function.Supplier;
 
 @WebService
 @Produces(MediaType.APPLICATION_JSON + ";charset=UTF-8")
@@ -74,6 +87,10 @@ public class EventsCollectorEndpoint {
     private ConfigSharingService configSharingService;
     @Reference
     private RestServiceUtils restServiceUtils;
+    @Reference
+    private MetricsService metricsService;
+
+    private volatile AsyncEventsIngestion asyncEventsIngestion;
 
     @Context
     HttpServletRequest request;
@@ -86,30 +103,135 @@ public class EventsCollectorEndpoint {
         return Response.status(Response.Status.NO_CONTENT).build();
     }
 
+    @Activate
+    public void activate() {
+        if (!Boolean.parseBoolean(System.getProperty("org.apache.unomi.events.ingestion.async", "false"))) {
+            return;
+        }
+        Path directory = Paths.get(System.getProperty("org.apache.unomi.events.ingestion.directory",
+                System.getProperty("karaf.data", ".") + "/unomi-events-ingestion"));
+        int segmentSize = Integer.parseInt(System.getProperty("org.apache.unomi.events.ingestion.segmentSize", "67108864"));
+        long maxDiskSize = Long.parseLong(System.getProperty("org.apache.unomi.events.ingestion.maxDiskSize", "1073741824"));
+        boolean forceOnAppend = Boolean.parseBoolean(System.getProperty("org.apache.unomi.events.ingestion.forceOnAppend", "false"));
+        int workers = Integer.parseInt(System.getProperty("org.apache.unomi.events.ingestion.workers", "4"));
+        int maxAttempts = Integer.parseInt(System.getProperty("org.apache.unomi.events.ingestion.maxAttempts", "3"));
+        try {
+            WriteAheadLog log = new WriteAheadLog(directory, segmentSize, maxDiskSize, forceOnAppend);
+            asyncEventsIngestion = new AsyncEventsIngestion(log, workers, maxAttempts, this::processIngestedEvents, metricsService);
+            asyncEventsIngestion.start();
+            logger.info("Asynchronous events ingestion started using log {}", directory);
+        } catch (IOException e) {
+            logger.error("Couldn't open the events ingestion log {}, events will be processed synchronously", directory, e);
+        }
+    }
+
+    @Deactivate
+    public void deactivate() {
+        if (asyncEventsIngestion != null) {
+            asyncEventsIngestion.stop();
+            asyncEventsIngestion = null;
+        }
+    }
+
     @GET
     @Path("/eventcollector")
-    public EventCollectorResponse collectAsGet(@QueryParam("payload") @NotNull @Valid EventsCollectorRequest eventsCollectorRequest,
-                                               @QueryParam("timestamp") Long timestampAsString) {
+    public Response collectAsGet(@QueryParam("payload") @NotNull @Valid EventsCollectorRequest eventsCollectorRequest,
+                                 @QueryParam("timestamp") Long timestampAsString) {
         return doEvent(eventsCollectorRequest, timestampAsString);
     }
 
     @POST
     @Path("/eventcollector")
-    public EventCollectorResponse collectAsPost(@NotNull @Valid EventsCollectorRequest eventsCollectorRequest,
+    public Response collectAsPost(@NotNull @Valid EventsCollectorRequest eventsCollectorRequest,
             @QueryParam("timestamp") Long timestampAsLong) {
         return doEvent(eventsCollectorRequest, timestampAsLong);
     }
 
-    private EventCollectorResponse doEvent(EventsCollectorRequest eventsCollectorRequest, Long timestampAsLong) {
+    private Response doEvent(EventsCollectorRequest eventsCollectorRequest, Long timestampAsLong) {
         Date timestamp = new Date();
         if (timestampAsLong != null) {
             timestamp = new Date(timestampAsLong);
         }
-
         String sessionId = eventsCollectorRequest.getSessionId();
         if (sessionId == null) {
             sessionId = request.getParameter("sessionId");
         }
+        String thirdPartyId = eventService.authenticateThirdPartyServer(request.getHeader("X-Unomi-Peer"), request.getRemoteAddr());
+
+        AsyncEventsIngestion ingestion = asyncEventsIngestion;
+        if (ingestion != null) {
+            IngestedEvents ingestedEvents = new IngestedEvents(eventsCollectorRequest.getEvents(), sessionId,
+                    restServiceUtils.getProfileIdCookieValue(request), thirdPartyId, timestamp.getTime());
+            IngestedRequests.record(request, ingestedEvents);
+            return ingestEvents(ingestion, ingestedEvents);
+        }
+
+        // Profile and session saves done while handling the events are coalesced and persisted once they are all processed
+        List<Event> sentEvents = new ArrayList<>();
+        profileService.startWriteBehind();
+        try {
+            Changes changesObject = handleEvents(eventsCollectorRequest.getEvents(), sessionId,
+                    () -> restServiceUtils.getProfileIdCookieValue(request), thirdPartyId, timestamp, request, response, sentEvents);
+            int changes = changesObject.getChangeType();
+            if ((changes & EventService.ERROR) == EventService.ERROR) {
+                String errorMessage = "Error processing events. Total number of processed events: " + changesObject.getProcessedItems() + "/"
+                        + eventsCollectorRequest.getEvents().size();
+                throw new BadRequestException(errorMessage);
+            }
+            return Response.ok(new EventCollectorResponse(changes)).build();
+        } finally {
+            flushWriteBehind(sentEvents);
+        }
+    }
+
+    private Response ingestEvents(AsyncEventsIngestion ingestion, IngestedEvents ingestedEvents) {
+        try {
+            if (ingestion.submit(ingestedEvents)) {
+                return Response.status(Response.Status.ACCEPTED).entity(new EventCollectorResponse(EventService.NO_CHANGE)).build();
+            }
+            logger.warn("Events ingestion log is full, rejecting {} events", ingestedEvents.getEvents().size());
+        } catch (IOException e) {
+            logger.error("Couldn't append {} events to the events ingestion log", ingestedEvents.getEvents().size(), e);
+        }
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE).build();
+    }
+
+    void processIngestedEvents(IngestedEvents ingestedEvents) {
+        List<Event> sentEvents = new ArrayList<>();
+        profileService.startWriteBehind();
+        try {
+            Changes changesObject;
+            try {
+                changesObject = handleEvents(ingestedEvents.getEvents(), ingestedEvents.getSessionId(), ingestedEvents::getCookieProfileId,
+                        ingestedEvents.getThirdPartyId(), new Date(ingestedEvents.getTimestamp()), IngestedRequests.replay(ingestedEvents),
+                        null, sentEvents);
+            } catch (BadRequestException e) {
+                // the session or profile of the request is invalid, the client can't be told anymore and retrying wouldn't help
+                logger.warn("Ignoring ingested events: {}", e.getMessage());
+                return;
+            }
+            if ((changesObject.getChangeType() & EventService.ERROR) == EventService.ERROR) {
+                // the log record is processed again, the events already processed being skipped when deduplication is enabled
+                throw new IllegalStateException("Error processing ingested events. Total number of processed events: "
+                        + changesObject.getProcessedItems() + "/" + ingestedEvents.getEvents().size());
+            }
+        } finally {
+            flushWriteBehind(sentEvents);
+        }
+    }
+
+    private void flushWriteBehind(List<Event> sentEvents) {
+        try {
+            profileService.flushWriteBehind();
+        } catch (RuntimeException e) {
+            // the profile and session changes made by the events are lost, they must not be dropped as duplicates when sent again
+            eventService.forgetEvents(sentEvents);
+            throw e;
+        }
+    }
+
+    private Changes handleEvents(List<Event> events, String sessionId, Supplier<String> cookieProfileIdSupplier, String thirdPartyId,
+            Date timestamp, HttpServletRequest servletRequest, HttpServletResponse servletResponse, List<Event> sentEvents) {
         Session session = null;
         if (sessionId != null) {
             session = profileService.loadSession(sessionId, timestamp);
@@ -118,7 +240,7 @@ public class EventsCollectorEndpoint {
         if (session == null) {
             String scope = "systemscope";
             // Get the first available scope that is not equal to systemscope to create the session otherwise systemscope will be used
-            for (Event event : eventsCollectorRequest.getEvents()) {
+            for (Event event : events) {
                 if (StringUtils.isNotBlank(event.getEventType())) {
                     if (StringUtils.isNotBlank(event.getSourceId()) && !event.getSourceId().equals("systemscope")) {
                         scope = event.getSourceId();
@@ -131,7 +253,7 @@ public class EventsCollectorEndpoint {
                 }
             }
             logger.debug("scope is now {}", scope);
-            String cookieProfileId = restServiceUtils.getProfileIdCookieValue(request);
+            String cookieProfileId = cookieProfileIdSupplier.get();
             if (StringUtils.isNotBlank(cookieProfileId)) {
                 profile = profileService.load(cookieProfileId);
             }
@@ -162,7 +284,7 @@ public class EventsCollectorEndpoint {
                 }
             } else {
                 // Session uses anonymous profile, try to find profile from cookie
-                String cookieProfileId = restServiceUtils.getProfileIdCookieValue(request);
+                String cookieProfileId = cookieProfileIdSupplier.get();
                 if (StringUtils.isNotBlank(cookieProfileId)) {
                     profile = profileService.load(cookieProfileId);
                 }
@@ -174,8 +296,9 @@ public class EventsCollectorEndpoint {
             }
         }
 
-        Changes changesObject = restServiceUtils
-                .handleEvents(eventsCollectorRequest.getEvents(), session, profile, request, response, timestamp);
+        Changes changesObject = restServiceUtils.handleEvents(events, session, profile, thirdPartyId, servletRequest, servletResponse,
+                timestamp);
+        sentEvents.addAll(changesObject.getSentEvents());
         int changes = changesObject.getChangeType();
         profile = changesObject.getProfile();
 
@@ -185,12 +308,7 @@ public class EventsCollectorEndpoint {
         if ((changes & EventService.SESSION_UPDATED) == EventService.SESSION_UPDATED && session != null) {
             profileService.saveSession(session);
         }
-        if ((changes & EventService.ERROR) == EventService.ERROR) {
-            String errorMessage = "Error processing events. Total number of processed events: " + changesObject.getProcessedItems() + "/"
-                    + eventsCollectorRequest.getEvents().size();
-            throw new BadRequestException(errorMessage);
-        }
 
-        return new EventCollectorResponse(changes);
+        return changesObject;
     }
 }
@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.rest.ingestion;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.unomi.metrics.MetricsService;
+import org.apache.unomi.persistence.spi.CustomObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Ingests the requests of the event collector asynchronously: their events are appended to a {@link WriteAheadLog}
+ * and worker threads drain the log, handing each request to a processor. A request whose processing fails is retried
+ * a few times, with an increasing delay so that a temporarily unavailable persistence doesn't lose it, then skipped.
+ * Records left in the log when the server stops or crashes are processed once it is started again.
+ */
+public class AsyncEventsIngestion {
+
+    private static final Logger logger = LoggerFactory.getLogger(AsyncEventsIngestion.class.getName());
+
+    private static final long POLL_TIMEOUT = 1000L;
+    private static final long CHECKPOINT_INTERVAL = 1000L;
+
+    private final WriteAheadLog log;
+    private final int workerCount;
+    private final int maxAttempts;
+    private final Consumer<IngestedEvents> processor;
+    private final MetricsService metricsService;
+    private final String metricsPrefix = AsyncEventsIngestion.class.getName();
+    private final ObjectMapper objectMapper = CustomObjectMapper.getObjectMapper();
+
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile boolean running = false;
+
+    /**
+     * @param log            the log storing the ingested requests
+     * @param workerCount    the number of threads processing the requests
+     * @param maxAttempts    the number of times the processing of a request is attempted before it is skipped
+     * @param processor      the processor of the requests, called by the worker threads
+     * @param metricsService the metrics service, may be null
+     */
+    public AsyncEventsIngestion(WriteAheadLog log, int workerCount, int maxAttempts, Consumer<IngestedEvents> processor,
+            MetricsService metricsService) {
+        this.log = log;
+        this.workerCount = workerCount;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.processor = processor;
+        this.metricsService = metricsService;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(this::drain, "unomi-events-ingestion-" + i);
+            worker.setDaemon(true);
+            threads.add(worker);
+        }
+        Thread checkpointer = new Thread(this::checkpoint, "unomi-events-ingestion-checkpoint");
+        checkpointer.setDaemon(true);
+        threads.add(checkpointer);
+        for (Thread thread : threads) {
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops the worker threads, waiting for the requests being processed, and closes the log. The requests not
+     * processed yet stay in the log.
+     */
+    public synchronized void stop() {
+        running = false;
+        for (Thread thread : threads) {
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(30));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        threads.clear();
+        try {
+            log.close();
+        } catch (IOException e) {
+            logger.error("Couldn't close the events ingestion log", e);
+        }
+    }
+
+    /**
+     * Appends a request to the log.
+     *
+     * @param ingestedEvents the request to ingest
+     * @return true if the request was appended, false if the log is full
+     * @throws IOException if the request couldn't be serialized or appended
+     */
+    public boolean submit(IngestedEvents ingestedEvents) throws IOException {
+        boolean appended = log.append(objectMapper.writeValueAsBytes(ingestedEvents));
+        if (metricsService != null && metricsService.isActivated()) {
+            metricsService.updateCounter(metricsPrefix + (appended ? ".accepted" : ".rejected"), 1);
+        }
+        return appended;
+    }
+
+    private void drain() {
+        while (running) {
+            WriteAheadLog.Record record;
+            try {
+                record = log.poll(POLL_TIMEOUT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (record == null) {
+                continue;
+            }
+            long startTime = System.currentTimeMillis();
+            boolean processed = process(record);
+            // once stopping, an interrupted processing is left in the log to be processed again on restart
+            if (processed || running) {
+                log.commit(record);
+            }
+            if (metricsService != null && metricsService.isActivated()) {
+                metricsService.updateTimer(metricsPrefix + ".process", startTime);
+                if (!processed) {
+                    metricsService.updateCounter(metricsPrefix + ".skipped", 1);
+                }
+            }
+        }
+    }
+
+    private boolean process(WriteAheadLog.Record record) {
+        IngestedEvents ingestedEvents;
+        try {
+            ingestedEvents = objectMapper.readValue(record.getData(), IngestedEvents.class);
+        } catch (IOException e) {
+            logger.error("Couldn't read the events at offset {} of the events ingestion log, skipping them", record.getOffset(), e);
+            return false;
+        }
+        for (int attempt = 1; ; attempt++) {
+            try {
+                processor.accept(ingestedEvents);
+                return true;
+            } catch (RuntimeException e) {
+                if (attempt >= maxAttempts || !running) {
+                    logger.error("Couldn't process the events at offset {} of the events ingestion log after {} attempts, skipping them",
+                            record.getOffset(), attempt, e);
+                    return false;
+                }
+                logger.warn("Couldn't process the events at offset {} of the events ingestion log, retrying", record.getOffset(), e);
+                try {
+                    Thread.sleep(attempt * POLL_TIMEOUT);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+    }
+
+    private void checkpoint() {
+        while (running) {
+            try {
+                Thread.sleep(CHECKPOINT_INTERVAL);
+                log.checkpoint();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (IOException e) {
+                logger.error("Couldn't checkpoint the events ingestion log", e);
+            }
+            if (metricsService != null && metricsService.isActivated()) {
+                metricsService.updateGauge(metricsPrefix + ".pendingRequests", log.getPendingRecords());
+                metricsService.updateGauge(metricsPrefix + ".pendingBytes", log.getPendingBytes());
+                metricsService.updateGauge(metricsPrefix + ".diskSize", log.getDiskSize());
+            }
+        }
+    }
+}
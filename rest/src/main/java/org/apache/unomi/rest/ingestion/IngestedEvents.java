@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.rest.ingestion;
+
+import org.apache.unomi.api.Event;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The events of a request to the event collector, stored in the write-ahead log with what is needed from the HTTP
+ * request to process them once it has completed.
+ */
+public class IngestedEvents {
+
+    private List<Event> events;
+    private String sessionId;
+    private String cookieProfileId;
+    private String thirdPartyId;
+    private long timestamp;
+    private String remoteAddr;
+    private Map<String, List<String>> headers;
+    private Map<String, String[]> parameters;
+
+    public IngestedEvents() {
+    }
+
+    public IngestedEvents(List<Event> events, String sessionId, String cookieProfileId, String thirdPartyId, long timestamp) {
+        this.events = events;
+        this.sessionId = sessionId;
+        this.cookieProfileId = cookieProfileId;
+        this.thirdPartyId = thirdPartyId;
+        this.timestamp = timestamp;
+    }
+
+    public List<Event> getEvents() {
+        return events;
+    }
+
+    public void setEvents(List<Event> events) {
+        this.events = events;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public void setSessionId(String sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    /**
+     * @return the profile identifier found in the profile cookie of the request, if any
+     */
+    public String getCookieProfileId() {
+        return cookieProfileId;
+    }
+
+    public void setCookieProfileId(String cookieProfileId) {
+        this.cookieProfileId = cookieProfileId;
+    }
+
+    /**
+     * @return the third party server that sent the request, if it was authenticated
+     */
+    public String getThirdPartyId() {
+        return thirdPartyId;
+    }
+
+    public void setThirdPartyId(String thirdPartyId) {
+        this.thirdPartyId = thirdPartyId;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * @return the address of the client that sent the request
+     */
+    public String getRemoteAddr() {
+        return remoteAddr;
+    }
+
+    public void setRemoteAddr(String remoteAddr) {
+        this.remoteAddr = remoteAddr;
+    }
+
+    /**
+     * @return the headers of the request, by name
+     */
+    public Map<String, List<String>> getHeaders() {
+        return headers;
+    }
+
+    public void setHeaders(Map<String, List<String>> headers) {
+        this.headers = headers;
+    }
+
+    /**
+     * @return the parameters of the request, by name
+     */
+    public Map<String, String[]> getParameters() {
+        return parameters;
+    }
+
+    public void setParameters(Map<String, String[]> parameters) {
+        this.parameters = parameters;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.rest.ingestion;
+
+import javax.servlet.http.HttpServletRequest;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Records the parts of an HTTP request that actions read, such as the remote address, headers and parameters, and
+ * replays them as a read-only {@link HttpServletRequest} when the ingested events are processed, the original request
+ * having completed by then.
+ */
+public final class IngestedRequests {
+
+    /**
+     * Headers that are not stored in the log: the profile cookie is recorded separately and credentials must not be
+     * written to disk.
+     */
+    private static final List<String> EXCLUDED_HEADERS = Arrays.asList("cookie", "authorization");
+
+    /**
+     * The GET payload of the event collector, already stored as the events.
+     */
+    private static final String PAYLOAD_PARAMETER = "payload";
+
+    private static final Map<Class<?>, Object> PRIMITIVE_DEFAULTS = new HashMap<>();
+
+    static {
+        PRIMITIVE_DEFAULTS.put(boolean.class, false);
+        PRIMITIVE_DEFAULTS.put(int.class, 0);
+        PRIMITIVE_DEFAULTS.put(long.class, 0L);
+    }
+
+    private IngestedRequests() {
+    }
+
+    /**
+     * Records the remote address, headers and parameters of a request in ingested events.
+     *
+     * @param request        the request to record
+     * @param ingestedEvents the ingested events of the request
+     */
+    public static void record(HttpServletRequest request, IngestedEvents ingestedEvents) {
+        ingestedEvents.setRemoteAddr(request.getRemoteAddr());
+
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        Enumeration<String> headerNames = request.getHeaderNames();
+        if (headerNames != null) {
+            for (String headerName : Collections.list(headerNames)) {
+                if (!EXCLUDED_HEADERS.contains(headerName.toLowerCase())) {
+                    headers.put(headerName, Collections.list(request.getHeaders(headerName)));
+                }
+            }
+        }
+        ingestedEvents.setHeaders(headers);
+
+        Map<String, String[]> parameters = new LinkedHashMap<>(request.getParameterMap());
+        parameters.remove(PAYLOAD_PARAMETER);
+        ingestedEvents.setParameters(parameters);
+    }
+
+    /**
+     * Creates a read-only request answering with what was recorded in ingested events. Methods reading anything else
+     * than the remote address, headers and parameters return null, or false and 0 for primitive values.
+     *
+     * @param ingestedEvents the ingested events
+     * @return the request, or null if nothing was recorded
+     */
+    public static HttpServletRequest replay(IngestedEvents ingestedEvents) {
+        if (ingestedEvents.getRemoteAddr() == null && ingestedEvents.getHeaders() == null && ingestedEvents.getParameters() == null) {
+            return null;
+        }
+        String remoteAddr = ingestedEvents.getRemoteAddr();
+        Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        if (ingestedEvents.getHeaders() != null) {
+            headers.putAll(ingestedEvents.getHeaders());
+        }
+        Map<String, String[]> parameters = ingestedEvents.getParameters() != null ?
+                Collections.unmodifiableMap(new LinkedHashMap<>(ingestedEvents.getParameters())) : Collections.emptyMap();
+
+        return (HttpServletRequest) Proxy.newProxyInstance(IngestedRequests.class.getClassLoader(),
+                new Class[] { HttpServletRequest.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getRemoteAddr":
+                        case "getRemoteHost":
+                            return remoteAddr;
+                        case "getHeader":
+                            List<String> values = headers.get((String) args[0]);
+                            return values == null || values.isEmpty() ? null : values.get(0);
+                        case "getHeaders":
+                            return Collections.enumeration(headers.getOrDefault((String) args[0], Collections.emptyList()));
+                        case "getHeaderNames":
+                            return Collections.enumeration(new ArrayList<>(headers.keySet()));
+                        case "getParameter":
+                            String[] parameterValues = parameters.get((String) args[0]);
+                            return parameterValues == null || parameterValues.length == 0 ? null : parameterValues[0];
+                        case "getParameterValues":
+                            String[] valuesCopy = parameters.get((String) args[0]);
+                            return valuesCopy == null ? null : valuesCopy.clone();
+                        case "getParameterNames":
+                            return Collections.enumeration(new ArrayList<>(parameters.keySet()));
+                        case "getParameterMap":
+                            return parameters;
+                        case "toString":
+                            return "IngestedRequest[remoteAddr=" + remoteAddr + "]";
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            return defaultValue(method.getReturnType());
+                    }
+                });
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        return type.isPrimitive() ? PRIMITIVE_DEFAULTS.get(type) : null;
+    }
+}
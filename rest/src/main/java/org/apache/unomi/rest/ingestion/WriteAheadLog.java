@@ -0,0 +1,443 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.rest.ingestion;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.CRC32;
+
+/**
+ * A local write-ahead log of opaque records, stored in memory-mapped segment files of a directory. Records are appended
+ * at the end of the last segment, a new segment being created when it is full, and read in order by one or several
+ * consumers which commit each record once it is processed. The offset below which all the records are committed is
+ * periodically saved in a checkpoint file, and the segments entirely below it are deleted.
+ *
+ * When the log is opened again, for example after a crash, reading resumes at the checkpointed offset: records are
+ * delivered at least once, the ones processed after the last checkpoint being delivered again. Each record is stored
+ * with its length and a CRC32 of its content, so that a record partially written during a crash is detected and
+ * discarded. Writes to the mapped segments survive a crash of the process; surviving a crash of the machine requires
+ * forcing each append to the disk.
+ *
+ * The disk used by the segments is bounded: once the maximum disk size would be exceeded, appends are rejected until
+ * the consumers catch up.
+ */
+public class WriteAheadLog implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteAheadLog.class.getName());
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    // record length and CRC32 of its content
+    private static final int HEADER_SIZE = 8;
+    // length marking the end of the records of a segment, when the next record didn't fit in it
+    private static final int END_OF_SEGMENT = -1;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long maxDiskSize;
+    private final boolean forceOnAppend;
+
+    private final Object lock = new Object();
+    private final Object checkpointLock = new Object();
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final TreeSet<Long> inFlightOffsets = new TreeSet<>();
+    private Segment writeSegment;
+    private long writeOffset;
+    private long readOffset;
+    private long committedOffset;
+    private long checkpointedOffset;
+    private long pendingRecords;
+    private boolean closed = false;
+
+    /**
+     * A record read from the log, to be committed once processed.
+     */
+    public static class Record {
+        private final long offset;
+        private final byte[] data;
+
+        private Record(long offset, byte[] data) {
+            this.offset = offset;
+            this.data = data;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+    }
+
+    private static class Segment {
+        private final long baseOffset;
+        private final Path file;
+        private final MappedByteBuffer buffer;
+
+        private Segment(long baseOffset, Path file, MappedByteBuffer buffer) {
+            this.baseOffset = baseOffset;
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        private int size() {
+            return buffer.capacity();
+        }
+
+        private long endOffset() {
+            return baseOffset + buffer.capacity();
+        }
+    }
+
+    /**
+     * Opens the log stored in the specified directory, creating it if needed, and recovers the records that were not
+     * committed when it was last closed.
+     *
+     * @param directory     the directory of the segment and checkpoint files
+     * @param segmentSize   the size in bytes of the segment files, which is also the maximum size of a record
+     * @param maxDiskSize   the maximum size in bytes of all the segment files
+     * @param forceOnAppend whether each append is forced to the disk before returning
+     * @throws IOException if the log couldn't be opened
+     */
+    public WriteAheadLog(Path directory, int segmentSize, long maxDiskSize, boolean forceOnAppend) throws IOException {
+        if (segmentSize <= HEADER_SIZE) {
+            throw new IllegalArgumentException("Segment size must be greater than " + HEADER_SIZE + " bytes");
+        }
+        if (maxDiskSize < segmentSize) {
+            throw new IllegalArgumentException("Maximum disk size must be at least the segment size");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxDiskSize = maxDiskSize;
+        this.forceOnAppend = forceOnAppend;
+        recover();
+    }
+
+    /**
+     * Appends a record at the end of the log.
+     *
+     * @param data the content of the record
+     * @return true if the record was appended, false if the log is full
+     * @throws IOException if a new segment couldn't be created
+     */
+    public boolean append(byte[] data) throws IOException {
+        int recordSize = HEADER_SIZE + data.length;
+        if (data.length == 0) {
+            throw new IllegalArgumentException("Records can't be empty");
+        }
+        if (recordSize > segmentSize) {
+            throw new IllegalArgumentException("Record of " + data.length + " bytes exceeds the segment size of " + segmentSize + " bytes");
+        }
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("Write-ahead log " + directory + " is closed");
+            }
+            int position = (int) (writeOffset - writeSegment.baseOffset);
+            if (position + recordSize > writeSegment.size()) {
+                if (getDiskSize() + segmentSize > maxDiskSize) {
+                    return false;
+                }
+                if (position + HEADER_SIZE <= writeSegment.size()) {
+                    writeSegment.buffer.putInt(position, END_OF_SEGMENT);
+                }
+                if (forceOnAppend) {
+                    writeSegment.buffer.force();
+                }
+                writeSegment = createSegment(writeSegment.endOffset());
+                writeOffset = writeSegment.baseOffset;
+                position = 0;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            ByteBuffer buffer = writeSegment.buffer.duplicate();
+            buffer.position(position + HEADER_SIZE);
+            buffer.put(data);
+            writeSegment.buffer.putInt(position + 4, (int) crc.getValue());
+            // the length is written last, a record is only visible once complete
+            writeSegment.buffer.putInt(position, data.length);
+            if (forceOnAppend) {
+                writeSegment.buffer.force();
+            }
+            writeOffset += recordSize;
+            pendingRecords++;
+            lock.notifyAll();
+            return true;
+        }
+    }
+
+    /**
+     * Reads the next record of the log, waiting for one to be appended if needed. The record must be committed once it
+     * is processed, records read concurrently by several consumers may be committed in any order.
+     *
+     * @param timeout the maximum time to wait for a record, in milliseconds
+     * @return the next record, or null if no record was appended before the timeout or if the log is closed
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public Record poll(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (lock) {
+            while (!closed) {
+                Record record = readNextRecord();
+                if (record != null) {
+                    inFlightOffsets.add(record.offset);
+                    return record;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return null;
+                }
+                lock.wait(remaining);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Marks a record returned by {@link #poll(long)} as processed.
+     *
+     * @param record the processed record
+     */
+    public void commit(Record record) {
+        synchronized (lock) {
+            if (inFlightOffsets.remove(record.offset)) {
+                pendingRecords--;
+                committedOffset = inFlightOffsets.isEmpty() ? readOffset : inFlightOffsets.first();
+            }
+        }
+    }
+
+    /**
+     * Saves the offset below which all the records are committed, so that they are not delivered again when the log is
+     * reopened, then deletes the segments that only contain committed records.
+     *
+     * @throws IOException if the checkpoint couldn't be saved
+     */
+    public void checkpoint() throws IOException {
+        synchronized (checkpointLock) {
+            long offset;
+            synchronized (lock) {
+                offset = committedOffset;
+            }
+            if (offset == checkpointedOffset) {
+                return;
+            }
+            writeCheckpoint(offset);
+            checkpointedOffset = offset;
+            synchronized (lock) {
+                while (segments.size() > 1 && segments.firstEntry().getValue().endOffset() <= offset) {
+                    Segment segment = segments.pollFirstEntry().getValue();
+                    Files.deleteIfExists(segment.file);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of records appended but not yet committed
+     */
+    public long getPendingRecords() {
+        synchronized (lock) {
+            return pendingRecords;
+        }
+    }
+
+    /**
+     * @return the number of bytes between the last committed record and the end of the log
+     */
+    public long getPendingBytes() {
+        synchronized (lock) {
+            return writeOffset - committedOffset;
+        }
+    }
+
+    /**
+     * @return the size in bytes of all the segment files
+     */
+    public long getDiskSize() {
+        synchronized (lock) {
+            long diskSize = 0;
+            for (Segment segment : segments.values()) {
+                diskSize += segment.size();
+            }
+            return diskSize;
+        }
+    }
+
+    /**
+     * Forces the last segment to the disk and saves a last checkpoint. Consumers waiting for records are released and
+     * records can't be appended anymore.
+     *
+     * @throws IOException if the checkpoint couldn't be saved
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            lock.notifyAll();
+        }
+        synchronized (lock) {
+            writeSegment.buffer.force();
+        }
+        checkpoint();
+    }
+
+    private Record readNextRecord() {
+        while (readOffset < writeOffset) {
+            Segment segment = segments.floorEntry(readOffset).getValue();
+            int position = (int) (readOffset - segment.baseOffset);
+            int length = position + HEADER_SIZE <= segment.size() ? segment.buffer.getInt(position) : END_OF_SEGMENT;
+            if (length <= 0) {
+                readOffset = segment.endOffset();
+                continue;
+            }
+            byte[] data = new byte[length];
+            ByteBuffer buffer = segment.buffer.duplicate();
+            buffer.position(position + HEADER_SIZE);
+            buffer.get(data);
+            Record record = new Record(readOffset, data);
+            readOffset += HEADER_SIZE + length;
+            return record;
+        }
+        return null;
+    }
+
+    private void recover() throws IOException {
+        Files.createDirectories(directory);
+        Path checkpointFile = directory.resolve(CHECKPOINT_FILE);
+        long checkpoint = 0;
+        if (Files.exists(checkpointFile)) {
+            checkpoint = ByteBuffer.wrap(Files.readAllBytes(checkpointFile)).getLong();
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                long baseOffset = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                segments.put(baseOffset, openSegment(baseOffset, file, -1));
+            }
+        }
+        // segments entirely checkpointed whose deletion was interrupted
+        while (segments.size() > 1 && segments.firstEntry().getValue().endOffset() <= checkpoint) {
+            Segment segment = segments.pollFirstEntry().getValue();
+            Files.deleteIfExists(segment.file);
+        }
+        if (segments.isEmpty()) {
+            createSegment(checkpoint);
+        }
+        writeSegment = segments.lastEntry().getValue();
+        readOffset = Math.min(Math.max(checkpoint, segments.firstKey()), writeSegment.endOffset());
+        committedOffset = readOffset;
+        checkpointedOffset = checkpoint;
+
+        // count the records to deliver again and find the end of the last segment, discarding a partially written record
+        writeOffset = writeSegment.baseOffset;
+        boolean corrupted = false;
+        for (Segment segment : segments.tailMap(segments.floorKey(readOffset), true).values()) {
+            int position = segment.baseOffset < readOffset ? (int) (readOffset - segment.baseOffset) : 0;
+            while (position + HEADER_SIZE <= segment.size()) {
+                int length = segment.buffer.getInt(position);
+                if (length == 0 || length == END_OF_SEGMENT) {
+                    break;
+                }
+                if (length < 0 || position + HEADER_SIZE + length > segment.size() || !checksumMatches(segment, position, length)) {
+                    logger.warn("Discarding the corrupted end of segment {} of write-ahead log {} at position {}", segment.baseOffset,
+                            directory, position);
+                    segment.buffer.putInt(position, segment == writeSegment ? 0 : END_OF_SEGMENT);
+                    corrupted = segment == writeSegment;
+                    break;
+                }
+                pendingRecords++;
+                position += HEADER_SIZE + length;
+            }
+            if (segment == writeSegment) {
+                writeOffset = segment.baseOffset + position;
+            }
+            if (corrupted) {
+                // clear what follows the discarded record so that its bytes are never read as records once overwritten
+                ByteBuffer buffer = segment.buffer.duplicate();
+                buffer.position(position);
+                while (buffer.hasRemaining()) {
+                    buffer.put((byte) 0);
+                }
+            }
+        }
+        if (pendingRecords > 0) {
+            logger.info("Recovered {} records from write-ahead log {}", pendingRecords, directory);
+        }
+    }
+
+    private boolean checksumMatches(Segment segment, int position, int length) {
+        ByteBuffer buffer = segment.buffer.duplicate();
+        buffer.position(position + HEADER_SIZE);
+        buffer.limit(position + HEADER_SIZE + length);
+        byte[] data = new byte[length];
+        buffer.get(data);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return (int) crc.getValue() == segment.buffer.getInt(position + 4);
+    }
+
+    private Segment createSegment(long baseOffset) throws IOException {
+        Path file = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, baseOffset, SEGMENT_SUFFIX));
+        Segment segment = openSegment(baseOffset, file, segmentSize);
+        segments.put(baseOffset, segment);
+        return segment;
+    }
+
+    private Segment openSegment(long baseOffset, Path file, int size) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file.toFile(), "rw")) {
+            if (size > 0) {
+                randomAccessFile.setLength(size);
+            }
+            FileChannel channel = randomAccessFile.getChannel();
+            // the mapping stays valid once the file is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            return new Segment(baseOffset, file, buffer);
+        }
+    }
+
+    private void writeCheckpoint(long offset) throws IOException {
+        Path temporaryFile = directory.resolve(CHECKPOINT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(8).putLong(0, offset);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temporaryFile, directory.resolve(CHECKPOINT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
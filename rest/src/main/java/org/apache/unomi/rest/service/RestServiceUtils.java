@@ -33,4 +33,12 @@ public interface RestServiceUtils {
 
     Changes handleEvents(List<Event> events, Session session, Profile profile, ServletRequest request, ServletResponse response,
             Date timestamp);
+
+    /**
+     * Same as {@link #handleEvents(List, Session, Profile, ServletRequest, ServletResponse, Date)} for a third party
+     * server already authenticated, the request and response being optional so that events can be handled once the
+     * HTTP request has completed.
+     */
+    Changes handleEvents(List<Event> events, Session session, Profile profile, String thirdPartyId, ServletRequest request,
+            ServletResponse response, Date timestamp);
 }
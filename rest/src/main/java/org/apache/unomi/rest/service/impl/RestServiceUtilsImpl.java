@@ -36,6 +36,7 @@ import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
@@ -75,14 +76,20 @@ public class RestServiceUtilsImpl implements RestServiceUtils {
     @Override
     public Changes handleEvents(List<Event> events, Session session, Profile profile, ServletRequest request, ServletResponse response,
             Date timestamp) {
-        List<String> filteredEventTypes = privacyService.getFilteredEventTypes(profile);
-
         String thirdPartyId = eventService
                 .authenticateThirdPartyServer(((HttpServletRequest) request).getHeader("X-Unomi-Peer"), request.getRemoteAddr());
+        return handleEvents(events, session, profile, thirdPartyId, request, response, timestamp);
+    }
+
+    @Override
+    public Changes handleEvents(List<Event> events, Session session, Profile profile, String thirdPartyId, ServletRequest request,
+            ServletResponse response, Date timestamp) {
+        List<String> filteredEventTypes = privacyService.getFilteredEventTypes(profile);
 
         int changes = EventService.NO_CHANGE;
         // execute provided events if any
         int processedEventsCnt = 0;
+        List<Event> eventsToSend = new ArrayList<>();
         if (events != null && !(profile instanceof Persona)) {
             for (Event event : events) {
                 processedEventsCnt++;
@@ -111,24 +118,36 @@ public class RestServiceUtilsImpl implements RestServiceUtils {
                         eventToSend.setProfileId(null);
                     }
 
-                    eventToSend.getAttributes().put(Event.HTTP_REQUEST_ATTRIBUTE, request);
-                    eventToSend.getAttributes().put(Event.HTTP_RESPONSE_ATTRIBUTE, response);
+                    if (request != null) {
+                        eventToSend.getAttributes().put(Event.HTTP_REQUEST_ATTRIBUTE, request);
+                        eventToSend.getAttributes().put(Event.HTTP_RESPONSE_ATTRIBUTE, response);
+                    }
                     logger.debug("Received event " + event.getEventType() + " for profile=" + profile.getItemId() + " session=" + (
                             session != null ? session.getItemId() : null) + " target=" + event.getTarget() + " timestamp=" + timestamp);
-                    changes |= eventService.send(eventToSend);
-                    // If the event execution changes the profile we need to update it so the next event use the right profile
-                    if ((changes & EventService.PROFILE_UPDATED) == EventService.PROFILE_UPDATED) {
-                        profile = eventToSend.getProfile();
-                    }
-                    if ((changes & EventService.ERROR) == EventService.ERROR) {
-                        //Don't count the event that failed
-                        processedEventsCnt--;
-                        logger.error("Error processing events. Total number of processed events: {}/{}", processedEventsCnt, events.size());
-                        break;
+                    eventsToSend.add(eventToSend);
+                }
+            }
+            if (!eventsToSend.isEmpty()) {
+                // All the events share the profile and session, they are persisted at once and processed in order
+                List<Event> unprocessedEvents = new ArrayList<>();
+                changes = eventService.sendBatch(eventsToSend, unprocessedEvents);
+                // Don't count the events that failed or weren't processed after a failure
+                processedEventsCnt -= unprocessedEvents.size();
+                // If the events execution changed the profile we need to return it so that it is saved, the processed
+                // events all reference the last profile instance
+                if ((changes & EventService.PROFILE_UPDATED) == EventService.PROFILE_UPDATED) {
+                    Profile initialProfile = profile;
+                    for (Event eventToSend : eventsToSend) {
+                        if (eventToSend.getProfile() != null && eventToSend.getProfile() != initialProfile) {
+                            profile = eventToSend.getProfile();
+                        }
                     }
                 }
+                if ((changes & EventService.ERROR) == EventService.ERROR) {
+                    logger.error("Error processing events. Total number of processed events: {}/{}", processedEventsCnt, events.size());
+                }
             }
         }
-        return new Changes(changes, processedEventsCnt, profile);
+        return new Changes(changes, processedEventsCnt, profile, eventsToSend);
     }
 }
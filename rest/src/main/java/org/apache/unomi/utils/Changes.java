@@ -17,8 +17,12 @@
 
 package org.apache.unomi.utils;
 
+import org.apache.unomi.api.Event;
 import org.apache.unomi.api.Profile;
 
+import java.util.Collections;
+import java.util.List;
+
 /**
  * This class is a simple object to get the updated profile without the need of reloading it
  *
@@ -28,15 +32,21 @@ public class Changes {
     private int changeType;
     private int processedItems;
     private Profile profile;
+    private List<Event> sentEvents;
 
     public Changes(int changeType, Profile profile) {
         this(changeType,0,profile);
     }
 
     public Changes(int changeType, int processedItems, Profile profile) {
+        this(changeType, processedItems, profile, Collections.emptyList());
+    }
+
+    public Changes(int changeType, int processedItems, Profile profile, List<Event> sentEvents) {
         this.changeType = changeType;
         this.processedItems = processedItems;
         this.profile = profile;
+        this.sentEvents = sentEvents;
     }
 
     public int getChangeType() {
@@ -50,4 +60,11 @@ public class Changes {
     public Profile getProfile() {
         return profile;
     }
+
+    /**
+     * @return the events sent to the event service
+     */
+    public List<Event> getSentEvents() {
+        return sentEvents;
+    }
 }
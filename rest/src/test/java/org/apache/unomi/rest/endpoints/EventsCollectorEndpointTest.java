@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.rest.endpoints;
+
+import org.apache.unomi.api.Event;
+import org.apache.unomi.api.Profile;
+import org.apache.unomi.api.services.EventService;
+import org.apache.unomi.api.services.ProfileService;
+import org.apache.unomi.rest.ingestion.AsyncEventsIngestion;
+import org.apache.unomi.rest.ingestion.IngestedEvents;
+import org.apache.unomi.rest.ingestion.IngestedRequests;
+import org.apache.unomi.rest.ingestion.WriteAheadLog;
+import org.apache.unomi.rest.service.RestServiceUtils;
+import org.apache.unomi.utils.Changes;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.servlet.http.HttpServletRequest;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class EventsCollectorEndpointTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * The calls to {@link RestServiceUtils#handleEvents}, with the number of records pending in the log at that time.
+     */
+    private final BlockingQueue<Object[]> handledEvents = new LinkedBlockingQueue<>();
+
+    private WriteAheadLog log;
+
+    @Test
+    public void testFailedIngestedEventsAreRetriedBeforeBeingCommitted() throws Exception {
+        log = new WriteAheadLog(folder.getRoot().toPath(), 4096, 65536, false);
+        EventsCollectorEndpoint endpoint = createEndpoint(EventService.ERROR, EventService.NO_CHANGE);
+        AsyncEventsIngestion ingestion = new AsyncEventsIngestion(log, 1, 3, endpoint::processIngestedEvents, null);
+        ingestion.start();
+        try {
+            assertTrue(ingestion.submit(new IngestedEvents(Collections.singletonList(new Event()), "session", null, null, 0L)));
+
+            Object[] firstAttempt = handledEvents.poll(10, TimeUnit.SECONDS);
+            assertNotNull(firstAttempt);
+            Object[] secondAttempt = handledEvents.poll(10, TimeUnit.SECONDS);
+            assertNotNull("the failed events are processed again", secondAttempt);
+            assertEquals("the failed record isn't committed", 1L, secondAttempt[1]);
+
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+            while (log.getPendingRecords() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals("the record is committed once processed", 0, log.getPendingRecords());
+            assertNull(handledEvents.poll(100, TimeUnit.MILLISECONDS));
+        } finally {
+            ingestion.stop();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testProcessingErrorIsReportedToTheIngestion() throws Exception {
+        EventsCollectorEndpoint endpoint = createEndpoint(EventService.ERROR);
+        endpoint.processIngestedEvents(new IngestedEvents(Collections.singletonList(new Event()), "session", null, null, 0L));
+    }
+
+    @Test
+    public void testIngestedEventsReplayTheRequest() throws Exception {
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        headers.put("User-Agent", Collections.singletonList("Mozilla/5.0"));
+        headers.put("X-Forwarded-For", Arrays.asList("10.0.0.1", "10.0.0.2"));
+        headers.put("Cookie", Collections.singletonList("context-profile-id=secret"));
+        Map<String, String[]> parameters = new LinkedHashMap<>();
+        parameters.put("utm_source", new String[] { "newsletter" });
+        parameters.put("payload", new String[] { "{}" });
+
+        IngestedEvents ingestedEvents = new IngestedEvents(Collections.singletonList(new Event()), "session", null, null, 0L);
+        IngestedRequests.record(createRequest("192.168.0.1", headers, parameters), ingestedEvents);
+
+        EventsCollectorEndpoint endpoint = createEndpoint(EventService.NO_CHANGE);
+        endpoint.processIngestedEvents(ingestedEvents);
+
+        HttpServletRequest request = (HttpServletRequest) handledEvents.poll()[0];
+        assertNotNull(request);
+        assertEquals("192.168.0.1", request.getRemoteAddr());
+        assertEquals("Mozilla/5.0", request.getHeader("user-agent"));
+        assertEquals(Arrays.asList("10.0.0.1", "10.0.0.2"), Collections.list(request.getHeaders("X-Forwarded-For")));
+        assertNull("cookies are not logged", request.getHeader("Cookie"));
+        assertEquals("newsletter", request.getParameter("utm_source"));
+        assertNull("the payload is already logged as the events", request.getParameter("payload"));
+        assertNull(request.getCookies());
+    }
+
+    private EventsCollectorEndpoint createEndpoint(int... changeTypes) throws Exception {
+        int[] calls = new int[1];
+        RestServiceUtils restServiceUtils = proxy(RestServiceUtils.class, (proxy, method, args) -> {
+            if (!method.getName().equals("handleEvents")) {
+                return null;
+            }
+            handledEvents.add(new Object[] { args[4], log != null ? log.getPendingRecords() : 0L });
+            int changeType = changeTypes[Math.min(calls[0]++, changeTypes.length - 1)];
+            return new Changes(changeType, changeType == EventService.ERROR ? 0 : 1, (Profile) args[2]);
+        });
+        ProfileService profileService = proxy(ProfileService.class, (proxy, method, args) -> null);
+
+        EventsCollectorEndpoint endpoint = new EventsCollectorEndpoint();
+        setField(endpoint, "restServiceUtils", restServiceUtils);
+        setField(endpoint, "profileService", profileService);
+        return endpoint;
+    }
+
+    private static HttpServletRequest createRequest(String remoteAddr, Map<String, List<String>> headers, Map<String, String[]> parameters) {
+        return proxy(HttpServletRequest.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getRemoteAddr":
+                    return remoteAddr;
+                case "getHeaderNames":
+                    return Collections.enumeration(headers.keySet());
+                case "getHeaders":
+                    return Collections.enumeration(headers.get((String) args[0]));
+                case "getParameterMap":
+                    return parameters;
+                default:
+                    return null;
+            }
+        });
+    }
+
+    private static void setField(Object target, String name, Object value) throws Exception {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class[] { type }, handler);
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.rest.ingestion;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class WriteAheadLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testAppendPollCommit() throws Exception {
+        try (WriteAheadLog log = new WriteAheadLog(folder.getRoot().toPath(), 1024, 4096, false)) {
+            assertTrue(log.append(bytes("first")));
+            assertTrue(log.append(bytes("second")));
+            assertEquals(2, log.getPendingRecords());
+
+            WriteAheadLog.Record first = log.poll(0);
+            WriteAheadLog.Record second = log.poll(0);
+            assertEquals("first", string(first));
+            assertEquals("second", string(second));
+            assertNull(log.poll(0));
+
+            log.commit(second);
+            log.commit(first);
+            assertEquals(0, log.getPendingRecords());
+            assertEquals(0, log.getPendingBytes());
+        }
+    }
+
+    @Test
+    public void testUncommittedRecordsAreRecovered() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        try (WriteAheadLog log = new WriteAheadLog(directory, 1024, 4096, false)) {
+            for (int i = 0; i < 5; i++) {
+                log.append(bytes("record" + i));
+            }
+            List<WriteAheadLog.Record> records = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                records.add(log.poll(0));
+            }
+            log.commit(records.get(0));
+            // committed after a record still in flight, delivered again on recovery
+            log.commit(records.get(2));
+        }
+        try (WriteAheadLog log = new WriteAheadLog(directory, 1024, 4096, false)) {
+            assertEquals(4, log.getPendingRecords());
+            assertEquals("record1", string(log.poll(0)));
+            assertEquals("record2", string(log.poll(0)));
+            assertEquals("record3", string(log.poll(0)));
+            assertEquals("record4", string(log.poll(0)));
+            assertNull(log.poll(0));
+        }
+    }
+
+    @Test
+    public void testPartiallyWrittenRecordIsDiscarded() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        try (WriteAheadLog log = new WriteAheadLog(directory, 1024, 4096, false)) {
+            log.append(bytes("complete"));
+            log.append(bytes("torn"));
+        }
+        // corrupt the content of the second record, as if the process crashed while writing it
+        try (RandomAccessFile file = new RandomAccessFile(segmentFiles(directory).get(0).toFile(), "rw")) {
+            file.seek(8 + "complete".length() + 8);
+            file.write('X');
+        }
+        try (WriteAheadLog log = new WriteAheadLog(directory, 1024, 4096, false)) {
+            assertEquals(1, log.getPendingRecords());
+            assertEquals("complete", string(log.poll(0)));
+            assertNull(log.poll(0));
+            log.append(bytes("next"));
+            assertEquals("next", string(log.poll(0)));
+        }
+    }
+
+    @Test
+    public void testSegmentsRotateAndAreDeletedOnceCommitted() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        try (WriteAheadLog log = new WriteAheadLog(directory, 64, 4096, false)) {
+            for (int i = 0; i < 10; i++) {
+                assertTrue(log.append(bytes("record-" + i)));
+            }
+            assertTrue(segmentFiles(directory).size() > 1);
+            for (int i = 0; i < 10; i++) {
+                WriteAheadLog.Record record = log.poll(0);
+                assertEquals("record-" + i, string(record));
+                log.commit(record);
+            }
+            log.checkpoint();
+            assertEquals(1, segmentFiles(directory).size());
+        }
+    }
+
+    @Test
+    public void testAppendIsRejectedWhenDiskBudgetIsExhausted() throws Exception {
+        try (WriteAheadLog log = new WriteAheadLog(folder.getRoot().toPath(), 64, 128, false)) {
+            int appended = 0;
+            while (log.append(bytes("record-" + appended))) {
+                appended++;
+            }
+            assertTrue(appended > 0);
+            assertEquals(128, log.getDiskSize());
+
+            // consuming the records frees the disk
+            for (int i = 0; i < appended; i++) {
+                log.commit(log.poll(0));
+            }
+            log.checkpoint();
+            assertTrue(log.append(bytes("after")));
+        }
+    }
+
+    private static List<Path> segmentFiles(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "segment-*.log")) {
+            stream.forEach(files::add);
+        }
+        files.sort(null);
+        return files;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(WriteAheadLog.Record record) {
+        return record == null ? null : new String(record.getData(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.rest.service.impl;
+
+import org.apache.unomi.api.Event;
+import org.apache.unomi.api.Profile;
+import org.apache.unomi.api.Session;
+import org.apache.unomi.api.services.EventService;
+import org.apache.unomi.api.services.PrivacyService;
+import org.apache.unomi.utils.Changes;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RestServiceUtilsImplTest {
+
+    @Test
+    public void testUnprocessedEventsAreNotCounted() throws Exception {
+        RestServiceUtilsImpl restServiceUtils = createRestServiceUtils((proxy, method, args) -> {
+            switch (method.getName()) {
+                case "isEventValid":
+                case "isEventAllowed":
+                    return true;
+                case "sendBatch":
+                    // the second event fails, the third one isn't processed
+                    @SuppressWarnings("unchecked")
+                    List<Event> events = (List<Event>) args[0];
+                    @SuppressWarnings("unchecked")
+                    Collection<Event> unprocessedEvents = (Collection<Event>) args[1];
+                    unprocessedEvents.addAll(events.subList(1, events.size()));
+                    return EventService.ERROR;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+
+        Profile profile = new Profile("profile");
+        Session session = new Session("session", profile, new Date(), "site");
+        List<Event> events = new ArrayList<>();
+        for (String eventType : new String[] { "view", "click", "view" }) {
+            Event event = new Event();
+            event.setEventType(eventType);
+            event.setSourceId("site");
+            events.add(event);
+        }
+
+        Changes changes = restServiceUtils.handleEvents(events, session, profile, null, null, null, new Date());
+        assertEquals(EventService.ERROR, changes.getChangeType() & EventService.ERROR);
+        assertEquals(1, changes.getProcessedItems());
+        assertEquals(3, changes.getSentEvents().size());
+    }
+
+    @Test
+    public void testAllEventsAreCountedWhenProcessed() throws Exception {
+        RestServiceUtilsImpl restServiceUtils = createRestServiceUtils((proxy, method, args) -> {
+            switch (method.getName()) {
+                case "isEventValid":
+                case "isEventAllowed":
+                    return true;
+                case "sendBatch":
+                    return EventService.NO_CHANGE;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+
+        Profile profile = new Profile("profile");
+        Session session = new Session("session", profile, new Date(), "site");
+        List<Event> events = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            Event event = new Event();
+            event.setEventType("view");
+            event.setSourceId("site");
+            events.add(event);
+        }
+
+        Changes changes = restServiceUtils.handleEvents(events, session, profile, null, null, null, new Date());
+        assertEquals(EventService.NO_CHANGE, changes.getChangeType());
+        assertEquals(2, changes.getProcessedItems());
+    }
+
+    private static RestServiceUtilsImpl createRestServiceUtils(InvocationHandler eventServiceHandler) throws Exception {
+        RestServiceUtilsImpl restServiceUtils = new RestServiceUtilsImpl();
+        setField(restServiceUtils, "eventService", proxy(EventService.class, eventServiceHandler));
+        setField(restServiceUtils, "privacyService", proxy(PrivacyService.class, (proxy, method, args) -> null));
+        return restServiceUtils;
+    }
+
+    private static void setField(Object target, String name, Object value) throws Exception {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class[] { type }, handler);
+    }
+}
@@ -166,7 +166,7 @@ public class ClusterServiceImpl implements ClusterService {
                     }
                 }
             };
-            schedulerService.getScheduleExecutorService().scheduleWithFixedDelay(statisticsTask, 0, nodeStatisticsUpdateFrequency, TimeUnit.MILLISECONDS);
+            schedulerService.getScheduleExecutorService(SchedulerService.REFRESH_POOL).scheduleWithFixedDelay(schedulerService.namedTask("clusterStatistics", statisticsTask), 0, nodeStatisticsUpdateFrequency, TimeUnit.MILLISECONDS);
 
         }
         logger.info("Cluster service initialized.");
@@ -233,6 +233,16 @@ public class ClusterServiceImpl implements ClusterService {
         persistenceService.purge(scope);
     }
 
+    @Override
+    public String purgeAsync(String scope) {
+        return persistenceService.purgeAsync(scope);
+    }
+
+    @Override
+    public Map<String, Object> getTaskStatus(String taskId) {
+        return persistenceService.getTaskStatus(taskId);
+    }
+
     @Override
     public void sendEvent(Serializable eventObject) {
         Event event = (Event) eventObject;
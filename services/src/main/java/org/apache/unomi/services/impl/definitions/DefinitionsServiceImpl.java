@@ -111,7 +111,7 @@ public class DefinitionsServiceImpl implements DefinitionsService, SynchronousBu
                 reloadTypes(false);
             }
         };
-        schedulerService.getScheduleExecutorService().scheduleAtFixedRate(task, 10000, definitionsRefreshInterval, TimeUnit.MILLISECONDS);
+        schedulerService.getScheduleExecutorService(SchedulerService.REFRESH_POOL).scheduleAtFixedRate(schedulerService.namedTask("definitionsRefresh", task), 10000, definitionsRefreshInterval, TimeUnit.MILLISECONDS);
         logger.info("Scheduled task for condition type loading each 10s");
     }
 
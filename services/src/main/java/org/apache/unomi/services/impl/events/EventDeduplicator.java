@@ -0,0 +1,215 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.services.impl.events;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+import org.apache.unomi.api.Event;
+import org.apache.unomi.api.Item;
+import org.apache.unomi.metrics.MetricsService;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Detects the events submitted again by clients, for example by the retries of mobile SDKs or of sendBeacon, so that
+ * they are not processed twice. An event is identified by the {@link #IDEMPOTENCY_ID_PROPERTY} property set by the
+ * client, within its session, scope and source, or, if content hashing is enabled, by a hash of its type, source, target,
+ * timestamp, session and properties.
+ *
+ * The identifiers seen on this node are remembered for at least the configured window, in two generations of at most
+ * half the maximum number of entries each: the oldest generation is dropped when the current one is older than the
+ * window or full, so that the memory used is bounded, the window being shortened under a high event rate. The
+ * identifiers may also be shared between the nodes of the cluster through a Hazelcast map whose entries expire after
+ * the window.
+ */
+public class EventDeduplicator {
+
+    /**
+     * Name of the event property holding the idempotency identifier set by the client.
+     */
+    public static final String IDEMPOTENCY_ID_PROPERTY = "idempotencyId";
+
+    private static final String SHARED_MAP_NAME = "unomi-events-deduplication";
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private boolean enabled = true;
+    private boolean contentHashEnabled = false;
+    private boolean shared = false;
+    private long window = 60000L;
+    private int maxEntries = 1000000;
+    private HazelcastInstance hazelcastInstance;
+    private MetricsService metricsService;
+
+    private volatile Generation currentGeneration = new Generation(currentTimeMillis());
+    private volatile Generation previousGeneration = new Generation(0L);
+
+    private static class Generation {
+        private final long startTime;
+        private final Set<Long> keys = ConcurrentHashMap.newKeySet();
+
+        private Generation(long startTime) {
+            this.startTime = startTime;
+        }
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setContentHashEnabled(boolean contentHashEnabled) {
+        this.contentHashEnabled = contentHashEnabled;
+    }
+
+    public void setShared(boolean shared) {
+        this.shared = shared;
+    }
+
+    public void setWindow(long window) {
+        this.window = window;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public void setHazelcastInstance(HazelcastInstance hazelcastInstance) {
+        this.hazelcastInstance = hazelcastInstance;
+    }
+
+    public void setMetricsService(MetricsService metricsService) {
+        this.metricsService = metricsService;
+    }
+
+    /**
+     * Checks whether the specified event was already seen in the window, remembering it otherwise.
+     *
+     * @param event the submitted event
+     * @return true if the event is a duplicate to drop
+     */
+    public boolean isDuplicate(Event event) {
+        Long key = getKey(event);
+        if (key == null) {
+            return false;
+        }
+        boolean duplicate = !markSeen(key);
+        if (!duplicate && shared && hazelcastInstance != null) {
+            duplicate = getSharedKeys().putIfAbsent(key, Boolean.TRUE, window, TimeUnit.MILLISECONDS) != null;
+        }
+        if (metricsService != null && metricsService.isActivated()) {
+            metricsService.updateCounter(this.getClass().getName() + ".checked", 1);
+            if (duplicate) {
+                metricsService.updateCounter(this.getClass().getName() + ".duplicates", 1);
+            }
+        }
+        return duplicate;
+    }
+
+    /**
+     * Forgets an event remembered by {@link #isDuplicate(Event)}, when it couldn't be processed, so that the event can
+     * be submitted again.
+     *
+     * @param event the event to forget
+     */
+    public void forget(Event event) {
+        Long key = getKey(event);
+        if (key == null) {
+            return;
+        }
+        currentGeneration.keys.remove(key);
+        previousGeneration.keys.remove(key);
+        if (shared && hazelcastInstance != null) {
+            getSharedKeys().delete(key);
+        }
+    }
+
+    private IMap<Long, Boolean> getSharedKeys() {
+        return hazelcastInstance.getMap(SHARED_MAP_NAME);
+    }
+
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private boolean markSeen(Long key) {
+        long now = currentTimeMillis();
+        Generation generation = currentGeneration;
+        if (now - generation.startTime >= window || generation.keys.size() >= maxEntries / 2) {
+            synchronized (this) {
+                if (currentGeneration == generation) {
+                    // a generation idle for more than the window only holds expired keys
+                    previousGeneration = now - generation.startTime >= 2 * window ? new Generation(0L) : generation;
+                    currentGeneration = new Generation(now);
+                }
+                generation = currentGeneration;
+            }
+        }
+        if (previousGeneration.keys.contains(key)) {
+            return false;
+        }
+        return generation.keys.add(key);
+    }
+
+    private Long getKey(Event event) {
+        if (!enabled) {
+            return null;
+        }
+        Object idempotencyId = event.getProperties() != null ? event.getProperty(IDEMPOTENCY_ID_PROPERTY) : null;
+        if (idempotencyId != null) {
+            // identifiers generated by different clients may collide, they are only compared within a session and source
+            long hash = hash(FNV_OFFSET_BASIS, idempotencyId.toString());
+            hash = hash(hash, event.getSessionId());
+            hash = hash(hash, event.getSourceId());
+            return hash(hash, event.getSource());
+        }
+        if (!contentHashEnabled) {
+            return null;
+        }
+        long hash = hash(FNV_OFFSET_BASIS, event.getEventType());
+        hash = hash(hash, event.getSourceId());
+        hash = hash(hash, event.getSource());
+        hash = hash(hash, event.getTarget());
+        hash = hash(hash, event.getTimeStamp() != null ? event.getTimeStamp().getTime() : 0L);
+        hash = hash(hash, event.getSessionId());
+        return hash(hash, event.getProperties() != null ? event.getProperties().hashCode() : 0L);
+    }
+
+    private static long hash(long hash, Item item) {
+        return item != null ? hash(hash(hash, item.getItemType()), item.getItemId()) : hash(hash, 0L);
+    }
+
+    private static long hash(long hash, String value) {
+        if (value == null) {
+            return hash(hash, 0L);
+        }
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+        }
+        // separator, so that consecutive values can't be confused
+        return (hash ^ 0xffff) * FNV_PRIME;
+    }
+
+    private static long hash(long hash, long value) {
+        for (int i = 0; i < 8; i++) {
+            hash = (hash ^ (value & 0xff)) * FNV_PRIME;
+            value >>>= 8;
+        }
+        return hash;
+    }
+}
@@ -25,6 +25,7 @@ import org.apache.unomi.api.EventProperty;
 import org.apache.unomi.api.EventType;
 import org.apache.unomi.api.Metadata;
 import org.apache.unomi.api.PartialList;
+import org.apache.unomi.api.Profile;
 import org.apache.unomi.api.PropertyType;
 import org.apache.unomi.api.Session;
 import org.apache.unomi.api.ValueType;
@@ -46,19 +47,27 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 public class EventServiceImpl implements EventService {
     private static final Logger logger = LoggerFactory.getLogger(EventServiceImpl.class.getName());
     private static final int MAX_RECURSION_DEPTH = 10;
 
-    private List<EventListenerService> eventListeners = new CopyOnWriteArrayList<EventListenerService>();
+    // the event types declared by each listener in registration order, null for the listeners handling any event type
+    private final Map<EventListenerService, Set<String>> eventListeners = new LinkedHashMap<>();
+    // the listeners declaring their event types with the service property, which refreshEventTypes leaves as is
+    private final Set<EventListenerService> eventListenersWithDeclaredTypes = new HashSet<>();
+
+    private volatile EventListenerDispatchTable eventListenerDispatchTable = new EventListenerDispatchTable(Collections.emptyMap());
 
     private PersistenceService persistenceService;
 
@@ -74,12 +83,16 @@ public class EventServiceImpl implements EventService {
 
     private Set<String> restrictedEventTypeIds = new LinkedHashSet<String>();
 
-    private Map<String, ThirdPartyServer> thirdPartyServers = new HashMap<>();
+    private volatile ThirdPartyAuthorizationTable thirdPartyAuthorizations = new ThirdPartyAuthorizationTable(Collections.emptyList());
 
     private Boolean shouldBeCheckedEventSourceId;
 
+    private long eventTypeIdsMaxStaleness = 0;
+
+    private EventDeduplicator eventDeduplicator;
+
     public void setThirdPartyConfiguration(Map<String, String> thirdPartyConfiguration) {
-        this.thirdPartyServers = new HashMap<>();
+        Map<String, ThirdPartyServer> thirdPartyServers = new HashMap<>();
         for (Map.Entry<String, String> entry : thirdPartyConfiguration.entrySet()) {
             String[] keys = StringUtils.split(entry.getKey(),'.');
             if (keys[0].equals("thirdparty")) {
@@ -103,6 +116,7 @@ public class EventServiceImpl implements EventService {
                 }
             }
         }
+        this.thirdPartyAuthorizations = new ThirdPartyAuthorizationTable(thirdPartyServers.values());
     }
 
     public void setPredefinedEventTypeIds(Set<String> predefinedEventTypeIds) {
@@ -117,6 +131,14 @@ public class EventServiceImpl implements EventService {
         this.shouldBeCheckedEventSourceId = shouldBeCheckedEventSourceId;
     }
 
+    /**
+     * @param eventTypeIdsMaxStaleness the age in milliseconds up to which the event types found in the stored events
+     *                                 may be reused instead of aggregating all the events again
+     */
+    public void setEventTypeIdsMaxStaleness(long eventTypeIdsMaxStaleness) {
+        this.eventTypeIdsMaxStaleness = eventTypeIdsMaxStaleness;
+    }
+
     public void setEventTypeRegistry(EventTypeRegistry eventTypeRegistry) {
         this.eventTypeRegistry = eventTypeRegistry;
     }
@@ -137,9 +159,13 @@ public class EventServiceImpl implements EventService {
         this.bundleContext = bundleContext;
     }
 
+    public void setEventDeduplicator(EventDeduplicator eventDeduplicator) {
+        this.eventDeduplicator = eventDeduplicator;
+    }
+
     public boolean isEventAllowed(Event event, String thirdPartyId) {
         if (restrictedEventTypeIds.contains(event.getEventType())) {
-            return thirdPartyServers.containsKey(thirdPartyId) && thirdPartyServers.get(thirdPartyId).getAllowedEvents().contains(event.getEventType());
+            return thirdPartyAuthorizations.isAllowed(thirdPartyId, event.getEventType());
         }
         return true;
     }
@@ -151,16 +177,9 @@ public class EventServiceImpl implements EventService {
     public String authenticateThirdPartyServer(String key, String ip) {
         logger.debug("Authenticating third party server with key: " + key + " and IP: " + ip);
         if (key != null) {
-            for (Map.Entry<String, ThirdPartyServer> entry : thirdPartyServers.entrySet()) {
-                ThirdPartyServer server = entry.getValue();
-                if (server.getKey().equals(key)) {
-                    IPAddress ipAddress = new IPAddressString(ip).getAddress();
-                    for (IPAddress serverIpAddress : server.getIpAddresses()) {
-                        if (serverIpAddress.contains(ipAddress)) {
-                            return server.getId();
-                        }
-                    }
-                }
+            String thirdPartyId = thirdPartyAuthorizations.authenticate(key, ip);
+            if (thirdPartyId != null) {
+                return thirdPartyId;
             }
             logger.warn("Could not authenticate any third party servers for key: {}", key);
         }
@@ -182,44 +201,186 @@ public class EventServiceImpl implements EventService {
             return NO_CHANGE;
         }
 
-        boolean saveSucceeded = true;
-        if (event.isPersistent()) {
-            saveSucceeded = persistenceService.save(event, null, true);
+        // only the submitted events may be duplicates, not the ones sent while processing them
+        if (depth == 0 && isDuplicate(event)) {
+            return NO_CHANGE;
         }
 
-        int changes;
+        boolean processed = false;
+        try {
+            if (event.isPersistent() && !persistenceService.save(event, null, true)) {
+                return ERROR;
+            }
+            int changes = dispatch(event, depth);
+            processed = (changes & ERROR) != ERROR;
+            return changes;
+        } finally {
+            if (!processed) {
+                // the event may be submitted again
+                forgetEvents(Collections.singletonList(event));
+            }
+        }
+    }
+
+    public int sendBatch(List<Event> events) {
+        return sendBatch(events, new ArrayList<>());
+    }
 
-        if (saveSucceeded) {
-            changes = NO_CHANGE;
-            final Session session = event.getSession();
-            if (event.isPersistent() && session != null) {
-                session.setLastEventDate(event.getTimeStamp());
+    public int sendBatch(List<Event> events, Collection<Event> unprocessedEvents) {
+        List<Event> acceptedEvents = new ArrayList<>(events.size());
+        Map<String, Boolean> registeredSources = new HashMap<>();
+        for (Event event : events) {
+            if (shouldBeCheckedEventSourceId == Boolean.TRUE && !registeredSources.computeIfAbsent(event.getSourceId(), sourceId -> sourceService.load(sourceId) != null)) {
+                logger.warn("Event sending was rejected, because source with sourceId=\"{}\" does not registered in the system.", event.getSourceId());
+                continue;
+            }
+            if (isDuplicate(event)) {
+                continue;
             }
+            acceptedEvents.add(event);
+        }
 
-            if (event.getProfile() != null) {
-                for (EventListenerService eventListenerService : eventListeners) {
-                    if (eventListenerService.canHandle(event)) {
-                        changes |= eventListenerService.onEvent(event);
-                    }
+        // events of the same profile and session are processed in order, each one seeing the changes of the previous ones
+        Map<String, List<Event>> eventGroups = new LinkedHashMap<>();
+        for (Event event : acceptedEvents) {
+            String profileId = event.getProfile() != null ? event.getProfile().getItemId() : event.getProfileId();
+            String sessionId = event.getSession() != null ? event.getSession().getItemId() : event.getSessionId();
+            eventGroups.computeIfAbsent(profileId + "/" + sessionId, groupKey -> new ArrayList<>()).add(event);
+        }
+
+        int changes = NO_CHANGE;
+        List<Event> failedEvents = new ArrayList<>();
+        boolean completed = false;
+        try {
+            for (List<Event> eventGroup : eventGroups.values()) {
+                if (!failedEvents.isEmpty()) {
+                    // the events following a failure are neither persisted nor processed, as they may depend on the failed ones
+                    failedEvents.addAll(eventGroup);
+                    continue;
+                }
+                changes |= sendGroup(eventGroup, failedEvents);
+            }
+            completed = true;
+        } finally {
+            if (!completed) {
+                // the batch failed with an exception, the caller sends all its events again
+                forgetEvents(acceptedEvents);
+            }
+        }
+
+        if (!failedEvents.isEmpty()) {
+            changes |= ERROR;
+            // the events that weren't processed may be submitted again
+            forgetEvents(failedEvents);
+            unprocessedEvents.addAll(failedEvents);
+        }
+        return changes;
+    }
+
+    public void forgetEvents(Collection<Event> events) {
+        if (eventDeduplicator == null) {
+            return;
+        }
+        for (Event event : events) {
+            eventDeduplicator.forget(event);
+        }
+    }
+
+    /**
+     * Persists the persistent events of a group with a single bulk request and processes the events of the group in order. The
+     * events from the first one whose persistence or handling fails are added to the failed events.
+     */
+    private int sendGroup(List<Event> eventGroup, List<Event> failedEvents) {
+        List<Event> persistentEvents = new ArrayList<>(eventGroup.size());
+        for (Event event : eventGroup) {
+            if (event.isPersistent()) {
+                persistentEvents.add(event);
+            }
+        }
+        Collection<String> failedIds = Collections.emptySet();
+        if (!persistentEvents.isEmpty()) {
+            List<String> failedSaveIds = persistenceService.save(persistentEvents);
+            if (failedSaveIds == null) {
+                failedEvents.addAll(eventGroup);
+                return ERROR;
+            }
+            failedIds = new HashSet<>(failedSaveIds);
+        }
+
+        int changes = NO_CHANGE;
+        Profile profile = null;
+        Session session = null;
+        for (int i = 0; i < eventGroup.size(); i++) {
+            Event event = eventGroup.get(i);
+            int eventChanges = ERROR;
+            if (!failedIds.contains(event.getItemId())) {
+                if (profile != null && event.getProfile() != null) {
+                    event.setProfile(profile);
                 }
-                // At the end of the processing event execute the post executor actions
-                for (ActionPostExecutor actionPostExecutor : event.getActionPostExecutors()) {
-                    changes |= actionPostExecutor.execute() ? changes : NO_CHANGE;
+                if (session != null && event.getSession() != null) {
+                    event.setSession(session);
                 }
+                eventChanges = dispatch(event, 0);
+            }
+            changes |= eventChanges;
+            if ((eventChanges & ERROR) == ERROR) {
+                failedEvents.addAll(eventGroup.subList(i, eventGroup.size()));
+                break;
+            }
+            profile = event.getProfile();
+            session = event.getSession();
+        }
+        return changes;
+    }
 
-                if ((changes & PROFILE_UPDATED) == PROFILE_UPDATED) {
-                    Event profileUpdated = new Event("profileUpdated", session, event.getProfile(), event.getSourceId(), event.getSource(), event.getProfile(), event.getTimeStamp());
-                    profileUpdated.setPersistent(false);
-                    profileUpdated.getAttributes().putAll(event.getAttributes());
-                    changes |= send(profileUpdated, depth + 1);
-                    if (session != null && session.getProfileId() != null) {
-                        changes |= SESSION_UPDATED;
-                        session.setProfile(event.getProfile());
-                    }
+    public int sendInternal(Event event) {
+        return sendInternal(event, 1);
+    }
+
+    private int sendInternal(Event event, int depth) {
+        if (depth > MAX_RECURSION_DEPTH) {
+            logger.warn("Max recursion depth reached");
+            return NO_CHANGE;
+        }
+        return dispatch(event, depth);
+    }
+
+    private boolean isDuplicate(Event event) {
+        if (eventDeduplicator != null && eventDeduplicator.isDuplicate(event)) {
+            logger.debug("Dropping duplicate event {} of type {}", event.getItemId(), event.getEventType());
+            return true;
+        }
+        return false;
+    }
+
+    private int dispatch(Event event, int depth) {
+        int changes = NO_CHANGE;
+        final Session session = event.getSession();
+        if (event.isPersistent() && session != null) {
+            session.setLastEventDate(event.getTimeStamp());
+        }
+
+        if (event.getProfile() != null) {
+            for (EventListenerService eventListenerService : eventListenerDispatchTable.getListeners(event.getEventType())) {
+                if (eventListenerService.canHandle(event)) {
+                    changes |= eventListenerService.onEvent(event);
+                }
+            }
+            // At the end of the processing event execute the post executor actions
+            for (ActionPostExecutor actionPostExecutor : event.getActionPostExecutors()) {
+                changes |= actionPostExecutor.execute() ? changes : NO_CHANGE;
+            }
+
+            if ((changes & PROFILE_UPDATED) == PROFILE_UPDATED) {
+                Event profileUpdated = new Event("profileUpdated", session, event.getProfile(), event.getSourceId(), event.getSource(), event.getProfile(), event.getTimeStamp());
+                profileUpdated.setPersistent(false);
+                profileUpdated.setAttributes(Collections.unmodifiableMap(event.getAttributes()));
+                changes |= sendInternal(profileUpdated, depth + 1);
+                if (session != null && session.getProfileId() != null) {
+                    changes |= SESSION_UPDATED;
+                    session.setProfile(event.getProfile());
                 }
             }
-        } else {
-            changes = ERROR;
         }
         return changes;
     }
@@ -303,7 +464,8 @@ public class EventServiceImpl implements EventService {
     }
 
     public Set<String> getEventTypeIds() {
-        Map<String, Long> dynamicEventTypeIds = persistenceService.aggregateWithOptimizedQuery(null, new TermsAggregate("eventType"), Event.ITEM_TYPE);
+        Map<String, Long> dynamicEventTypeIds = persistenceService.aggregateWithOptimizedQuery(null, new TermsAggregate("eventType"), Event.ITEM_TYPE,
+                eventTypeIdsMaxStaleness, TimeUnit.MILLISECONDS);
         Set<String> eventTypeIds = new LinkedHashSet<String>(predefinedEventTypeIds);
         eventTypeIds.addAll(dynamicEventTypeIds.keySet());
         eventTypeIds.remove("_filtered");
@@ -424,13 +586,95 @@ public class EventServiceImpl implements EventService {
 
     public void bind(ServiceReference<EventListenerService> serviceReference) {
         EventListenerService eventListenerService = bundleContext.getService(serviceReference);
-        eventListeners.add(eventListenerService);
+        Set<String> eventTypes = getDeclaredEventTypes(serviceReference.getProperty(EventListenerService.EVENT_TYPES_PROPERTY));
+        synchronized (eventListeners) {
+            if (eventTypes != null) {
+                eventListenersWithDeclaredTypes.add(eventListenerService);
+            } else {
+                eventListenersWithDeclaredTypes.remove(eventListenerService);
+                eventTypes = eventListenerService.getEventTypes();
+            }
+            eventListeners.put(eventListenerService, eventTypes != null ? new HashSet<>(eventTypes) : null);
+            eventListenerDispatchTable = new EventListenerDispatchTable(eventListeners);
+        }
     }
 
     public void unbind(ServiceReference<EventListenerService> serviceReference) {
         if (serviceReference != null) {
             EventListenerService eventListenerService = bundleContext.getService(serviceReference);
-            eventListeners.remove(eventListenerService);
+            synchronized (eventListeners) {
+                eventListeners.remove(eventListenerService);
+                eventListenersWithDeclaredTypes.remove(eventListenerService);
+                eventListenerDispatchTable = new EventListenerDispatchTable(eventListeners);
+            }
+        }
+    }
+
+    public void refreshEventTypes(EventListenerService eventListenerService) {
+        synchronized (eventListeners) {
+            if (!eventListeners.containsKey(eventListenerService) || eventListenersWithDeclaredTypes.contains(eventListenerService)) {
+                return;
+            }
+            Set<String> eventTypes = eventListenerService.getEventTypes();
+            eventListeners.put(eventListenerService, eventTypes != null ? new HashSet<>(eventTypes) : null);
+            eventListenerDispatchTable = new EventListenerDispatchTable(eventListeners);
+        }
+    }
+
+    private static Set<String> getDeclaredEventTypes(Object property) {
+        if (property instanceof String) {
+            Set<String> eventTypes = new HashSet<>();
+            for (String eventType : ((String) property).split(",")) {
+                if (StringUtils.isNotBlank(eventType)) {
+                    eventTypes.add(eventType.trim());
+                }
+            }
+            return eventTypes;
+        } else if (property instanceof String[]) {
+            return new HashSet<>(Arrays.asList((String[]) property));
+        } else if (property instanceof Collection) {
+            Set<String> eventTypes = new HashSet<>();
+            for (Object eventType : (Collection<?>) property) {
+                eventTypes.add(String.valueOf(eventType));
+            }
+            return eventTypes;
+        }
+        return null;
+    }
+
+    /**
+     * The listeners to call for each event type, in registration order: the listeners declaring the type and the ones handling
+     * any type. Rebuilt when listeners come and go, so that dispatching an event only looks up its type.
+     */
+    private static class EventListenerDispatchTable {
+        private final Map<String, List<EventListenerService>> listenersByEventType = new HashMap<>();
+        private final List<EventListenerService> anyEventTypeListeners = new ArrayList<>();
+
+        private EventListenerDispatchTable(Map<EventListenerService, Set<String>> eventListeners) {
+            for (Set<String> eventTypes : eventListeners.values()) {
+                if (eventTypes != null) {
+                    for (String eventType : eventTypes) {
+                        listenersByEventType.putIfAbsent(eventType, new ArrayList<>());
+                    }
+                }
+            }
+            for (Map.Entry<EventListenerService, Set<String>> entry : eventListeners.entrySet()) {
+                if (entry.getValue() == null) {
+                    anyEventTypeListeners.add(entry.getKey());
+                    for (List<EventListenerService> listeners : listenersByEventType.values()) {
+                        listeners.add(entry.getKey());
+                    }
+                } else {
+                    for (String eventType : entry.getValue()) {
+                        listenersByEventType.get(eventType).add(entry.getKey());
+                    }
+                }
+            }
+        }
+
+        private List<EventListenerService> getListeners(String eventType) {
+            List<EventListenerService> listeners = eventType != null ? listenersByEventType.get(eventType) : null;
+            return listeners != null ? listeners : anyEventTypeListeners;
         }
     }
 
@@ -17,7 +17,6 @@
 
 package org.apache.unomi.services.impl.events;
 
-import org.apache.commons.beanutils.PropertyUtils;
 import org.apache.unomi.api.*;
 import org.apache.unomi.api.services.EventTypeRegistry;
 import org.apache.unomi.persistence.spi.CustomObjectMapper;
@@ -28,10 +27,9 @@ import org.osgi.framework.SynchronousBundleListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.beans.PropertyDescriptor;
-import java.lang.reflect.InvocationTargetException;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class EventTypeRegistryImpl implements EventTypeRegistry, SynchronousBundleListener {
 
@@ -41,6 +39,8 @@ public class EventTypeRegistryImpl implements EventTypeRegistry, SynchronousBund
 
     private Map<String, EventType> eventTypes = new LinkedHashMap<>();
 
+    private Map<String, EventTypeValidator> validators = new ConcurrentHashMap<>();
+
     private BundleContext bundleContext;
 
     public void bundleChanged(BundleEvent event) {
@@ -82,6 +82,7 @@ public class EventTypeRegistryImpl implements EventTypeRegistry, SynchronousBund
     }
 
     public void register(EventType eventType) {
+        validators.put(eventType.getType(), new EventTypeValidator(eventType));
         eventTypes.put(eventType.getType(), eventType);
     }
 
@@ -90,126 +91,11 @@ public class EventTypeRegistryImpl implements EventTypeRegistry, SynchronousBund
         if (event == null) {
             return false;
         }
-        final EventType eventType = this.get(event.getEventType());
-        if (eventType == null) {
+        final EventTypeValidator validator = validators.get(event.getEventType());
+        if (validator == null) {
             return false;
         }
-
-        Set<PropertyType> propertiesPropertyTypes = findChildPropertyTypesById("properties", eventType.getPropertyTypes());
-        Set<PropertyType> sourcePropertyTypes = findChildPropertyTypesById("source", eventType.getPropertyTypes());
-        Set<PropertyType> targetPropertyTypes = findChildPropertyTypesById("target", eventType.getPropertyTypes());
-
-        return areObjectPropertiesValid(event.getProperties(), propertiesPropertyTypes) &&
-                areObjectPropertiesValid(event.getSource(), sourcePropertyTypes) &&
-                areObjectPropertiesValid(event.getTarget(), targetPropertyTypes);
-    }
-
-    /**
-     * Checks that all properties from map are defined in the property type set.
-     * Does not require all defined properties to be present in map.
-     *
-     * @param props map of properties to validate
-     * @param types set of a predefined event type properties
-     * @return boolean result of validation
-     */
-    private boolean areMapPropertiesValid(Map<Object, Object> props, Set<PropertyType> types) {
-        if (props == null || props.isEmpty() || types == null || types.isEmpty()) {
-            return true;
-        }
-        return props.entrySet().stream().allMatch(entry -> {
-            return types.stream().anyMatch(type -> {
-                if (!type.getItemId().equals(entry.getKey().toString())) {
-                    return false;
-                }
-                final Set<PropertyType> childTypes = type.getChildPropertyTypes();
-                if (childTypes.size() > 0 && entry.getValue() != null) {
-                    try {
-                        return areObjectPropertiesValid(entry.getValue(), childTypes);
-                    } catch (ClassCastException e) {
-                        logger.error("Event property '{}' value is invalid: {}", entry.getKey(), e.getCause());
-                        return false;
-                    }
-                } else {
-                    boolean valueTypeValid = testValueType(entry.getValue(), type.getValueTypeId());
-                    if (!valueTypeValid) {
-                        logger.warn("Event type validation error: value type for property {} is not valid", entry.getKey().toString());
-                    }
-                    return valueTypeValid;
-                }
-            });
-        });
-    }
-
-    private boolean areObjectPropertiesValid(Object object, Set<PropertyType> types) {
-        if (object == null) {
-            return true;
-        }
-        if (object instanceof Map) {
-            return areMapPropertiesValid((Map<Object,Object>) object, types);
-        }
-        PropertyDescriptor[] propertyDescriptors = PropertyUtils.getPropertyDescriptors(object);
-        return Arrays.stream(propertyDescriptors).allMatch(propertyDescriptor -> {
-            PropertyType propertyType = findPropertyTypeById(propertyDescriptor.getName(), types);
-            if (propertyType == null) {
-                logger.warn("Event type validation error: couldn't find property type for property {}", propertyDescriptor.getName());
-                return false;
-            }
-            if ("set".equals(propertyType.getValueTypeId())) {
-                boolean setPropertiesValid = false;
-                try {
-                    setPropertiesValid = areObjectPropertiesValid(PropertyUtils.getProperty(object, propertyDescriptor.getName()), propertyType.getChildPropertyTypes());
-                } catch (IllegalAccessException | InvocationTargetException | NoSuchMethodException e) {
-                    logger.error("Error accessing property {} on object {}: {}", propertyDescriptor.getName(), object.toString(), e);
-                    return false;
-                }
-                if (!setPropertiesValid) {
-                    logger.warn("Event type validation error: set property for property {} are not valid", propertyDescriptor.getName());
-                    return false;
-                }
-            }
-            return true;
-        });
-    }
-
-    private Set<PropertyType> findChildPropertyTypesById(String id, Set<PropertyType> types) {
-        PropertyType propertyType = findPropertyTypeById(id, types);
-        if (propertyType == null) {
-            return new HashSet<>();
-        } else {
-            return propertyType.getChildPropertyTypes();
-        }
-    }
-
-    private PropertyType findPropertyTypeById(String id, Set<PropertyType> types) {
-        Optional<PropertyType> optionalPropertyType = types.stream().filter(propertyType -> propertyType.getItemId().equals(id)).findFirst();
-        return optionalPropertyType.orElse(null);
-
-    }
-
-    private boolean testValueType(final Object value, final String valueTypeId) {
-        switch (valueTypeId) {
-            case "integer":
-                return value instanceof Integer;
-            case "long":
-                return value instanceof Long;
-            case "float":
-                return value instanceof Double;
-            case "set":
-            case "json":
-                return value instanceof Map;
-            case "geopoint":
-                return value instanceof GeoPoint;
-            case "date":
-                return value instanceof Date;
-            case "boolean":
-                return value instanceof Boolean;
-            case "id":
-            case "string":
-                return value instanceof String;
-            default:
-                // return true if type is unknown cuz it may be custom
-                return true;
-        }
+        return validator.isValid(event);
     }
 
     public Collection<EventType> getAll() {
@@ -257,6 +143,7 @@ public class EventTypeRegistryImpl implements EventTypeRegistry, SynchronousBund
                 if (type instanceof EventType) {
                     EventType eventType = (EventType) type;
                     eventTypes.remove(eventType.getType());
+                    validators.remove(eventType.getType());
                 }
             }
         }
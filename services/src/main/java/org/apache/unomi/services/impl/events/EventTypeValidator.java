@@ -0,0 +1,227 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.services.impl.events;
+
+import org.apache.commons.beanutils.PropertyUtils;
+import org.apache.unomi.api.Event;
+import org.apache.unomi.api.EventType;
+import org.apache.unomi.api.GeoPoint;
+import org.apache.unomi.api.PropertyType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Validates the events of an {@link EventType} against the property types of its properties, source and target. The
+ * property types are compiled once, when the event type is registered, into validators looking up the permitted
+ * properties by name. The properties of the source and target beans are resolved once per class, the getters of the
+ * nested properties being kept to read their values.
+ *
+ * A map is valid if each of its entries has a property type, the value being validated against the children of the
+ * property type if it has some, or against its value type otherwise. A bean is valid if each of its properties has a
+ * property type, the value of the "set" properties being validated against the children of the property type.
+ */
+public class EventTypeValidator {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventTypeValidator.class.getName());
+
+    private static final ObjectValidator EMPTY = new ObjectValidator(Collections.<PropertyType>emptySet());
+
+    private final ObjectValidator propertiesValidator;
+    private final ObjectValidator sourceValidator;
+    private final ObjectValidator targetValidator;
+
+    public EventTypeValidator(EventType eventType) {
+        ObjectValidator eventValidator = compile(eventType.getPropertyTypes());
+        this.propertiesValidator = eventValidator.getChildValidator("properties");
+        this.sourceValidator = eventValidator.getChildValidator("source");
+        this.targetValidator = eventValidator.getChildValidator("target");
+    }
+
+    public boolean isValid(Event event) {
+        return propertiesValidator.isValid(event.getProperties()) &&
+                sourceValidator.isValid(event.getSource()) &&
+                targetValidator.isValid(event.getTarget());
+    }
+
+    private static ObjectValidator compile(Set<PropertyType> propertyTypes) {
+        return propertyTypes == null || propertyTypes.isEmpty() ? EMPTY : new ObjectValidator(propertyTypes);
+    }
+
+    private static class PropertyValidator {
+        private final String name;
+        private final String valueTypeId;
+        private final ObjectValidator childValidator;
+
+        private PropertyValidator(PropertyType propertyType) {
+            this.name = propertyType.getItemId();
+            this.valueTypeId = propertyType.getValueTypeId();
+            this.childValidator = compile(propertyType.getChildPropertyTypes());
+        }
+
+        private boolean isValid(Object value) {
+            if (childValidator != EMPTY && value != null) {
+                return childValidator.isValid(value);
+            }
+            boolean valueTypeValid = testValueType(value, valueTypeId);
+            if (!valueTypeValid) {
+                logger.warn("Event type validation error: value type for property {} is not valid", name);
+            }
+            return valueTypeValid;
+        }
+    }
+
+    private static class ObjectValidator {
+        private final Map<String, PropertyValidator> propertyValidators = new HashMap<>();
+        private final Map<Class<?>, BeanValidator> beanValidators = new ConcurrentHashMap<>();
+
+        private ObjectValidator(Set<PropertyType> propertyTypes) {
+            for (PropertyType propertyType : propertyTypes) {
+                propertyValidators.put(propertyType.getItemId(), new PropertyValidator(propertyType));
+            }
+        }
+
+        private ObjectValidator getChildValidator(String name) {
+            PropertyValidator propertyValidator = propertyValidators.get(name);
+            return propertyValidator != null ? propertyValidator.childValidator : EMPTY;
+        }
+
+        private boolean isValid(Object object) {
+            if (object == null) {
+                return true;
+            }
+            if (object instanceof Map) {
+                return isMapValid((Map<?, ?>) object);
+            }
+            return beanValidators.computeIfAbsent(object.getClass(), this::compileBean).isValid(object);
+        }
+
+        private boolean isMapValid(Map<?, ?> map) {
+            if (map.isEmpty() || propertyValidators.isEmpty()) {
+                return true;
+            }
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                PropertyValidator propertyValidator = propertyValidators.get(String.valueOf(entry.getKey()));
+                if (propertyValidator == null || !propertyValidator.isValid(entry.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private BeanValidator compileBean(Class<?> beanClass) {
+            List<BeanProperty> setProperties = new ArrayList<>();
+            for (PropertyDescriptor propertyDescriptor : PropertyUtils.getPropertyDescriptors(beanClass)) {
+                PropertyValidator propertyValidator = propertyValidators.get(propertyDescriptor.getName());
+                if (propertyValidator == null) {
+                    return new BeanValidator(propertyDescriptor.getName(), null);
+                }
+                if ("set".equals(propertyValidator.valueTypeId)) {
+                    setProperties.add(new BeanProperty(propertyDescriptor, propertyValidator.childValidator));
+                }
+            }
+            return new BeanValidator(null, setProperties);
+        }
+    }
+
+    private static class BeanProperty {
+        private final String name;
+        private final Method getter;
+        private final ObjectValidator validator;
+
+        private BeanProperty(PropertyDescriptor propertyDescriptor, ObjectValidator validator) {
+            this.name = propertyDescriptor.getName();
+            this.getter = propertyDescriptor.getReadMethod();
+            this.validator = validator;
+        }
+    }
+
+    private static class BeanValidator {
+        private final String unknownProperty;
+        private final List<BeanProperty> setProperties;
+
+        private BeanValidator(String unknownProperty, List<BeanProperty> setProperties) {
+            this.unknownProperty = unknownProperty;
+            this.setProperties = setProperties;
+        }
+
+        private boolean isValid(Object bean) {
+            if (unknownProperty != null) {
+                logger.warn("Event type validation error: couldn't find property type for property {}", unknownProperty);
+                return false;
+            }
+            for (BeanProperty property : setProperties) {
+                if (property.getter == null) {
+                    logger.error("Error accessing property {} on object {}: no getter", property.name, bean);
+                    return false;
+                }
+                Object value;
+                try {
+                    value = property.getter.invoke(bean);
+                } catch (IllegalAccessException | InvocationTargetException e) {
+                    logger.error("Error accessing property {} on object {}: {}", property.name, bean, e);
+                    return false;
+                }
+                if (!property.validator.isValid(value)) {
+                    logger.warn("Event type validation error: set property for property {} are not valid", property.name);
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static boolean testValueType(final Object value, final String valueTypeId) {
+        if (valueTypeId == null) {
+            return true;
+        }
+        switch (valueTypeId) {
+            case "integer":
+                return value instanceof Integer;
+            case "long":
+                return value instanceof Long;
+            case "float":
+                return value instanceof Double;
+            case "set":
+            case "json":
+                return value instanceof Map;
+            case "geopoint":
+                return value instanceof GeoPoint;
+            case "date":
+                return value instanceof Date;
+            case "boolean":
+                return value instanceof Boolean;
+            case "id":
+            case "string":
+                return value instanceof String;
+            default:
+                // return true if type is unknown cuz it may be custom
+                return true;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.services.impl.events;
+
+import inet.ipaddr.IPAddress;
+import inet.ipaddr.IPAddressString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The resolved authorizations of the third party servers, built once from their configuration. The servers are looked
+ * up by key in a hash map, and the IP address ranges of the servers sharing a key are held in a binary prefix tree, so
+ * that authenticating a request only parses its IP address once and follows at most one node per address bit.
+ *
+ * The table is immutable and can be read concurrently, a new table is built when the configuration changes.
+ */
+public class ThirdPartyAuthorizationTable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ThirdPartyAuthorizationTable.class.getName());
+
+    private final Map<String, Set<String>> allowedEventsByServerId = new HashMap<>();
+    private final Map<String, PrefixTree> prefixTreesByKey = new HashMap<>();
+
+    public ThirdPartyAuthorizationTable(Collection<ThirdPartyServer> servers) {
+        for (ThirdPartyServer server : servers) {
+            allowedEventsByServerId.put(server.getId(), server.getAllowedEvents());
+            if (server.getKey() == null || server.getIpAddresses() == null) {
+                logger.warn("Third party server {} has no key or IP addresses, it can't be authenticated", server.getId());
+                continue;
+            }
+            PrefixTree prefixTree = prefixTreesByKey.computeIfAbsent(server.getKey(), key -> new PrefixTree());
+            for (IPAddress ipAddress : server.getIpAddresses()) {
+                if (ipAddress == null) {
+                    logger.warn("Third party server {} has an invalid IP address, ignoring it", server.getId());
+                    continue;
+                }
+                for (IPAddress prefixBlock : ipAddress.spanWithPrefixBlocks()) {
+                    prefixTree.add(prefixBlock, server.getId());
+                }
+            }
+        }
+    }
+
+    /**
+     * @param key the key sent by the third party server
+     * @param ip  the IP address of the request
+     * @return the identifier of the server with this key whose IP address ranges contain the address, null if none
+     */
+    public String authenticate(String key, String ip) {
+        PrefixTree prefixTree = key != null ? prefixTreesByKey.get(key) : null;
+        if (prefixTree == null || ip == null) {
+            return null;
+        }
+        IPAddress ipAddress = new IPAddressString(ip).getAddress();
+        return ipAddress != null ? prefixTree.find(ipAddress) : null;
+    }
+
+    /**
+     * @param serverId  the identifier of an authenticated third party server
+     * @param eventType an event type
+     * @return true if the server is allowed to send events of this type
+     */
+    public boolean isAllowed(String serverId, String eventType) {
+        Set<String> allowedEvents = serverId != null ? allowedEventsByServerId.get(serverId) : null;
+        return allowedEvents != null && allowedEvents.contains(eventType);
+    }
+
+    private static class Node {
+        private final Node[] children = new Node[2];
+        private String serverId;
+    }
+
+    private static class PrefixTree {
+        private final Node ipv4Root = new Node();
+        private final Node ipv6Root = new Node();
+
+        private void add(IPAddress prefixBlock, String serverId) {
+            Integer prefixLength = prefixBlock.getNetworkPrefixLength();
+            int bitCount = prefixLength != null ? prefixLength : prefixBlock.getBitCount();
+            byte[] bytes = prefixBlock.getBytes();
+            Node node = prefixBlock.isIPv4() ? ipv4Root : ipv6Root;
+            for (int i = 0; i < bitCount; i++) {
+                int bit = bit(bytes, i);
+                if (node.children[bit] == null) {
+                    node.children[bit] = new Node();
+                }
+                node = node.children[bit];
+            }
+            if (node.serverId == null) {
+                node.serverId = serverId;
+            }
+        }
+
+        private String find(IPAddress ipAddress) {
+            byte[] bytes = ipAddress.getBytes();
+            Node node = ipAddress.isIPv4() ? ipv4Root : ipv6Root;
+            for (int i = 0; node != null; i++) {
+                if (node.serverId != null) {
+                    return node.serverId;
+                }
+                if (i == bytes.length * 8) {
+                    return null;
+                }
+                node = node.children[bit(bytes, i)];
+            }
+            return null;
+        }
+
+        private static int bit(byte[] bytes, int index) {
+            return (bytes[index >> 3] >> (7 - (index & 7))) & 1;
+        }
+    }
+}
@@ -48,6 +48,7 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 
 public class GoalsServiceImpl implements GoalsService, SynchronousBundleListener {
@@ -61,6 +62,8 @@ public class GoalsServiceImpl implements GoalsService, SynchronousBundleListener
 
     private RulesService rulesService;
 
+    private long aggregateMaxStaleness = 0;
+
     public void setBundleContext(BundleContext bundleContext) {
         this.bundleContext = bundleContext;
     }
@@ -77,6 +80,13 @@ public class GoalsServiceImpl implements GoalsService, SynchronousBundleListener
         this.rulesService = rulesService;
     }
 
+    /**
+     * @param aggregateMaxStaleness the age in milliseconds up to which a cached aggregation result may be used for reports
+     */
+    public void setAggregateMaxStaleness(long aggregateMaxStaleness) {
+        this.aggregateMaxStaleness = aggregateMaxStaleness;
+    }
+
     public void postConstruct() {
         logger.debug("postConstruct {" + bundleContext.getBundle() + "}");
 
@@ -495,11 +505,11 @@ public class GoalsServiceImpl implements GoalsService, SynchronousBundleListener
 
         if (aggregate != null) {
             list.add(goalStartCondition);
-            all = persistenceService.aggregateWithOptimizedQuery(condition, aggregate, Session.ITEM_TYPE);
+            all = persistenceService.aggregateWithOptimizedQuery(condition, aggregate, Session.ITEM_TYPE, aggregateMaxStaleness, TimeUnit.MILLISECONDS);
 
             list.remove(goalStartCondition);
             list.add(goalTargetCondition);
-            match = persistenceService.aggregateWithOptimizedQuery(condition, aggregate, Session.ITEM_TYPE);
+            match = persistenceService.aggregateWithOptimizedQuery(condition, aggregate, Session.ITEM_TYPE, aggregateMaxStaleness, TimeUnit.MILLISECONDS);
         } else {
             list.add(goalStartCondition);
             all = new HashMap<String, Long>();
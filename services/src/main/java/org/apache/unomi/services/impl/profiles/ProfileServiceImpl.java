@@ -39,6 +39,7 @@ import org.apache.unomi.api.services.DefinitionsService;
 import org.apache.unomi.api.services.ProfileService;
 import org.apache.unomi.api.services.SchedulerService;
 import org.apache.unomi.api.services.SegmentService;
+import org.apache.unomi.metrics.MetricsService;
 import org.apache.unomi.persistence.spi.CustomObjectMapper;
 import org.apache.unomi.persistence.spi.PersistenceService;
 import org.apache.unomi.persistence.spi.PropertyHelper;
@@ -73,6 +74,8 @@ import java.util.TimerTask;
 import java.util.TreeSet;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -184,6 +187,41 @@ public class ProfileServiceImpl implements ProfileService, SynchronousBundleList
 
     }
 
+    /**
+     * Profiles and sessions saved on a thread while a write-behind scope is open, keyed by item type and identifier so
+     * that repeated saves of the same item only keep the last instance. The scope also holds the locks of the profiles
+     * loaded in it, released once the pending items are persisted.
+     */
+    private static class WriteBehindScope {
+        private int depth = 0;
+        private int coalescedSaves = 0;
+        private final boolean coalescing;
+        private final Map<String, Item> pendingItems = new LinkedHashMap<>();
+        private final List<Lock> heldLocks = new ArrayList<>();
+
+        private WriteBehindScope(boolean coalescing) {
+            this.coalescing = coalescing;
+        }
+
+        private static String key(String itemType, String itemId) {
+            return itemType + ":" + itemId;
+        }
+
+        public void add(Item item) {
+            if (pendingItems.put(key(item.getItemType(), item.getItemId()), item) != null) {
+                coalescedSaves++;
+            }
+        }
+
+        public Item get(String itemType, String itemId) {
+            return pendingItems.get(key(itemType, itemId));
+        }
+
+        public void remove(String itemType, String itemId) {
+            pendingItems.remove(key(itemType, itemId));
+        }
+    }
+
     private static final Logger logger = LoggerFactory.getLogger(ProfileServiceImpl.class.getName());
 
     private BundleContext bundleContext;
@@ -196,6 +234,8 @@ public class ProfileServiceImpl implements ProfileService, SynchronousBundleList
 
     private SegmentService segmentService;
 
+    private MetricsService metricsService;
+
     private Condition purgeProfileQuery;
     private Integer purgeProfileExistTime = 0;
     private Integer purgeProfileInactiveTime = 0;
@@ -207,6 +247,14 @@ public class ProfileServiceImpl implements ProfileService, SynchronousBundleList
 
     private boolean forceRefreshOnSave = false;
 
+    private boolean writeBehindEnabled = true;
+
+    private final ThreadLocal<WriteBehindScope> writeBehindScope = new ThreadLocal<>();
+
+    private boolean profileLockingEnabled = true;
+    private long profileLockTimeout = 5000;
+    private Lock[] profileLocks = createProfileLocks(1024);
+
     public ProfileServiceImpl() {
         logger.info("Initializing profile service...");
     }
@@ -231,6 +279,26 @@ public class ProfileServiceImpl implements ProfileService, SynchronousBundleList
         this.segmentService = segmentService;
     }
 
+    public void setMetricsService(MetricsService metricsService) {
+        this.metricsService = metricsService;
+    }
+
+    public void setWriteBehindEnabled(boolean writeBehindEnabled) {
+        this.writeBehindEnabled = writeBehindEnabled;
+    }
+
+    public void setProfileLockingEnabled(boolean profileLockingEnabled) {
+        this.profileLockingEnabled = profileLockingEnabled;
+    }
+
+    public void setProfileLockStripes(int profileLockStripes) {
+        this.profileLocks = createProfileLocks(profileLockStripes);
+    }
+
+    public void setProfileLockTimeout(long profileLockTimeout) {
+        this.profileLockTimeout = profileLockTimeout;
+    }
+
     public void setForceRefreshOnSave(boolean forceRefreshOnSave) {
         this.forceRefreshOnSave = forceRefreshOnSave;
     }
@@ -294,7 +362,7 @@ public class ProfileServiceImpl implements ProfileService, SynchronousBundleList
                 reloadPropertyTypes(false);
             }
         };
-        schedulerService.getScheduleExecutorService().scheduleAtFixedRate(task, 10000, propertiesRefreshInterval, TimeUnit.MILLISECONDS);
+        schedulerService.getScheduleExecutorService(SchedulerService.REFRESH_POOL).scheduleAtFixedRate(schedulerService.namedTask("propertyTypesRefresh", task), 10000, propertiesRefreshInterval, TimeUnit.MILLISECONDS);
         logger.info("Scheduled task for property type loading each 10s");
     }
 
@@ -366,8 +434,13 @@ public class ProfileServiceImpl implements ProfileService, SynchronousBundleList
                             purgeProfileQuery.setParameter("subConditions", subConditions);
                         }
 
-                        persistenceService.removeByQuery(purgeProfileQuery, Profile.class);
+                        String purgeTaskId = persistenceService.removeByQueryAsync(purgeProfileQuery, Profile.class);
+                        logger.info("Profile purge: submitted profile removal task {}", purgeTaskId);
 
+                        if (!schedulerService.isLeaseHeld()) {
+                            logger.warn("Profile purge: lease lost, leaving the purge of sessions and events to the node holding it");
+                            return;
+                        }
                         if (purgeSessionsAndEventsTime > 0) {
                             persistenceService.purge(getMonth(-purgeSessionsAndEventsTime).getTime());
                         }
@@ -378,7 +451,10 @@ public class ProfileServiceImpl implements ProfileService, SynchronousBundleList
                     }
                 }
             };
-            schedulerService.getScheduleExecutorService().scheduleAtFixedRate(task, 1, purgeProfileInterval, TimeUnit.DAYS);
+            // the purge works on the data shared by the cluster, a single node runs it, the lease outliving the interval
+            long purgeLeaseTime = TimeUnit.DAYS.toMillis(purgeProfileInterval) * 3 / 2;
+            schedulerService.getScheduleExecutorService(SchedulerService.BATCH_POOL).scheduleAtFixedRate(
+                    schedulerService.clusterSingletonTask("profilePurge", purgeLeaseTime, TimeUnit.MILLISECONDS, task), 1, purgeProfileInterval, TimeUnit.DAYS);
 
             logger.info("Profile purge: purge scheduled with an interval of {} days", purgeProfileInterval);
         } else {
@@ -546,6 +622,17 @@ public class ProfileServiceImpl implements ProfileService, SynchronousBundleList
     }
 
     public Profile load(String profileId) {
+        WriteBehindScope scope = writeBehindScope.get();
+        if (scope != null) {
+            lockProfile(scope, profileId);
+        }
+        scope = getPendingItemsScope();
+        if (scope != null) {
+            Item pendingProfile = scope.get(Profile.ITEM_TYPE, profileId);
+            if (pendingProfile != null) {
+                return (Profile) pendingProfile;
+            }
+        }
         return persistenceService.load(profileId, Profile.class);
     }
 
@@ -558,6 +645,11 @@ public class ProfileServiceImpl implements ProfileService, SynchronousBundleList
             return null;
         }
         profile.setSystemProperty("lastUpdated", new Date());
+        WriteBehindScope scope = getPendingItemsScope();
+        if (scope != null) {
+            scope.add(profile);
+            return profile;
+        }
         if (persistenceService.save(profile)) {
             if (forceRefresh) {
                 persistenceService.refreshIndex(Profile.class, null);
@@ -600,6 +692,10 @@ public class ProfileServiceImpl implements ProfileService, SynchronousBundleList
     }
 
     public void delete(String profileId, boolean persona) {
+        WriteBehindScope scope = getPendingItemsScope();
+        if (scope != null) {
+            scope.remove(persona ? Persona.ITEM_TYPE : Profile.ITEM_TYPE, profileId);
+        }
         if (persona) {
             persistenceService.remove(profileId, Persona.class);
         } else {
@@ -744,6 +840,13 @@ public class ProfileServiceImpl implements ProfileService, SynchronousBundleList
     }
 
     public Session loadSession(String sessionId, Date dateHint) {
+        WriteBehindScope scope = getPendingItemsScope();
+        if (scope != null) {
+            Item pendingSession = scope.get(Session.ITEM_TYPE, sessionId);
+            if (pendingSession != null) {
+                return (Session) pendingSession;
+            }
+        }
         Session s = persistenceService.load(sessionId, dateHint, Session.class);
         if (s == null && dateHint != null) {
             GregorianCalendar gc = new GregorianCalendar();
@@ -763,9 +866,113 @@ public class ProfileServiceImpl implements ProfileService, SynchronousBundleList
         if (session.getProfile() != null && session.getProfile().getProperties() != null) {
             session.getProfile().setProperties(removePersonalIdentifiersFromSessionProfile(session.getProfile().getProperties()));
         }
+        WriteBehindScope scope = getPendingItemsScope();
+        if (scope != null) {
+            scope.add(session);
+            return session;
+        }
         return persistenceService.save(session) ? session : null;
     }
 
+    @Override
+    public void startWriteBehind() {
+        if (!writeBehindEnabled && !profileLockingEnabled) {
+            return;
+        }
+        WriteBehindScope scope = writeBehindScope.get();
+        if (scope == null) {
+            scope = new WriteBehindScope(writeBehindEnabled);
+            writeBehindScope.set(scope);
+        }
+        scope.depth++;
+    }
+
+    @Override
+    public void flushWriteBehind() {
+        WriteBehindScope scope = writeBehindScope.get();
+        if (scope == null || --scope.depth > 0) {
+            return;
+        }
+        writeBehindScope.remove();
+        boolean profileSaved = false;
+        List<String> failedItems = new ArrayList<>();
+        try {
+            for (Item item : scope.pendingItems.values()) {
+                if (persistenceService.save(item)) {
+                    profileSaved |= item instanceof Profile;
+                } else {
+                    failedItems.add(item.getItemType() + " " + item.getItemId());
+                }
+            }
+            if (profileSaved && forceRefreshOnSave) {
+                persistenceService.refreshIndex(Profile.class, null);
+            }
+        } finally {
+            // the next request for the same profiles only loads them once they are persisted
+            for (Lock lock : scope.heldLocks) {
+                lock.unlock();
+            }
+        }
+        if (metricsService != null && metricsService.isActivated() && scope.coalescedSaves > 0) {
+            metricsService.updateCounter(this.getClass().getName() + ".coalescedSaves", scope.coalescedSaves);
+        }
+        if (!failedItems.isEmpty()) {
+            // the saves made in the scope were reported as successful, the caller must know they weren't persisted
+            throw new IllegalStateException("Couldn't persist " + String.join(", ", failedItems) + " at the end of the write-behind scope");
+        }
+    }
+
+    private WriteBehindScope getPendingItemsScope() {
+        WriteBehindScope scope = writeBehindScope.get();
+        return scope != null && scope.coalescing ? scope : null;
+    }
+
+    /**
+     * Serializes the processing of a same profile by the requests of this node: the first request loading a profile
+     * holds its lock until the end of its scope, the other ones wait for it before loading the profile. Locks are
+     * striped so that their number is bounded. As a request may load several profiles, in an order that depends on
+     * its events, two requests may wait for each other: waiting is bounded, and after the timeout the request fails, so
+     * that a profile is never processed concurrently, its locks being released when its scope is flushed.
+     */
+    private void lockProfile(WriteBehindScope scope, String profileId) {
+        if (!profileLockingEnabled || profileId == null) {
+            return;
+        }
+        Lock lock = profileLocks[Math.floorMod(profileId.hashCode(), profileLocks.length)];
+        if (scope.heldLocks.contains(lock)) {
+            return;
+        }
+        if (!lock.tryLock()) {
+            long startTime = System.currentTimeMillis();
+            boolean acquired = false;
+            try {
+                acquired = lock.tryLock(profileLockTimeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the lock of profile " + profileId, e);
+            }
+            if (metricsService != null && metricsService.isActivated()) {
+                metricsService.updateCounter(this.getClass().getName() + ".profileLockContentions", 1);
+                metricsService.updateTimer(this.getClass().getName() + ".profileLockWait", startTime);
+                if (!acquired) {
+                    metricsService.updateCounter(this.getClass().getName() + ".profileLockTimeouts", 1);
+                }
+            }
+            if (!acquired) {
+                throw new IllegalStateException("Couldn't lock profile " + profileId + " within " + profileLockTimeout + "ms");
+            }
+        }
+        scope.heldLocks.add(lock);
+    }
+
+    private static Lock[] createProfileLocks(int stripes) {
+        Lock[] locks = new Lock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        return locks;
+    }
+
     private Map removePersonalIdentifiersFromSessionProfile(final Map<String, Object> profileProperties) {
         Set<PropertyType> personalIdsProps = getPropertyTypeBySystemTag(PERSONAL_IDENTIFIER_TAG_NAME);
         final List personalIdsPropsNames = new ArrayList<String>();
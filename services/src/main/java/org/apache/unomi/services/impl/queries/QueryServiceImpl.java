@@ -28,6 +28,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public class QueryServiceImpl implements QueryService {
     private static final Logger logger = LoggerFactory.getLogger(QueryServiceImpl.class.getName());
@@ -36,6 +37,8 @@ public class QueryServiceImpl implements QueryService {
 
     private DefinitionsService definitionsService;
 
+    private long aggregateMaxStaleness = 0;
+
     public void setPersistenceService(PersistenceService persistenceService) {
         this.persistenceService = persistenceService;
     }
@@ -44,6 +47,13 @@ public class QueryServiceImpl implements QueryService {
         this.definitionsService = definitionsService;
     }
 
+    /**
+     * @param aggregateMaxStaleness the age in milliseconds up to which a cached aggregation or metric result may be returned
+     */
+    public void setAggregateMaxStaleness(long aggregateMaxStaleness) {
+        this.aggregateMaxStaleness = aggregateMaxStaleness;
+    }
+
     public void postConstruct() {
         logger.info("Query service initialized.");
     }
@@ -54,7 +64,7 @@ public class QueryServiceImpl implements QueryService {
 
     @Override
     public Map<String, Long> getAggregate(String itemType, String property) {
-        return persistenceService.aggregateWithOptimizedQuery(null, new TermsAggregate(property), itemType);
+        return persistenceService.aggregateWithOptimizedQuery(null, new TermsAggregate(property), itemType, aggregateMaxStaleness, TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -76,7 +86,7 @@ public class QueryServiceImpl implements QueryService {
         if (condition.getConditionType() == null) {
             ParserHelper.resolveConditionType(definitionsService, condition, "metric " + type + " on property " + property);
         }
-        return persistenceService.getSingleValuesMetrics(condition, slashConcatenatedMetrics.split("/"), property, type);
+        return persistenceService.getSingleValuesMetrics(condition, slashConcatenatedMetrics.split("/"), property, type, aggregateMaxStaleness, TimeUnit.MILLISECONDS);
     }
 
     @Override
@@ -119,9 +129,9 @@ public class QueryServiceImpl implements QueryService {
 
             // fall back on terms aggregate
             if (optimizedQuery) {
-                return persistenceService.aggregateWithOptimizedQuery(query.getCondition(), baseAggregate, itemType);
+                return persistenceService.aggregateWithOptimizedQuery(query.getCondition(), baseAggregate, itemType, aggregateMaxStaleness, TimeUnit.MILLISECONDS);
             } else {
-                return persistenceService.aggregateQuery(query.getCondition(), baseAggregate, itemType);
+                return persistenceService.aggregateQuery(query.getCondition(), baseAggregate, itemType, aggregateMaxStaleness, TimeUnit.MILLISECONDS);
             }
         }
 
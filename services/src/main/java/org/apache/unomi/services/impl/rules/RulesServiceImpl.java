@@ -23,6 +23,7 @@ import org.apache.unomi.api.Metadata;
 import org.apache.unomi.api.PartialList;
 import org.apache.unomi.api.actions.Action;
 import org.apache.unomi.api.conditions.Condition;
+import org.apache.unomi.api.conditions.ConditionType;
 import org.apache.unomi.api.query.Query;
 import org.apache.unomi.api.rules.Rule;
 import org.apache.unomi.api.rules.RuleStatistics;
@@ -56,6 +57,9 @@ public class RulesServiceImpl implements RulesService, EventListenerService, Syn
 
     private ActionExecutorDispatcher actionExecutorDispatcher;
     private List<Rule> allRules;
+    private Map<Rule, RuleConditions> allRuleConditions = Collections.emptyMap();
+    // the types of the events the enabled rules may match, null if some of them may match events of any type
+    private volatile Set<String> allRuleEventTypes = null;
 
     private Map<String,RuleStatistics> allRuleStatistics = new ConcurrentHashMap<>();
 
@@ -158,6 +162,7 @@ public class RulesServiceImpl implements RulesService, EventListenerService, Syn
         Boolean hasEventAlreadyBeenRaisedForProfile = null;
 
         List<Rule> allItems = allRules;
+        Map<Rule, RuleConditions> ruleConditionsByRule = allRuleConditions;
 
         for (Rule rule : allItems) {
             if (!rule.getMetadata().isEnabled()) {
@@ -167,7 +172,11 @@ public class RulesServiceImpl implements RulesService, EventListenerService, Syn
             long ruleConditionStartTime = System.currentTimeMillis();
             String scope = rule.getMetadata().getScope();
             if (scope.equals(Metadata.SYSTEM_SCOPE) || scope.equals(event.getSourceId())) {
-                Condition eventCondition = definitionsService.extractConditionBySystemTag(rule.getCondition(), "eventCondition");
+                RuleConditions ruleConditions = ruleConditionsByRule.get(rule);
+                if (ruleConditions == null) {
+                    ruleConditions = new RuleConditions(rule);
+                }
+                Condition eventCondition = ruleConditions.eventCondition;
 
                 if (eventCondition == null) {
                     updateRuleStatistics(ruleStatistics, ruleConditionStartTime);
@@ -181,7 +190,7 @@ public class RulesServiceImpl implements RulesService, EventListenerService, Syn
                     continue;
                 }
 
-                Condition sourceCondition = definitionsService.extractConditionBySystemTag(rule.getCondition(), "sourceEventCondition");
+                Condition sourceCondition = ruleConditions.sourceEventCondition;
                 if (sourceCondition != null && !persistenceService.testMatch(sourceCondition, event.getSource())) {
                     updateRuleStatistics(ruleStatistics, ruleConditionStartTime);
                     continue;
@@ -209,12 +218,12 @@ public class RulesServiceImpl implements RulesService, EventListenerService, Syn
                     }
                 }
 
-                Condition profileCondition = definitionsService.extractConditionBySystemTag(rule.getCondition(), "profileCondition");
+                Condition profileCondition = ruleConditions.profileCondition;
                 if (profileCondition != null && !persistenceService.testMatch(profileCondition, event.getProfile())) {
                     updateRuleStatistics(ruleStatistics, ruleConditionStartTime);
                     continue;
                 }
-                Condition sessionCondition = definitionsService.extractConditionBySystemTag(rule.getCondition(), "sessionCondition");
+                Condition sessionCondition = ruleConditions.sessionCondition;
                 if (sessionCondition != null && !persistenceService.testMatch(sessionCondition, event.getSession())) {
                     updateRuleStatistics(ruleStatistics, ruleConditionStartTime);
                     continue;
@@ -250,8 +259,63 @@ public class RulesServiceImpl implements RulesService, EventListenerService, Syn
     }
 
 
+    @Override
+    public Set<String> getEventTypes() {
+        return allRuleEventTypes;
+    }
+
     public boolean canHandle(Event event) {
-        return true;
+        Set<String> ruleEventTypes = allRuleEventTypes;
+        return ruleEventTypes == null || ruleEventTypes.contains(event.getEventType());
+    }
+
+    /**
+     * Finds the types of the events an event condition may match, following the boolean conditions and the parent
+     * conditions of the condition types.
+     *
+     * @param condition  an event condition
+     * @param parameters the parameter values of the condition whose parent condition is visited, to resolve references
+     * @return the types of the events the condition may match, null if it may match events of any type
+     */
+    private Set<String> getEventTypes(Condition condition, Map<String, Object> parameters) {
+        String conditionTypeId = condition.getConditionTypeId();
+        if ("eventTypeCondition".equals(conditionTypeId)) {
+            Object eventTypeId = resolveParameter(condition.getParameter("eventTypeId"), parameters);
+            return eventTypeId instanceof String ? Collections.singleton((String) eventTypeId) : null;
+        }
+        if ("booleanCondition".equals(conditionTypeId)) {
+            Object subConditions = condition.getParameter("subConditions");
+            if (!(subConditions instanceof Collection)) {
+                return null;
+            }
+            boolean or = "or".equals(resolveParameter(condition.getParameter("operator"), parameters));
+            Set<String> eventTypes = or ? new HashSet<>() : null;
+            for (Object subCondition : (Collection<?>) subConditions) {
+                Set<String> subConditionEventTypes = subCondition instanceof Condition ? getEventTypes((Condition) subCondition, parameters) : null;
+                if (or) {
+                    if (subConditionEventTypes == null) {
+                        return null;
+                    }
+                    eventTypes.addAll(subConditionEventTypes);
+                } else if (subConditionEventTypes != null) {
+                    // all the sub conditions must match, the first one restricting the event types is enough
+                    return subConditionEventTypes;
+                }
+            }
+            return eventTypes;
+        }
+        ConditionType conditionType = condition.getConditionType() != null ? condition.getConditionType() : definitionsService.getConditionType(conditionTypeId);
+        if (conditionType == null || conditionType.getParentCondition() == null) {
+            return null;
+        }
+        return getEventTypes(conditionType.getParentCondition(), condition.getParameterValues());
+    }
+
+    private static Object resolveParameter(Object value, Map<String, Object> parameters) {
+        if (value instanceof String && ((String) value).startsWith("parameter::")) {
+            return parameters.get(((String) value).substring("parameter::".length()));
+        }
+        return value;
     }
 
     public int onEvent(Event event) {
@@ -268,9 +332,9 @@ public class RulesServiceImpl implements RulesService, EventListenerService, Syn
             }
             long totalActionsTime = System.currentTimeMillis() - actionsStartTime;
             Event ruleFired = new Event("ruleFired", event.getSession(), event.getProfile(), event.getSourceId(), event, rule, event.getTimeStamp());
-            ruleFired.getAttributes().putAll(event.getAttributes());
+            ruleFired.setAttributes(Collections.unmodifiableMap(event.getAttributes()));
             ruleFired.setPersistent(false);
-            changes |= eventService.send(ruleFired);
+            changes |= eventService.sendInternal(ruleFired);
 
             RuleStatistics ruleStatistics = getLocalRuleStatistics(rule);
             ruleStatistics.setLocalExecutionCount(ruleStatistics.getLocalExecutionCount()+1);
@@ -386,13 +450,39 @@ public class RulesServiceImpl implements RulesService, EventListenerService, Syn
             @Override
             public void run() {
                 try {
-                    allRules = getAllRules();
+                    List<Rule> rules = getAllRules();
+                    Map<Rule, RuleConditions> ruleConditions = new IdentityHashMap<>();
+                    Set<String> ruleEventTypes = new HashSet<>();
+                    for (Rule rule : rules) {
+                        try {
+                            RuleConditions conditions = new RuleConditions(rule);
+                            ruleConditions.put(rule, conditions);
+                            if (ruleEventTypes != null && rule.getMetadata().isEnabled() && conditions.eventCondition != null) {
+                                Set<String> eventTypes = getEventTypes(conditions.eventCondition, Collections.emptyMap());
+                                if (eventTypes != null) {
+                                    ruleEventTypes.addAll(eventTypes);
+                                } else {
+                                    ruleEventTypes = null;
+                                }
+                            }
+                        } catch (IllegalArgumentException e) {
+                            // the conditions will be extracted, and the error reported, when matching events
+                            logger.debug("Could not extract the conditions of rule {}", rule.getItemId(), e);
+                            ruleEventTypes = null;
+                        }
+                    }
+                    allRuleConditions = ruleConditions;
+                    allRules = rules;
+                    if (!Objects.equals(allRuleEventTypes, ruleEventTypes)) {
+                        allRuleEventTypes = ruleEventTypes;
+                        eventService.refreshEventTypes(RulesServiceImpl.this);
+                    }
                 } catch (Throwable t) {
                     logger.error("Error loading rules from persistence back-end", t);
                 }
             }
         };
-        schedulerService.getScheduleExecutorService().scheduleWithFixedDelay(task, 0,rulesRefreshInterval, TimeUnit.MILLISECONDS);
+        schedulerService.getScheduleExecutorService(SchedulerService.REFRESH_POOL).scheduleWithFixedDelay(schedulerService.namedTask("rulesRefresh", task), 0, rulesRefreshInterval, TimeUnit.MILLISECONDS);
 
         TimerTask statisticsTask = new TimerTask() {
             @Override
@@ -404,7 +494,7 @@ public class RulesServiceImpl implements RulesService, EventListenerService, Syn
                 }
             }
         };
-        schedulerService.getScheduleExecutorService().scheduleWithFixedDelay(statisticsTask, 0, rulesStatisticsRefreshInterval, TimeUnit.MILLISECONDS);
+        schedulerService.getScheduleExecutorService(SchedulerService.REFRESH_POOL).scheduleWithFixedDelay(schedulerService.namedTask("rulesStatisticsSync", statisticsTask), 0, rulesStatisticsRefreshInterval, TimeUnit.MILLISECONDS);
     }
 
     public void bundleChanged(BundleEvent event) {
@@ -507,4 +597,21 @@ public class RulesServiceImpl implements RulesService, EventListenerService, Syn
         }
     }
 
+    /**
+     * The parts of a rule condition checked for each event, extracted once when the rules are loaded instead of for
+     * every event.
+     */
+    private class RuleConditions {
+        private final Condition eventCondition;
+        private final Condition sourceEventCondition;
+        private final Condition profileCondition;
+        private final Condition sessionCondition;
+
+        private RuleConditions(Rule rule) {
+            this.eventCondition = definitionsService.extractConditionBySystemTag(rule.getCondition(), "eventCondition");
+            this.sourceEventCondition = definitionsService.extractConditionBySystemTag(rule.getCondition(), "sourceEventCondition");
+            this.profileCondition = definitionsService.extractConditionBySystemTag(rule.getCondition(), "profileCondition");
+            this.sessionCondition = definitionsService.extractConditionBySystemTag(rule.getCondition(), "sessionCondition");
+        }
+    }
 }
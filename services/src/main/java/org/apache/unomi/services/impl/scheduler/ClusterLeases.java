@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.services.impl.scheduler;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+import com.hazelcast.core.Member;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The leases of the tasks run once per cluster, held in a Hazelcast map whose entries map a task to the node holding
+ * its lease and expire with the lease. A node acquires a free lease, or renews its own, under the Hazelcast lock of the
+ * entry, so that a single node holds a lease at a time: the holder is the elected node for the task until it stops
+ * renewing the lease, when it stops or dies, the next node running the task then taking the lease over.
+ *
+ * The work of the tasks partitioned across the cluster is assigned to the members of the cluster by the hash of the
+ * items, the members being listed in the same order on all nodes.
+ *
+ * Without Hazelcast instance, or when Hazelcast fails, the node behaves as if it were alone in the cluster, as running a
+ * task twice is preferable to not running it.
+ */
+public class ClusterLeases {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClusterLeases.class.getName());
+
+    private static final String LEASES_MAP_NAME = "unomi-scheduler-leases";
+
+    private final HazelcastInstance hazelcastInstance;
+    private final Set<String> heldLeases = ConcurrentHashMap.newKeySet();
+
+    public ClusterLeases(HazelcastInstance hazelcastInstance) {
+        this.hazelcastInstance = hazelcastInstance;
+    }
+
+    /**
+     * Acquires the lease of a task if it is free or already held by this node, for the specified time.
+     *
+     * @param leaseName the name of the lease
+     * @param leaseTime the time in milliseconds after which the lease expires if it is not renewed
+     * @return true if this node holds the lease
+     */
+    public boolean acquire(String leaseName, long leaseTime) {
+        if (hazelcastInstance == null) {
+            return true;
+        }
+        try {
+            String nodeId = hazelcastInstance.getCluster().getLocalMember().getUuid();
+            IMap<String, String> leases = getLeases();
+            leases.lock(leaseName);
+            try {
+                String holder = leases.get(leaseName);
+                if (holder != null && !holder.equals(nodeId)) {
+                    heldLeases.remove(leaseName);
+                    return false;
+                }
+                leases.set(leaseName, nodeId, leaseTime, TimeUnit.MILLISECONDS);
+                if (heldLeases.add(leaseName)) {
+                    logger.info("Lease {} acquired by this node", leaseName);
+                }
+                return true;
+            } finally {
+                leases.unlock(leaseName);
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Couldn't acquire lease {}, running the task on this node", leaseName, e);
+            return true;
+        }
+    }
+
+    /**
+     * Releases the leases held by this node, so that other nodes take the tasks over without waiting for the leases to
+     * expire.
+     */
+    public void releaseAll() {
+        if (hazelcastInstance == null) {
+            return;
+        }
+        try {
+            String nodeId = hazelcastInstance.getCluster().getLocalMember().getUuid();
+            for (String leaseName : heldLeases) {
+                getLeases().remove(leaseName, nodeId);
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Couldn't release the leases held by this node", e);
+        }
+        heldLeases.clear();
+    }
+
+    /**
+     * @param key the key of an item of a partitioned task
+     * @return true if the item is assigned to this node
+     */
+    public boolean isLocalShard(String key) {
+        if (hazelcastInstance == null) {
+            return true;
+        }
+        try {
+            Member[] members = hazelcastInstance.getCluster().getMembers().toArray(new Member[0]);
+            if (members.length <= 1) {
+                return true;
+            }
+            return members[Math.floorMod(key.hashCode(), members.length)].localMember();
+        } catch (RuntimeException e) {
+            logger.warn("Couldn't read the members of the cluster, processing item {} on this node", key, e);
+            return true;
+        }
+    }
+
+    private IMap<String, String> getLeases() {
+        return hazelcastInstance.getMap(LEASES_MAP_NAME);
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.services.impl.scheduler;
+
+import org.apache.unomi.metrics.MetricsService;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RunnableScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of the scheduler service, reporting for each task its run time, the delay after which it started and the
+ * number of its runs that started too late, and for the pool the number of tasks due but waiting for a thread and the
+ * number of threads running tasks.
+ */
+public class MonitoredScheduledExecutor extends ScheduledThreadPoolExecutor {
+
+    // a run starting later than this is counted as an overrun, the pool being too busy to run the task on time
+    private static final long OVERRUN_THRESHOLD = 1000L;
+    // the tasks not named with SchedulerService.namedTask, reported together
+    private static final String UNNAMED_TASKS = "unnamedTasks";
+
+    private final String metricsPrefix;
+    private final MetricsService metricsService;
+
+    public MonitoredScheduledExecutor(String poolName, int poolSize, MetricsService metricsService) {
+        super(poolSize, new PoolThreadFactory(poolName));
+        this.metricsPrefix = SchedulerServiceImpl.class.getName() + "." + poolName;
+        this.metricsService = metricsService;
+        setRemoveOnCancelPolicy(true);
+    }
+
+    @Override
+    protected <V> RunnableScheduledFuture<V> decorateTask(Runnable runnable, RunnableScheduledFuture<V> task) {
+        String taskName = runnable instanceof SchedulerServiceImpl.NamedTask ? ((SchedulerServiceImpl.NamedTask) runnable).getName() :
+                UNNAMED_TASKS;
+        return new MonitoredTask<>(taskName, task);
+    }
+
+    @Override
+    protected <V> RunnableScheduledFuture<V> decorateTask(Callable<V> callable, RunnableScheduledFuture<V> task) {
+        return new MonitoredTask<>(UNNAMED_TASKS, task);
+    }
+
+    private boolean isMonitored() {
+        return metricsService != null && metricsService.isActivated();
+    }
+
+    private int getWaitingTaskCount() {
+        int waitingTaskCount = 0;
+        for (Runnable queuedTask : getQueue()) {
+            if (queuedTask instanceof Delayed && ((Delayed) queuedTask).getDelay(TimeUnit.NANOSECONDS) <= 0) {
+                waitingTaskCount++;
+            }
+        }
+        return waitingTaskCount;
+    }
+
+    private class MonitoredTask<V> implements RunnableScheduledFuture<V> {
+        private final String taskName;
+        private final RunnableScheduledFuture<V> task;
+
+        private MonitoredTask(String taskName, RunnableScheduledFuture<V> task) {
+            this.taskName = metricsPrefix + "." + taskName;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            if (!isMonitored()) {
+                task.run();
+                return;
+            }
+            long startTime = System.currentTimeMillis();
+            // read before running the task, as a periodic task is rescheduled once it has run
+            long startDelay = Math.max(0L, -task.getDelay(TimeUnit.MILLISECONDS));
+            metricsService.updateGauge(metricsPrefix + ".waitingTasks", getWaitingTaskCount());
+            metricsService.updateGauge(metricsPrefix + ".activeThreads", getActiveCount());
+            try {
+                task.run();
+            } finally {
+                metricsService.updateTimer(taskName, startTime);
+                metricsService.updateGauge(taskName + ".startDelay", startDelay);
+                if (startDelay > OVERRUN_THRESHOLD) {
+                    metricsService.updateCounter(taskName + ".overruns", 1);
+                }
+            }
+        }
+
+        @Override
+        public boolean isPeriodic() {
+            return task.isPeriodic();
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return task.getDelay(unit);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return task.compareTo(other instanceof MonitoredTask ? ((MonitoredTask<?>) other).task : other);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = task.cancel(mayInterruptIfRunning);
+            if (cancelled && getRemoveOnCancelPolicy()) {
+                remove(this);
+            }
+            return cancelled;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return task.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return task.isDone();
+        }
+
+        @Override
+        public V get() throws InterruptedException, ExecutionException {
+            return task.get();
+        }
+
+        @Override
+        public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            return task.get(timeout, unit);
+        }
+    }
+
+    private static class PoolThreadFactory implements ThreadFactory {
+        private final String poolName;
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        private PoolThreadFactory(String poolName) {
+            this.poolName = poolName;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "unomi-scheduler-" + poolName + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
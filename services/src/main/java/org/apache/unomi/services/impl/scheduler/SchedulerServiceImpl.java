@@ -17,14 +17,20 @@
 
 package org.apache.unomi.services.impl.scheduler;
 
+import com.hazelcast.core.HazelcastInstance;
 import org.apache.unomi.api.services.SchedulerService;
+import org.apache.unomi.metrics.MetricsService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.Duration;
 import java.time.ZonedDateTime;
-import java.util.concurrent.Executors;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @author dgaillard
@@ -32,20 +38,125 @@ import java.util.concurrent.ScheduledExecutorService;
 public class SchedulerServiceImpl implements SchedulerService {
     private static final Logger logger = LoggerFactory.getLogger(SchedulerServiceImpl.class.getName());
 
-    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final Map<String, MonitoredScheduledExecutor> pools = new ConcurrentHashMap<>();
+
+    private int refreshPoolSize = 2;
+    private int batchPoolSize = 2;
+    private MetricsService metricsService;
+    private ClusterLeases clusterLeases = new ClusterLeases(null);
+    private final ThreadLocal<AtomicBoolean> runningTaskLease = new ThreadLocal<>();
+
+    public void setRefreshPoolSize(int refreshPoolSize) {
+        this.refreshPoolSize = refreshPoolSize;
+    }
+
+    public void setBatchPoolSize(int batchPoolSize) {
+        this.batchPoolSize = batchPoolSize;
+    }
+
+    public void setMetricsService(MetricsService metricsService) {
+        this.metricsService = metricsService;
+    }
+
+    public void setHazelcastInstance(HazelcastInstance hazelcastInstance) {
+        this.clusterLeases = new ClusterLeases(hazelcastInstance);
+    }
 
     public void postConstruct() {
         logger.info("Scheduler service initialized.");
     }
 
     public void preDestroy() {
-        scheduler.shutdown();
+        clusterLeases.releaseAll();
+        for (MonitoredScheduledExecutor pool : pools.values()) {
+            pool.shutdown();
+        }
         logger.info("Scheduler service shutdown.");
     }
 
     @Override
     public ScheduledExecutorService getScheduleExecutorService() {
-        return scheduler;
+        return getScheduleExecutorService(REFRESH_POOL);
+    }
+
+    @Override
+    public ScheduledExecutorService getScheduleExecutorService(String poolName) {
+        return pools.computeIfAbsent(poolName, name -> {
+            int poolSize = REFRESH_POOL.equals(name) ? refreshPoolSize : BATCH_POOL.equals(name) ? batchPoolSize : 1;
+            logger.info("Creating scheduler pool {} with {} threads", name, poolSize);
+            return new MonitoredScheduledExecutor(name, Math.max(1, poolSize), metricsService);
+        });
+    }
+
+    @Override
+    public Runnable namedTask(String taskName, Runnable task) {
+        return new NamedTask(taskName, task);
+    }
+
+    @Override
+    public Runnable clusterSingletonTask(String taskName, long leaseTime, TimeUnit timeUnit, Runnable task) {
+        long leaseMillis = timeUnit.toMillis(leaseTime);
+        return new NamedTask(taskName, () -> {
+            if (!clusterLeases.acquire(taskName, leaseMillis)) {
+                logger.debug("Task {} is run by another node of the cluster, skipping it", taskName);
+                return;
+            }
+            // the lease is renewed while the task runs, so that another node doesn't take over a task running longer than its lease
+            AtomicBoolean leaseHeld = new AtomicBoolean(true);
+            long renewalPeriod = Math.max(1000L, leaseMillis / 3);
+            ScheduledFuture<?> renewal = getScheduleExecutorService(REFRESH_POOL).scheduleWithFixedDelay(namedTask("leaseRenewal",
+                    () -> renewLease(taskName, leaseMillis, leaseHeld)), renewalPeriod, renewalPeriod, TimeUnit.MILLISECONDS);
+            runningTaskLease.set(leaseHeld);
+            try {
+                task.run();
+            } finally {
+                runningTaskLease.remove();
+                renewal.cancel(false);
+                if (leaseHeld.get()) {
+                    clusterLeases.acquire(taskName, leaseMillis);
+                }
+            }
+        });
+    }
+
+    private void renewLease(String taskName, long leaseMillis, AtomicBoolean leaseHeld) {
+        if (leaseHeld.get() && !clusterLeases.acquire(taskName, leaseMillis)) {
+            leaseHeld.set(false);
+            logger.warn("Lease of task {} was taken over by another node, the task will stop at its next checkpoint", taskName);
+            if (metricsService != null && metricsService.isActivated()) {
+                metricsService.updateCounter(this.getClass().getName() + ".lostLeases", 1);
+            }
+        }
+    }
+
+    @Override
+    public boolean isLeaseHeld() {
+        AtomicBoolean leaseHeld = runningTaskLease.get();
+        return leaseHeld == null || leaseHeld.get();
+    }
+
+    @Override
+    public boolean isLocalShard(String key) {
+        return clusterLeases.isLocalShard(key);
+    }
+
+    static class NamedTask implements Runnable {
+        private final String name;
+        private final Runnable task;
+
+        private NamedTask(String name, Runnable task) {
+            this.name = name;
+            this.task = task;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
     }
 
     public static long getTimeDiffInSeconds(int hourInUtc, ZonedDateTime now) {
@@ -1038,7 +1038,7 @@ public class SegmentServiceImpl extends AbstractServiceImpl implements SegmentSe
     private void sendProfileUpdatedEvent(Profile profile) {
             Event profileUpdated = new Event("profileUpdated", null, profile, null, null, profile, new Date());
             profileUpdated.setPersistent(false);
-            eventService.send(profileUpdated);
+            eventService.sendInternal(profileUpdated);
     }
 
     private Map<String, Object> buildPropertiesMapForUpdateSegment(Profile profile, String segmentId, boolean isAdd) {
@@ -1131,6 +1131,10 @@ public class SegmentServiceImpl extends AbstractServiceImpl implements SegmentSe
                     logger.info("running scheduled task to recalculate segments with pastEventCondition conditions");
                     long pastEventsTaskStartTime = System.currentTimeMillis();
                     for (Metadata metadata : rulesService.getRuleMetadatas()) {
+                        // the rules are shared between the nodes of the cluster, each recalculating its own rules
+                        if (!schedulerService.isLocalShard(metadata.getId())) {
+                            continue;
+                        }
                         Rule rule = rulesService.getRule(metadata.getId());
                         for (Action action : rule.getActions()) {
                             if (action.getActionTypeId().equals("setEventOccurenceCountAction")) {
@@ -1147,7 +1151,7 @@ public class SegmentServiceImpl extends AbstractServiceImpl implements SegmentSe
                 }
             }
         };
-        schedulerService.getScheduleExecutorService().scheduleAtFixedRate(task, 1, taskExecutionPeriod, TimeUnit.DAYS);
+        schedulerService.getScheduleExecutorService(SchedulerService.BATCH_POOL).scheduleAtFixedRate(schedulerService.namedTask("pastEventSegmentsRecalculation", task), 1, taskExecutionPeriod, TimeUnit.DAYS);
 
         task = new TimerTask() {
             @Override
@@ -1160,15 +1164,17 @@ public class SegmentServiceImpl extends AbstractServiceImpl implements SegmentSe
                 }
             }
         };
-        schedulerService.getScheduleExecutorService().scheduleAtFixedRate(task, 0, segmentRefreshInterval, TimeUnit.MILLISECONDS);
+        schedulerService.getScheduleExecutorService(SchedulerService.REFRESH_POOL).scheduleAtFixedRate(schedulerService.namedTask("segmentsRefresh", task), 0, segmentRefreshInterval, TimeUnit.MILLISECONDS);
 
         task = new TimerTask() {
             @Override
             public void run() {
                 try {
                     long dateExprTaskStartTime = System.currentTimeMillis();
+                    // the segments are shared between the nodes of the cluster, each recalculating its own segments
                     List<Segment> dateExprSegments = allSegments.stream().filter(segment ->
-                            segment.getCondition().toString().contains("propertyValueDateExpr")).collect(Collectors.toList());
+                            segment.getCondition().toString().contains("propertyValueDateExpr") &&
+                                    schedulerService.isLocalShard(segment.getItemId())).collect(Collectors.toList());
                     logger.info("running scheduled task to recalculate segments with DateExpr condition, found {} segments", dateExprSegments.size());
                     dateExprSegments.forEach(segment -> updateExistingProfilesForSegment(segment));
                     logger.info("finished recalculate segments with DateExpr conditions in {}ms. ", System.currentTimeMillis() - dateExprTaskStartTime);
@@ -1180,7 +1186,7 @@ public class SegmentServiceImpl extends AbstractServiceImpl implements SegmentSe
 
         long initialDelay = SchedulerServiceImpl.getTimeDiffInSeconds(dailyDateExprEvaluationHourUtc, ZonedDateTime.now(ZoneOffset.UTC));
         logger.info("daily DateExpr segments will run at fixed rate, initialDelay={}, taskExecutionPeriod={}, ", initialDelay, TimeUnit.DAYS.toSeconds(1));
-        schedulerService.getScheduleExecutorService().scheduleAtFixedRate(task, initialDelay,  TimeUnit.DAYS.toSeconds(1), TimeUnit.SECONDS);
+        schedulerService.getScheduleExecutorService(SchedulerService.BATCH_POOL).scheduleAtFixedRate(schedulerService.namedTask("dateExprSegmentsRecalculation", task), initialDelay, TimeUnit.DAYS.toSeconds(1), TimeUnit.SECONDS);
     }
 
     public void setTaskExecutionPeriod(long taskExecutionPeriod) {
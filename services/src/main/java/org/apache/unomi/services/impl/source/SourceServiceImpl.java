@@ -24,22 +24,62 @@ import org.osgi.framework.BundleEvent;
 import org.osgi.framework.SynchronousBundleListener;
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class SourceServiceImpl implements SourceService, SynchronousBundleListener {
 
+    // bounds the memory used by the cached sources
+    private static final int MAX_CACHED_SOURCES = 10000;
+
     private PersistenceService persistenceService;
 
     private BundleContext bundleContext;
 
+    private long cacheTimeToLive = 10000L;
+
+    private final Map<String, CachedSource> cachedSources = new ConcurrentHashMap<>();
+
+    private static class CachedSource {
+        private final SourceItem source;
+        private final long expirationTime;
+
+        private CachedSource(SourceItem source, long expirationTime) {
+            this.source = source;
+            this.expirationTime = expirationTime;
+        }
+    }
+
     @Override
     public SourceItem load(String sourceId) {
-        return persistenceService.load(sourceId, SourceItem.class);
+        if (cacheTimeToLive <= 0 || sourceId == null) {
+            return persistenceService.load(sourceId, SourceItem.class);
+        }
+        long now = System.currentTimeMillis();
+        CachedSource cachedSource = cachedSources.get(sourceId);
+        if (cachedSource == null || cachedSource.expirationTime <= now) {
+            SourceItem source = persistenceService.load(sourceId, SourceItem.class);
+            if (source == null) {
+                // missing sources are not cached, so that a source saved on another node is seen at once
+                cachedSources.remove(sourceId);
+                return null;
+            }
+            if (cachedSources.size() >= MAX_CACHED_SOURCES) {
+                cachedSources.clear();
+            }
+            cachedSource = new CachedSource(new SourceItem(source), now + cacheTimeToLive);
+            cachedSources.put(sourceId, cachedSource);
+            return source;
+        }
+        // the cached source is shared, callers get their own copy to modify
+        return new SourceItem(cachedSource.source);
     }
 
     @Override
     public SourceItem save(SourceItem source) {
         if (persistenceService.save(source)) {
             persistenceService.refreshIndex(SourceItem.class, null);
+            cachedSources.remove(source.getItemId());
 
             return source;
         }
@@ -54,7 +94,9 @@ public class SourceServiceImpl implements SourceService, SynchronousBundleListen
 
     @Override
     public boolean delete(String sourceId) {
-        return persistenceService.remove(sourceId, SourceItem.class);
+        boolean removed = persistenceService.remove(sourceId, SourceItem.class);
+        cachedSources.remove(sourceId);
+        return removed;
     }
 
     @Override
@@ -70,6 +112,15 @@ public class SourceServiceImpl implements SourceService, SynchronousBundleListen
         this.bundleContext = bundleContext;
     }
 
+    /**
+     * @param cacheTimeToLive the time in milliseconds during which a loaded source is reused, 0 to always load the
+     *                        sources. Saving or deleting a source through this service invalidates it, the changes made
+     *                        on other nodes are seen once the time elapsed. Missing sources are never cached
+     */
+    public void setCacheTimeToLive(long cacheTimeToLive) {
+        this.cacheTimeToLive = cacheTimeToLive;
+    }
+
     public void postConstruct() {
         bundleContext.addBundleListener(this);
     }
@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.services.impl.events;
+
+import org.apache.unomi.api.Event;
+import org.apache.unomi.api.services.EventService;
+import org.apache.unomi.persistence.spi.PersistenceService;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+public class EventDeduplicatorTest {
+
+    private static final long WINDOW = 1000L;
+
+    private TestEventDeduplicator deduplicator;
+
+    @Before
+    public void setUp() {
+        deduplicator = new TestEventDeduplicator();
+        deduplicator.setWindow(WINDOW);
+    }
+
+    @Test
+    public void testIdempotencyIdWithinSessionAndSource() {
+        assertFalse(deduplicator.isDuplicate(event("id1", "session1", "site1")));
+        assertTrue(deduplicator.isDuplicate(event("id1", "session1", "site1")));
+        assertFalse(deduplicator.isDuplicate(event("id1", "session2", "site1")));
+        assertFalse(deduplicator.isDuplicate(event("id1", "session1", "site2")));
+        assertFalse(deduplicator.isDuplicate(event("id2", "session1", "site1")));
+    }
+
+    @Test
+    public void testEventsWithoutIdempotencyIdAreNotChecked() {
+        Event event = event(null, "session1", "site1");
+        assertFalse(deduplicator.isDuplicate(event));
+        assertFalse(deduplicator.isDuplicate(event));
+    }
+
+    @Test
+    public void testTwoGenerationWindow() {
+        assertFalse(deduplicator.isDuplicate(event("id1", "session1", "site1")));
+
+        // the generation holding the identifier becomes the previous one
+        deduplicator.advance(WINDOW);
+        assertTrue(deduplicator.isDuplicate(event("id1", "session1", "site1")));
+        assertFalse(deduplicator.isDuplicate(event("id2", "session1", "site1")));
+
+        // the generation holding the first identifier is dropped, the second one is still remembered
+        deduplicator.advance(WINDOW);
+        assertFalse(deduplicator.isDuplicate(event("id1", "session1", "site1")));
+        assertTrue(deduplicator.isDuplicate(event("id2", "session1", "site1")));
+    }
+
+    @Test
+    public void testIdleGenerationIsDropped() {
+        assertFalse(deduplicator.isDuplicate(event("id1", "session1", "site1")));
+
+        deduplicator.advance(2 * WINDOW);
+        assertFalse(deduplicator.isDuplicate(event("id1", "session1", "site1")));
+    }
+
+    @Test
+    public void testMaxEntriesRollover() {
+        deduplicator.setMaxEntries(4);
+        assertFalse(deduplicator.isDuplicate(event("id1", "session1", "site1")));
+        assertFalse(deduplicator.isDuplicate(event("id2", "session1", "site1")));
+
+        // the current generation is full, the identifiers are kept in the previous one
+        assertFalse(deduplicator.isDuplicate(event("id3", "session1", "site1")));
+        assertTrue(deduplicator.isDuplicate(event("id1", "session1", "site1")));
+        assertFalse(deduplicator.isDuplicate(event("id4", "session1", "site1")));
+
+        // the window is shortened: the first identifiers are dropped before it ends
+        assertFalse(deduplicator.isDuplicate(event("id5", "session1", "site1")));
+        assertTrue(deduplicator.isDuplicate(event("id3", "session1", "site1")));
+        assertFalse(deduplicator.isDuplicate(event("id1", "session1", "site1")));
+    }
+
+    @Test
+    public void testForget() {
+        assertFalse(deduplicator.isDuplicate(event("id1", "session1", "site1")));
+        deduplicator.forget(event("id1", "session1", "site1"));
+        assertFalse(deduplicator.isDuplicate(event("id1", "session1", "site1")));
+        assertTrue(deduplicator.isDuplicate(event("id1", "session1", "site1")));
+
+        // forgetting also applies to the previous generation
+        deduplicator.advance(WINDOW);
+        assertTrue(deduplicator.isDuplicate(event("id1", "session1", "site1")));
+        deduplicator.forget(event("id1", "session1", "site1"));
+        assertFalse(deduplicator.isDuplicate(event("id1", "session1", "site1")));
+    }
+
+    @Test
+    public void testEventIsForgottenWhenSaveFails() {
+        EventServiceImpl eventService = createEventService((proxy, method, args) -> {
+            if (method.getName().equals("save")) {
+                return Boolean.FALSE;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        });
+
+        Event event = event("id1", "session1", "site1");
+        event.setPersistent(true);
+        assertEquals(EventService.ERROR, eventService.send(event));
+        assertFalse("An event that couldn't be saved should be accepted again", deduplicator.isDuplicate(event));
+    }
+
+    @Test
+    public void testBatchFailingWithExceptionIsForgotten() {
+        EventServiceImpl eventService = createEventService((proxy, method, args) -> {
+            throw new IllegalStateException("Persistence unavailable");
+        });
+
+        Event first = event("id1", "session1", "site1");
+        first.setPersistent(true);
+        Event second = event("id2", "session1", "site1");
+        second.setPersistent(true);
+        try {
+            eventService.sendBatch(Arrays.asList(first, second));
+            fail("The persistence failure should be reported");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        assertFalse("The events of a failed batch should be accepted again", deduplicator.isDuplicate(first));
+        assertFalse("The events of a failed batch should be accepted again", deduplicator.isDuplicate(second));
+    }
+
+    @Test
+    public void testForgetEvents() {
+        EventServiceImpl eventService = createEventService((proxy, method, args) -> {
+            throw new UnsupportedOperationException(method.getName());
+        });
+
+        Event event = event("id1", "session1", "site1");
+        event.setPersistent(false);
+        assertEquals(EventService.NO_CHANGE, eventService.send(event));
+        assertTrue(deduplicator.isDuplicate(event));
+
+        // the caller couldn't persist the changes made by the event
+        eventService.forgetEvents(Collections.singletonList(event));
+        assertFalse(deduplicator.isDuplicate(event));
+    }
+
+    private EventServiceImpl createEventService(InvocationHandler persistenceHandler) {
+        EventServiceImpl eventService = new EventServiceImpl();
+        eventService.setEventDeduplicator(deduplicator);
+        eventService.setPersistenceService((PersistenceService) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{PersistenceService.class}, persistenceHandler));
+        return eventService;
+    }
+
+    private static Event event(String idempotencyId, String sessionId, String sourceId) {
+        Event event = new Event();
+        event.setEventType("view");
+        event.setSessionId(sessionId);
+        event.setSourceId(sourceId);
+        event.setProperties(new HashMap<>());
+        if (idempotencyId != null) {
+            event.setProperty(EventDeduplicator.IDEMPOTENCY_ID_PROPERTY, idempotencyId);
+        }
+        return event;
+    }
+
+    private static class TestEventDeduplicator extends EventDeduplicator {
+        private long offset;
+
+        void advance(long time) {
+            offset += time;
+        }
+
+        @Override
+        long currentTimeMillis() {
+            return System.currentTimeMillis() + offset;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.services.impl.events;
+
+import org.apache.commons.beanutils.PropertyUtils;
+import org.apache.unomi.api.CustomItem;
+import org.apache.unomi.api.Event;
+import org.apache.unomi.api.EventType;
+import org.apache.unomi.api.Profile;
+import org.apache.unomi.api.PropertyType;
+import org.apache.unomi.persistence.spi.CustomObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.beans.PropertyDescriptor;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the validation cost per event of the compiled {@link EventTypeValidator} with the previous implementation,
+ * scanning the property types and introspecting the beans on each call, for a typical page view event and for an event
+ * with deeply nested properties. Run it with the main method, from the test classpath of this module.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EventTypeValidatorBenchmark {
+
+    private static final int NESTED_DEPTH = 6;
+    private static final int NESTED_WIDTH = 8;
+
+    private EventType viewEventType;
+    private EventType nestedEventType;
+    private EventTypeValidator viewValidator;
+    private EventTypeValidator nestedValidator;
+    private Event viewEvent;
+    private Event nestedEvent;
+
+    @Setup
+    public void setup() throws IOException {
+        viewEventType = CustomObjectMapper.getObjectMapper().readValue(getClass().getResource("/META-INF/cxs/events/view.json"), EventType.class);
+        viewValidator = new EventTypeValidator(viewEventType);
+        nestedEventType = new EventType("nested", new LinkedHashSet<>(Arrays.asList(
+                propertyType("properties", "set", nestedPropertyTypes(NESTED_DEPTH)))), 0);
+        nestedValidator = new EventTypeValidator(nestedEventType);
+
+        Profile profile = new Profile("profile");
+        CustomItem page = new CustomItem("page", "page");
+        page.setScope("site");
+        Map<String, Object> pageInfo = new LinkedHashMap<>();
+        pageInfo.put("pageName", "Home");
+        pageInfo.put("destinationURL", "https://www.example.com/home");
+        pageInfo.put("referringURL", "https://www.example.com/");
+        page.getProperties().put("pageInfo", pageInfo);
+        CustomItem site = new CustomItem("site", "site");
+        site.setScope("site");
+        viewEvent = new Event("view", null, profile, "site", site, page, new Date());
+
+        nestedEvent = new Event("nested", null, profile, "site", null, null, new Date());
+        nestedEvent.setProperties(nestedProperties(NESTED_DEPTH));
+    }
+
+    private static Set<PropertyType> nestedPropertyTypes(int depth) {
+        Set<PropertyType> propertyTypes = new LinkedHashSet<>();
+        for (int i = 0; i < NESTED_WIDTH; i++) {
+            propertyTypes.add(propertyType("string" + i, "string", null));
+            propertyTypes.add(propertyType("long" + i, "long", null));
+        }
+        if (depth > 0) {
+            propertyTypes.add(propertyType("child", "set", nestedPropertyTypes(depth - 1)));
+        }
+        return propertyTypes;
+    }
+
+    private static Map<String, Object> nestedProperties(int depth) {
+        Map<String, Object> properties = new LinkedHashMap<>();
+        for (int i = 0; i < NESTED_WIDTH; i++) {
+            properties.put("string" + i, "value" + i);
+            properties.put("long" + i, (long) i);
+        }
+        if (depth > 0) {
+            properties.put("child", nestedProperties(depth - 1));
+        }
+        return properties;
+    }
+
+    private static PropertyType propertyType(String id, String valueTypeId, Set<PropertyType> childPropertyTypes) {
+        PropertyType propertyType = new PropertyType();
+        propertyType.setItemId(id);
+        propertyType.setValueTypeId(valueTypeId);
+        if (childPropertyTypes != null) {
+            propertyType.setChildPropertyTypes(childPropertyTypes);
+        }
+        return propertyType;
+    }
+
+    @Benchmark
+    public boolean viewCompiled() {
+        return viewValidator.isValid(viewEvent);
+    }
+
+    @Benchmark
+    public boolean viewScanning() {
+        return ScanningValidator.isValid(viewEvent, viewEventType);
+    }
+
+    @Benchmark
+    public boolean nestedCompiled() {
+        return nestedValidator.isValid(nestedEvent);
+    }
+
+    @Benchmark
+    public boolean nestedScanning() {
+        return ScanningValidator.isValid(nestedEvent, nestedEventType);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(EventTypeValidatorBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    /**
+     * The previous validation, looking up the property types with stream scans and introspecting the beans on each
+     * call.
+     */
+    private static class ScanningValidator {
+
+        static boolean isValid(Event event, EventType eventType) {
+            return areObjectPropertiesValid(event.getProperties(), findChildPropertyTypesById("properties", eventType.getPropertyTypes())) &&
+                    areObjectPropertiesValid(event.getSource(), findChildPropertyTypesById("source", eventType.getPropertyTypes())) &&
+                    areObjectPropertiesValid(event.getTarget(), findChildPropertyTypesById("target", eventType.getPropertyTypes()));
+        }
+
+        @SuppressWarnings("unchecked")
+        private static boolean areObjectPropertiesValid(Object object, Set<PropertyType> types) {
+            if (object == null) {
+                return true;
+            }
+            if (object instanceof Map) {
+                return areMapPropertiesValid((Map<Object, Object>) object, types);
+            }
+            PropertyDescriptor[] propertyDescriptors = PropertyUtils.getPropertyDescriptors(object);
+            return Arrays.stream(propertyDescriptors).allMatch(propertyDescriptor -> {
+                PropertyType propertyType = findPropertyTypeById(propertyDescriptor.getName(), types);
+                if (propertyType == null) {
+                    return false;
+                }
+                if ("set".equals(propertyType.getValueTypeId())) {
+                    try {
+                        return areObjectPropertiesValid(PropertyUtils.getProperty(object, propertyDescriptor.getName()),
+                                propertyType.getChildPropertyTypes());
+                    } catch (ReflectiveOperationException e) {
+                        return false;
+                    }
+                }
+                return true;
+            });
+        }
+
+        private static boolean areMapPropertiesValid(Map<Object, Object> props, Set<PropertyType> types) {
+            if (props.isEmpty() || types == null || types.isEmpty()) {
+                return true;
+            }
+            return props.entrySet().stream().allMatch(entry -> types.stream().anyMatch(type -> {
+                if (!type.getItemId().equals(entry.getKey().toString())) {
+                    return false;
+                }
+                Set<PropertyType> childTypes = type.getChildPropertyTypes();
+                if (childTypes.size() > 0 && entry.getValue() != null) {
+                    return areObjectPropertiesValid(entry.getValue(), childTypes);
+                }
+                switch (type.getValueTypeId()) {
+                    case "long":
+                        return entry.getValue() instanceof Long;
+                    case "set":
+                        return entry.getValue() instanceof Map;
+                    case "string":
+                        return entry.getValue() instanceof String;
+                    default:
+                        return true;
+                }
+            }));
+        }
+
+        private static Set<PropertyType> findChildPropertyTypesById(String id, Set<PropertyType> types) {
+            PropertyType propertyType = findPropertyTypeById(id, types);
+            return propertyType == null ? new HashSet<>() : propertyType.getChildPropertyTypes();
+        }
+
+        private static PropertyType findPropertyTypeById(String id, Set<PropertyType> types) {
+            return types.stream().filter(propertyType -> propertyType.getItemId().equals(id)).findFirst().orElse(null);
+        }
+    }
+}
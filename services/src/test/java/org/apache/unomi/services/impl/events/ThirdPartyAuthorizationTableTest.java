@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.services.impl.events;
+
+import inet.ipaddr.IPAddress;
+import inet.ipaddr.IPAddressString;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class ThirdPartyAuthorizationTableTest {
+
+    @Test
+    public void testAuthenticate() {
+        ThirdPartyAuthorizationTable table = new ThirdPartyAuthorizationTable(Arrays.asList(
+                server("provider1", "key1", "127.0.0.1", "::1"),
+                server("provider2", "key2", "10.1.0.0/16", "192.168.1.10-20"),
+                server("provider3", "key2", "10.2.0.0/16")));
+
+        assertEquals("provider1", table.authenticate("key1", "127.0.0.1"));
+        assertEquals("provider1", table.authenticate("key1", "::1"));
+        assertNull(table.authenticate("key1", "127.0.0.2"));
+        assertNull(table.authenticate("key1", "10.1.2.3"));
+
+        assertEquals("provider2", table.authenticate("key2", "10.1.2.3"));
+        assertEquals("provider2", table.authenticate("key2", "192.168.1.10"));
+        assertEquals("provider2", table.authenticate("key2", "192.168.1.20"));
+        assertNull(table.authenticate("key2", "192.168.1.21"));
+        assertEquals("provider3", table.authenticate("key2", "10.2.255.255"));
+        assertNull(table.authenticate("key2", "10.3.0.1"));
+
+        assertNull(table.authenticate("unknown", "127.0.0.1"));
+        assertNull(table.authenticate(null, "127.0.0.1"));
+        assertNull(table.authenticate("key1", "not an address"));
+    }
+
+    @Test
+    public void testIsAllowed() {
+        ThirdPartyServer server = server("provider1", "key1", "127.0.0.1");
+        server.setAllowedEvents(new HashSet<>(Arrays.asList("login", "updateProperties")));
+        ThirdPartyAuthorizationTable table = new ThirdPartyAuthorizationTable(Arrays.asList(server));
+
+        assertTrue(table.isAllowed("provider1", "login"));
+        assertFalse(table.isAllowed("provider1", "view"));
+        assertFalse(table.isAllowed("provider2", "login"));
+        assertFalse(table.isAllowed(null, "login"));
+    }
+
+    private static ThirdPartyServer server(String id, String key, String... ips) {
+        ThirdPartyServer server = new ThirdPartyServer(id);
+        server.setKey(key);
+        Set<IPAddress> ipAddresses = new HashSet<>();
+        for (String ip : ips) {
+            ipAddresses.add(new IPAddressString(ip).getAddress());
+        }
+        server.setIpAddresses(ipAddresses);
+        return server;
+    }
+}
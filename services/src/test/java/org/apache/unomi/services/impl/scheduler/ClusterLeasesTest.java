@@ -0,0 +1,220 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.unomi.services.impl.scheduler;
+
+import com.hazelcast.core.Cluster;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IMap;
+import com.hazelcast.core.Member;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ClusterLeasesTest {
+
+    @Test
+    public void testWithoutHazelcast() {
+        ClusterLeases leases = new ClusterLeases(null);
+        assertTrue(leases.acquire("task", 1000L));
+        assertTrue(leases.acquire("task", 1000L));
+        assertTrue(leases.isLocalShard("item"));
+        leases.releaseAll();
+    }
+
+    @Test
+    public void testHazelcastFailure() {
+        HazelcastInstance failingInstance = proxy(HazelcastInstance.class, (name, args) -> {
+            throw new IllegalStateException("Hazelcast instance is not active");
+        });
+        ClusterLeases leases = new ClusterLeases(failingInstance);
+        assertTrue("A node should run the task when Hazelcast fails", leases.acquire("task", 1000L));
+        assertTrue(leases.isLocalShard("item"));
+        leases.releaseAll();
+    }
+
+    @Test
+    public void testLeaseHeldByASingleNode() {
+        TestCluster cluster = new TestCluster(2);
+        ClusterLeases leases1 = new ClusterLeases(cluster.getInstance(0));
+        ClusterLeases leases2 = new ClusterLeases(cluster.getInstance(1));
+
+        assertTrue(leases1.acquire("task", 60000L));
+        assertFalse(leases2.acquire("task", 60000L));
+        // the holder renews its lease
+        assertTrue(leases1.acquire("task", 60000L));
+        assertTrue(leases2.acquire("otherTask", 60000L));
+
+        leases1.releaseAll();
+        assertTrue(leases2.acquire("task", 60000L));
+        assertFalse(leases1.acquire("task", 60000L));
+    }
+
+    @Test
+    public void testExpiredLeaseIsTakenOver() throws InterruptedException {
+        TestCluster cluster = new TestCluster(2);
+        ClusterLeases leases1 = new ClusterLeases(cluster.getInstance(0));
+        ClusterLeases leases2 = new ClusterLeases(cluster.getInstance(1));
+
+        assertTrue(leases1.acquire("task", 10L));
+        Thread.sleep(50L);
+        assertTrue(leases2.acquire("task", 60000L));
+        assertFalse(leases1.acquire("task", 60000L));
+    }
+
+    @Test
+    public void testIsLocalShard() {
+        TestCluster cluster = new TestCluster(3);
+        ClusterLeases[] leases = new ClusterLeases[3];
+        for (int i = 0; i < leases.length; i++) {
+            leases[i] = new ClusterLeases(cluster.getInstance(i));
+        }
+        int[] localItems = new int[leases.length];
+        for (int item = 0; item < 3000; item++) {
+            int owners = 0;
+            for (int i = 0; i < leases.length; i++) {
+                if (leases[i].isLocalShard("item" + item)) {
+                    owners++;
+                    localItems[i]++;
+                }
+            }
+            assertEquals("Each item should be processed by a single node", 1, owners);
+        }
+        for (int localItemCount : localItems) {
+            assertTrue("The items should be spread across the nodes", localItemCount > 500);
+        }
+    }
+
+    @Test
+    public void testIsLocalShardWithASingleMember() {
+        ClusterLeases leases = new ClusterLeases(new TestCluster(1).getInstance(0));
+        assertTrue(leases.isLocalShard("item"));
+    }
+
+    /**
+     * Members of a cluster sharing the map of leases, whose entries expire like Hazelcast entries with a TTL.
+     */
+    private static class TestCluster {
+        private final Map<Object, Object> values = new HashMap<>();
+        private final Map<Object, Long> expirationTimes = new HashMap<>();
+        private final IMap<?, ?> map = proxy(IMap.class, this::invokeMap);
+        private final HazelcastInstance[] instances;
+
+        private TestCluster(int size) {
+            instances = new HazelcastInstance[size];
+            for (int i = 0; i < size; i++) {
+                int localIndex = i;
+                Set<Member> members = new LinkedHashSet<>();
+                for (int j = 0; j < size; j++) {
+                    String uuid = "node" + j;
+                    boolean local = j == localIndex;
+                    members.add(proxy(Member.class, (name, args) -> {
+                        switch (name) {
+                            case "getUuid":
+                                return uuid;
+                            case "localMember":
+                                return local;
+                            default:
+                                throw new UnsupportedOperationException(name);
+                        }
+                    }));
+                }
+                Member localMember = members.toArray(new Member[0])[localIndex];
+                Cluster cluster = proxy(Cluster.class, (name, args) -> {
+                    switch (name) {
+                        case "getLocalMember":
+                            return localMember;
+                        case "getMembers":
+                            return members;
+                        default:
+                            throw new UnsupportedOperationException(name);
+                    }
+                });
+                instances[i] = proxy(HazelcastInstance.class, (name, args) -> {
+                    switch (name) {
+                        case "getCluster":
+                            return cluster;
+                        case "getMap":
+                            return map;
+                        default:
+                            throw new UnsupportedOperationException(name);
+                    }
+                });
+            }
+        }
+
+        private HazelcastInstance getInstance(int index) {
+            return instances[index];
+        }
+
+        private synchronized Object invokeMap(String name, Object[] args) {
+            Long expirationTime = expirationTimes.get(args[0]);
+            if (expirationTime != null && expirationTime <= System.currentTimeMillis()) {
+                values.remove(args[0]);
+                expirationTimes.remove(args[0]);
+            }
+            switch (name) {
+                case "lock":
+                case "unlock":
+                    // the tests run on a single thread
+                    return null;
+                case "get":
+                    return values.get(args[0]);
+                case "set":
+                    values.put(args[0], args[1]);
+                    expirationTimes.put(args[0], System.currentTimeMillis() + ((TimeUnit) args[3]).toMillis((Long) args[2]));
+                    return null;
+                case "remove":
+                    if (args.length == 2 && args[1].equals(values.get(args[0]))) {
+                        values.remove(args[0]);
+                        expirationTimes.remove(args[0]);
+                        return true;
+                    }
+                    return false;
+                default:
+                    throw new UnsupportedOperationException(name);
+            }
+        }
+    }
+
+    private interface Invocation {
+        Object invoke(String methodName, Object[] args);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Invocation invocation) {
+        return (T) Proxy.newProxyInstance(ClusterLeasesTest.class.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        return type.getSimpleName();
+                }
+            }
+            return invocation.invoke(method.getName(), args);
+        });
+    }
+}
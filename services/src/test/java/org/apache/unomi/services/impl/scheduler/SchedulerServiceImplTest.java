@@ -16,11 +16,14 @@
  */
 package org.apache.unomi.services.impl.scheduler;
 
+import org.apache.unomi.api.services.SchedulerService;
 import org.junit.Test;
 
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
 
@@ -37,4 +40,30 @@ public class SchedulerServiceImplTest {
         //Assert
         assertEquals(3600, seconds);
     }
+
+    @Test
+    public void longBatchTask_shouldNotDelayRefreshTasks() throws InterruptedException {
+        SchedulerServiceImpl service = new SchedulerServiceImpl();
+        CountDownLatch batchTaskRunning = new CountDownLatch(1);
+        CountDownLatch batchTaskReleased = new CountDownLatch(1);
+        CountDownLatch refreshTaskRun = new CountDownLatch(1);
+        try {
+            service.getScheduleExecutorService(SchedulerService.BATCH_POOL).execute(service.namedTask("batch", () -> {
+                batchTaskRunning.countDown();
+                try {
+                    batchTaskReleased.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+            assertTrue(batchTaskRunning.await(10, TimeUnit.SECONDS));
+
+            service.getScheduleExecutorService().schedule(service.namedTask("refresh", refreshTaskRun::countDown), 10, TimeUnit.MILLISECONDS);
+
+            assertTrue(refreshTaskRun.await(10, TimeUnit.SECONDS));
+        } finally {
+            batchTaskReleased.countDown();
+            service.preDestroy();
+        }
+    }
 }
@@ -25,6 +25,7 @@ import org.osgi.framework.BundleException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author dgaillard
@@ -34,6 +35,7 @@ public class UnomiManagementServiceImpl implements UnomiManagementService {
     private BundleContext bundleContext;
     private List<String> bundleSymbolicNames;
     private List<String> reversedBundleSymbolicNames;
+    private Map<String, String> bundleReplacements = Collections.emptyMap();
 
     public void init() throws BundleException {
         initReversedBundleSymbolicNames();
@@ -45,13 +47,9 @@ public class UnomiManagementServiceImpl implements UnomiManagementService {
     @Override
     public void startUnomi() throws BundleException {
         for (String bundleSymbolicName : bundleSymbolicNames) {
-            for (Bundle bundle : bundleContext.getBundles()) {
-                if (bundle.getSymbolicName().equals(bundleSymbolicName)) {
-                    if (bundle.getState() == Bundle.RESOLVED) {
-                        bundle.start();
-                    }
-                    break;
-                }
+            Bundle bundle = getBundle(bundleSymbolicName);
+            if (bundle != null && bundle.getState() == Bundle.RESOLVED) {
+                bundle.start();
             }
         }
     }
@@ -59,17 +57,36 @@ public class UnomiManagementServiceImpl implements UnomiManagementService {
     @Override
     public void stopUnomi() throws BundleException {
         for (String bundleSymbolicName : reversedBundleSymbolicNames) {
-            for (Bundle bundle : bundleContext.getBundles()) {
-                if (bundle.getSymbolicName().equals(bundleSymbolicName)) {
-                    if (bundle.getState() == Bundle.ACTIVE) {
-                        bundle.stop();
-                    }
-                    break;
-                }
+            Bundle bundle = getBundle(bundleSymbolicName);
+            if (bundle != null && bundle.getState() == Bundle.ACTIVE) {
+                bundle.stop();
             }
         }
     }
 
+    /**
+     * Returns the installed bundle with a symbolic name, or the bundle replacing it if that one is installed.
+     */
+    private Bundle getBundle(String bundleSymbolicName) {
+        String replacingBundleSymbolicName = bundleReplacements.get(bundleSymbolicName);
+        if (replacingBundleSymbolicName != null) {
+            Bundle replacingBundle = findBundle(replacingBundleSymbolicName);
+            if (replacingBundle != null) {
+                return replacingBundle;
+            }
+        }
+        return findBundle(bundleSymbolicName);
+    }
+
+    private Bundle findBundle(String bundleSymbolicName) {
+        for (Bundle bundle : bundleContext.getBundles()) {
+            if (bundle.getSymbolicName().equals(bundleSymbolicName)) {
+                return bundle;
+            }
+        }
+        return null;
+    }
+
     public void setBundleContext(BundleContext bundleContext) {
         this.bundleContext = bundleContext;
     }
@@ -78,6 +95,14 @@ public class UnomiManagementServiceImpl implements UnomiManagementService {
         this.bundleSymbolicNames = bundleSymbolicNames;
     }
 
+    /**
+     * Sets the bundles started and stopped instead of others when they are installed, keyed by the symbolic name of
+     * the bundle they replace.
+     */
+    public void setBundleReplacements(Map<String, String> bundleReplacements) {
+        this.bundleReplacements = bundleReplacements;
+    }
+
     public void initReversedBundleSymbolicNames() {
         if (reversedBundleSymbolicNames == null || reversedBundleSymbolicNames.isEmpty()) {
             this.reversedBundleSymbolicNames = new ArrayList<>();